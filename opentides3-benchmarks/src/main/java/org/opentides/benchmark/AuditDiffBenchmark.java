@@ -0,0 +1,116 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.bean.AuditLogChange;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.bean.user.UserGroup;
+import org.opentides.util.AuditDiffUtil;
+
+/**
+ * Measures the audit diff of a user whose group collection of the given
+ * size had 5% of its elements replaced. removeAll compares the same
+ * collections the way audit messages used to be built, with removeAll
+ * in both directions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuditDiffBenchmark {
+
+	@Param({ "100", "2000" })
+	private int size;
+
+	private BaseUser oldUser;
+
+	private BaseUser newUser;
+
+	private Set<String> dirtyFields;
+
+	@Setup
+	public void setup() {
+		int changed = size / 20;
+		oldUser = createUser(0, size);
+		newUser = createUser(changed, size + changed);
+		newUser.setLastName("Changed");
+		dirtyFields = new HashSet<String>(Arrays.asList("lastName", "groups"));
+	}
+
+	@Benchmark
+	public List<AuditLogChange> diff() {
+		return AuditDiffUtil.diff(oldUser, newUser);
+	}
+
+	@Benchmark
+	public List<AuditLogChange> diffDirtyFields() {
+		return AuditDiffUtil.diff(oldUser, newUser, dirtyFields);
+	}
+
+	@Benchmark
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public String removeAll() {
+		final List added = new ArrayList(newUser.getGroups());
+		added.removeAll(new ArrayList(oldUser.getGroups()));
+		final List removed = new ArrayList(oldUser.getGroups());
+		removed.removeAll(new ArrayList(newUser.getGroups()));
+		return added.toString() + removed.toString();
+	}
+
+	/**
+	 * Creates a user that belongs to the groups numbered from start
+	 * (inclusive) to end (exclusive).
+	 */
+	private static BaseUser createUser(int start, int end) {
+		BaseUser user = new BaseUser();
+		user.setId(1l);
+		user.setFirstName("Juan");
+		user.setLastName("Dela Cruz");
+		user.setEmailAddress("juan@example.com");
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		for (int i = start; i < end; i++) {
+			UserGroup group = new UserGroup();
+			group.setId((long) i);
+			group.setName("GROUP_" + i);
+			groups.add(group);
+		}
+		user.setGroups(groups);
+		return user;
+	}
+}
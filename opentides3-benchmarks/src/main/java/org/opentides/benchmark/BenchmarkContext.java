@@ -0,0 +1,59 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Holds the Spring context used by the benchmarks that access the embedded
+ * database. The context is created once per benchmark JVM.
+ */
+public final class BenchmarkContext {
+
+	private static final String CONFIG = "classpath:applicationContext-benchmark.xml";
+
+	private static ClassPathXmlApplicationContext context;
+
+	/**
+	 * Hide the constructor.
+	 */
+	private BenchmarkContext() {
+	}
+
+	/**
+	 * Returns the shared context, creating it on first use.
+	 *
+	 * @return
+	 */
+	public static synchronized ClassPathXmlApplicationContext get() {
+		if (context == null)
+			context = new ClassPathXmlApplicationContext(CONFIG);
+		return context;
+	}
+
+	/**
+	 * Returns the bean of the given type from the shared context.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public static <T> T getBean(Class<T> type) {
+		return get().getBean(type);
+	}
+}
@@ -0,0 +1,196 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.bean.SystemCodes;
+import org.opentides.dao.SystemCodesDao;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Measures saving 100,000 system codes at once through
+ * {@link SystemCodesDao#saveAllEntityModel(java.util.Collection)}, for new
+ * and for detached existing entities. updateEach saves the same entities
+ * the way saveAllEntityModel used to, merging and flushing each entity.
+ *
+ * The audit log interceptor is installed but audit logs are not saved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class BulkSaveBenchmark {
+
+	@Param({ "100000" })
+	private int size;
+
+	private SystemCodesDao systemCodesDao;
+
+	private TransactionTemplate transactionTemplate;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private EntityManager entityManager;
+
+	@Setup
+	public void setup() {
+		systemCodesDao = BenchmarkContext.getBean(SystemCodesDao.class);
+		transactionTemplate = new TransactionTemplate(
+				BenchmarkContext.getBean(PlatformTransactionManager.class));
+		jdbcTemplate = new JdbcTemplate(BenchmarkContext.getBean(DataSource.class));
+		entityManager = SharedEntityManagerCreator.createSharedEntityManager(
+				BenchmarkContext.getBean(EntityManagerFactory.class));
+	}
+
+	/**
+	 * New entities to insert.
+	 */
+	@State(Scope.Benchmark)
+	public static class NewEntities {
+		private List<SystemCodes> entities;
+
+		@Setup(Level.Iteration)
+		public void setup(BulkSaveBenchmark benchmark) {
+			benchmark.jdbcTemplate.update("DELETE FROM SYSTEM_CODES");
+			entities = new ArrayList<SystemCodes>(benchmark.size);
+			for (int i = 0; i < benchmark.size; i++) {
+				entities.add(create(i));
+			}
+		}
+	}
+
+	/**
+	 * Detached entities, loaded from the database and then changed.
+	 */
+	@State(Scope.Benchmark)
+	public static class ChangedEntities {
+		private List<SystemCodes> entities;
+
+		@Setup(Level.Iteration)
+		@SuppressWarnings("unchecked")
+		public void setup(BulkSaveBenchmark benchmark) {
+			benchmark.insertRows();
+			EntityManager em = BenchmarkContext.getBean(EntityManagerFactory.class).createEntityManager();
+			try {
+				entities = em.createQuery("select s from SystemCodes s").getResultList();
+			} finally {
+				em.close();
+			}
+			for (SystemCodes systemCodes : entities) {
+				systemCodes.setValue("Changed " + systemCodes.getKey());
+				systemCodes.setAuditUserId(1L);
+				systemCodes.setAuditUsername("benchmark");
+			}
+		}
+	}
+
+	@Benchmark
+	public void insertAll(NewEntities data) {
+		saveAll(data.entities);
+	}
+
+	@Benchmark
+	public void updateAll(ChangedEntities data) {
+		saveAll(data.entities);
+	}
+
+	@Benchmark
+	public void updateEach(final ChangedEntities data) {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				int ctr = 0;
+				for (SystemCodes systemCodes : data.entities) {
+					systemCodesDao.saveEntityModel(systemCodes);
+					if (++ctr % 20 == 0) {
+						entityManager.flush();
+						entityManager.clear();
+					}
+				}
+			}
+		});
+	}
+
+	private void saveAll(final List<SystemCodes> entities) {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				systemCodesDao.saveAllEntityModel(entities);
+			}
+		});
+	}
+
+	/**
+	 * Resets the table to size rows.
+	 */
+	private void insertRows() {
+		jdbcTemplate.update("DELETE FROM SYSTEM_CODES");
+		jdbcTemplate.batchUpdate("INSERT INTO SYSTEM_CODES (KEY_, VALUE_, CATEGORY_) VALUES (?, ?, ?)",
+				new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						SystemCodes systemCodes = create(i);
+						ps.setString(1, systemCodes.getKey());
+						ps.setString(2, systemCodes.getValue());
+						ps.setString(3, systemCodes.getCategory());
+					}
+
+					@Override
+					public int getBatchSize() {
+						return size;
+					}
+				});
+	}
+
+	private static SystemCodes create(int i) {
+		SystemCodes systemCodes = new SystemCodes("CATEGORY_" + (i % 10), "KEY_" + i, "Value " + i);
+		systemCodes.setAuditUserId(1L);
+		systemCodes.setAuditUsername("benchmark");
+		return systemCodes;
+	}
+}
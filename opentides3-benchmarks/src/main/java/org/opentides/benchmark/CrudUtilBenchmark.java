@@ -0,0 +1,135 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.bean.SystemCodes;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.bean.user.UserCredential;
+import org.opentides.bean.user.UserGroup;
+import org.opentides.util.CrudUtil;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * Measures the reflection based helpers of {@link CrudUtil} used on every
+ * search and every audited save: query by example building, nested property
+ * access and building of audit messages. Cloning of entities is compared
+ * against the serialization based copy that it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrudUtilBenchmark {
+
+	private SystemCodes example;
+
+	private SystemCodes oldCode;
+
+	private SystemCodes newCode;
+
+	private BaseUser oldUser;
+
+	private BaseUser newUser;
+
+	@Setup
+	public void setup() {
+		example = new SystemCodes("COUNTRY", "PH", "Philippines");
+		example.setParent(new SystemCodes("REGION", "ASIA", "Asia"));
+
+		oldCode = new SystemCodes("COUNTRY", "PH", "Philippines");
+		oldCode.setId(1l);
+		newCode = new SystemCodes("COUNTRY", "PH", "Republic of the Philippines");
+		newCode.setId(1l);
+
+		oldUser = createUser(0, 20);
+		newUser = createUser(5, 25);
+		newUser.setLastName("Changed");
+	}
+
+	@Benchmark
+	public String buildJpaQueryString() {
+		return CrudUtil.buildJpaQueryString(example, false);
+	}
+
+	@Benchmark
+	public Object retrieveObjectValue() {
+		return CrudUtil.retrieveObjectValue(oldUser, "credential.username");
+	}
+
+	@Benchmark
+	public String buildUpdateMessage() {
+		return CrudUtil.buildUpdateMessage(oldCode, newCode);
+	}
+
+	@Benchmark
+	public String buildUpdateMessageWithCollection() {
+		return CrudUtil.buildUpdateMessage(oldUser, newUser);
+	}
+
+	@Benchmark
+	public Object cloneUser() {
+		return CrudUtil.clone(newUser);
+	}
+
+	@Benchmark
+	public Object cloneUserBySerialization() {
+		return SerializationUtils.deserialize(SerializationUtils.serialize(newUser));
+	}
+
+	/**
+	 * Creates a user that belongs to the groups numbered from start
+	 * (inclusive) to end (exclusive).
+	 */
+	private static BaseUser createUser(int start, int end) {
+		BaseUser user = new BaseUser();
+		user.setId(1l);
+		user.setFirstName("Juan");
+		user.setLastName("Dela Cruz");
+		user.setEmailAddress("juan@example.com");
+		UserCredential credential = new UserCredential();
+		credential.setUsername("juan");
+		credential.setUser(user);
+		user.setCredential(credential);
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		for (int i = start; i < end; i++) {
+			UserGroup group = new UserGroup();
+			group.setId((long) i);
+			group.setName("GROUP_" + i);
+			groups.add(group);
+		}
+		user.setGroups(groups);
+		return user;
+	}
+}
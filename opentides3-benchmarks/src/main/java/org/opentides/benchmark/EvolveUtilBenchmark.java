@@ -0,0 +1,108 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.util.EvolveUtil;
+
+/**
+ * Measures the import of a CSV file of system codes through
+ * {@link EvolveUtil#importCSV(String, String, Session, String)}.
+ *
+ * EvolveUtil keeps its insert statements across calls, so all invocations
+ * share a single session. Each import is rolled back afterwards so that
+ * every invocation starts from an empty table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvolveUtilBenchmark {
+
+	@Param({ "1000" })
+	private int rows;
+
+	private File csv;
+
+	private EntityManager entityManager;
+
+	private Session session;
+
+	@Setup
+	public void setup() throws IOException {
+		csv = File.createTempFile("system_codes", ".csv");
+		PrintWriter writer = new PrintWriter(new FileWriter(csv));
+		try {
+			writer.println("KEY_,VALUE_,CATEGORY_,NUMBER_VALUE,SORT_ORDER");
+			for (int i = 0; i < rows; i++) {
+				writer.println("KEY_" + i + ",\"Value " + i + ", imported\",CATEGORY_" + (i % 10) + ","
+						+ ((i % 3 == 0) ? "" : String.valueOf(i)) + "," + i);
+			}
+		} finally {
+			writer.close();
+		}
+		entityManager = BenchmarkContext.getBean(EntityManagerFactory.class).createEntityManager();
+		session = entityManager.unwrap(Session.class);
+	}
+
+	@Setup(Level.Invocation)
+	public void begin() {
+		entityManager.getTransaction().begin();
+	}
+
+	@TearDown(Level.Invocation)
+	public void rollback() {
+		entityManager.getTransaction().rollback();
+	}
+
+	@TearDown
+	public void tearDown() {
+		entityManager.close();
+		csv.delete();
+	}
+
+	@Benchmark
+	public void importCSV() throws Exception {
+		EvolveUtil.importCSV(csv.getAbsolutePath(), "SYSTEM_CODES", session, null);
+	}
+}
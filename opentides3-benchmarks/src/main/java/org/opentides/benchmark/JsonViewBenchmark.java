@@ -0,0 +1,94 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.bean.SystemCodes;
+import org.opentides.web.json.ViewAwareJsonMessageConverter;
+import org.opentides.web.json.Views;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Measures JSON serialization of search results with and without a
+ * JsonView, using the object mapper configured by
+ * {@link ViewAwareJsonMessageConverter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonViewBenchmark {
+
+	@Param({ "20", "200" })
+	private int size;
+
+	private List<SystemCodes> results;
+
+	private ObjectMapper mapper;
+
+	private ObjectWriter searchView;
+
+	@Setup
+	public void setup() {
+		ViewAwareJsonMessageConverter converter = new ViewAwareJsonMessageConverter();
+		converter.afterPropertiesSet();
+		mapper = converter.getObjectMapper();
+		searchView = mapper.writerWithView(Views.SearchView.class);
+		results = new ArrayList<SystemCodes>(size);
+		for (int i = 0; i < size; i++) {
+			SystemCodes code = new SystemCodes("CATEGORY_" + (i % 5), "KEY_" + i, "Value " + i);
+			code.setId((long) i);
+			code.setNumberValue((long) i);
+			results.add(code);
+		}
+	}
+
+	@Benchmark
+	public byte[] writeSearchView() throws Exception {
+		return searchView.writeValueAsBytes(results);
+	}
+
+	@Benchmark
+	public byte[] writeSearchViewUncached() throws Exception {
+		return mapper.writerWithView(Views.SearchView.class).writeValueAsBytes(results);
+	}
+
+	@Benchmark
+	public byte[] writeWithoutView() throws Exception {
+		return mapper.writeValueAsBytes(results);
+	}
+}
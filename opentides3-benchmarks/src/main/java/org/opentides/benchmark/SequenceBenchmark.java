@@ -0,0 +1,99 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentides.dao.SequenceDao;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Measures {@link SequenceDao#incrementValue(String)} on the embedded
+ * database when several threads generate numbers from the same sequence
+ * and from their own sequences.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SequenceBenchmark {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+
+	private SequenceDao sequenceDao;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * Sequence key used only by a single benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadKey {
+		private String key;
+
+		@Setup
+		public void setup() {
+			key = "BENCHMARK_" + threadCounter.incrementAndGet();
+		}
+	}
+
+	@Setup
+	public void setup() {
+		sequenceDao = BenchmarkContext.getBean(SequenceDao.class);
+		transactionTemplate = new TransactionTemplate(
+				BenchmarkContext.getBean(PlatformTransactionManager.class));
+	}
+
+	@Benchmark
+	public Long incrementSharedKey() {
+		return increment("BENCHMARK_SHARED");
+	}
+
+	@Benchmark
+	public Long incrementOwnKey(ThreadKey threadKey) {
+		return increment(threadKey.key);
+	}
+
+	private Long increment(final String key) {
+		return transactionTemplate.execute(new TransactionCallback<Long>() {
+			@Override
+			public Long doInTransaction(TransactionStatus status) {
+				return sequenceDao.incrementValue(key);
+			}
+		});
+	}
+}
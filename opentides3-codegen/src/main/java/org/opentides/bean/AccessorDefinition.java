@@ -0,0 +1,144 @@
+/**
+ * 
+ */
+package org.opentides.bean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This bean is the container of definition for the accessor generated
+ * for an entity. The accessor gives direct access to the persistent 
+ * fields of the entity, including fields of the parent classes.
+ * 
+ * @author allantan
+ */
+public class AccessorDefinition implements Definition {
+
+	private String packageName;
+
+	private String className;
+
+	private List<Property> properties = new ArrayList<Property>();
+
+	private List<String> auditableFields = new ArrayList<String>();
+
+	private boolean searchable = true;
+
+	/**
+	 * Persistent field of the entity.
+	 */
+	public static class Property {
+		private String name;
+
+		private String type;
+
+		private String getterName;
+
+		private String setterName;
+
+		/**
+		 * @param name field name
+		 * @param type type used to cast values for the setter
+		 * @param getterName public getter, or null if none
+		 * @param setterName public setter, or null if none
+		 */
+		public Property(String name, String type, String getterName, String setterName) {
+			this.name = name;
+			this.type = type;
+			this.getterName = getterName;
+			this.setterName = setterName;
+		}
+
+		public final String getName() {
+			return name;
+		}
+
+		public final String getType() {
+			return type;
+		}
+
+		public final String getGetterName() {
+			return getterName;
+		}
+
+		public final String getSetterName() {
+			return setterName;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return name + ":" + type + ":" + getterName + ":" + setterName;
+		}
+	}
+
+	/**
+	 * @param packageName package of the entity
+	 * @param className simple name of the entity
+	 */
+	public AccessorDefinition(String packageName, String className) {
+		this.packageName = packageName;
+		this.className = className;
+	}
+
+	/**
+	 * @return the packageName
+	 */
+	public final String getPackageName() {
+		return packageName;
+	}
+
+	/**
+	 * @return the className
+	 */
+	public final String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return the qualified name of the entity
+	 */
+	public final String getQualifiedName() {
+		return packageName.isEmpty() ? className : packageName + "." + className;
+	}
+
+	/**
+	 * @return the persistent fields
+	 */
+	public final List<Property> getProperties() {
+		return properties;
+	}
+
+	/**
+	 * @return the auditable fields, empty if entity is not auditable
+	 */
+	public final List<String> getAuditableFields() {
+		return auditableFields;
+	}
+
+	/**
+	 * @return false if searchable fields are defined by an annotated method
+	 */
+	public final boolean isSearchable() {
+		return searchable;
+	}
+
+	/**
+	 * @param searchable the searchable to set
+	 */
+	public final void setSearchable(boolean searchable) {
+		this.searchable = searchable;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getQualifiedName() + properties + ";auditable=" + auditableFields 
+				+ ";searchable=" + searchable;
+	}
+}
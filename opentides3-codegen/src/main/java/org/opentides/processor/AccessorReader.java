@@ -0,0 +1,203 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+
+package org.opentides.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import org.opentides.bean.AccessorDefinition;
+
+/**
+ * Builds the accessor definition of an entity from its source. Persistent,
+ * searchable and auditable fields are determined the same way as the 
+ * runtime does it in org.opentides.util.CacheUtil.
+ * 
+ * @author allantan
+ */
+public class AccessorReader {
+
+	private static final String BASE_ENTITY = "org.opentides.bean.BaseEntity";
+
+	private static final String TRANSIENT = "javax.persistence.Transient";
+
+	private static final String AUDITABLE = "org.opentides.annotation.Auditable";
+
+	private static final String SEARCHABLE_FIELDS = "org.opentides.annotation.SearchableFields";
+
+	private final Elements elements;
+
+	private final Types types;
+
+	public AccessorReader(ProcessingEnvironment processingEnv) {
+		this.elements = processingEnv.getElementUtils();
+		this.types = processingEnv.getTypeUtils();
+	}
+
+	/**
+	 * Builds the accessor definition of the entity.
+	 * 
+	 * @param entity
+	 * @return the definition, or null if no accessor can be generated for
+	 *         the class (not an entity, nested, generic or in the default package)
+	 */
+	public AccessorDefinition getDefinition(TypeElement entity) {
+		TypeElement baseEntity = elements.getTypeElement(BASE_ENTITY);
+		if (baseEntity == null || !isEntity(entity, baseEntity))
+			return null;
+		if (entity.getNestingKind() != NestingKind.TOP_LEVEL 
+				|| !entity.getTypeParameters().isEmpty())
+			return null;
+		PackageElement pkg = elements.getPackageOf(entity);
+		if (pkg.isUnnamed())
+			return null;
+		AccessorDefinition defn = new AccessorDefinition(pkg.getQualifiedName().toString(),
+				entity.getSimpleName().toString());
+		List<ExecutableElement> methods = ElementFilter.methodsIn(elements.getAllMembers(entity));
+		for (VariableElement field : getPersistentFields(entity, true, baseEntity)) {
+			String name = field.getSimpleName().toString();
+			String suffix = name.substring(0, 1).toUpperCase() + name.substring(1);
+			ExecutableElement getter = findMethod(methods, "get" + suffix, 0);
+			ExecutableElement setter = findMethod(methods, "set" + suffix, 1);
+			String type = toCastType(setter == null ? field.asType() : 
+				setter.getParameters().get(0).asType());
+			defn.getProperties().add(new AccessorDefinition.Property(name, type,
+					getter == null ? null : getter.getSimpleName().toString(),
+					setter == null ? null : setter.getSimpleName().toString()));
+		}
+
+		// searchable fields are only known at runtime when defined by a method
+		for (ExecutableElement method : ElementFilter.methodsIn(entity.getEnclosedElements())) {
+			if (getAnnotation(method, SEARCHABLE_FIELDS) != null) {
+				defn.setSearchable(false);
+				break;
+			}
+		}
+
+		AnnotationMirror auditable = getAnnotation(entity, AUDITABLE);
+		if (auditable != null) {
+			boolean includeParent = true;
+			List<String> exclude = new ArrayList<String>();
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : 
+					elements.getElementValuesWithDefaults(auditable).entrySet()) {
+				String key = entry.getKey().getSimpleName().toString();
+				if ("includeParentFields".equals(key)) {
+					includeParent = Boolean.TRUE.equals(entry.getValue().getValue());
+				} else if ("excludeFields".equals(key)) {
+					for (Object value : (List<?>) entry.getValue().getValue()) {
+						exclude.add(String.valueOf(((AnnotationValue) value).getValue()));
+					}
+				}
+			}
+			for (VariableElement field : getPersistentFields(entity, includeParent, baseEntity)) {
+				String name = field.getSimpleName().toString();
+				if (!exclude.contains(name))
+					defn.getAuditableFields().add(name);
+			}
+		}
+		return defn;
+	}
+
+	/**
+	 * Private helper that lists the persistent fields, parent fields first.
+	 */
+	private List<VariableElement> getPersistentFields(TypeElement type, boolean includeParent,
+			TypeElement baseEntity) {
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		collectFields(type, includeParent, baseEntity, fields);
+		List<VariableElement> persistents = new ArrayList<VariableElement>();
+		for (VariableElement field : fields) {
+			Set<Modifier> modifiers = field.getModifiers();
+			if (!modifiers.contains(Modifier.TRANSIENT)
+					&& !modifiers.contains(Modifier.VOLATILE)
+					&& !modifiers.contains(Modifier.STATIC)
+					&& !modifiers.contains(Modifier.FINAL)
+					&& getAnnotation(field, TRANSIENT) == null)
+				persistents.add(field);
+		}
+		return persistents;
+	}
+
+	private void collectFields(TypeElement type, boolean includeParent,
+			TypeElement baseEntity, List<VariableElement> fields) {
+		if (includeParent && isEntity(type, baseEntity)) {
+			TypeMirror parent = type.getSuperclass();
+			if (parent.getKind() == TypeKind.DECLARED)
+				collectFields((TypeElement) types.asElement(parent), includeParent, baseEntity, fields);
+		}
+		fields.addAll(ElementFilter.fieldsIn(type.getEnclosedElements()));
+	}
+
+	private boolean isEntity(TypeElement type, TypeElement baseEntity) {
+		return types.isSubtype(types.erasure(type.asType()), types.erasure(baseEntity.asType()));
+	}
+
+	/**
+	 * Private helper that finds the public method as found by Class.getMethod().
+	 */
+	private static ExecutableElement findMethod(List<ExecutableElement> methods, 
+			String name, int parameters) {
+		for (ExecutableElement method : methods) {
+			if (method.getSimpleName().contentEquals(name)
+					&& method.getParameters().size() == parameters
+					&& method.getModifiers().contains(Modifier.PUBLIC)
+					&& method.getEnclosingElement().getKind() != ElementKind.INTERFACE)
+				return method;
+		}
+		return null;
+	}
+
+	private static AnnotationMirror getAnnotation(Element element, String annotation) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (((TypeElement) mirror.getAnnotationType().asElement())
+					.getQualifiedName().contentEquals(annotation))
+				return mirror;
+		}
+		return null;
+	}
+
+	/**
+	 * Private helper that returns the type to cast values to, 
+	 * using the wrapper class for primitives.
+	 */
+	private String toCastType(TypeMirror type) {
+		if (type.getKind().isPrimitive())
+			return types.boxedClass(types.getPrimitiveType(type.getKind())).getQualifiedName().toString();
+		return types.erasure(type).toString();
+	}
+}
@@ -23,23 +23,33 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -47,6 +57,7 @@ import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 
+import org.opentides.bean.AccessorDefinition;
 import org.opentides.bean.AnnotationDefinition;
 import org.opentides.bean.BeanDefinition;
 import org.opentides.bean.FieldDefinition;
@@ -55,14 +66,33 @@ import org.opentides.processor.param.ParamReader;
 import org.opentides.processor.param.ParamReaderFactory;
 import org.opentides.util.AnnotationUtil;
 import org.opentides.util.CloningUtil;
+import org.opentides.util.OutputCache;
 import org.opentides.util.PackageUtil;
+import org.opentides.util.StringUtil;
+import org.opentides.util.TemplateIndex;
 
 /**
  * Code generation processor for creating source codes in class level.
  * 
+ * Templates are listed once per round and rendered in parallel, since
+ * the entities are independent of each other. The generated files are
+ * then written one at a time, as the Filer is not thread-safe.
+ * 
+ * Rendered files are cached in the folder given by the processor option
+ * opentides.codegen.cache (default target/codegen-cache, "false" to 
+ * disable). A file is not rendered again if its template, the partial 
+ * templates and the bean definition did not change. The number of threads is set by the option
+ * opentides.codegen.threads (default is the number of processors).
+ * 
+ * For entities annotated with GenerateDao or GenerateService, an accessor
+ * class giving direct access to the persistent fields is also generated,
+ * unless the option opentides.codegen.accessors is set to false.
+ * 
  * @author allantan
  */
 @SupportedAnnotationTypes(value = "org.opentides.annotation.*")
+@SupportedOptions(value = { ClassProcessor.OPTION_CACHE, ClassProcessor.OPTION_THREADS,
+		ClassProcessor.OPTION_ACCESSORS })
 public class ClassProcessor extends AbstractProcessor {
 
 	private static final Logger _log = Logger.getLogger(ClassProcessor.class
@@ -70,10 +100,31 @@ public class ClassProcessor extends AbstractProcessor {
 
 	public static final String ENCODING = "utf-8";
 
+	public static final String OPTION_CACHE = "opentides.codegen.cache";
+
+	public static final String OPTION_THREADS = "opentides.codegen.threads";
+
+	public static final String OPTION_ACCESSORS = "opentides.codegen.accessors";
+
+	private static final String ACCESSOR_TEMPLATE = "templates/accessor/EntityAccessor.java.vm";
+
+	private static final List<String> ACCESSOR_ANNOTATIONS = Arrays.asList("GenerateDao", "GenerateService");
+
 	private static Map<String, String[]> templateMap = new HashMap<String, String[]>();
 
 	private static Properties props = null;
 	
+	private OutputCache cache = new OutputCache(null);
+	
+	private int threads = Runtime.getRuntime().availableProcessors();
+	
+	private AccessorReader accessorReader;
+	
+	/**
+	 * Files generated in this compilation.
+	 */
+	private final Set<String> generated = new HashSet<String>();
+	
 	/**
 	 * Static initializer to read the template definition files. Template
 	 * definition files are named "template-definition.properties" and should be
@@ -96,6 +147,41 @@ public class ClassProcessor extends AbstractProcessor {
 		}
 	}
 
+	/**
+	 * A file to be generated from a template.
+	 */
+	private static class Output {
+		private String templateName;
+		private String outputFile;
+		private String fileName;
+		private Map<String, Object> params;
+		private String key;
+		private String content;
+		private boolean cached;
+		
+		private boolean isJava() {
+			return templateName.endsWith(".java.vm");
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.annotation.processing.AbstractProcessor#init(javax.annotation.processing.ProcessingEnvironment)
+	 */
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		Map<String, String> options = processingEnv.getOptions();
+		String folder = options.get(OPTION_CACHE);
+		if (StringUtil.isEmpty(folder))
+			folder = "target" + File.separator + "codegen-cache";
+		if (!"false".equals(folder))
+			cache = new OutputCache(new File(folder));
+		if (!StringUtil.isEmpty(options.get(OPTION_THREADS)))
+			threads = Integer.parseInt(options.get(OPTION_THREADS));
+		if (!"false".equals(options.get(OPTION_ACCESSORS)))
+			accessorReader = new AccessorReader(processingEnv);
+	}
+
 	/**
 	 * Recursively clones all vm templates in the given path 
 	 * using the specified parameters.
@@ -103,66 +189,11 @@ public class ClassProcessor extends AbstractProcessor {
      *   
 	 * @param templateFolder - templates.opentides.dao
 	 * @param params
-	 * @throws IOException 
 	 */
 	public void cloneTemplates(String templateFolder, Map<String, Object> params) {
-		Set<String> templateJars = PackageUtil.getTemplateJars();
-		List<String> templates = new ArrayList<String>();
-		if (templateJars.isEmpty()) {
-			// process folders
-			templates = CloningUtil.getFolderTemplates();
-		} else {
-			// process jars
-			templates = CloningUtil.getJarTemplates();
-			templateFolder = templateFolder.replaceAll(PackageUtil.separator, "/");
-		}
-		
-		for (String templateName : templates) {
-			BufferedWriter bw = null;
-			if (templateName.startsWith(templateFolder) && 
-					templateName.endsWith(".vm") &&
-					!templateName.endsWith("_.vm") ) {				
-				try {
-					String outputFile;
-					String fileName;
-					//checking for non-java files
-					if(templateName.endsWith(".java.vm")){
-						outputFile = PackageUtil.toPackageName(CloningUtil.getOutputName(templateName, params));
-						fileName = "src"+File.separator+"main"+File.separator+"java"+File.separator+CloningUtil.getOutputName(templateName, params)+".java";
-					} else {
-						outputFile = CloningUtil.getOutputName(templateName, params);
-						fileName = outputFile;
-					}
-					
-					//skipped for testing purposes: somewhat changed
-					if (new File(fileName).exists()) {
-						displayMessage("    Skipping " + fileName + " ... File already exist.");
-						continue;								
-					}
-					
-					File file = new File(outputFile);
-					displayMessage("    Generating " + fileName + " ...");
-					//checking for non-java files
-					if(templateName.endsWith(".java.vm")) {
-						JavaFileObject gen = processingEnv.getFiler().createSourceFile(outputFile);				
-						bw = new BufferedWriter(gen.openWriter());
-					} else {
-						if(!file.getParentFile().exists())file.getParentFile().mkdirs();
-						FileWriter output = new FileWriter(file);
-						bw = new BufferedWriter(output);
-					}
-					CloningUtil.mergeVmTemplate(templateName, params, bw);
-					displayMessage("    Success.");
-				} catch (IOException ex) {
-					_log.log(Level.SEVERE,"Failed to generate source for ["+templateName+"].",ex);
-				} finally {
-					try {
-						bw.close();
-					} catch (Exception e) {
-					}
-				}
-			}
-		}
+		List<Output> outputs = new ArrayList<Output>();
+		addOutputs(new TemplateIndex(), templateFolder, params, outputs);
+		generate(outputs);
 	}
 	
 	/**
@@ -177,6 +208,8 @@ public class ClassProcessor extends AbstractProcessor {
 	public boolean process(Set<? extends TypeElement> annotations,
 			RoundEnvironment env) {
 		
+		TemplateIndex index = null;
+		List<Output> outputs = new ArrayList<Output>();
 		for (TypeElement te : annotations) {
 			for (Element e : env.getElementsAnnotatedWith(te)) {
 				if (e.getKind() == ElementKind.CLASS && ParamReaderFactory.getReader(te.getSimpleName().toString())!=null) {
@@ -199,18 +232,196 @@ public class ClassProcessor extends AbstractProcessor {
 						beanDefn.setFields(fields);
 						params.put("bean",beanDefn);
 					}
+					if (index == null)
+						index = new TemplateIndex();
 					String[] templates = templateMap.get(annotation);
 					for (String template:templates) {
-//						for (String name: params.keySet())
-//							displayMessage(name);
-						cloneTemplates(PackageUtil.toFolderName(template),params);
+						addOutputs(index, PackageUtil.toFolderName(template), params, outputs);
 					}
+					if (accessorReader != null && ACCESSOR_ANNOTATIONS.contains(annotation))
+						addAccessorOutput(index, (TypeElement) e, params, outputs);
 				}				
 			}
 		}
+		generate(outputs);
 		return true;
 	}
 
+	/**
+	 * Private helper that lists the files to generate from the templates 
+	 * in the given folder. Files that already exist are skipped.
+	 */
+	private void addOutputs(TemplateIndex index, String templateFolder, 
+			Map<String, Object> params, List<Output> outputs) {
+		String fingerprint = null;
+		for (String templateName : index.getTemplates(templateFolder)) {
+			Output output = new Output();
+			output.templateName = templateName;
+			output.params = params;
+			//checking for non-java files
+			if (output.isJava()) {
+				output.outputFile = PackageUtil.toPackageName(CloningUtil.getOutputName(templateName, params));
+				output.fileName = "src"+File.separator+"main"+File.separator+"java"+File.separator+CloningUtil.getOutputName(templateName, params)+".java";
+			} else {
+				output.outputFile = CloningUtil.getOutputName(templateName, params);
+				output.fileName = output.outputFile;
+			}
+			
+			//skipped for testing purposes: somewhat changed
+			if (new File(output.fileName).exists()) {
+				displayMessage("    Skipping " + output.fileName + " ... File already exist.");
+				continue;								
+			}
+			if (!generated.add(output.fileName))
+				continue;
+			
+			String hash = index.getHash(templateName);
+			if (hash != null) {
+				if (fingerprint == null)
+					fingerprint = params.get("templateSourceBase") + "\n" 
+							+ CloningUtil.getFingerprint((BeanDefinition) params.get("bean"));
+				output.key = TemplateIndex.sha1(hash + "\n" + index.getPartialHash() 
+						+ "\n" + fingerprint);
+			}
+			outputs.add(output);
+		}
+	}
+	
+	/**
+	 * Private helper that adds the accessor of the entity to the files
+	 * to generate. The accessor is generated in the package of the entity.
+	 */
+	private void addAccessorOutput(TemplateIndex index, TypeElement entity,
+			Map<String, Object> beanParams, List<Output> outputs) {
+		AccessorDefinition accessor = accessorReader.getDefinition(entity);
+		if (accessor == null)
+			return;
+		Output output = new Output();
+		output.templateName = ACCESSOR_TEMPLATE;
+		output.outputFile = accessor.getQualifiedName() + "Accessor";
+		output.fileName = "src"+File.separator+"main"+File.separator+"java"+File.separator+PackageUtil.toFolderName(output.outputFile)+".java";
+		if (new File(output.fileName).exists() || !generated.add(output.fileName))
+			return;
+		output.params = new HashMap<String, Object>();
+		output.params.put("accessor", accessor);
+		output.params.put("dateToday", beanParams.get("dateToday"));
+		String hash = index.getHash(ACCESSOR_TEMPLATE);
+		if (hash != null)
+			output.key = TemplateIndex.sha1(hash + "\n" + index.getPartialHash() 
+					+ "\n" + accessor);
+		outputs.add(output);
+	}
+	
+	/**
+	 * Private helper that renders the outputs in parallel, 
+	 * then writes the generated files.
+	 */
+	private void generate(List<Output> outputs) {
+		if (outputs.isEmpty())
+			return;
+		long start = System.currentTimeMillis();
+		List<Output> pending = new ArrayList<Output>();
+		for (Output output : outputs) {
+			output.content = cache.get(output.fileName, output.key);
+			output.cached = (output.content != null);
+			if (!output.cached)
+				pending.add(output);
+		}
+		render(pending);
+		int reused = 0;
+		for (Output output : outputs) {
+			if (output.content == null)
+				continue;
+			if (output.cached) {
+				reused++;
+				displayMessage("    Generating " + output.fileName + " ... Unchanged.");
+			} else {
+				displayMessage("    Generating " + output.fileName + " ...");
+			}
+			if (write(output)) {
+				if (!output.cached)
+					cache.put(output.fileName, output.key, output.content);
+				displayMessage("    Success.");
+			}
+		}
+		displayMessage("Generated " + outputs.size() + " files (" + reused + " unchanged) in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+	
+	/**
+	 * Private helper that renders the templates of the outputs, using
+	 * several threads when there is more than one output.
+	 */
+	private void render(List<Output> outputs) {
+		if (outputs.size() <= 1 || threads <= 1) {
+			for (Output output : outputs) {
+				output.content = renderOutput(output);
+			}
+			return;
+		}
+		Set<String> templates = new LinkedHashSet<String>();
+		for (Output output : outputs) {
+			templates.add(output.templateName);
+		}
+		CloningUtil.warmUp(templates);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, outputs.size()));
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>(outputs.size());
+			for (final Output output : outputs) {
+				futures.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() {
+						return renderOutput(output);
+					}
+				}));
+			}
+			for (int i = 0; i < outputs.size(); i++) {
+				try {
+					outputs.get(i).content = futures.get(i).get();
+				} catch (ExecutionException ex) {
+					_log.log(Level.SEVERE,"Failed to generate source for ["+outputs.get(i).templateName+"].",ex.getCause());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private static String renderOutput(Output output) {
+		return CloningUtil.renderVmTemplate(output.templateName, output.params);
+	}
+	
+	/**
+	 * Private helper that writes the generated file.
+	 */
+	private boolean write(Output output) {
+		Writer bw = null;
+		try {
+			//checking for non-java files
+			if (output.isJava()) {
+				JavaFileObject gen = processingEnv.getFiler().createSourceFile(output.outputFile);				
+				bw = new BufferedWriter(gen.openWriter());
+			} else {
+				File file = new File(output.outputFile);
+				if(!file.getParentFile().exists())file.getParentFile().mkdirs();
+				bw = new BufferedWriter(new FileWriter(file));
+			}
+			bw.write(output.content);
+			return true;
+		} catch (IOException ex) {
+			_log.log(Level.SEVERE,"Failed to generate source for ["+output.templateName+"].",ex);
+			return false;
+		} finally {
+			try {
+				if (bw != null) bw.close();
+			} catch (Exception e) {
+			}
+		}
+	}
+
 	/**
 	 * Private helper to display message to console.
 	 * @param message
@@ -21,14 +21,18 @@ package org.opentides.util;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -40,7 +44,9 @@ import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
+import org.opentides.bean.AnnotationDefinition;
 import org.opentides.bean.BeanDefinition;
+import org.opentides.bean.FieldDefinition;
 
 
 /**
@@ -59,6 +65,14 @@ public class CloningUtil {
 	private CloningUtil() {
 	}
 	
+	/**
+	 * Velocity engine shared by all templates. Initializing the engine
+	 * is expensive, and parsed templates are cached by the engine.
+	 */
+	private static class EngineHolder {
+		private static final VelocityEngine ENGINE = createEngine();
+	}
+
 	/**
 	 * Outputs the velocity template along with specified parameters
 	 * to the given output writer.
@@ -68,20 +82,13 @@ public class CloningUtil {
 	 */
 	public static void mergeVmTemplate(String path, Map<String, Object> params, Writer output) {		
 		try {
-			// initialize velocity to read from Jar
-			Properties p = new Properties();
-			p.put("resource.loader", "class");
-			p.put("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-			VelocityEngine ve = new VelocityEngine();
-			ve.init(p);
-			
 		    VelocityContext context = new VelocityContext();
 			// Put all params to context
 			for (Entry<String,Object> entry:params.entrySet()) {
 				context.put(entry.getKey(), entry.getValue());
 			}
 
-		    Template template = ve.getTemplate(path, ENCODING);		    
+		    Template template = getEngine().getTemplate(path, ENCODING);
 		    template.merge(context, output);
 		} catch (ResourceNotFoundException e) {
 			// handle this templating error
@@ -100,7 +107,86 @@ public class CloningUtil {
 			try { output.close(); } catch (IOException e) { };
 		}
 	}
-	
+
+	/**
+	 * Renders the velocity template along with specified parameters.
+	 * Safe to call from several threads at the same time.
+	 * 
+	 * @param path
+	 * @param params
+	 * @return the rendered template
+	 */
+	public static String renderVmTemplate(String path, Map<String, Object> params) {
+		StringWriter output = new StringWriter();
+		mergeVmTemplate(path, params, output);
+		return output.toString();
+	}
+
+	/**
+	 * Parses the given templates ahead of rendering, so that parallel
+	 * renders do not all wait on the first parse.
+	 * 
+	 * @param templates
+	 */
+	public static void warmUp(Collection<String> templates) {
+		for (String path : templates) {
+			try {
+				getEngine().getTemplate(path, ENCODING);
+			} catch (Exception e) {
+				// reported when the template is rendered
+			}
+		}
+	}
+
+	/**
+	 * @return the shared velocity engine
+	 */
+	public static VelocityEngine getEngine() {
+		return EngineHolder.ENGINE;
+	}
+
+	/**
+	 * Builds a description of everything in the bean definition that is
+	 * available to templates. Two definitions with the same fingerprint
+	 * generate the same code from the same template.
+	 * 
+	 * @param bean
+	 * @return
+	 */
+	public static String getFingerprint(BeanDefinition bean) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(bean.getModelPackage()).append('|')
+		  .append(bean.getClassName()).append('|')
+		  .append(bean.getModelName()).append('|')
+		  .append(bean.getDisplayName()).append('|')
+		  .append(bean.getFormName()).append('|')
+		  .append(bean.getPrefix()).append('|')
+		  .append(bean.getPackage_()).append('|');
+		appendParams(sb, bean.getParams());
+		if (bean.getAnnotations() != null) {
+			Map<String, AnnotationDefinition> annotations = new TreeMap<String, AnnotationDefinition>();
+			for (AnnotationDefinition annotation : bean.getAnnotations()) {
+				annotations.put(annotation.getName(), annotation);
+			}
+			appendAnnotations(sb, annotations);
+		}
+		if (bean.getFields() != null) {
+			Map<String, FieldDefinition> fields = new TreeMap<String, FieldDefinition>();
+			for (FieldDefinition field : bean.getFields()) {
+				fields.put(field.getFieldName(), field);
+			}
+			for (FieldDefinition field : fields.values()) {
+				sb.append("\nfield:").append(field.getFieldName()).append('|')
+				  .append(field.getType()).append('|')
+				  .append(field.getLabel()).append('|')
+				  .append(field.getGetterName()).append('|')
+				  .append(field.getSetterName()).append('|');
+				appendAnnotations(sb, new TreeMap<String, AnnotationDefinition>(field.getAnnotations()));
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Builds the path to the output file.
 	 * params.get("templateSourceBase") = templates/opentides
@@ -198,4 +284,38 @@ public class CloningUtil {
 			templates.add(path);
 		}
 	}
+
+	/**
+	 * Internal helper that initializes velocity to read from the classpath.
+	 */
+	private static VelocityEngine createEngine() {
+		Properties p = new Properties();
+		p.put("resource.loader", "class");
+		p.put("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+		p.put("class.resource.loader.cache", "true");
+		VelocityEngine ve = new VelocityEngine();
+		ve.init(p);
+		return ve;
+	}
+
+	private static void appendAnnotations(StringBuilder sb, Map<String, AnnotationDefinition> annotations) {
+		for (AnnotationDefinition annotation : annotations.values()) {
+			sb.append("@").append(annotation.getName());
+			appendParams(sb, annotation.getParams());
+		}
+	}
+
+	private static void appendParams(StringBuilder sb, Map<String, Object> params) {
+		if (params == null)
+			return;
+		for (Entry<String, Object> entry : new TreeMap<String, Object>(params).entrySet()) {
+			sb.append('(').append(entry.getKey()).append('=');
+			Object value = entry.getValue();
+			if (value instanceof Object[])
+				sb.append(Arrays.deepToString((Object[]) value));
+			else
+				sb.append(value);
+			sb.append(')');
+		}
+	}
 }
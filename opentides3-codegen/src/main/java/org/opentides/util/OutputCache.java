@@ -0,0 +1,119 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the last rendered content of each generated file, together with
+ * a key built from its inputs. When the key is unchanged, the content
+ * is reused instead of rendering the template again.
+ * 
+ * Each entry is stored as a file under the cache folder, with the key 
+ * in the first line followed by the content.
+ * 
+ * @author allantan
+ */
+public class OutputCache {
+
+	private static final Logger _log = Logger.getLogger(OutputCache.class.getName());
+
+	private final File folder;
+
+	/**
+	 * @param folder location of the cache, null to disable caching
+	 */
+	public OutputCache(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Returns the cached content of the output, if built from the same key.
+	 * 
+	 * @param outputName
+	 * @param key
+	 * @return the content, or null if not cached or the key changed
+	 */
+	public String get(String outputName, String key) {
+		if (folder == null || key == null)
+			return null;
+		File file = new File(folder, outputName);
+		if (!file.isFile())
+			return null;
+		try {
+			String cached = read(file);
+			int idx = cached.indexOf('\n');
+			if (idx > 0 && cached.substring(0, idx).equals(key))
+				return cached.substring(idx + 1);
+		} catch (IOException e) {
+			_log.log(Level.WARNING, "Failed to read cached output [" + file + "].", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the content of the output built from the given key.
+	 * 
+	 * @param outputName
+	 * @param key
+	 * @param content
+	 */
+	public void put(String outputName, String key, String content) {
+		if (folder == null || key == null)
+			return;
+		File file = new File(folder, outputName);
+		OutputStream os = null;
+		try {
+			if (!file.getParentFile().exists())
+				file.getParentFile().mkdirs();
+			os = new FileOutputStream(file);
+			os.write((key + "\n" + content).getBytes(CloningUtil.ENCODING));
+		} catch (IOException e) {
+			_log.log(Level.WARNING, "Failed to cache output [" + file + "].", e);
+		} finally {
+			try {
+				if (os != null) os.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static String read(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				bos.write(buffer, 0, read);
+			}
+			return bos.toString(CloningUtil.ENCODING);
+		} finally {
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the velocity templates available for code generation.
+ * The template jars or folders are scanned once when the index is
+ * built, instead of once for every generated file. The content hash
+ * of each template is computed on first use, so that outputs can be 
+ * reused when neither the template, its partial templates nor the bean 
+ * definition changed.
+ * 
+ * @author allantan
+ */
+public class TemplateIndex {
+
+	private static final Logger _log = Logger.getLogger(TemplateIndex.class.getName());
+
+	private final List<String> templates;
+
+	private final boolean fromJar;
+
+	private final Map<String, String> hashes = new ConcurrentHashMap<String, String>();
+
+	private volatile String partialHash;
+
+	/**
+	 * Builds the index by scanning the template jars, or the template
+	 * folders if there are no template jars.
+	 */
+	public TemplateIndex() {
+		fromJar = !PackageUtil.getTemplateJars().isEmpty();
+		if (fromJar)
+			templates = Collections.unmodifiableList(CloningUtil.getJarTemplates());
+		else
+			templates = Collections.unmodifiableList(CloningUtil.getFolderTemplates());
+	}
+
+	/**
+	 * Builds the index from the given templates.
+	 */
+	TemplateIndex(List<String> templates, boolean fromJar) {
+		this.templates = Collections.unmodifiableList(templates);
+		this.fromJar = fromJar;
+	}
+
+	/**
+	 * Returns the templates under the given folder, excluding
+	 * partial templates ending with _.vm.
+	 * 
+	 * @param templateFolder - templates.opentides.dao
+	 * @return
+	 */
+	public List<String> getTemplates(String templateFolder) {
+		if (fromJar)
+			templateFolder = templateFolder.replaceAll(PackageUtil.separator, "/");
+		List<String> result = new ArrayList<String>();
+		for (String templateName : templates) {
+			if (templateName.startsWith(templateFolder) &&
+					templateName.endsWith(".vm") &&
+					!templateName.endsWith("_.vm"))
+				result.add(templateName);
+		}
+		return result;
+	}
+
+	/**
+	 * @return all templates in the index
+	 */
+	public List<String> getTemplates() {
+		return templates;
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the template content,
+	 * or null if the template cannot be read.
+	 * 
+	 * @param templateName
+	 * @return
+	 */
+	public String getHash(String templateName) {
+		String hash = hashes.get(templateName);
+		if (hash == null) {
+			hash = computeHash(templateName);
+			if (hash != null)
+				hashes.put(templateName, hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the SHA-1 hash of all partial templates ending with _.vm.
+	 * Templates may #parse any of them, so the partial templates are
+	 * part of the cache key of every output.
+	 * 
+	 * @return
+	 */
+	public String getPartialHash() {
+		String hash = partialHash;
+		if (hash == null) {
+			List<String> partials = new ArrayList<String>();
+			for (String templateName : templates) {
+				if (templateName.endsWith("_.vm"))
+					partials.add(templateName);
+			}
+			Collections.sort(partials);
+			StringBuilder sb = new StringBuilder();
+			for (String templateName : partials) {
+				sb.append(templateName).append('=').append(getHash(templateName)).append('\n');
+			}
+			hash = sha1(sb.toString());
+			partialHash = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the given text in hexadecimal.
+	 * 
+	 * @param text
+	 * @return
+	 */
+	public static String sha1(String text) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-1").digest(text.getBytes(CloningUtil.ENCODING)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Private helper that hashes the template as loaded by velocity.
+	 */
+	private static String computeHash(String templateName) {
+		InputStream is = null;
+		try {
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			if (loader != null)
+				is = loader.getResourceAsStream(templateName);
+			if (is == null)
+				is = TemplateIndex.class.getClassLoader().getResourceAsStream(templateName);
+			if (is == null)
+				return null;
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+			return toHex(digest.digest());
+		} catch (Exception e) {
+			_log.log(Level.WARNING, "Failed to read template [" + templateName + "].", e);
+			return null;
+		} finally {
+			try {
+				if (is != null) is.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
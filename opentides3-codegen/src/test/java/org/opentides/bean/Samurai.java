@@ -0,0 +1,76 @@
+/**
+ * 
+ */
+package org.opentides.bean;
+
+import javax.persistence.Transient;
+
+import org.opentides.annotation.Auditable;
+import org.opentides.annotation.GenerateDao;
+
+/**
+ * Entity for testing the generated accessor.
+ */
+@GenerateDao
+@Auditable(excludeFields = { "rank" })
+public class Samurai extends BaseEntity {
+
+	private static final long serialVersionUID = -3290187146211398105L;
+
+	private String name;
+
+	private int rank;
+
+	private Boolean active;
+
+	private Samurai master;
+
+	private String code;
+
+	@Transient
+	private String notes;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getRank() {
+		return rank;
+	}
+
+	public void setRank(int rank) {
+		this.rank = rank;
+	}
+
+	public Boolean getActive() {
+		return active;
+	}
+
+	public void setActive(Boolean active) {
+		this.active = active;
+	}
+
+	public Samurai getMaster() {
+		return master;
+	}
+
+	public void setMaster(Samurai master) {
+		this.master = master;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public String getNotes() {
+		return notes;
+	}
+
+	public void setNotes(String notes) {
+		this.notes = notes;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * 
+ */
+package org.opentides.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opentides.bean.BaseEntity;
+import org.opentides.bean.EntityAccessor;
+import org.opentides.bean.Samurai;
+import org.opentides.exception.InvalidImplementationException;
+import org.opentides.util.CacheUtil;
+import org.opentides.util.CrudUtil;
+
+/**
+ * Compiles an entity with the processor and compares the generated 
+ * accessor with the reflection used by the core.
+ * 
+ * @author allantan
+ */
+public class AccessorGenerationTest {
+
+	private static EntityAccessor<BaseEntity> accessor;
+
+	@BeforeClass
+	@SuppressWarnings("unchecked")
+	public static void generate() throws Exception {
+		File output = new File("target/accessor-test");
+		output.mkdirs();
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(collector, Locale.US, null);
+		JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, collector,
+				Arrays.asList("-d", output.getPath(), "-Aopentides.codegen.cache=false"), null,
+				fileManager.getJavaFileObjects("src/test/java/org/opentides/bean/Samurai.java"));
+		task.setProcessors(Arrays.asList(new ClassProcessor()));
+		assertTrue("Compilation failed: " + collector.getDiagnostics(), task.call());
+		fileManager.close();
+
+		assertTrue(new File(output, "org/opentides/bean/SamuraiAccessor.java").exists());
+		ClassLoader loader = new URLClassLoader(new URL[] { output.toURI().toURL() },
+				AccessorGenerationTest.class.getClassLoader());
+		accessor = (EntityAccessor<BaseEntity>) loader.loadClass(
+				"org.opentides.bean.SamuraiAccessor").newInstance();
+	}
+
+	@Test
+	public void testFields() {
+		Samurai samurai = new Samurai();
+		assertEquals(Samurai.class, accessor.getEntityClass());
+		assertEquals(CacheUtil.getPersistentFields(samurai), accessor.getFieldNames());
+		assertEquals(CacheUtil.getSearchableFields(samurai), accessor.getSearchableFields());
+		assertFalse(accessor.getFieldNames().contains("notes"));
+		assertEquals(-1, accessor.indexOf("notes"));
+		assertTrue(accessor.getAuditableFields().contains("name"));
+		assertFalse(accessor.getAuditableFields().contains("rank"));
+	}
+
+	@Test
+	public void testGetAndSetValue() {
+		Samurai samurai = new Samurai();
+		accessor.setValue(samurai, accessor.indexOf("name"), "Musashi");
+		accessor.setValue(samurai, accessor.indexOf("rank"), 3);
+		assertEquals("Musashi", samurai.getName());
+		assertEquals(3, accessor.getValue(samurai, accessor.indexOf("rank")));
+		accessor.setValue(samurai, accessor.indexOf("id"), 7L);
+		assertEquals(Long.valueOf(7), accessor.getValue(samurai, accessor.indexOf("id")));
+		try {
+			accessor.setValue(samurai, accessor.indexOf("code"), "x");
+			assertTrue("Code has no setter", false);
+		} catch (InvalidImplementationException e) {
+		}
+	}
+
+	@Test
+	public void testBuildJpaQueryString() {
+		Samurai master = new Samurai();
+		master.setId(5L);
+		Samurai example = new Samurai();
+		example.setName("Mus'ashi");
+		example.setActive(true);
+		example.setMaster(master);
+		for (boolean exactMatch : new boolean[] { false, true }) {
+			assertEquals(CrudUtil.buildJpaQueryString(example, exactMatch), 
+					accessor.buildJpaQueryString(example, exactMatch));
+		}
+		assertEquals(CrudUtil.buildJpaQueryString(new Samurai(), false),
+				accessor.buildJpaQueryString(new Samurai(), false));
+	}
+}
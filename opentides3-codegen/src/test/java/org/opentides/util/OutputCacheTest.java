@@ -0,0 +1,67 @@
+/**
+ * 
+ */
+package org.opentides.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+import org.opentides.bean.AnnotationDefinition;
+import org.opentides.bean.BeanDefinition;
+
+/**
+ * @author allantan
+ *
+ */
+public class OutputCacheTest {
+
+	@Test
+	public void testReusesOutputWithSameKey() {
+		File folder = new File("target/test-codegen-cache");
+		OutputCache cache = new OutputCache(folder);
+		cache.put("src/main/java/Ninja.java", "key1", "class Ninja {\n}\n");
+		assertEquals("class Ninja {\n}\n", cache.get("src/main/java/Ninja.java", "key1"));
+		assertNull(cache.get("src/main/java/Ninja.java", "key2"));
+		assertNull(cache.get("src/main/java/Samurai.java", "key1"));
+		assertNull(new OutputCache(null).get("src/main/java/Ninja.java", "key1"));
+	}
+
+	@Test
+	public void testPartialTemplatesAreHashed() {
+		String partial = "templates/test/text-form.inc_.vm";
+		String template = "templates/test/modelName-form.jsp.vm";
+		TemplateIndex index = new TemplateIndex(Arrays.asList(template, partial), false);
+		assertEquals(Arrays.asList(template), index.getTemplates("templates/test"));
+		assertEquals(index.getPartialHash(), new TemplateIndex(
+				Arrays.asList(partial, template), false).getPartialHash());
+		// templates may #parse any partial, so partials are part of the key
+		assertFalse(index.getPartialHash().equals(new TemplateIndex(
+				Arrays.asList(template), false).getPartialHash()));
+		assertTrue(index.getHash(partial) != null);
+	}
+
+	@Test
+	public void testFingerprintChangesWithDefinition() {
+		BeanDefinition def = new BeanDefinition("org.opentides.bean", "Ninja");
+		def.setAnnotations(new HashSet<AnnotationDefinition>());
+		AnnotationDefinition annotation = new AnnotationDefinition("GenerateDao");
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("isCached", false);
+		annotation.setParams(params);
+		def.getAnnotations().add(annotation);
+		String fingerprint = CloningUtil.getFingerprint(def);
+		assertEquals(fingerprint, CloningUtil.getFingerprint(def));
+
+		params.put("isCached", true);
+		assertFalse(fingerprint.equals(CloningUtil.getFingerprint(def)));
+	}
+}
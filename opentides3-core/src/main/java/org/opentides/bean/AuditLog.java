@@ -20,6 +20,7 @@ package org.opentides.bean;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -29,6 +30,8 @@ import javax.persistence.Transient;
 
 import org.opentides.bean.user.BaseUser;
 import org.opentides.persistence.listener.AuditLogListener;
+import org.opentides.persistence.listener.AuditLogLoader;
+import org.opentides.util.CrudUtil;
 import org.opentides.web.json.Views;
 
 import com.fasterxml.jackson.annotation.JsonView;
@@ -49,6 +52,12 @@ public class AuditLog extends BaseEntity {
      */
     private static final long serialVersionUID = 269168041517643087L;
 
+    public static final String ACTION_ADDED = "added";
+
+    public static final String ACTION_CHANGED = "changed";
+
+    public static final String ACTION_DELETED = "deleted";
+
     /**
      * Primary key of object being tracked.
      */
@@ -73,11 +82,21 @@ public class AuditLog extends BaseEntity {
     private String reference;
     
     /**
-     * Message about the actions done.
+     * Message about the actions done. For logs with an action, this is
+     * the value of the primary field and the readable message is built
+     * from the field changes when displayed.
      */
     @JsonView(Views.SearchView.class)
     @Column(name = "MESSAGE", nullable = false, updatable = false, length = 4000)
     private String message;
+
+    /**
+     * Action done on the object, either added, changed or deleted.
+     * Null for logs with a free-form message.
+     */
+    @JsonView(Views.SearchView.class)
+    @Column(name = "ACTION_", updatable = false, length = 20)
+    private String action;
         
     /**
      * User who performed the change.
@@ -107,6 +126,22 @@ public class AuditLog extends BaseEntity {
     @Transient
     private transient BaseUser user;
 
+    /**
+     * Loads object and user on first access.
+     * Set by AuditLogListener when loading audit log object.
+     */
+    @Transient
+    private transient AuditLogLoader loader;
+
+    /**
+     * Field changes of the log, loaded together with the object.
+     */
+    @Transient
+    private transient List<AuditLogChange> changes;
+
+    @Transient
+    private transient String renderedMessage;
+
     @Transient
 	private transient Date startDate;
     
@@ -214,11 +249,25 @@ public class AuditLog extends BaseEntity {
 	}
 
 	/**
-	 * Getter method for message.
+	 * Getter method for message. For logs with an action, the message
+	 * is rendered from the field changes on first access.
 	 *
 	 * @return the message
 	 */
 	public final String getMessage() {
+		if (action == null)
+			return message;
+		if (renderedMessage == null)
+			renderedMessage = CrudUtil.renderAuditMessage(this);
+		return renderedMessage;
+	}
+
+	/**
+	 * Returns the message as stored in the database.
+	 *
+	 * @return the stored message
+	 */
+	public final String getStoredMessage() {
 		return message;
 	}
 
@@ -232,6 +281,40 @@ public class AuditLog extends BaseEntity {
 			this.message = message.substring(0, 3999);
 		else
 			this.message = message;
+		this.renderedMessage = null;
+	}
+
+	/**
+	 * @return the action
+	 */
+	public final String getAction() {
+		return action;
+	}
+
+	/**
+	 * @param action the action to set
+	 */
+	public final void setAction(String action) {
+		this.action = action;
+		this.renderedMessage = null;
+	}
+
+	/**
+	 * @return the field changes
+	 */
+	public final List<AuditLogChange> getChanges() {
+		AuditLogLoader pending = loader;
+		if (pending != null)
+			pending.load();
+		return changes;
+	}
+
+	/**
+	 * @param changes the field changes to set
+	 */
+	public final void setChanges(List<AuditLogChange> changes) {
+		this.changes = changes;
+		this.renderedMessage = null;
 	}
 
 	/**
@@ -273,6 +356,9 @@ public class AuditLog extends BaseEntity {
 	 * @return the object
 	 */
 	public final Object getObject() {
+		AuditLogLoader pending = loader;
+		if (pending != null)
+			pending.load();
 		return object;
 	}
 
@@ -289,6 +375,9 @@ public class AuditLog extends BaseEntity {
 	 * @return the user
 	 */
 	public final BaseUser getUser() {
+		AuditLogLoader pending = loader;
+		if (pending != null)
+			pending.load();
 		return user;
 	}
 
@@ -299,6 +388,13 @@ public class AuditLog extends BaseEntity {
 		this.user = user;
 	}
 
+	/**
+	 * @param loader the loader of the object and user
+	 */
+	public final void setLoader(AuditLogLoader loader) {
+		this.loader = loader;
+	}
+
 	/**
 	 * Getter method for startDate.
 	 *
@@ -353,10 +449,20 @@ public class AuditLog extends BaseEntity {
 		this.logAction = logAction;
 	}
 
+	/**
+	 * Pattern used to search logAction in logs with a free-form message.
+	 *
+	 * @return the pattern
+	 */
+	public final String getLogActionPattern() {
+		return "%" + logAction + "%";
+	}
+
 	@JsonView(Views.SearchView.class)
 	public String getUserNameDisplay() {
-		if(this.user != null) {
-			return "by " + this.user.getFirstName() + " " + this.user.getLastName();
+		BaseUser user = getUser();
+		if(user != null) {
+			return "by " + user.getFirstName() + " " + user.getLastName();
 		}
 		
 		return "";
@@ -0,0 +1,220 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.bean;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.opentides.web.json.Views;
+
+import com.fasterxml.jackson.annotation.JsonView;
+
+/**
+ * Single field change recorded by an audit log. Changes are stored as raw
+ * values and are only rendered into a readable message when displayed.
+ * 
+ * For collections, oldValue holds the removed elements and newValue holds
+ * the added elements.
+ * 
+ * @author allantan
+ */
+@Entity
+@Table(name = "HISTORY_LOG_CHANGE",
+	indexes = {	@Index(name = "IDX_HISTORY_CHANGE_FIELD", columnList = "ENTITY_CLASS,ENTITY_ID,FIELD_NAME"),
+				@Index(name = "IDX_HISTORY_CHANGE_LOG", columnList = "HISTORY_LOG_ID")})
+public class AuditLogChange extends BaseEntity {
+
+	private static final long serialVersionUID = -2839186514712387462L;
+
+	/**
+	 * Maximum length of the stored values.
+	 */
+	public static final int MAX_VALUE_LENGTH = 1000;
+
+	/**
+	 * Id of the audit log this change belongs to.
+	 */
+	@Column(name = "HISTORY_LOG_ID", nullable = false, updatable = false)
+	private Long auditLogId;
+
+	/**
+	 * Class type of object being tracked.
+	 */
+	@SuppressWarnings("rawtypes")
+	@Column(name = "ENTITY_CLASS", nullable = false, updatable = false)
+	private Class entityClass;
+
+	/**
+	 * Primary key of object being tracked.
+	 */
+	@Column(name = "ENTITY_ID", nullable = false, updatable = false)
+	private Long entityId;
+
+	/**
+	 * Name of the changed field.
+	 */
+	@JsonView(Views.SearchView.class)
+	@Column(name = "FIELD_NAME", nullable = false, updatable = false)
+	private String fieldName;
+
+	@JsonView(Views.SearchView.class)
+	@Column(name = "OLD_VALUE", updatable = false, length = MAX_VALUE_LENGTH)
+	private String oldValue;
+
+	@JsonView(Views.SearchView.class)
+	@Column(name = "NEW_VALUE", updatable = false, length = MAX_VALUE_LENGTH)
+	private String newValue;
+
+	/**
+	 * True if the field is a collection.
+	 */
+	@JsonView(Views.SearchView.class)
+	@Column(name = "COLLECTION_", updatable = false)
+	private Boolean collection = Boolean.FALSE;
+
+	/**
+	 * Default constructor.
+	 */
+	public AuditLogChange() {
+	}
+
+	/**
+	 * Standard constructor.
+	 * 
+	 * @param fieldName name of the changed field
+	 * @param oldValue previous value, or removed elements of a collection
+	 * @param newValue new value, or added elements of a collection
+	 * @param collection true if the field is a collection
+	 */
+	public AuditLogChange(final String fieldName, final String oldValue,
+			final String newValue, final boolean collection) {
+		this.fieldName = fieldName;
+		setOldValue(oldValue);
+		setNewValue(newValue);
+		this.collection = collection;
+	}
+
+	/**
+	 * @return the auditLogId
+	 */
+	public final Long getAuditLogId() {
+		return auditLogId;
+	}
+
+	/**
+	 * @param auditLogId the auditLogId to set
+	 */
+	public final void setAuditLogId(Long auditLogId) {
+		this.auditLogId = auditLogId;
+	}
+
+	/**
+	 * @return the entityClass
+	 */
+	@SuppressWarnings("rawtypes")
+	public final Class getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * @param entityClass the entityClass to set
+	 */
+	@SuppressWarnings("rawtypes")
+	public final void setEntityClass(Class entityClass) {
+		this.entityClass = entityClass;
+	}
+
+	/**
+	 * @return the entityId
+	 */
+	public final Long getEntityId() {
+		return entityId;
+	}
+
+	/**
+	 * @param entityId the entityId to set
+	 */
+	public final void setEntityId(Long entityId) {
+		this.entityId = entityId;
+	}
+
+	/**
+	 * @return the fieldName
+	 */
+	public final String getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * @param fieldName the fieldName to set
+	 */
+	public final void setFieldName(String fieldName) {
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * @return the oldValue
+	 */
+	public final String getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * @param oldValue the oldValue to set
+	 */
+	public final void setOldValue(String oldValue) {
+		this.oldValue = truncate(oldValue);
+	}
+
+	/**
+	 * @return the newValue
+	 */
+	public final String getNewValue() {
+		return newValue;
+	}
+
+	/**
+	 * @param newValue the newValue to set
+	 */
+	public final void setNewValue(String newValue) {
+		this.newValue = truncate(newValue);
+	}
+
+	/**
+	 * @return true if the field is a collection
+	 */
+	public final boolean isCollection() {
+		return Boolean.TRUE.equals(collection);
+	}
+
+	/**
+	 * @param collection the collection to set
+	 */
+	public final void setCollection(Boolean collection) {
+		this.collection = collection;
+	}
+
+	private static String truncate(String value) {
+		if (value != null && value.length() > MAX_VALUE_LENGTH)
+			return value.substring(0, MAX_VALUE_LENGTH - 1);
+		return value;
+	}
+}
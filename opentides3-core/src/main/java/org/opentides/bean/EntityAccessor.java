@@ -0,0 +1,111 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.bean;
+
+import java.util.List;
+
+/**
+ * Compile-time generated access to the persistent fields of an entity.
+ * The opentides code generator creates an implementation named after the 
+ * entity with the suffix "Accessor" (e.g. NinjaAccessor for Ninja) in
+ * the same package as the entity. When available, it is used by 
+ * {@link org.opentides.util.CacheUtil} and {@link org.opentides.util.CrudUtil}
+ * instead of reflection.
+ * 
+ * Fields are accessed by index, in the same order as returned by
+ * {@link org.opentides.util.CacheUtil#getPersistentFields(BaseEntity)}.
+ * 
+ * @author allantan
+ *
+ * @param <T> the entity class
+ */
+public interface EntityAccessor<T extends BaseEntity> {
+
+	/**
+	 * Suffix added to the entity class name to get the accessor class name.
+	 */
+	public static final String SUFFIX = "Accessor";
+
+	/**
+	 * @return the entity class
+	 */
+	public Class<T> getEntityClass();
+
+	/**
+	 * Returns the names of the persistent fields of the entity,
+	 * including fields of the parent classes.
+	 * 
+	 * @return
+	 */
+	public List<String> getFieldNames();
+
+	/**
+	 * Returns the index of the given persistent field.
+	 * 
+	 * @param fieldName
+	 * @return the index, or -1 if not a persistent field
+	 */
+	public int indexOf(String fieldName);
+
+	/**
+	 * Returns the value of the field at the given index by calling its getter.
+	 * 
+	 * @param entity
+	 * @param index
+	 * @return
+	 */
+	public Object getValue(T entity, int index);
+
+	/**
+	 * Sets the value of the field at the given index by calling its setter.
+	 * 
+	 * @param entity
+	 * @param index
+	 * @param value
+	 */
+	public void setValue(T entity, int index, Object value);
+
+	/**
+	 * Returns the searchable fields of the entity.
+	 * 
+	 * @return the fields, or null if the entity has a method annotated with
+	 *         {@link org.opentides.annotation.SearchableFields}
+	 */
+	public List<String> getSearchableFields();
+
+	/**
+	 * Returns the fields audited based on the 
+	 * {@link org.opentides.annotation.Auditable} annotation of the entity. 
+	 * Fields excluded from all audit logs are not removed.
+	 * 
+	 * @return the fields, empty if the entity is not auditable
+	 */
+	public List<String> getAuditableFields();
+
+	/**
+	 * Same as {@link org.opentides.util.CrudUtil#buildJpaQueryString(BaseEntity, boolean)}
+	 * with direct calls to the getters of the searchable fields.
+	 * 
+	 * @param example
+	 * @param exactMatch
+	 * @return the query string, or null if searchable fields are only 
+	 *         known at runtime
+	 */
+	public String buildJpaQueryString(T example, boolean exactMatch);
+}
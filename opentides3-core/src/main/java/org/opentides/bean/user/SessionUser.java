@@ -19,10 +19,12 @@
 
 package org.opentides.bean.user;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.opentides.util.AuthorityRegistry;
 import org.opentides.util.StringUtil;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
@@ -44,10 +46,17 @@ public class SessionUser extends User {
 
 	private Long id;
 
+	/**
+	 * Authorities of this user indexed by {@link AuthorityRegistry} ordinal.
+	 * Transient since ordinals are only valid within the running JVM.
+	 */
+	private transient BitSet authorityBits;
+
 	public SessionUser(final UserDetails user) {
 		super(user.getUsername(), user.getPassword(), user.isEnabled(), user
 				.isAccountNonExpired(), user.isCredentialsNonExpired(), user
 				.isAccountNonLocked(), user.getAuthorities());
+		authorityBits = AuthorityRegistry.toBitSet(getAuthorities());
 	}
 
 	public SessionUser(final BaseUser user,
@@ -55,6 +64,7 @@ public class SessionUser extends User {
 		super(user.getCredential().getUsername(), user.getCredential()
 				.getPassword(), user.getCredential().getEnabled(), true, true,
 				true, authorities);
+		authorityBits = AuthorityRegistry.toBitSet(getAuthorities());
 		this.addProfile("lastName", user.getLastName());
 		this.addProfile("firstName", user.getFirstName());
 		id = user.getId();
@@ -83,12 +93,13 @@ public class SessionUser extends User {
 	 * @return
 	 */
 	public boolean hasPermission(final String permission) {
-		for (final GrantedAuthority auth : this.getAuthorities()) {
-			if (permission.equals(auth.getAuthority())) {
-				return true;
-			}
+		BitSet bits = authorityBits;
+		if (bits == null) {
+			// rebuild after deserialization of the session
+			bits = AuthorityRegistry.toBitSet(getAuthorities());
+			authorityBits = bits;
 		}
-		return false;
+		return AuthorityRegistry.hasAuthority(bits, permission);
 	}
 
 	/**
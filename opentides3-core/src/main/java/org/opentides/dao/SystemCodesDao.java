@@ -47,4 +47,18 @@ public interface SystemCodesDao extends BaseEntityDao<SystemCodes, Long> {
 	 * @return
 	 */
 	public long countDuplicate(SystemCodes code);
+
+	/**
+	 * Returns all system codes with their parent loaded.
+	 * @return
+	 */
+	public List<SystemCodes> findAllWithParent();
+
+	/**
+	 * Returns a value that changes whenever a system code is added, 
+	 * updated or deleted. Used to check if cached system codes are 
+	 * still valid.
+	 * @return
+	 */
+	public String getVersionStamp();
 }
\ No newline at end of file
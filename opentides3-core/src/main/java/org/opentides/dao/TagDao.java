@@ -1,5 +1,6 @@
 package org.opentides.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.opentides.bean.Tag;
@@ -12,6 +13,25 @@ import org.opentides.bean.Tag;
 public interface TagDao extends BaseEntityDao<Tag, Long> {
 
 	public Tag loadByText(String text);
+
+	/**
+	 * Find all Tags matching any of the given texts using a single query
+	 * for every 500 texts. Results are ordered by id, so the first tag
+	 * of each text is the oldest one.
+	 * 
+	 * @param texts
+	 * @return
+	 */
+	public List<Tag> findByTagTexts(Collection<String> texts);
+
+	/**
+	 * Saves the given tags without flushing each one. New tags are persisted,
+	 * detached tags are merged and the persistence context is flushed once
+	 * at the end, allowing the inserts and updates to be sent as JDBC batches.
+	 * 
+	 * @param tags
+	 */
+	public void saveTags(Collection<Tag> tags);
 	
 	/**
 	 * Find all Tags attached to the Taggable class with the given ID
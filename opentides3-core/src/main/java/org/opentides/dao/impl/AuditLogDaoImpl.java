@@ -19,15 +19,36 @@
 
 package org.opentides.dao.impl;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
 import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
 import org.opentides.bean.BaseEntity;
+import org.opentides.bean.user.SessionUser;
 import org.opentides.dao.AuditLogDao;
+import org.opentides.listener.ApplicationStartupListener;
+import org.opentides.util.DatabaseUtil;
 import org.opentides.util.DateUtil;
+import org.opentides.util.SecurityUtil;
 import org.opentides.util.StringUtil;
+import org.opentides.util.TenantContextHolder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -41,6 +62,18 @@ import org.springframework.stereotype.Repository;
 public class AuditLogDaoImpl extends BaseEntityDaoJpaImpl<AuditLog, Long> implements AuditLogDao {	
 	
 	private static final Logger _log = Logger.getLogger(AuditLogDaoImpl.class);
+
+	private static final String INSERT_SQL = "INSERT INTO HISTORY_LOG (CREATEDATE, UPDATEDATE, CREATEDBY, "
+			+ "VERSION, SCHEMANAME_, ENTITY_ID, ENTITY_CLASS, REFERENCE, MESSAGE, ACTION_, USER_ID, USER_DISPLAY) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_CHANGE_SQL = "INSERT INTO HISTORY_LOG_CHANGE (CREATEDATE, UPDATEDATE, "
+			+ "CREATEDBY, VERSION, SCHEMANAME_, HISTORY_LOG_ID, ENTITY_CLASS, ENTITY_ID, FIELD_NAME, "
+			+ "OLD_VALUE, NEW_VALUE, COLLECTION_) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static boolean logEnabled = false;
+
+	private static int batchSize = 500;
 	
 	@Override
 	public void logEvent(final String message, final BaseEntity entity, final boolean separateEm) {
@@ -77,47 +110,253 @@ public class AuditLogDaoImpl extends BaseEntityDaoJpaImpl<AuditLog, Long> implem
 	
 	/**
 	 * Saves the log event into the database.
-	 * @param shortMessage
 	 * @param message
 	 * @param entity
 	 */
 	public static void logEvent(final String message, final BaseEntity entity) { 		
-//		Long userId = entity.getAuditUserId();
-//		String username = entity.getAuditUsername();
-//		
-//		final SessionUser user = SecurityUtil.getSessionUser();
-//		if (ApplicationStartupListener.isApplicationStarted() && user != null) {
-//			if (userId==null) {
-//				_log.error("No userId specified for audit logging on object ["+entity.getClass().getName()
-//						+ "] for message ["+message+"]. Retrieving user from interceptor.");
-//				userId = user.getId();
-//				username = user.getUsername();
-//			} 
-//		} else {
-//			userId = new Long(0);
-//			username = "System Evolve";
-//		}
-//		
-//    	final EntityManager em = DatabaseUtil.getEntityManager();
-//		try {
-//			em.getTransaction().begin();
-//		     final AuditLog record = 
-//	            new AuditLog(
-//	            			message, 
-//	            			entity.getId(), 
-//	            			entity.getClass(), 
-//	                        entity.getReference(),
-//	                        userId,
-//	                        username); 
-//			em.persist(record);
-//			em.flush(); 
-//			em.getTransaction().commit();
-//		} finally {
-//			if(em != null && em.isOpen()) {
-//				em.close(); 
-//			}
-//		}
-    }
+		if (!logEnabled)
+			return;
+		logEvents(Collections.singletonList(createLog(message, entity)));
+	}
+
+	/**
+	 * Creates the audit log record of the given entity. The user is taken
+	 * from the audit user of the entity, or from the logged-in user if not set.
+	 * 
+	 * @param message
+	 * @param entity
+	 * @return
+	 */
+	public static AuditLog createLog(final String message, final BaseEntity entity) {
+		Long userId = entity.getAuditUserId();
+		String username = entity.getAuditUsername();
+		if (userId == null) {
+			final SessionUser user = SecurityUtil.getSessionUser();
+			if (ApplicationStartupListener.isApplicationStarted() && user != null) {
+				userId = user.getId();
+				username = user.getUsername();
+			} else {
+				userId = new Long(0);
+				username = "System Evolve";
+			}
+		}
+		AuditLog log = new AuditLog(message, entity.getId(), entity.getClass(),
+				entity.getReference(), userId, username);
+		log.setCreatedBy(username);
+		log.setDbName(TenantContextHolder.getSchemaName());
+		return log;
+	}
+
+	/**
+	 * Creates the audit log record of an action done on the given entity.
+	 * Only the field changes are stored, the readable message is built
+	 * when the log is displayed.
+	 * 
+	 * @param action one of added, changed or deleted
+	 * @param entity
+	 * @param primaryValue value of the primary field of the entity
+	 * @param changes field changes, may be null
+	 * @return
+	 */
+	public static AuditLog createLog(final String action, final BaseEntity entity,
+			final String primaryValue, final List<AuditLogChange> changes) {
+		AuditLog log = createLog(primaryValue == null ? "" : primaryValue, entity);
+		log.setAction(action);
+		log.setChanges(changes == null ? new ArrayList<AuditLogChange>() : changes);
+		return log;
+	}
+
+	/**
+	 * Saves all the audit logs in a single transaction using JDBC batches
+	 * of audit.log.batch-size records. Nothing is saved unless
+	 * audit.log.enabled is set. Field changes are saved after the logs,
+	 * using the ids generated for the logs.
+	 * 
+	 * @param logs
+	 * @return number of records saved
+	 */
+	public static int logEvents(final List<AuditLog> logs) {
+		if (!logEnabled || logs == null || logs.isEmpty())
+			return 0;
+		final int[] inserted = new int[1];
+		boolean withChanges = false;
+		for (AuditLog log : logs) {
+			if (log.getChanges() != null && !log.getChanges().isEmpty()) {
+				withChanges = true;
+				break;
+			}
+		}
+		final boolean readKeys = withChanges;
+		final EntityManager em = DatabaseUtil.getEntityManager();
+		try {
+			em.getTransaction().begin();
+			em.unwrap(Session.class).doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					PreparedStatement ps = readKeys ? 
+							connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS) :
+							connection.prepareStatement(INSERT_SQL);
+					try {
+						List<AuditLog> pending = new ArrayList<AuditLog>();
+						for (AuditLog log : logs) {
+							Timestamp created = new Timestamp(log.getCreateDate() == null ?
+									System.currentTimeMillis() : log.getCreateDate().getTime());
+							ps.setTimestamp(1, created);
+							ps.setTimestamp(2, created);
+							setListenerColumns(ps, 3, log);
+							ps.setLong(6, log.getEntityId() == null ? 0 : log.getEntityId());
+							ps.setString(7, log.getEntityClass().getName());
+							ps.setString(8, log.getReference());
+							ps.setString(9, log.getStoredMessage());
+							ps.setString(10, log.getAction());
+							ps.setLong(11, log.getUserId());
+							ps.setString(12, log.getUserDisplayName());
+							ps.addBatch();
+							pending.add(log);
+							if (pending.size() == batchSize) {
+								inserted[0] += executeBatch(ps, pending, readKeys);
+								pending.clear();
+							}
+						}
+						if (!pending.isEmpty())
+							inserted[0] += executeBatch(ps, pending, readKeys);
+					} finally {
+						ps.close();
+					}
+					if (readKeys)
+						insertChanges(connection, logs);
+				}
+			});
+			em.getTransaction().commit();
+		} catch (RuntimeException e) {
+			if (em.getTransaction().isActive())
+				em.getTransaction().rollback();
+			throw e;
+		} finally {
+			if (em.isOpen())
+				em.close();
+		}
+		return inserted[0];
+	}
+
+	/**
+	 * Sets the CREATEDBY, VERSION and SCHEMANAME_ columns starting at the
+	 * given index, the same way as the entity listeners do on persist.
+	 */
+	private static void setListenerColumns(PreparedStatement ps, int index,
+			BaseEntity entity) throws SQLException {
+		if (StringUtil.isEmpty(entity.getCreatedBy()))
+			entity.setCreatedBy(entity.getAuditUsername());
+		if (entity.getDbName() == null)
+			entity.setDbName(TenantContextHolder.getSchemaName());
+		ps.setString(index, entity.getCreatedBy());
+		if (entity.getVersion() == null)
+			ps.setNull(index + 1, Types.BIGINT);
+		else
+			ps.setLong(index + 1, entity.getVersion());
+		ps.setString(index + 2, entity.getDbName());
+	}
+
+	/**
+	 * Executes the batch and assigns the generated ids to the logs.
+	 */
+	private static int executeBatch(PreparedStatement ps, List<AuditLog> batch,
+			boolean readKeys) throws SQLException {
+		int total = count(ps.executeBatch());
+		if (readKeys) {
+			ResultSet keys = ps.getGeneratedKeys();
+			try {
+				for (AuditLog log : batch) {
+					if (!keys.next()) {
+						_log.warn("Database did not return the ids of the audit logs, "
+								+ "field changes are not saved.");
+						break;
+					}
+					log.setId(keys.getLong(1));
+				}
+			} finally {
+				keys.close();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Saves the field changes of the logs using JDBC batches.
+	 */
+	private static void insertChanges(Connection connection, List<AuditLog> logs)
+			throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(INSERT_CHANGE_SQL);
+		try {
+			int pending = 0;
+			for (AuditLog log : logs) {
+				if (log.getId() == null || log.getChanges() == null)
+					continue;
+				Timestamp created = new Timestamp(log.getCreateDate() == null ?
+						System.currentTimeMillis() : log.getCreateDate().getTime());
+				for (AuditLogChange change : log.getChanges()) {
+					change.setAuditLogId(log.getId());
+					change.setEntityClass(log.getEntityClass());
+					change.setEntityId(log.getEntityId() == null ? 0 : log.getEntityId());
+					if (change.getAuditUsername() == null)
+						change.setAuditUsername(log.getCreatedBy());
+					if (change.getDbName() == null)
+						change.setDbName(log.getDbName());
+					ps.setTimestamp(1, created);
+					ps.setTimestamp(2, created);
+					setListenerColumns(ps, 3, change);
+					ps.setLong(6, change.getAuditLogId());
+					ps.setString(7, change.getEntityClass().getName());
+					ps.setLong(8, change.getEntityId());
+					ps.setString(9, change.getFieldName());
+					ps.setString(10, change.getOldValue());
+					ps.setString(11, change.getNewValue());
+					ps.setBoolean(12, change.isCollection());
+					ps.addBatch();
+					if (++pending == batchSize) {
+						ps.executeBatch();
+						pending = 0;
+					}
+				}
+			}
+			if (pending > 0)
+				ps.executeBatch();
+		} finally {
+			ps.close();
+		}
+	}
+
+	private static int count(int[] results) {
+		int total = 0;
+		for (int result : results) {
+			// some drivers only report that the statement succeeded
+			total += (result == PreparedStatement.SUCCESS_NO_INFO) ? 1 : result;
+		}
+		return total;
+	}
+
+	/**
+	 * @return true if audit logs are saved
+	 */
+	public static boolean isLogEnabled() {
+		return logEnabled;
+	}
+
+	/**
+	 * @param logEnabled true to save audit logs
+	 */
+	@Value("${audit.log.enabled:false}")
+	public void setLogEnabled(String logEnabled) {
+		AuditLogDaoImpl.logEnabled = "true".equals(logEnabled);
+	}
+
+	/**
+	 * @param batchSize number of audit logs per JDBC batch
+	 */
+	@Value("${audit.log.batch-size:500}")
+	public void setLogBatchSize(String batchSize) {
+		AuditLogDaoImpl.batchSize = StringUtil.convertToInt(batchSize, 500);
+	}
 	
 	
     /* (non-Javadoc)
@@ -159,7 +398,8 @@ public class AuditLogDaoImpl extends BaseEntityDaoJpaImpl<AuditLog, Long> implem
 			if (!StringUtil.isEmpty(append.toString())){
 				append.append(" and ");
 			}
-			append.append(" obj.message like '%").append(example.getLogAction()).append("%' ");
+			// logs with free-form messages have no action
+			append.append(" (obj.action = :logAction or (obj.action is null and obj.message like :logActionPattern)) ");
 		}
 		return append.toString();
 	}
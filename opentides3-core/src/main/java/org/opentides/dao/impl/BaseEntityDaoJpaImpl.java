@@ -20,6 +20,7 @@ package org.opentides.dao.impl;
 
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +43,7 @@ import org.opentides.dao.BaseEntityDao;
 import org.opentides.exception.InvalidImplementationException;
 import org.opentides.listener.ApplicationStartupListener;
 import org.opentides.util.CrudUtil;
+import org.opentides.util.MetricsUtil;
 import org.opentides.util.SecurityUtil;
 import org.opentides.util.StringUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -63,6 +65,9 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 
 	@Autowired
     private Properties jpqlProperties;
+	// named queries registered on startup
+	@Autowired(required = false)
+	private NamedQueryRegistry namedQueryRegistry;
 	// contains the class type of the bean    
     private Class<T> entityBeanType;
     // list of filters available
@@ -72,6 +77,8 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
     private EntityManager em;
    
 	private int batchSize = 20;
+	// prefix of the metrics recorded by this DAO
+	private final String metricPrefix;
 	
 	@SuppressWarnings("unchecked")
 	public BaseEntityDaoJpaImpl() {
@@ -84,6 +91,7 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 			this.entityBeanType = (Class<T>) ((ParameterizedType) getClass().getSuperclass()
 	                .getGenericSuperclass()).getActualTypeArguments()[0];
 		}
+		this.metricPrefix = "dao." + entityBeanType.getSimpleName() + ".";
 	}
 	
 	/**
@@ -100,13 +108,18 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings("unchecked")
 	public final List<T> findAll( int start, int total) {
+		long startTime = System.nanoTime();
 		Query query =  getEntityManager().createQuery("select obj from " + 
         		getEntityBeanType().getName() +" obj ");
 		if (start > -1) 
 			query.setFirstResult(start);
 		if (total > -1)
 			query.setMaxResults(total);		
-        return query.getResultList();
+		try {
+			return query.getResultList();
+		} finally {
+			recordMetric("findAll", startTime);
+		}
 	}
 	
 	/**
@@ -123,8 +136,7 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings("unchecked")
 	public final List<T> findByNamedQuery(final String name, final Map<String,Object> params, int start, int total) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			for (Map.Entry<String, Object> entry:params.entrySet()) {
 				if (entry.getKey()!=null && entry.getKey().startsWith("hint.")) {
@@ -138,7 +150,12 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 			queryObject.setFirstResult(start);
 		if (total > -1)
 			queryObject.setMaxResults(total);	
-		return queryObject.getResultList();
+		long startTime = System.nanoTime();
+		try {
+			return queryObject.getResultList();
+		} finally {
+			recordQuery(name, startTime);
+		}
 	}
 	
 	/**
@@ -147,8 +164,7 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings("unchecked")
 	public final List<T> findByNamedQuery(final String name, int start, int total, final Object... params) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			int i=1;
 			for (Object obj:params) {
@@ -160,7 +176,12 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 			queryObject.setFirstResult(start);
 		if (total > -1)
 			queryObject.setMaxResults(total);	
-		return queryObject.getResultList();
+		long startTime = System.nanoTime();
+		try {
+			return queryObject.getResultList();
+		} finally {
+			recordQuery(name, startTime);
+		}
 	}
 	
 	/**
@@ -169,16 +190,18 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings({ "unchecked" })
 	public final T findSingleResultByNamedQuery(final String name, final Map<String,Object> params) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			for (Map.Entry<String, Object> entry:params.entrySet())
 				queryObject.setParameter(entry.getKey(), entry.getValue());
 		} 
+		long startTime = System.nanoTime();
 		try {
 		    return (T) queryObject.getSingleResult();
 		} catch (NoResultException nre) {
 		    return null;		    
+		} finally {
+			recordQuery(name, startTime);
 		}
 	}
 	
@@ -188,18 +211,20 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings({ "unchecked" })
 	public final T findSingleResultByNamedQuery(final String name, final Object... params) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			int i=0;
 			for (Object obj:params) {
 				queryObject.setParameter(i, obj);				
 			}
 		} 
+		long startTime = System.nanoTime();
 		try {
 		    return (T) queryObject.getSingleResult();
 		} catch (NoResultException nre) {
 		    return null;		    
+		} finally {
+			recordQuery(name, startTime);
 		}
 	}
 	
@@ -208,13 +233,17 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	 */
 	@Override	
 	public int executeByNamedQuery(final String name, final Map<String, Object> params) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			for (Map.Entry<String, Object> entry:params.entrySet())
 				queryObject.setParameter(entry.getKey(), entry.getValue());
 		} 
-		return queryObject.executeUpdate();
+		long startTime = System.nanoTime();
+		try {
+			return queryObject.executeUpdate();
+		} finally {
+			recordQuery(name, startTime);
+		}
 	}
 	
 	/**
@@ -222,15 +251,19 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	 */
 	@Override	
 	public int executeByNamedQuery(final String name, final Object... params) {
-		String queryString = getJpqlQuery(name);
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery(name);
 		if (params != null) {
 			int i=1;
 			for (Object obj:params) {
 				queryObject.setParameter(i++, obj);				
 			}
 		} 
-		return queryObject.executeUpdate();
+		long startTime = System.nanoTime();
+		try {
+			return queryObject.executeUpdate();
+		} finally {
+			recordQuery(name, startTime);
+		}
 	}
 
 	/**
@@ -263,9 +296,11 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	@Override	
 	@SuppressWarnings("unchecked")
 	public final List<T> findByExample(final T example, boolean exactMatch, int start, int total) {
+		long startTime = System.nanoTime();
 		String joinClause = appendJoinToExample(example);
 		String whereClause = CrudUtil.buildJpaQueryString(example, exactMatch);
 		String orderClause = " " + appendOrderToExample(example);
+		recordMetric("buildQuery", startTime);
 		String filterClause = this.buildSecurityFilterClause(example);
 		String append = appendClauseToExample(example, exactMatch);
 		whereClause = doSQLAppend(whereClause, append);
@@ -281,7 +316,11 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 			query.setFirstResult(start);
 		if (total > -1)
 			query.setMaxResults(total);	
-		return query.getResultList();
+		try {
+			return query.getResultList();
+		} finally {
+			recordMetric("findByExample", startTime);
+		}
 	}
 	
 	/**
@@ -289,9 +328,14 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	 */
 	@Override	
 	public final long countAll() {
-		return (Long) getEntityManager().createQuery("select count(obj) from " + 
-				getEntityBeanType().getName() + " obj " +
-				doSQLAppend("", this.buildSecurityFilterClause(null))).getSingleResult();
+		long startTime = System.nanoTime();
+		try {
+			return (Long) getEntityManager().createQuery("select count(obj) from " + 
+					getEntityBeanType().getName() + " obj " +
+					doSQLAppend("", this.buildSecurityFilterClause(null))).getSingleResult();
+		} finally {
+			recordMetric("countAll", startTime);
+		}
 	}
 	
 	/**
@@ -307,7 +351,9 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	 */
 	@Override	
 	public final long countByExample(final T example, final boolean exactMatch) {
+		long startTime = System.nanoTime();
 		String whereClause = CrudUtil.buildJpaQueryString(example, exactMatch);
+		recordMetric("buildQuery", startTime);
 		String filterClause = this.buildSecurityFilterClause(example);
 		String append = appendClauseToExample(example, exactMatch);
 		whereClause = doSQLAppend(whereClause, append);
@@ -318,7 +364,11 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 		Query query = getEntityManager().createQuery(sql);
 		setQueryParameters(query, sql, example);
 		setHints(example, query);
-		return (Long) query.getSingleResult();
+		try {
+			return (Long) query.getSingleResult();
+		} finally {
+			recordMetric("countByExample", startTime);
+		}
 	}
 	
 	/**
@@ -332,9 +382,18 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	/**
 	 * {@inheritDoc}
 	 */
-	@SuppressWarnings("unchecked")
 	@Override
 	public final T loadEntityModel(final ID id, final boolean filter, final boolean lock) {
+		long startTime = System.nanoTime();
+		try {
+			return loadEntity(id, filter, lock);
+		} finally {
+			recordMetric("load", startTime);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T loadEntity(final ID id, final boolean filter, final boolean lock) {
         T entity;
         if (filter && securityFilter!=null) {        	
 			String filterClause = this.getSecurityFilter();
@@ -368,9 +427,11 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 	 */
 	@Override	
 	public final void deleteEntityModel(final T obj) {
+		long startTime = System.nanoTime();
 		setAuditUserId(obj);
 		getEntityManager().remove(obj);
 		getEntityManager().flush();
+		recordMetric("delete", startTime);
 	}
 	
 	/**
@@ -383,27 +444,53 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 		setAuditUserId(obj);
 		_log.debug("User ID is " + obj.getAuditUserId());
 	
+		long startTime = System.nanoTime();
 		if (obj.isNew()) 
 			getEntityManager().persist(obj);
 		else {
 			getEntityManager().merge(obj);
 			getEntityManager().flush();
 		}
+		recordMetric("save", startTime);
 	}
 
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * New entities are persisted first and the existing ones are merged
+	 * afterwards, without flushing each entity, so that hibernate can send
+	 * statements of the same kind in JDBC batches when hibernate.jdbc.batch_size
+	 * is set. Changes are flushed and the persistence context is cleared
+	 * every batchSize entities.
 	 */
 	@Override
 	public void saveAllEntityModel(final Collection<T> objects) {
+		long startTime = System.nanoTime();
+		EntityManager em = getEntityManager();
+		List<T> updates = new ArrayList<T>();
 		int ctr = 0;
 		for (T t : objects) {
-			saveEntityModel(t);
-			if (++ctr % batchSize == 0){
-				getEntityManager().flush();
-				getEntityManager().clear();
+			if (!t.isNew()) {
+				updates.add(t);
+				continue;
+			}
+			setAuditUserId(t);
+			em.persist(t);
+			if (++ctr % batchSize == 0) {
+				em.flush();
+				em.clear();
 			}
 		}
+		for (T t : updates) {
+			setAuditUserId(t);
+			em.merge(t);
+			if (++ctr % batchSize == 0) {
+				em.flush();
+				em.clear();
+			}
+		}
+		em.flush();
+		recordMetric("saveAll", startTime);
 	}
 
 	/**
@@ -418,6 +505,34 @@ public class BaseEntityDaoJpaImpl<T extends BaseEntity,ID extends Serializable>
 			return query;
 	}
 	
+	/**
+	 * Creates the query for the given jpql key. Uses the named query
+	 * registered on startup when available, otherwise the query is
+	 * created from the jpql property file.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	protected final Query createNamedQuery(String name) {
+		if (namedQueryRegistry != null && namedQueryRegistry.isRegistered(name))
+			return getEntityManager().createNamedQuery(name);
+		return getEntityManager().createQuery(getJpqlQuery(name));
+	}
+
+	private void recordQuery(String name, long startTime) {
+		if (namedQueryRegistry != null)
+			namedQueryRegistry.record(name, startTime);
+	}
+
+	/**
+	 * Records the time spent on the given operation of this DAO
+	 * under dao.[entity name].[operation].
+	 */
+	private void recordMetric(String operation, long startTime) {
+		if (MetricsUtil.isEnabled())
+			MetricsUtil.timer(metricPrefix + operation).update(System.nanoTime() - startTime);
+	}
+
 	/**
 	 * Returns the class that is handled by this Dao.
 	 * 
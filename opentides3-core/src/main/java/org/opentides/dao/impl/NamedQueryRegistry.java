@@ -0,0 +1,214 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+
+import org.apache.log4j.Logger;
+import org.opentides.exception.InvalidImplementationException;
+import org.opentides.util.MetricsUtil;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registers all queries in the jpql property files as JPA named queries
+ * on startup, so that each query is parsed only once and invalid queries
+ * are detected before the application is used.
+ *
+ * Query hints can be attached to a query by adding a property named
+ * after the query key followed by <code>.hint.</code> and the hint name,
+ * for example:
+ * <pre>
+ * jpql.systemcodes.findByCategory.hint.org.hibernate.cacheable=true
+ * </pre>
+ *
+ * Invalid queries that refer to an entity missing from the metamodel of
+ * the persistence unit are skipped, since the property files include
+ * queries of optional modules. Any other invalid query aborts startup 
+ * unless jpql.fail-on-error is set to false.
+ *
+ * The execution time of each query is recorded through {@link MetricsUtil}
+ * in the timer named jpql. followed by the query key.
+ *
+ * @author allanctan
+ */
+@Component("namedQueryRegistry")
+public class NamedQueryRegistry {
+
+	private static final Logger _log = Logger.getLogger(NamedQueryRegistry.class);
+
+	private static final String HINT = ".hint.";
+
+	private static final Pattern ENTITY = Pattern.compile(
+			"(?:\\b(?:from|join|update)\\s+(?:fetch\\s+)?|,\\s*(?=[\\w.]+\\s+(?:as\\s+)?\\w))([A-Za-z_][\\w.]*)",
+			Pattern.CASE_INSENSITIVE);
+
+	@Autowired
+	private Properties jpqlProperties;
+
+	@PersistenceUnit
+	private EntityManagerFactory entityManagerFactory;
+
+	private final Set<String> registered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	@Value("${jpql.fail-on-error:true}")
+	private String failOnError = "true";
+
+	/**
+	 * Parses and registers all the queries. If any query is invalid and
+	 * failOnError is set, startup is aborted listing all invalid queries.
+	 */
+	@PostConstruct
+	public void init() {
+		if (jpqlProperties == null || entityManagerFactory == null)
+			return;
+		Map<String, String> queries = new TreeMap<String, String>();
+		Map<String, Map<String, Object>> hints = new HashMap<String, Map<String, Object>>();
+		for (String key : jpqlProperties.stringPropertyNames()) {
+			queries.put(key, jpqlProperties.getProperty(key));
+		}
+		for (String key : new ArrayList<String>(queries.keySet())) {
+			int idx = key.indexOf(HINT);
+			if (idx > 0 && queries.containsKey(key.substring(0, idx))) {
+				String name = key.substring(0, idx);
+				if (!hints.containsKey(name))
+					hints.put(name, new HashMap<String, Object>());
+				hints.get(name).put(key.substring(idx + HINT.length()), queries.remove(key).trim());
+			}
+		}
+
+		List<String> errors = new ArrayList<String>();
+		Set<String> entityNames = getEntityNames();
+		EntityManager em = entityManagerFactory.createEntityManager();
+		try {
+			for (Map.Entry<String, String> entry : queries.entrySet()) {
+				if (StringUtil.isEmpty(entry.getValue()))
+					continue;
+				try {
+					Query query = em.createQuery(entry.getValue());
+					if (hints.containsKey(entry.getKey())) {
+						for (Map.Entry<String, Object> hint : hints.get(entry.getKey()).entrySet()) {
+							query.setHint(hint.getKey(), hint.getValue());
+						}
+					}
+					entityManagerFactory.addNamedQuery(entry.getKey(), query);
+					registered.add(entry.getKey());
+				} catch (RuntimeException e) {
+					List<String> unmapped = getUnmappedEntities(entry.getValue(), entityNames);
+					if (!unmapped.isEmpty()) {
+						// entity belongs to a module not used by this application
+						_log.warn("Skipped jpql [" + entry.getKey() + "], entities not mapped: " + unmapped);
+					} else {
+						_log.error("Invalid jpql [" + entry.getKey() + "]: " + e.getMessage());
+						errors.add(entry.getKey());
+					}
+				}
+			}
+		} finally {
+			em.close();
+		}
+		_log.info("Registered " + registered.size() + " named queries.");
+		if (!errors.isEmpty() && "true".equals(failOnError)) {
+			throw new InvalidImplementationException("Invalid jpql queries found: " + errors);
+		}
+	}
+
+	/**
+	 * Checks if the query with the given key was registered as named query.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean isRegistered(String name) {
+		return registered.contains(name);
+	}
+
+	/**
+	 * Records the execution time of the given query in the configured
+	 * {@link MetricsUtil} provider.
+	 *
+	 * @param name
+	 * @param startNanos value of System.nanoTime() before the query was executed
+	 */
+	public void record(String name, long startNanos) {
+		if (MetricsUtil.isEnabled())
+			MetricsUtil.time("jpql." + name, startNanos);
+	}
+
+	/**
+	 * @param failOnError if true, startup fails when a query is invalid
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = String.valueOf(failOnError);
+	}
+
+	/**
+	 * Returns the entity names, simple class names and class names of all
+	 * entities in the metamodel, which are the names a query can refer to.
+	 */
+	private Set<String> getEntityNames() {
+		Set<String> names = new HashSet<String>();
+		for (EntityType<?> entity : entityManagerFactory.getMetamodel().getEntities()) {
+			names.add(entity.getName());
+			if (entity.getJavaType() != null) {
+				names.add(entity.getJavaType().getName());
+				names.add(entity.getJavaType().getSimpleName());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the entities in the from, join and update clauses of the query
+	 * that are not in the given names. Entities are told apart from paths 
+	 * such as t.tags by their capitalized name.
+	 */
+	static List<String> getUnmappedEntities(String jpql, Set<String> entityNames) {
+		List<String> unmapped = new ArrayList<String>();
+		Matcher matcher = ENTITY.matcher(jpql);
+		while (matcher.find()) {
+			String name = matcher.group(1);
+			String simpleName = name.substring(name.lastIndexOf('.') + 1);
+			if (simpleName.length() > 0 && Character.isUpperCase(simpleName.charAt(0))
+					&& !entityNames.contains(name) && !unmapped.contains(name))
+				unmapped.add(name);
+		}
+		return unmapped;
+	}
+}
@@ -18,6 +18,7 @@
  */
 package org.opentides.dao.impl;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,8 +63,7 @@ public class SystemCodesDaoJpaImpl extends BaseEntityDaoJpaImpl<SystemCodes, Lon
 	 */
 	@SuppressWarnings("unchecked")
 	public List<String> getAllCategories() {
-		String queryString = getJpqlQuery("jpql.systemcodes.findAllCategories");
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery("jpql.systemcodes.findAllCategories");
 		
 		return queryObject.getResultList();
 	}
@@ -74,8 +74,7 @@ public class SystemCodesDaoJpaImpl extends BaseEntityDaoJpaImpl<SystemCodes, Lon
      */
 	@SuppressWarnings("unchecked")
 	public List<String> getAllCategoriesExcept(String... categories) {
-		String queryString = getJpqlQuery("jpql.systemcodes.findAllCategoriesExcept");
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery("jpql.systemcodes.findAllCategoriesExcept");
 		queryObject.setParameter("categories", categories);
 		
 		return queryObject.getResultList();
@@ -94,8 +93,7 @@ public class SystemCodesDaoJpaImpl extends BaseEntityDaoJpaImpl<SystemCodes, Lon
 
 	@Override
 	public long countDuplicate(SystemCodes code) {
-		String queryString = getJpqlQuery("jpql.systemcodes.countDuplicate");
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery("jpql.systemcodes.countDuplicate");
 		queryObject.setParameter("keyName", code.getKey());
 		// if id is null it means it is a new systemCodes
 		if (code.getId() == null) {
@@ -105,4 +103,23 @@ public class SystemCodesDaoJpaImpl extends BaseEntityDaoJpaImpl<SystemCodes, Lon
 		}
 		return (Long) queryObject.getSingleResult();	
 	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<SystemCodes> findAllWithParent() {
+		Query queryObject = createNamedQuery("jpql.systemcodes.findAllWithParent");
+		return queryObject.getResultList();
+	}
+
+	/**
+	 * Built from the number of system codes, the highest id and the 
+	 * latest update date.
+	 */
+	@Override
+	public String getVersionStamp() {
+		Query queryObject = createNamedQuery("jpql.systemcodes.findVersionStamp");
+		Object[] row = (Object[]) queryObject.getSingleResult();
+		Date updateDate = (Date) row[2];
+		return row[0] + ":" + row[1] + ":" + (updateDate == null ? "" : updateDate.getTime());
+	}
 }
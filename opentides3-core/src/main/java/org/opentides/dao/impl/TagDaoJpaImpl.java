@@ -1,5 +1,7 @@
 package org.opentides.dao.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +20,9 @@ import org.springframework.stereotype.Repository;
 public class TagDaoJpaImpl extends BaseEntityDaoJpaImpl<Tag, Long> implements
                 TagDao {
 
+	/** Maximum number of texts in a single IN clause. */
+	private static final int MAX_TEXTS = 500;
+
 	@Override
 	public Tag loadByText(String text) {
 		if (StringUtil.isEmpty(text))
@@ -33,6 +38,44 @@ public class TagDaoJpaImpl extends BaseEntityDaoJpaImpl<Tag, Long> implements
 		}
 	}
 	
+	@Override
+	public List<Tag> findByTagTexts(Collection<String> texts) {
+		List<Tag> result = new ArrayList<Tag>();
+		if (texts == null || texts.isEmpty())
+			return result;
+		List<String> chunk = new ArrayList<String>();
+		for (String text : texts) {
+			chunk.add(text);
+			if (chunk.size() == MAX_TEXTS) {
+				result.addAll(findByTexts(chunk));
+				chunk = new ArrayList<String>();
+			}
+		}
+		if (!chunk.isEmpty())
+			result.addAll(findByTexts(chunk));
+		return result;
+	}
+
+	private List<Tag> findByTexts(List<String> texts) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("texts", texts);
+		return findByNamedQuery("jpql.tag.findByTagTexts", params);
+	}
+
+	@Override
+	public void saveTags(Collection<Tag> tags) {
+		if (tags == null || tags.isEmpty())
+			return;
+		for (Tag tag : tags) {
+			setAuditUserId(tag);
+			if (tag.isNew())
+				getEntityManager().persist(tag);
+			else if (!getEntityManager().contains(tag))
+				getEntityManager().merge(tag);
+		}
+		getEntityManager().flush();
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public List<Tag> findByTaggableClassAndId(Class clazz, Long id) {
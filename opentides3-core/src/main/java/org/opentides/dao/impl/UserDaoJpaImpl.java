@@ -42,8 +42,7 @@ public class UserDaoJpaImpl extends BaseEntityDaoJpaImpl<BaseUser, Long> impleme
 	public final boolean isRegisteredByEmail(String emailAddress) {
 		if (StringUtil.isEmpty(emailAddress))
 			return false;
-		String queryString = getJpqlQuery("jpql.user.countByEmailAddress");
-		Query queryObject = getEntityManager().createQuery(queryString);
+		Query queryObject = createNamedQuery("jpql.user.countByEmailAddress");
 		queryObject.setParameter("emailAddress", emailAddress);
 		long count = (Long) queryObject.getSingleResult();
 		return count != 0;
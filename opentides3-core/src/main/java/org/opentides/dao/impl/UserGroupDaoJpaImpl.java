@@ -107,8 +107,7 @@ public class UserGroupDaoJpaImpl extends BaseEntityDaoJpaImpl<UserGroup, Long>
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<UserGroup> getOldDefaultUserGroups(Long ... groupIds) {
-		String queryString = getJpqlQuery("jpql.usergroup.findOldDefault");
-		Query query = getEntityManager().createQuery(queryString);
+		Query query = createNamedQuery("jpql.usergroup.findOldDefault");
 		query.setParameter("groupIds", Arrays.asList(groupIds));
 		
 		return query.getResultList();
@@ -119,8 +118,7 @@ public class UserGroupDaoJpaImpl extends BaseEntityDaoJpaImpl<UserGroup, Long>
 	 */
 	@Override
 	public UserGroup getDefaultUserGroup() {
-		String queryString = getJpqlQuery("jpql.usergroup.findDefault");
-		Query query = getEntityManager().createQuery(queryString);
+		Query query = createNamedQuery("jpql.usergroup.findDefault");
 		
 		return (UserGroup) query.getSingleResult();
 	}
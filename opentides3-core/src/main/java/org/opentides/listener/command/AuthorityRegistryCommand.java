@@ -0,0 +1,59 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+
+package org.opentides.listener.command;
+
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.opentides.service.UserGroupService;
+import org.opentides.util.AuthorityRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Startup command that pre-registers all known authorities in the
+ * {@link AuthorityRegistry}, both the configured permissions and
+ * those assigned to existing user groups.
+ *
+ */
+public class AuthorityRegistryCommand implements StartupCommand {
+
+	private static final Logger _log = Logger.getLogger(AuthorityRegistryCommand.class);
+
+	@Resource(name="authorities")
+	private Map<String, String> authorities;
+
+	@Autowired
+	private UserGroupService userGroupService;
+
+	/* (non-Javadoc)
+	 * @see org.opentides.listener.command.Command#execute()
+	 */
+	@Override
+	public void execute() {
+		if (authorities != null) {
+			AuthorityRegistry.registerAll(authorities.keySet());
+		}
+		AuthorityRegistry.registerGroups(userGroupService.findAll(true));
+		_log.info("Registered " + AuthorityRegistry.size() + " authorities.");
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics provider that keeps all values in memory since startup or
+ * the last reset.
+ *
+ * Recording a value only updates a few atomic longs and never locks.
+ * Distributions are kept in buckets of powers of two, so percentiles are
+ * approximate: they are reported as the upper bound of the bucket that
+ * holds the percentile, which is at most twice the actual value.
+ */
+public class InMemoryMetricsProvider implements MetricsProvider {
+
+	private static final double NANOS_PER_MILLI = 1000000d;
+
+	private final ConcurrentMap<String, InMemoryTimer> timers = new ConcurrentHashMap<String, InMemoryTimer>();
+
+	private final ConcurrentMap<String, InMemoryCounter> counters = new ConcurrentHashMap<String, InMemoryCounter>();
+
+	private final ConcurrentMap<String, InMemoryHistogram> histograms = new ConcurrentHashMap<String, InMemoryHistogram>();
+
+	/**
+	 * Counter backed by an atomic long.
+	 */
+	public static class InMemoryCounter implements Counter {
+		private final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void increment() {
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void increment(long amount) {
+			count.addAndGet(amount);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		void reset() {
+			count.set(0);
+		}
+	}
+
+	/**
+	 * Histogram that keeps the count, sum, minimum, maximum and
+	 * the number of values in each power of two bucket.
+	 */
+	public static class InMemoryHistogram implements Histogram {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicLongArray buckets = new AtomicLongArray(65);
+
+		@Override
+		public void update(long value) {
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long current = min.get();
+			while (value < current && !min.compareAndSet(current, value)) {
+				current = min.get();
+			}
+			current = max.get();
+			while (value > current && !max.compareAndSet(current, value)) {
+				current = max.get();
+			}
+			buckets.incrementAndGet(value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value));
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public long getMin() {
+			return count.get() == 0 ? 0 : min.get();
+		}
+
+		public long getMax() {
+			return count.get() == 0 ? 0 : max.get();
+		}
+
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : (double) sum.get() / n;
+		}
+
+		/**
+		 * Returns the approximate value below which the given fraction
+		 * of the recorded values fall.
+		 *
+		 * @param quantile between 0 and 1, e.g. 0.95
+		 * @return
+		 */
+		public long getPercentile(double quantile) {
+			long n = count.get();
+			if (n == 0)
+				return 0;
+			long rank = (long) Math.ceil(quantile * n);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= rank) {
+					long upper = (i == 0) ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+					return Math.max(getMin(), Math.min(upper, getMax()));
+				}
+			}
+			return getMax();
+		}
+
+		void reset() {
+			count.set(0);
+			sum.set(0);
+			min.set(Long.MAX_VALUE);
+			max.set(Long.MIN_VALUE);
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Timer that keeps the distribution of durations in nanoseconds.
+	 */
+	public static class InMemoryTimer extends InMemoryHistogram implements Timer {
+	}
+
+	@Override
+	public Timer timer(String name) {
+		InMemoryTimer timer = timers.get(name);
+		if (timer == null) {
+			timers.putIfAbsent(name, new InMemoryTimer());
+			timer = timers.get(name);
+		}
+		return timer;
+	}
+
+	@Override
+	public Counter counter(String name) {
+		InMemoryCounter counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new InMemoryCounter());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		InMemoryHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histograms.putIfAbsent(name, new InMemoryHistogram());
+			histogram = histograms.get(name);
+		}
+		return histogram;
+	}
+
+	@Override
+	public Map<String, Map<String, Number>> getSnapshot() {
+		Map<String, Map<String, Number>> snapshot = new TreeMap<String, Map<String, Number>>();
+		for (Map.Entry<String, InMemoryCounter> entry : counters.entrySet()) {
+			Map<String, Number> values = new LinkedHashMap<String, Number>();
+			values.put("count", entry.getValue().getCount());
+			snapshot.put(entry.getKey(), values);
+		}
+		for (Map.Entry<String, InMemoryHistogram> entry : histograms.entrySet()) {
+			InMemoryHistogram histogram = entry.getValue();
+			Map<String, Number> values = new LinkedHashMap<String, Number>();
+			values.put("count", histogram.getCount());
+			values.put("mean", histogram.getMean());
+			values.put("min", histogram.getMin());
+			values.put("max", histogram.getMax());
+			values.put("p50", histogram.getPercentile(0.5));
+			values.put("p95", histogram.getPercentile(0.95));
+			values.put("p99", histogram.getPercentile(0.99));
+			snapshot.put(entry.getKey(), values);
+		}
+		for (Map.Entry<String, InMemoryTimer> entry : timers.entrySet()) {
+			InMemoryTimer timer = entry.getValue();
+			Map<String, Number> values = new LinkedHashMap<String, Number>();
+			values.put("count", timer.getCount());
+			values.put("total", timer.getSum() / NANOS_PER_MILLI);
+			values.put("mean", timer.getMean() / NANOS_PER_MILLI);
+			values.put("min", timer.getMin() / NANOS_PER_MILLI);
+			values.put("max", timer.getMax() / NANOS_PER_MILLI);
+			values.put("p50", timer.getPercentile(0.5) / NANOS_PER_MILLI);
+			values.put("p95", timer.getPercentile(0.95) / NANOS_PER_MILLI);
+			values.put("p99", timer.getPercentile(0.99) / NANOS_PER_MILLI);
+			snapshot.put(entry.getKey(), values);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Resets the values of all metrics. Metrics are kept so that
+	 * references held by callers remain valid.
+	 */
+	@Override
+	public void reset() {
+		for (InMemoryCounter counter : counters.values()) {
+			counter.reset();
+		}
+		for (InMemoryHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+		for (InMemoryTimer timer : timers.values()) {
+			timer.reset();
+		}
+	}
+}
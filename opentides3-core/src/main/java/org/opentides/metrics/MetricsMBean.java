@@ -0,0 +1,104 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only JMX view of the metrics of a {@link MetricsProvider}.
+ * Each statistic of each metric is exposed as an attribute named
+ * after the metric and the statistic, e.g.
+ * <code>dao.SystemCodes.findByExample.p95</code>.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	private final MetricsProvider provider;
+
+	public MetricsMBean(MetricsProvider provider) {
+		this.provider = provider;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		int idx = attribute.lastIndexOf('.');
+		if (idx > 0) {
+			Map<String, Number> values = provider.getSnapshot().get(attribute.substring(0, idx));
+			if (values != null && values.containsKey(attribute.substring(idx + 1)))
+				return values.get(attribute.substring(idx + 1));
+		}
+		throw new AttributeNotFoundException("No metric named " + attribute);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		Map<String, Map<String, Number>> snapshot = provider.getSnapshot();
+		for (String attribute : attributes) {
+			int idx = attribute.lastIndexOf('.');
+			if (idx <= 0)
+				continue;
+			Map<String, Number> values = snapshot.get(attribute.substring(0, idx));
+			if (values != null && values.containsKey(attribute.substring(idx + 1)))
+				list.add(new Attribute(attribute, values.get(attribute.substring(idx + 1))));
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only.");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Map<String, Number>> metric : provider.getSnapshot().entrySet()) {
+			for (Map.Entry<String, Number> value : metric.getValue().entrySet()) {
+				attributes.add(new MBeanAttributeInfo(metric.getKey() + "." + value.getKey(),
+						value.getValue().getClass().getName(), metric.getKey() + " " + value.getKey(),
+						true, false, false));
+			}
+		}
+		return new MBeanInfo(getClass().getName(), "Opentides metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+}
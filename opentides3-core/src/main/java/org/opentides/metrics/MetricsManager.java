@@ -0,0 +1,121 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.opentides.util.MetricsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Selects the metrics provider used by the framework on startup.
+ *
+ * If the application declares a bean implementing {@link MetricsProvider},
+ * that provider is used. Otherwise the provider is chosen by the
+ * metrics.provider setting:
+ * <ul>
+ * <li>none - metrics are not recorded (default)</li>
+ * <li>memory - metrics are kept in memory and available on /admin/metrics</li>
+ * <li>jmx - same as memory and also registered as the JMX bean named by
+ * metrics.jmx-name</li>
+ * </ul>
+ */
+@Component("metricsManager")
+public class MetricsManager {
+
+	private static final Logger _log = Logger.getLogger(MetricsManager.class);
+
+	@Autowired(required = false)
+	private MetricsProvider customProvider;
+
+	@Value("${metrics.provider:none}")
+	private String provider = "none";
+
+	@Value("${metrics.jmx-name:org.opentides:type=Metrics}")
+	private String jmxName = "org.opentides:type=Metrics";
+
+	private ObjectName registeredName;
+
+	@PostConstruct
+	public void init() {
+		if (customProvider != null) {
+			MetricsUtil.setProvider(customProvider);
+			_log.info("Using metrics provider " + customProvider.getClass().getName());
+			return;
+		}
+		if ("memory".equals(provider) || "jmx".equals(provider)) {
+			InMemoryMetricsProvider inMemory = new InMemoryMetricsProvider();
+			MetricsUtil.setProvider(inMemory);
+			_log.info("Recording metrics in memory.");
+			if ("jmx".equals(provider))
+				registerMBean(inMemory);
+		} else {
+			MetricsUtil.setProvider(NoOpMetricsProvider.INSTANCE);
+		}
+	}
+
+	private void registerMBean(MetricsProvider metrics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(jmxName);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(new MetricsMBean(metrics), name);
+			registeredName = name;
+			_log.info("Registered metrics as JMX bean " + jmxName);
+		} catch (Exception e) {
+			_log.error("Failed to register metrics as JMX bean " + jmxName, e);
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (registeredName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+			} catch (Exception e) {
+				_log.warn("Failed to unregister JMX bean " + registeredName, e);
+			}
+			registeredName = null;
+		}
+		MetricsUtil.setProvider(NoOpMetricsProvider.INSTANCE);
+	}
+
+	/**
+	 * @param provider none, memory or jmx
+	 */
+	public void setProvider(String provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * @return the provider used by the framework
+	 */
+	public MetricsProvider getMetricsProvider() {
+		return MetricsUtil.getProvider();
+	}
+}
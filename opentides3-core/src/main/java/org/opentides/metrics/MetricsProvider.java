@@ -0,0 +1,72 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.metrics;
+
+import java.util.Map;
+
+/**
+ * Service provider interface of the metrics recorded by the framework.
+ *
+ * Metrics are identified by dot separated names, for example
+ * <code>dao.SystemCodes.findByExample</code>. Implementations must be
+ * thread safe and must return the same metric for the same name.
+ * An application can use its own implementation by declaring a bean
+ * of this type; see {@link MetricsManager}.
+ */
+public interface MetricsProvider {
+
+	/**
+	 * Returns the timer with the given name, creating it if needed.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Timer timer(String name);
+
+	/**
+	 * Returns the counter with the given name, creating it if needed.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Counter counter(String name);
+
+	/**
+	 * Returns the histogram with the given name, creating it if needed.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Histogram histogram(String name);
+
+	/**
+	 * Returns the current values of all metrics, sorted by name. Each
+	 * metric is a map of statistic name (e.g. count, mean, p95) to value.
+	 * Durations are reported in milliseconds.
+	 *
+	 * @return
+	 */
+	public Map<String, Map<String, Number>> getSnapshot();
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,72 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Metrics provider that discards all values. This is the default
+ * provider, so that instrumented code costs nothing unless metrics
+ * are enabled.
+ */
+public class NoOpMetricsProvider implements MetricsProvider {
+
+	public static final NoOpMetricsProvider INSTANCE = new NoOpMetricsProvider();
+
+	private static final NoOp NOOP = new NoOp();
+
+	private static class NoOp implements Timer, Counter, Histogram {
+		@Override
+		public void update(long value) {
+		}
+
+		@Override
+		public void increment() {
+		}
+
+		@Override
+		public void increment(long amount) {
+		}
+	}
+
+	@Override
+	public Timer timer(String name) {
+		return NOOP;
+	}
+
+	@Override
+	public Counter counter(String name) {
+		return NOOP;
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		return NOOP;
+	}
+
+	@Override
+	public Map<String, Map<String, Number>> getSnapshot() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void reset() {
+	}
+}
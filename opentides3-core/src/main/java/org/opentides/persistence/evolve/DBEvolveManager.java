@@ -18,6 +18,7 @@
  */
 package org.opentides.persistence.evolve;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -44,6 +45,8 @@ public class DBEvolveManager {
 	@Autowired(required=false)
 	private List<Evolver> evolveList;
 
+	private volatile List<Evolver> sortedEvolveList;
+
 	@Autowired
 	private Evolver adminEvolve;
 	
@@ -78,25 +81,14 @@ public class DBEvolveManager {
 			adminEvolve.doExecute(schemaName);
 		}
 
+		final List<Evolver> evolveList = getSortedEvolveList();
+
 		// skip evolve if there is nothing in the evolve list
 		if (evolveList.isEmpty()) {
 			_log.info("No evolve scripts found.");
 			return;
 		}
 		
-		// sort the evolve list
-		Collections.sort(evolveList, new VersionComparator());
-		// check for duplicate version numbers
-		for (int i=0; i<(evolveList.size()-1); i++) {
-			if (evolveList.get(i).getVersion() == evolveList.get(i+1).getVersion()) {
-				// we have a duplicate version... exit
-				throw new InvalidImplementationException(
-						"Duplicate version number ["+evolveList.get(i).getVersion() +
-						"] detected on evolve script for "+evolveList.get(i).getClass().getName() + 
-						" and " + evolveList.get(i+1).getClass().getName());
-			}
-		}
-		
 		long currVersion = 0;
 		// get number of latest evolve script
 		if (version != null)
@@ -121,11 +113,61 @@ public class DBEvolveManager {
 		_log.info("Database is now updated to version "+latestVersion);
 	}
 
+	/**
+	 * Returns the evolve scripts sorted by version. The list is sorted and
+	 * checked only once, and is not modified afterwards so it can be used
+	 * by several schemas being evolved at the same time.
+	 * 
+	 * @return the sorted evolve scripts
+	 */
+	private List<Evolver> getSortedEvolveList() {
+		List<Evolver> sorted = sortedEvolveList;
+		if (sorted != null)
+			return sorted;
+		synchronized (this) {
+			if (sortedEvolveList != null)
+				return sortedEvolveList;
+			sorted = new ArrayList<Evolver>();
+			if (evolveList != null)
+				sorted.addAll(evolveList);
+			// sort the evolve list
+			Collections.sort(sorted, new VersionComparator());
+			// check for duplicate version numbers
+			for (int i=0; i<(sorted.size()-1); i++) {
+				if (sorted.get(i).getVersion() == sorted.get(i+1).getVersion()) {
+					// we have a duplicate version... exit
+					throw new InvalidImplementationException(
+							"Duplicate version number ["+sorted.get(i).getVersion() +
+							"] detected on evolve script for "+sorted.get(i).getClass().getName() + 
+							" and " + sorted.get(i+1).getClass().getName());
+				}
+			}
+			sortedEvolveList = Collections.unmodifiableList(sorted);
+			return sortedEvolveList;
+		}
+	}
+
+	/**
+	 * Returns the version of the latest evolve script.
+	 * 
+	 * @return the latest version, or 0 if there are no evolve scripts
+	 */
+	public long getLatestVersion() {
+		long latestVersion = 0;
+		if (evolveList != null) {
+			for (Evolver evolve:evolveList) {
+				latestVersion = Math.max(latestVersion, evolve.getVersion());
+			}
+		}
+		return latestVersion;
+	}
+
 	/**
 	 * @param evolveList the evolveList to set
 	 */
 	public void setEvolveList(List<Evolver> evolveList) {
 		this.evolveList = evolveList;
+		this.sortedEvolveList = null;
 	}
 
 	/**
@@ -20,24 +20,34 @@ under the License.
 package org.opentides.persistence.interceptor;
 
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.EntityManager;
 
 import org.apache.log4j.Logger;
 import org.hibernate.CallbackException;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.collection.spi.PersistentCollection;
 import org.hibernate.type.Type;
 import org.opentides.annotation.Auditable;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
 import org.opentides.bean.BaseEntity;
 import org.opentides.dao.impl.AuditLogDaoImpl;
 import org.opentides.util.CrudUtil;
 import org.opentides.util.DatabaseUtil;
+import org.opentides.util.MetricsUtil;
 import org.opentides.util.StringUtil;
 
 /**
@@ -56,6 +66,9 @@ public class AuditLogInterceptor extends EmptyInterceptor {
     protected Set<BaseEntity> updates      = Collections.synchronizedSet(new HashSet<BaseEntity>()); 
     protected Set<BaseEntity> deletes      = Collections.synchronizedSet(new HashSet<BaseEntity>()); 
     protected Map<Long, BaseEntity> oldies = Collections.synchronizedMap(new HashMap<Long, BaseEntity>()); 
+    protected Map<Long, Set<String>> dirties = Collections.synchronizedMap(new HashMap<Long, Set<String>>()); 
+
+    private static final Map<Class<?>, Map<String, Field>> fieldCache = new ConcurrentHashMap<Class<?>, Map<String, Field>>();
     
     @Override
     public boolean onSave(Object entity, 
@@ -93,20 +106,29 @@ public class AuditLogInterceptor extends EmptyInterceptor {
                                 String[] propertyNames, 
                                 Type[] types) 
             throws CallbackException { 
-        if (entity instanceof BaseEntity) {
+        if (entity instanceof BaseEntity && isAuditEnabled()) {
         	EntityManager em = null;
         	try {
         		BaseEntity auditable = (BaseEntity) entity;
-            	if (!auditable.isSkipAudit()) {
-		        	// Use the id and class to get the pre-update state from the database
-            		em = DatabaseUtil.getEntityManager();
-		        	BaseEntity old = (BaseEntity) em.find(entity.getClass(), auditable.getId());
-		        	
+            	if (!auditable.isSkipAudit() && entity.getClass().isAnnotationPresent(Auditable.class)) {
+            		// Use the state loaded by hibernate if available,
+            		// otherwise get the pre-update state from the database
+            		BaseEntity old = buildPreviousState(auditable, previousState, propertyNames);
+            		if (old == null) {
+	            		em = DatabaseUtil.getEntityManager();
+			        	old = (BaseEntity) em.find(entity.getClass(), auditable.getId());
+            		}
 		        	if (old == null)
 		        		return false; // old object is not yet persisted?
 		        	synchronized(oldies) {
 		        		oldies.put(old.getId(), old);
 		        	}
+		        	Set<String> dirty = findDirtyProperties(currentState, previousState, propertyNames, types);
+		        	if (dirty != null) {
+		        		synchronized(dirties) {
+		        			dirties.put(old.getId(), dirty);
+		        		}
+		        	}
 		        	synchronized(updates) {
 		        		updates.add((BaseEntity)entity);
 		        	}
@@ -122,51 +144,53 @@ public class AuditLogInterceptor extends EmptyInterceptor {
 	@Override
     public void postFlush(Iterator iterator) 
                     throws CallbackException { 
+    	long startTime = System.nanoTime();
+    	List<AuditLog> logs = new ArrayList<AuditLog>();
         try { 
+        	if (!isAuditEnabled())
+        		return;
         	synchronized(inserts) {
 	        	for (BaseEntity entity:inserts) {
 	        		if (entity.getClass().isAnnotationPresent(Auditable.class) && !entity.isSkipAudit()) {
-	        			String auditMessage = null;
-	        			
 	        			if (StringUtil.isEmpty(entity.getAuditMessage())){
-	        				auditMessage = CrudUtil.buildCreateMessage(entity);
+	        				logs.add(AuditLogDaoImpl.createLog(AuditLog.ACTION_ADDED, entity,
+	        						CrudUtil.buildPrimaryValue(entity), CrudUtil.buildCreateChanges(entity)));
 	        			}else{
-	        				auditMessage = entity.getAuditMessage();
+	        				logs.add(AuditLogDaoImpl.createLog(entity.getAuditMessage(), entity));
 	        			}
-	        			
-	        			AuditLogDaoImpl.logEvent(auditMessage, entity);	
 	        		}
 	        	}
         	}
         	synchronized(deletes) {
 	        	for (BaseEntity entity:deletes) {
 	        		if (entity.getClass().isAnnotationPresent(Auditable.class) && !entity.isSkipAudit()) {
-	        			String auditMessage = null;
-	        			
 	        			if (StringUtil.isEmpty(entity.getAuditMessage())){
-	        				auditMessage = CrudUtil.buildDeleteMessage(entity);
+	        				logs.add(AuditLogDaoImpl.createLog(AuditLog.ACTION_DELETED, entity,
+	        						CrudUtil.buildPrimaryValue(entity), null));
 	        			}else{
-	        				auditMessage = entity.getAuditMessage();
-	        			}	        			
-	        			AuditLogDaoImpl.logEvent(auditMessage, entity);       				
+	        				logs.add(AuditLogDaoImpl.createLog(entity.getAuditMessage(), entity));
+	        			}
 	        		}
 	        	}        	
         	}
         	synchronized (updates) {
                	for (BaseEntity entity:updates) {
 	        		if (entity.getClass().isAnnotationPresent(Auditable.class) && !entity.isSkipAudit()) {
-	        			String auditMessage = null;
 	        			if (StringUtil.isEmpty(entity.getAuditMessage())) {
 	        				BaseEntity old = oldies.get(entity.getId());
-			        		auditMessage = CrudUtil.buildUpdateMessage(old, entity);
+	        				List<AuditLogChange> changes = CrudUtil.buildUpdateChanges(old, entity, 
+	        						dirties.get(entity.getId()));
+	        				if (!changes.isEmpty())
+	        					logs.add(AuditLogDaoImpl.createLog(AuditLog.ACTION_CHANGED, entity,
+	        							CrudUtil.buildPrimaryValue(old), changes));
 	        			}else{
-	        				auditMessage = entity.getAuditMessage();
+	        				logs.add(AuditLogDaoImpl.createLog(entity.getAuditMessage(), entity));
 	        			}
-	        			if (!StringUtil.isEmpty(auditMessage))
-	        				AuditLogDaoImpl.logEvent(auditMessage, entity);	
 	        		}
                	}
         	}
+        	if (!logs.isEmpty())
+        		saveLogs(logs);
         } catch (Throwable e) {
     		_log.error(e,e);
     	} finally {
@@ -182,6 +206,135 @@ public class AuditLogInterceptor extends EmptyInterceptor {
 	    	synchronized (oldies) {
 	            oldies.clear();
     		}
+	    	synchronized (dirties) {
+	    		dirties.clear();
+	    	}
+	    	if (MetricsUtil.isEnabled()) {
+	    		MetricsUtil.time("audit.postFlush", startTime);
+	    		MetricsUtil.counter("audit.logs").increment(logs.size());
+	    	}
         } 
     }
+
+    /**
+     * Saves the audit logs of a flush together.
+     * 
+     * @param logs
+     */
+    protected void saveLogs(List<AuditLog> logs) {
+    	AuditLogDaoImpl.logEvents(logs);
+    }
+
+    /**
+     * @return true if audit logs are saved, otherwise no audit message is built
+     */
+    protected boolean isAuditEnabled() {
+    	return AuditLogDaoImpl.isLogEnabled();
+    }
+
+    /**
+     * Builds a copy of the entity holding the state loaded by hibernate,
+     * so that the old values need not be retrieved from the database again.
+     * Collections changed in place are replaced by their loaded snapshot.
+     * 
+     * @param entity
+     * @param previousState
+     * @param propertyNames
+     * @return the old state, or null if it cannot be built from the loaded state
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    protected BaseEntity buildPreviousState(BaseEntity entity, Object[] previousState, String[] propertyNames) {
+    	if (previousState == null)
+    		return null;
+    	try {
+    		Map<String, Field> fields = getPersistentFields(entity.getClass());
+    		BaseEntity old = (BaseEntity) getConstructor(entity.getClass()).newInstance();
+    		old.setId(entity.getId());
+    		for (int i = 0; i < propertyNames.length; i++) {
+    			Field field = fields.get(propertyNames[i]);
+    			if (field == null)
+    				return null; // property is not mapped on a field
+    			Object value = previousState[i];
+    			if (value instanceof PersistentCollection) {
+    				PersistentCollection collection = (PersistentCollection) value;
+    				if (collection.wasInitialized() && collection.isDirty()) {
+    					Serializable snapshot = collection.getStoredSnapshot();
+    					if (snapshot instanceof Map && value instanceof Set)
+    						value = new HashSet(((Map) snapshot).keySet());
+    					else if (snapshot instanceof Map)
+    						value = new HashMap((Map) snapshot);
+    					else if (snapshot instanceof List)
+    						value = new ArrayList((List) snapshot);
+    					else
+    						return null;
+    				}
+    			}
+    			field.set(old, value);
+    		}
+    		return old;
+    	} catch (Exception e) {
+    		_log.debug("Unable to build previous state of " + entity.getClass().getName(), e);
+    		return null;
+    	}
+    }
+
+    /**
+     * Returns the names of the properties whose value differs from the 
+     * loaded state, using the comparison of the hibernate types.
+     * Collections changed in place are dirty if hibernate marked them dirty.
+     * 
+     * @param currentState
+     * @param previousState
+     * @param propertyNames
+     * @param types
+     * @return the dirty properties, or null if unknown
+     */
+    protected Set<String> findDirtyProperties(Object[] currentState, Object[] previousState,
+    		String[] propertyNames, Type[] types) {
+    	if (currentState == null || previousState == null || types == null)
+    		return null;
+    	try {
+	    	Set<String> dirty = new HashSet<String>();
+	    	for (int i = 0; i < propertyNames.length; i++) {
+	    		Object current = currentState[i];
+	    		Object previous = previousState[i];
+	    		if (current instanceof PersistentCollection && current == previous) {
+	    			if (((PersistentCollection) current).isDirty())
+	    				dirty.add(propertyNames[i]);
+	    		} else if (!types[i].isEqual(previous, current)) {
+	    			dirty.add(propertyNames[i]);
+	    		}
+	    	}
+	    	return dirty;
+    	} catch (RuntimeException e) {
+    		_log.debug("Unable to compare the state of the properties", e);
+    		return null;
+    	}
+    }
+
+    private static Constructor<?> getConstructor(Class<?> clazz) throws NoSuchMethodException {
+    	Constructor<?> constructor = clazz.getDeclaredConstructor();
+    	constructor.setAccessible(true);
+    	return constructor;
+    }
+
+    /**
+     * Returns the non-static fields of the class and its superclasses by name.
+     */
+    private static Map<String, Field> getPersistentFields(Class<?> clazz) {
+    	Map<String, Field> fields = fieldCache.get(clazz);
+    	if (fields == null) {
+    		fields = new HashMap<String, Field>();
+    		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+    			for (Field field : c.getDeclaredFields()) {
+    				if (Modifier.isStatic(field.getModifiers()) || fields.containsKey(field.getName()))
+    					continue;
+    				field.setAccessible(true);
+    				fields.put(field.getName(), field);
+    			}
+    		}
+    		fieldCache.put(clazz, fields);
+    	}
+    	return fields;
+    }
 }
\ No newline at end of file
@@ -20,14 +20,11 @@ package org.opentides.persistence.listener;
 
 import java.util.Date;
 
-import javax.persistence.EntityManager;
 import javax.persistence.PostLoad;
 import javax.persistence.PrePersist;
 
 import org.apache.log4j.Logger;
 import org.opentides.bean.AuditLog;
-import org.opentides.bean.user.BaseUser;
-import org.opentides.util.DatabaseUtil;
 
 public class AuditLogListener {
 
@@ -35,22 +32,17 @@ public class AuditLogListener {
 	
 	private static boolean autoLoadObjects = true;
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Schedules loading of the tracked object and user. These are only
+	 * retrieved, together with those of the other audit logs loaded on
+	 * the same thread, when first accessed.
+	 * 
+	 * @param log
+	 */
 	@PostLoad
 	public void loadObject(AuditLog log) {
 		if (!autoLoadObjects) return;
-		EntityManager em = null;
-		try {
-			em = DatabaseUtil.getEntityManager();
-			Object object = em.find(log.getEntityClass(), log.getEntityId());
-			log.setObject(object);
-            BaseUser user = (BaseUser)DatabaseUtil.getEntityManager().find(BaseUser.class, log.getUserId());
-            log.setUser(user.cloneUserProfile());
-		} catch (Throwable e) {
-			_log.error(e, e);
-		} finally {
-			if (em!=null) em.close();
-		}
+		AuditLogLoader.register(log);
 	}
 
 	@PrePersist
@@ -74,4 +66,18 @@ public class AuditLogListener {
 	public void setAutoLoadObjects(boolean autoLoadObjects) {
 		AuditLogListener.autoLoadObjects = autoLoadObjects;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @param batchSize maximum number of audit logs whose objects are loaded together
+	 */
+	public void setBatchSize(int batchSize) {
+		AuditLogLoader.setBatchSize(batchSize);
+	}
+
+	/**
+	 * @param userCacheTimeout milliseconds to cache user profiles, 0 to disable
+	 */
+	public void setUserCacheTimeout(long userCacheTimeout) {
+		AuditLogLoader.setUserCacheTimeout(userCacheTimeout);
+	}
+}
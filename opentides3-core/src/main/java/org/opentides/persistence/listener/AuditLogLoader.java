@@ -0,0 +1,339 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.persistence.listener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
+import org.opentides.bean.BaseEntity;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.util.DatabaseUtil;
+import org.opentides.util.TenantContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Loads the tracked object and user of audit logs in batch.
+ *
+ * Audit logs loaded on the same thread are grouped together by
+ * {@link AuditLogListener}. A group only holds logs of the same tenant
+ * schema and is closed when the transaction or request that loaded the
+ * logs completes, so logs of later requests on a pooled thread are never
+ * added to it. Nothing is loaded until the object or user of
+ * one of the logs is requested; at that point the objects of all logs in
+ * the group are retrieved with one query per entity class, the users
+ * with one query and the field changes with one query. Profiles of users can optionally be cached for
+ * userCacheTimeout milliseconds.
+ *
+ * @author allanctan
+ */
+public class AuditLogLoader {
+
+	private static final Logger _log = Logger.getLogger(AuditLogLoader.class);
+
+	/** Maximum number of ids in a single IN clause. */
+	private static final int MAX_IDS = 500;
+
+	private static final ThreadLocal<AuditLogLoader> current = new ThreadLocal<AuditLogLoader>();
+
+	private static final int MAX_CACHED_USERS = 1000;
+
+	private static final Map<Long, CachedUser> userCache = new LinkedHashMap<Long, CachedUser>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, CachedUser> eldest) {
+			return size() > MAX_CACHED_USERS;
+		}
+	};
+
+	private static int batchSize = 100;
+
+	private static long userCacheTimeout = 0;
+
+	private final List<AuditLog> logs = new ArrayList<AuditLog>();
+
+	private final String schema = TenantContextHolder.getSchemaName();
+
+	private boolean loaded = false;
+
+	private static class CachedUser {
+		private final BaseUser user;
+		private final long loadedAt = System.currentTimeMillis();
+
+		private CachedUser(BaseUser user) {
+			this.user = user;
+		}
+	}
+
+	/**
+	 * Adds the audit log to the group of logs loaded on the current thread.
+	 *
+	 * @param log
+	 */
+	public static void register(AuditLog log) {
+		AuditLogLoader loader = current.get();
+		if (loader == null || !loader.isSameSchema() || !loader.add(log)) {
+			loader = new AuditLogLoader();
+			loader.add(log);
+			current.set(loader);
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				final AuditLogLoader registered = loader;
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion(int status) {
+						if (current.get() == registered)
+							current.remove();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Closes the group of logs of the current thread. Logs already in
+	 * the group are still loaded on first access.
+	 */
+	public static void clear() {
+		current.remove();
+	}
+
+	/**
+	 * Checks if this group belongs to the schema of the current tenant.
+	 */
+	private boolean isSameSchema() {
+		String currentSchema = TenantContextHolder.getSchemaName();
+		return (schema == null) ? currentSchema == null : schema.equals(currentSchema);
+	}
+
+	/**
+	 * Adds the log to this group.
+	 *
+	 * @param log
+	 * @return false if this group is already loaded or full
+	 */
+	synchronized boolean add(AuditLog log) {
+		if (loaded || logs.size() >= batchSize)
+			return false;
+		logs.add(log);
+		log.setLoader(this);
+		return true;
+	}
+
+	/**
+	 * Loads the objects and users of all logs in this group.
+	 */
+	public synchronized void load() {
+		if (loaded)
+			return;
+		loaded = true;
+		if (current.get() == this)
+			current.remove();
+		EntityManager em = null;
+		try {
+			em = getEntityManager();
+			Map<Class<?>, Map<Long, Object>> objects = loadObjects(em);
+			Map<Long, BaseUser> users = loadUsers(em);
+			Map<Long, List<AuditLogChange>> changes = loadChanges(em);
+			for (AuditLog log : logs) {
+				Map<Long, Object> byId = objects.get(log.getEntityClass());
+				if (byId != null)
+					log.setObject(byId.get(log.getEntityId()));
+				log.setUser(users.get(log.getUserId()));
+				if (log.getAction() != null) {
+					List<AuditLogChange> logChanges = changes.get(log.getId());
+					log.setChanges(logChanges == null ? new ArrayList<AuditLogChange>() : logChanges);
+				}
+			}
+		} catch (Throwable e) {
+			_log.error(e, e);
+		} finally {
+			for (AuditLog log : logs) {
+				log.setLoader(null);
+			}
+			if (em != null)
+				em.close();
+		}
+	}
+
+	/**
+	 * Retrieves the tracked objects, one query per entity class.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Class<?>, Map<Long, Object>> loadObjects(EntityManager em) {
+		Map<Class<?>, Set<Long>> ids = new HashMap<Class<?>, Set<Long>>();
+		for (AuditLog log : logs) {
+			if (log.getEntityClass() == null || log.getEntityId() == null)
+				continue;
+			if (!ids.containsKey(log.getEntityClass()))
+				ids.put(log.getEntityClass(), new LinkedHashSet<Long>());
+			ids.get(log.getEntityClass()).add(log.getEntityId());
+		}
+		Map<Class<?>, Map<Long, Object>> result = new HashMap<Class<?>, Map<Long, Object>>();
+		for (Map.Entry<Class<?>, Set<Long>> entry : ids.entrySet()) {
+			Map<Long, Object> byId = new HashMap<Long, Object>();
+			result.put(entry.getKey(), byId);
+			try {
+				if (BaseEntity.class.isAssignableFrom(entry.getKey())) {
+					String jpql = "select obj from " + entry.getKey().getName() + " obj where obj.id in (:ids)";
+					for (List<Long> chunk : partition(entry.getValue())) {
+						for (Object obj : em.createQuery(jpql).setParameter("ids", chunk).getResultList()) {
+							byId.put(((BaseEntity) obj).getId(), obj);
+						}
+					}
+				} else {
+					for (Long id : entry.getValue()) {
+						byId.put(id, em.find(entry.getKey(), id));
+					}
+				}
+			} catch (RuntimeException e) {
+				_log.error("Failed to load audited objects of " + entry.getKey().getName(), e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves the profile of the users, from the cache if available.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Long, BaseUser> loadUsers(EntityManager em) {
+		Map<Long, BaseUser> result = new HashMap<Long, BaseUser>();
+		Set<Long> ids = new LinkedHashSet<Long>();
+		long now = System.currentTimeMillis();
+		for (AuditLog log : logs) {
+			Long userId = log.getUserId();
+			if (userId == null || result.containsKey(userId))
+				continue;
+			CachedUser cached = null;
+			if (userCacheTimeout > 0) {
+				synchronized (userCache) {
+					cached = userCache.get(userId);
+				}
+			}
+			if (cached != null && now - cached.loadedAt < userCacheTimeout)
+				result.put(userId, cached.user);
+			else
+				ids.add(userId);
+		}
+		if (ids.isEmpty())
+			return result;
+		for (List<Long> chunk : partition(ids)) {
+			List<BaseUser> users = em.createQuery("select u from BaseUser u where u.id in (:ids)")
+					.setParameter("ids", chunk).getResultList();
+			for (BaseUser user : users) {
+				BaseUser profile = user.cloneUserProfile();
+				result.put(user.getId(), profile);
+				if (userCacheTimeout > 0) {
+					synchronized (userCache) {
+						userCache.put(user.getId(), new CachedUser(profile));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves the field changes of logs with an action.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Long, List<AuditLogChange>> loadChanges(EntityManager em) {
+		Map<Long, List<AuditLogChange>> result = new HashMap<Long, List<AuditLogChange>>();
+		Set<Long> ids = new LinkedHashSet<Long>();
+		for (AuditLog log : logs) {
+			if (log.getAction() != null && log.getId() != null)
+				ids.add(log.getId());
+		}
+		if (ids.isEmpty())
+			return result;
+		try {
+			for (List<Long> chunk : partition(ids)) {
+				List<AuditLogChange> changes = em.createQuery(
+						"select c from AuditLogChange c where c.auditLogId in (:ids) order by c.id")
+						.setParameter("ids", chunk).getResultList();
+				for (AuditLogChange change : changes) {
+					if (!result.containsKey(change.getAuditLogId()))
+						result.put(change.getAuditLogId(), new ArrayList<AuditLogChange>());
+					result.get(change.getAuditLogId()).add(change);
+				}
+			}
+		} catch (RuntimeException e) {
+			_log.error("Failed to load field changes of audit logs", e);
+		}
+		return result;
+	}
+
+	private static List<List<Long>> partition(Set<Long> ids) {
+		List<List<Long>> chunks = new ArrayList<List<Long>>();
+		List<Long> chunk = new ArrayList<Long>();
+		for (Long id : ids) {
+			if (chunk.size() == MAX_IDS) {
+				chunks.add(chunk);
+				chunk = new ArrayList<Long>();
+			}
+			chunk.add(id);
+		}
+		if (!chunk.isEmpty())
+			chunks.add(chunk);
+		return chunks;
+	}
+
+	/**
+	 * Returns the entity manager used to load the objects.
+	 * It is closed after loading.
+	 *
+	 * @return
+	 */
+	protected EntityManager getEntityManager() {
+		return DatabaseUtil.getEntityManager();
+	}
+
+	/**
+	 * Removes all cached user profiles.
+	 */
+	public static void clearUserCache() {
+		synchronized (userCache) {
+			userCache.clear();
+		}
+	}
+
+	/**
+	 * @param batchSize maximum number of audit logs loaded together
+	 */
+	public static void setBatchSize(int batchSize) {
+		AuditLogLoader.batchSize = batchSize;
+	}
+
+	/**
+	 * @param userCacheTimeout milliseconds to cache user profiles, 0 to disable
+	 */
+	public static void setUserCacheTimeout(long userCacheTimeout) {
+		AuditLogLoader.userCacheTimeout = userCacheTimeout;
+	}
+}
@@ -18,6 +18,17 @@ public interface AuditLogService extends BaseCrudService<AuditLog> {
 
 	@SuppressWarnings("rawtypes")
 	public List<AuditLog> findLogLikeReferenceAndClass(String reference, List<Class> types);
+
+	/**
+	 * Returns the logs that changed the given field of an object, latest first.
+	 * 
+	 * @param entityClass class of the object
+	 * @param entityId id of the object
+	 * @param fieldName name of the field
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public List<AuditLog> findLogByChangedField(Class entityClass, Long entityId, String fieldName);
 	
 	public void sortByDate(List<AuditLog> logs);
 	
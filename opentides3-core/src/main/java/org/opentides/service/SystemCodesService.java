@@ -77,4 +77,20 @@ public interface SystemCodesService extends BaseCrudService<SystemCodes> {
 	 */
 	public boolean isDuplicateKey(SystemCodes systemCodes);
 
+	/**
+	 * Finds the system code with the given {@code id} among the cached
+	 * system codes. Use {@link #load(Long)} to get a system code for update.
+	 * 
+	 * @param id
+	 * @return the system code with the given id
+	 */
+	public SystemCodes findById(Long id);
+
+	/**
+	 * Discards the cached system codes of the current schema, so that they 
+	 * are loaded again on the next lookup. If called within a transaction, 
+	 * the cache is discarded when the transaction completes.
+	 */
+	public void invalidateCache();
+
 }
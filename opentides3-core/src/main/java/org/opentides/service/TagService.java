@@ -43,4 +43,13 @@ public interface TagService extends BaseCrudService<Tag> {
 	@SuppressWarnings("rawtypes")
 	public void preProcessTags(Taggable taggable, Long id, Class clazz);
 	
+	/**
+	 * Attaches the tags of a newly saved taggable object to its id
+	 * and saves them together.
+	 * 
+	 * @param taggable
+	 * @param id
+	 */
+	public void postProcessTags(Taggable taggable, Long id);
+	
 }
@@ -77,6 +77,17 @@ public class AuditLogServiceImpl extends BaseCrudServiceImpl<AuditLog> implement
 		return getAuditLogDao().findByNamedQuery("jpql.audit.findLikeReferenceAndClass",params);
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Override
+	public List<AuditLog> findLogByChangedField(Class entityClass, Long entityId,
+			String fieldName) {
+		Map<String,Object> params = new HashMap<String,Object>();
+		params.put("entityClass", entityClass);
+		params.put("entityId", entityId);
+		params.put("fieldName", fieldName);
+		return getAuditLogDao().findByNamedQuery("jpql.audit.findByChangedField",params);
+	}
+
 	@Override
 	public void sortByDate(List<AuditLog> logs) {
 		Collections.sort(logs, new CreateDateComparator());
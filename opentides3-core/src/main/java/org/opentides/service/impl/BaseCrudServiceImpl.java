@@ -30,6 +30,7 @@ import org.opentides.bean.SearchResults;
 import org.opentides.dao.BaseEntityDao;
 import org.opentides.exception.InvalidImplementationException;
 import org.opentides.service.BaseCrudService;
+import org.opentides.util.MetricsUtil;
 import org.opentides.util.NamingUtil;
 import org.opentides.util.SecurityUtil;
 import org.opentides.util.StringUtil;
@@ -284,6 +285,11 @@ public class BaseCrudServiceImpl<T extends BaseEntity> extends
 			}
 		}
 		results.setSearchTime(System.currentTimeMillis() - startTime);
+		if (MetricsUtil.isEnabled() && entityBeanType != null) {
+			String name = "service." + entityBeanType.getSimpleName() + ".search";
+			MetricsUtil.timer(name).update(results.getSearchTime() * 1000000L);
+			MetricsUtil.histogram(name + ".results").update(results.getResults().size());
+		}
 		return results;
 	}
 	
@@ -18,17 +18,45 @@
  */
 package org.opentides.service.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.log4j.Logger;
 import org.opentides.bean.SystemCodes;
 import org.opentides.dao.SystemCodesDao;
 import org.opentides.service.SystemCodesService;
+import org.opentides.util.CloneUtil;
+import org.opentides.util.MetricsUtil;
+import org.opentides.util.StringUtil;
+import org.opentides.util.TenantContextHolder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * This is the service implementation for SystemCodes. Scaffold generated by
  * opentides3 on Jan 16, 2013 12:40:25.
  * 
+ * Lookups by key, id and category are served from a cache holding all 
+ * system codes of the current schema. The cache is replaced as a whole 
+ * when system codes are saved through {@link SystemCodesService#invalidateCache()},
+ * or when the version stamp of the system codes in the database changes,
+ * so changes made by other servers are picked up within the check interval.
+ * 
+ * The cache holds its own copies of the system codes, with each parent
+ * linked to the cached parent, so the whole parent chain can be read
+ * without a session. Lookups return copies of the cached system codes,
+ * so callers may modify them or bind form values to them.
+ * 
  * @author opentides
  * 
  */
@@ -36,26 +64,150 @@ import org.springframework.stereotype.Service;
 public class SystemCodesServiceImpl extends BaseCrudServiceImpl<SystemCodes>
 		implements SystemCodesService {
 
+	private static final Logger _log = Logger.getLogger(SystemCodesServiceImpl.class);
+
+	private static final String DEFAULT_SCHEMA = "";
+
+	private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+	private final ReentrantLock reloadLock = new ReentrantLock();
+
+	@Value("${systemcodes.cache.enabled:true}")
+	private String cacheEnabled = "true";
+
+	@Value("${systemcodes.cache.check-interval:30000}")
+	private String checkInterval = "30000";
+
+	@Value("${systemcodes.cache.max-age:600000}")
+	private String maxAge = "600000";
+
+	/**
+	 * System codes of a schema as loaded from the database.
+	 */
+	private static final class Snapshot {
+		private final String stamp;
+		private final long loadedAt;
+		private final Map<String, SystemCodes> byKey;
+		private final Map<Long, SystemCodes> byId;
+		private final Map<String, List<SystemCodes>> byCategory;
+		private final List<String> categories;
+		private volatile long checkedAt;
+
+		private Snapshot(String stamp, List<SystemCodes> loaded) {
+			this.stamp = stamp;
+			this.loadedAt = System.currentTimeMillis();
+			this.checkedAt = loadedAt;
+			// detached from the session that loaded them
+			List<SystemCodes> codes = CloneUtil.copy(loaded);
+			Map<String, SystemCodes> keys = new HashMap<String, SystemCodes>();
+			Map<Long, SystemCodes> ids = new HashMap<Long, SystemCodes>();
+			Map<String, List<SystemCodes>> categoryCodes = new TreeMap<String, List<SystemCodes>>();
+			for (SystemCodes code : codes) {
+				if (code.getId() != null)
+					ids.put(code.getId(), code);
+			}
+			for (SystemCodes code : codes) {
+				SystemCodes parent = code.getParent();
+				if (parent != null && ids.containsKey(parent.getId()))
+					code.setParent(ids.get(parent.getId()));
+				keys.put(code.getKey(), code);
+				if (code.getCategory() == null)
+					continue;
+				List<SystemCodes> list = categoryCodes.get(code.getCategory());
+				if (list == null) {
+					list = new ArrayList<SystemCodes>();
+					categoryCodes.put(code.getCategory(), list);
+				}
+				list.add(code);
+			}
+			for (Map.Entry<String, List<SystemCodes>> entry : categoryCodes.entrySet()) {
+				Collections.sort(entry.getValue(), VALUE_ORDER);
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			}
+			this.byKey = Collections.unmodifiableMap(keys);
+			this.byId = Collections.unmodifiableMap(ids);
+			this.byCategory = Collections.unmodifiableMap(categoryCodes);
+			this.categories = Collections.unmodifiableList(new ArrayList<String>(categoryCodes.keySet()));
+		}
+	}
+
+	/**
+	 * Same order as {@link SystemCodesDao#findSystemCodesByCategory(String)}.
+	 */
+	private static final Comparator<SystemCodes> VALUE_ORDER = new Comparator<SystemCodes>() {
+		@Override
+		public int compare(SystemCodes o1, SystemCodes o2) {
+			String v1 = o1.getValue() == null ? "" : o1.getValue();
+			String v2 = o2.getValue() == null ? "" : o2.getValue();
+			int ret = v1.compareTo(v2);
+			if (ret == 0 && o1.getId() != null && o2.getId() != null)
+				ret = o1.getId().compareTo(o2.getId());
+			return ret;
+		}
+	};
+
 	public List<String> getAllCategories() {
+		Snapshot snapshot = getSnapshot();
+		if (snapshot != null)
+			return new ArrayList<String>(snapshot.categories);
 		return getSystemCodesDao().getAllCategories();
 	}
 
 	public SystemCodes findByKey(SystemCodes systemCodes) {
-		return getSystemCodesDao().loadBySystemCodesByKey(systemCodes.getKey());
+		return findByKey(systemCodes.getKey());
 	}
 
 	public SystemCodes findByKey(String systemCodes) {
+		Snapshot snapshot = getSnapshot();
+		if (snapshot != null)
+			return (systemCodes == null) ? null : CloneUtil.copy(snapshot.byKey.get(systemCodes));
 		return getSystemCodesDao().loadBySystemCodesByKey(systemCodes);
 	}
 
 	public List<SystemCodes> findSystemCodesByCategory(String category) {
+		Snapshot snapshot = getSnapshot();
+		if (snapshot != null) {
+			List<SystemCodes> codes = (category == null) ? null : snapshot.byCategory.get(category);
+			return (codes == null) ? new ArrayList<SystemCodes>() 
+					: CloneUtil.copy(new ArrayList<SystemCodes>(codes));
+		}
 		return getSystemCodesDao().findSystemCodesByCategory(category);
 	}
 
 	public List<String> getAllCategoriesExcept(String... categories) {
+		Snapshot snapshot = getSnapshot();
+		if (snapshot != null) {
+			List<String> ret = new ArrayList<String>(snapshot.categories);
+			if (categories != null)
+				ret.removeAll(Arrays.asList(categories));
+			return ret;
+		}
 		return getSystemCodesDao().getAllCategoriesExcept(categories);
 	}
 
+	@Override
+	public SystemCodes findById(Long id) {
+		Snapshot snapshot = getSnapshot();
+		if (snapshot != null)
+			return (id == null) ? null : CloneUtil.copy(snapshot.byId.get(id));
+		return getSystemCodesDao().loadEntityModel(id);
+	}
+
+	@Override
+	public void invalidateCache() {
+		final String schema = getSchema();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					snapshots.remove(schema);
+				}
+			});
+		} else {
+			snapshots.remove(schema);
+		}
+	}
+
 	public SystemCodesDao getSystemCodesDao() {
 		return (SystemCodesDao) super.getDao();
 	}
@@ -67,4 +219,94 @@ public class SystemCodesServiceImpl extends BaseCrudServiceImpl<SystemCodes>
 		else
 			return false;
 	}
+
+	/**
+	 * Returns the cached system codes of the current schema. The version 
+	 * stamp is checked once every check interval; while it is checked or
+	 * the system codes are reloaded, other threads keep using the previous
+	 * cache.
+	 * 
+	 * @return the cached system codes, or null if caching is disabled
+	 */
+	private Snapshot getSnapshot() {
+		if (!isCacheEnabled())
+			return null;
+		String schema = getSchema();
+		Snapshot snapshot = snapshots.get(schema);
+		if (snapshot != null && !isDue(snapshot))
+			return snapshot;
+		if (snapshot != null) {
+			if (!reloadLock.tryLock())
+				return snapshot;
+		} else {
+			reloadLock.lock();
+		}
+		try {
+			snapshot = snapshots.get(schema);
+			if (snapshot != null && !isDue(snapshot))
+				return snapshot;
+			try {
+				String stamp = getSystemCodesDao().getVersionStamp();
+				long now = System.currentTimeMillis();
+				if (snapshot != null && stamp.equals(snapshot.stamp)
+						&& now - snapshot.loadedAt < StringUtil.convertToLong(maxAge, 600000)) {
+					snapshot.checkedAt = now;
+					return snapshot;
+				}
+				long start = System.nanoTime();
+				snapshot = new Snapshot(stamp, getSystemCodesDao().findAllWithParent());
+				snapshots.put(schema, snapshot);
+				if (MetricsUtil.isEnabled())
+					MetricsUtil.time("systemcodes.cache.reload", start);
+				_log.debug("Loaded " + snapshot.byKey.size() + " system codes for schema [" + schema + "].");
+				return snapshot;
+			} catch (RuntimeException e) {
+				if (snapshot == null)
+					throw e;
+				_log.warn("Failed to check system codes, using cached values.", e);
+				snapshot.checkedAt = System.currentTimeMillis();
+				return snapshot;
+			}
+		} finally {
+			reloadLock.unlock();
+		}
+	}
+
+	private boolean isDue(Snapshot snapshot) {
+		return System.currentTimeMillis() - snapshot.checkedAt >= StringUtil.convertToLong(checkInterval, 30000);
+	}
+
+	private static String getSchema() {
+		String schema = TenantContextHolder.getSchemaName();
+		return (schema == null) ? DEFAULT_SCHEMA : schema;
+	}
+
+	/**
+	 * @param cacheEnabled if false, all lookups go to the database
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = String.valueOf(cacheEnabled);
+	}
+
+	/**
+	 * @return the cacheEnabled
+	 */
+	public boolean isCacheEnabled() {
+		return "true".equals(cacheEnabled);
+	}
+
+	/**
+	 * @param checkInterval milliseconds between checks of the version stamp
+	 */
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = String.valueOf(checkInterval);
+	}
+
+	/**
+	 * @param maxAge milliseconds after which the system codes are reloaded
+	 *        even if the version stamp did not change
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = String.valueOf(maxAge);
+	}
 }
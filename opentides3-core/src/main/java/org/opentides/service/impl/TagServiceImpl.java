@@ -1,9 +1,12 @@
 package org.opentides.service.impl;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.opentides.bean.Tag;
@@ -30,31 +33,42 @@ public class TagServiceImpl extends BaseCrudServiceImpl<Tag>
 		this.dao = tagDao;
 	}
 	
+	/**
+	 * Resolves all tag texts with a single query and saves the missing
+	 * tags together, so the number of statements does not grow with the
+	 * number of existing tags.
+	 */
 	@Override
 	public List<Tag> createTags(String csTags[]) {
-		List<String> items = Arrays.asList( csTags );
+		Set<String> items = new LinkedHashSet<String>();
+		for (String item : csTags) {
+			if (!StringUtil.isEmpty(item))
+				items.add(item);
+		}
 		List<Tag> tags = new ArrayList<Tag>();
-		
+		if (items.isEmpty())
+			return tags;
+
+		Map<String, Tag> existing = new HashMap<String, Tag>();
+		for (Tag tag : getTagDao().findByTagTexts(items)) {
+			if (!existing.containsKey(tag.getTagText()))
+				existing.put(tag.getTagText(), tag);
+		}
+		List<Tag> newTags = new ArrayList<Tag>();
 		for (String item : items) {
-			
-			TagDao dao = (TagDao) getDao();
-			Tag existingTag = dao.loadByText(item);
-			
-			if(!(StringUtil.isEmpty(item) || "".equals(item))) {
-				if(existingTag != null) {
-					_log.debug("Saving existing TAG: " + existingTag.getTagText());
-					tags.add(existingTag);
-				} else {
-					Tag tag = new Tag();
-					tag.setTagText(item);
-					save(tag);
-					tags.add(tag);
-					_log.debug("Creating new TAG: " + tag.getTagText());
-				}
+			Tag existingTag = existing.get(item);
+			if (existingTag != null) {
+				_log.debug("Saving existing TAG: " + existingTag.getTagText());
+				tags.add(existingTag);
+			} else {
+				Tag tag = new Tag();
+				tag.setTagText(item);
+				newTags.add(tag);
+				tags.add(tag);
+				_log.debug("Creating new TAG: " + tag.getTagText());
 			}
-			
 		}
-		
+		getTagDao().saveTags(newTags);
 		return tags;
 	}
 	
@@ -99,16 +113,32 @@ public class TagServiceImpl extends BaseCrudServiceImpl<Tag>
 						finalTags.add(tag);
 					}
 				}
+				List<Tag> newTags = new ArrayList<Tag>();
 				for(Tag finalTag : finalTags) {
 					if(finalTag.isNew()) {
-						save(finalTag);
+						newTags.add(finalTag);
 					}
 				}
+				getTagDao().saveTags(newTags);
 				taggable.setTags(finalTags);
 			}
 		}
 	}
 	
+	@Override
+	public void postProcessTags(Taggable taggable, Long id) {
+		if(taggable.getTags() != null && !taggable.getTags().isEmpty()) {
+			List<Tag> tags = new ArrayList<Tag>();
+			for(Tag tag : taggable.getTags()) {
+				if(tag.getTaggableId() == null) {
+					tag.setTaggableId(id);
+					tags.add(tag);
+				}
+			}
+			getTagDao().saveTags(tags);
+		}
+	}
+	
 	private TagDao getTagDao() {
 		return (TagDao)dao;
 	}
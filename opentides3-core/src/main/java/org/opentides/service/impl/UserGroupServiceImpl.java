@@ -19,6 +19,7 @@
 package org.opentides.service.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +33,7 @@ import org.opentides.bean.user.UserAuthority;
 import org.opentides.bean.user.UserGroup;
 import org.opentides.dao.UserGroupDao;
 import org.opentides.service.UserGroupService;
+import org.opentides.util.AuthorityRegistry;
 import org.springframework.stereotype.Service;
 
 @Service("userGroupService")
@@ -77,6 +79,16 @@ public class UserGroupServiceImpl extends BaseCrudServiceImpl<UserGroup>
 		return this.authorities;
 	}
 
+	/**
+	 * Saves the user group and registers any new authority
+	 * to the {@link AuthorityRegistry}.
+	 */
+	@Override
+	public void save(UserGroup entity, boolean bypassSecurity) {
+		super.save(entity, bypassSecurity);
+		AuthorityRegistry.registerGroups(Collections.singletonList(entity));
+	}
+
 	public UserGroup loadUserGroupByName(String name){
 		return ((UserGroupDao)dao).loadUserGroupByName(name);
 	}
@@ -104,6 +116,7 @@ public class UserGroupServiceImpl extends BaseCrudServiceImpl<UserGroup>
 			}
 			userGroup.setAuthorityNames(names);
 			getDao().saveEntityModel(userGroup);
+			AuthorityRegistry.registerAll(names);
 			_log.info("New installation detected, inserted Administrator usergroup to database.");
 		}		
 		return !exist;
@@ -0,0 +1,367 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.LazyInitializationException;
+import org.hibernate.proxy.HibernateProxy;
+import org.opentides.bean.AuditLogChange;
+import org.opentides.bean.AuditableField;
+import org.opentides.bean.BaseEntity;
+import org.opentides.bean.EntityAccessor;
+
+/**
+ * Computes the field changes between the old and new state of an audited
+ * entity.
+ * 
+ * Getters of the auditable fields are resolved once per class. Fields known
+ * to be unchanged (e.g. not reported dirty by Hibernate) are skipped without
+ * reading their values. Collections are compared using hash sets keyed by
+ * the id of their elements, so the cost grows linearly with the size of the
+ * collections. Values are written into a buffer that is reused by the
+ * current thread.
+ * 
+ * @author allanctan
+ */
+public class AuditDiffUtil {
+
+	private static final Logger _log = Logger.getLogger(AuditDiffUtil.class);
+
+	/**
+	 * Buffers larger than this are not kept for reuse.
+	 */
+	private static final int MAX_BUFFER_SIZE = 16 * 1024;
+
+	private static final Map<Class<?>, Accessor[]> accessors = new ConcurrentHashMap<Class<?>, Accessor[]>();
+
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	/**
+	 * Getter of an auditable field, either the generated accessor
+	 * of the entity or the getter method.
+	 */
+	private static class Accessor {
+		private final String fieldName;
+		private final Method getter;
+		private final EntityAccessor<BaseEntity> entityAccessor;
+		private final int index;
+
+		private Accessor(String fieldName, Method getter) {
+			this.fieldName = fieldName;
+			this.getter = getter;
+			this.entityAccessor = null;
+			this.index = -1;
+		}
+
+		private Accessor(String fieldName, EntityAccessor<BaseEntity> entityAccessor, int index) {
+			this.fieldName = fieldName;
+			this.getter = null;
+			this.entityAccessor = entityAccessor;
+			this.index = index;
+		}
+
+		private Object get(Object obj) {
+			if (obj == null || (getter == null && entityAccessor == null))
+				return null;
+			try {
+				if (entityAccessor != null)
+					return entityAccessor.getValue((BaseEntity) obj, index);
+				return getter.invoke(obj);
+			} catch (Exception e) {
+				_log.debug("Failed to retrieve value for " + fieldName, e);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Hide the constructor.
+	 */
+	private AuditDiffUtil() {
+	}
+
+	/**
+	 * Compares all auditable fields of the old and new object.
+	 * 
+	 * @param oldObject
+	 * @param newObject
+	 * @return the changed fields
+	 */
+	public static List<AuditLogChange> diff(final BaseEntity oldObject,
+			final BaseEntity newObject) {
+		return diff(oldObject, newObject, null);
+	}
+
+	/**
+	 * Compares the auditable fields of the old and new object. Only fields
+	 * included in dirtyFields are compared; if dirtyFields is null, all
+	 * auditable fields are compared.
+	 * 
+	 * @param oldObject
+	 * @param newObject
+	 * @param dirtyFields names of fields that may have changed, or null
+	 * @return the changed fields
+	 */
+	public static List<AuditLogChange> diff(final BaseEntity oldObject,
+			final BaseEntity newObject, final Set<String> dirtyFields) {
+		if (dirtyFields != null && dirtyFields.isEmpty())
+			return new ArrayList<AuditLogChange>(0);
+		final List<AuditLogChange> changes = new ArrayList<AuditLogChange>();
+		for (final Accessor accessor : getAccessors(oldObject.getClass())) {
+			if (dirtyFields != null && !dirtyFields.contains(accessor.fieldName))
+				continue;
+			final AuditLogChange change = diffValue(accessor.fieldName,
+					accessor.get(oldObject), accessor.get(newObject));
+			if (change != null)
+				changes.add(change);
+		}
+		return changes;
+	}
+
+	/**
+	 * Compares the old and new value of a single field.
+	 * 
+	 * @param fieldName
+	 * @param oldValue
+	 * @param newValue
+	 * @return the change, or null if the value did not change
+	 */
+	public static AuditLogChange diffValue(final String fieldName,
+			final Object oldValue, final Object newValue) {
+		if (oldValue == newValue)
+			return null;
+		final boolean oldCollection = oldValue instanceof Collection;
+		final boolean newCollection = newValue instanceof Collection;
+		try {
+			if (oldCollection || newCollection) {
+				if ((!oldCollection && !isEmpty(oldValue)) || (!newCollection && !isEmpty(newValue))) {
+					_log.warn("Unable to compare [" + fieldName
+							+ "] for audit logging due to difference in datatype.");
+					return null;
+				}
+				return diffCollection(fieldName,
+						oldCollection ? (Collection<?>) oldValue : null,
+						newCollection ? (Collection<?>) newValue : null);
+			}
+			if (isEqual(oldValue, newValue))
+				return null;
+			final String oldString = toString(oldValue);
+			final String newString = toString(newValue);
+			if (oldString == null && newString == null)
+				return null;
+			return new AuditLogChange(fieldName, oldString, newString, false);
+		} catch (final LazyInitializationException e) {
+			// values that were never loaded could not have been changed
+			return null;
+		}
+	}
+
+	/**
+	 * Compares two collections by the id of their elements, or by the
+	 * elements themselves if they have no id.
+	 */
+	private static AuditLogChange diffCollection(final String fieldName,
+			final Collection<?> oldValues, final Collection<?> newValues) {
+		final int oldSize = oldValues == null ? 0 : oldValues.size();
+		final int newSize = newValues == null ? 0 : newValues.size();
+		if (oldSize == 0 && newSize == 0)
+			return null;
+		final Set<Object> oldKeys = keys(oldValues, oldSize);
+		final Set<Object> newKeys = keys(newValues, newSize);
+		List<Object> added = null;
+		if (newValues != null) {
+			for (final Object value : newValues) {
+				if (!oldKeys.contains(key(value))) {
+					if (added == null)
+						added = new ArrayList<Object>();
+					added.add(value);
+				}
+			}
+		}
+		List<Object> removed = null;
+		if (oldValues != null) {
+			for (final Object value : oldValues) {
+				if (!newKeys.contains(key(value))) {
+					if (removed == null)
+						removed = new ArrayList<Object>();
+					removed.add(value);
+				}
+			}
+		}
+		if (added == null && removed == null)
+			return null;
+		return new AuditLogChange(fieldName, join(removed), join(added), true);
+	}
+
+	private static Set<Object> keys(final Collection<?> values, final int size) {
+		if (size == 0)
+			return Collections.emptySet();
+		final Set<Object> keys = new HashSet<Object>(size * 4 / 3 + 1);
+		for (final Object value : values) {
+			keys.add(key(value));
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the id of persisted entities, without initializing proxies.
+	 */
+	private static Object key(final Object value) {
+		if (value instanceof HibernateProxy) {
+			final Object id = ((HibernateProxy) value).getHibernateLazyInitializer().getIdentifier();
+			if (id != null)
+				return id;
+		} else if (value instanceof BaseEntity) {
+			final Long id = ((BaseEntity) value).getId();
+			if (id != null)
+				return id;
+		}
+		return value;
+	}
+
+	private static boolean isEqual(final Object oldValue, final Object newValue) {
+		if (isEmpty(oldValue))
+			return isEmpty(newValue);
+		if (isEmpty(newValue))
+			return false;
+		if (oldValue instanceof Date && newValue instanceof Date) {
+			// dates are displayed up to the seconds
+			return ((Date) oldValue).getTime() / 1000 == ((Date) newValue).getTime() / 1000;
+		}
+		if (oldValue instanceof BaseEntity || oldValue instanceof HibernateProxy) {
+			final Object oldKey = key(oldValue);
+			if (oldKey != oldValue && oldKey.equals(key(newValue)))
+				return true;
+		}
+		return oldValue.equals(newValue);
+	}
+
+	private static boolean isEmpty(final Object value) {
+		return value == null || (value instanceof String && ((String) value).trim().isEmpty());
+	}
+
+	/**
+	 * Converts the value into its display form, null if empty.
+	 */
+	private static String toString(final Object value) {
+		if (isEmpty(value))
+			return null;
+		if (value instanceof Date) {
+			if (DateUtil.hasTime((Date) value)) {
+				return DateUtil.dateToString((Date) value, "EEE, dd MMM yyyy HH:mm:ss z");
+			} else {
+				return DateUtil.dateToString((Date) value, "EEE, dd MMM yyyy");
+			}
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Writes the values in the same form as {@link java.util.AbstractCollection#toString()},
+	 * up to the maximum length stored for a change.
+	 */
+	private static String join(final List<Object> values) {
+		if (values == null)
+			return null;
+		final StringBuilder buffer = getBuffer();
+		buffer.append('[');
+		for (int i = 0; i < values.size(); i++) {
+			if (buffer.length() > AuditLogChange.MAX_VALUE_LENGTH)
+				break;
+			if (i > 0)
+				buffer.append(", ");
+			buffer.append(values.get(i));
+		}
+		buffer.append(']');
+		return releaseBuffer(buffer);
+	}
+
+	/**
+	 * Returns the empty buffer of the current thread. The buffer must be
+	 * released with {@link #releaseBuffer(StringBuilder)} before it is
+	 * requested again.
+	 * 
+	 * @return
+	 */
+	static StringBuilder getBuffer() {
+		final StringBuilder buffer = buffers.get();
+		buffer.setLength(0);
+		return buffer;
+	}
+
+	/**
+	 * Returns the content of the buffer, discarding the buffer if it
+	 * has grown too large to be kept.
+	 * 
+	 * @param buffer
+	 * @return
+	 */
+	static String releaseBuffer(final StringBuilder buffer) {
+		final String value = buffer.toString();
+		if (buffer.capacity() > MAX_BUFFER_SIZE)
+			buffers.remove();
+		return value;
+	}
+
+	/**
+	 * Returns the getters of the auditable fields of the class.
+	 */
+	private static Accessor[] getAccessors(final Class<?> clazz) {
+		Accessor[] ret = accessors.get(clazz);
+		if (ret == null) {
+			final List<AuditableField> fields = CacheUtil.getAuditable(clazz);
+			final EntityAccessor<BaseEntity> entityAccessor = CacheUtil.getAccessor(clazz);
+			ret = new Accessor[fields.size()];
+			for (int i = 0; i < ret.length; i++) {
+				final String fieldName = fields.get(i).getFieldName();
+				final int index = (entityAccessor == null) ? -1 : entityAccessor.indexOf(fieldName);
+				if (index >= 0) {
+					ret[i] = new Accessor(fieldName, entityAccessor, index);
+					continue;
+				}
+				Method getter = null;
+				try {
+					getter = clazz.getMethod(NamingUtil.toGetterName(fieldName));
+				} catch (final NoSuchMethodException e) {
+					_log.debug("No getter for auditable field [" + fieldName
+							+ "] of " + clazz.getName());
+				}
+				ret[i] = new Accessor(fieldName, getter);
+			}
+			accessors.put(clazz, ret);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+
+package org.opentides.util;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.user.UserAuthority;
+import org.opentides.bean.user.UserGroup;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Global registry that assigns a fixed ordinal to every authority name. This
+ * allows {@link org.opentides.bean.user.SessionUser} to keep its authorities
+ * as a {@link BitSet} so that permission checks become a single bit test
+ * instead of a scan over the granted authorities.
+ *
+ * Ordinals are only ever appended, never reassigned, so bitsets built earlier
+ * remain valid when new authorities are registered.
+ *
+ */
+public class AuthorityRegistry {
+
+	private static final Logger _log = Logger.getLogger(AuthorityRegistry.class);
+
+	private static final Map<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	/**
+	 * Hide the constructor.
+	 */
+	private AuthorityRegistry() {
+	}
+
+	/**
+	 * Registers the given authority name and returns its ordinal. If the
+	 * authority is already registered, the existing ordinal is returned.
+	 *
+	 * @param authority
+	 * @return ordinal of the authority, or -1 if authority is empty
+	 */
+	public static int register(String authority) {
+		if (StringUtil.isEmpty(authority)) {
+			return -1;
+		}
+		Integer ordinal = ordinals.get(authority);
+		if (ordinal == null) {
+			synchronized (ordinals) {
+				ordinal = ordinals.get(authority);
+				if (ordinal == null) {
+					ordinal = counter.getAndIncrement();
+					ordinals.put(authority, ordinal);
+					if (_log.isDebugEnabled()) {
+						_log.debug("Registered authority [" + authority
+								+ "] with ordinal " + ordinal);
+					}
+				}
+			}
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Registers all the given authority names.
+	 *
+	 * @param authorities
+	 */
+	public static void registerAll(Collection<String> authorities) {
+		if (authorities == null) {
+			return;
+		}
+		for (String authority : authorities) {
+			register(authority);
+		}
+	}
+
+	/**
+	 * Registers all the authorities assigned to the given user groups.
+	 *
+	 * @param groups
+	 */
+	public static void registerGroups(Collection<UserGroup> groups) {
+		if (groups == null) {
+			return;
+		}
+		for (UserGroup group : groups) {
+			if (group.getAuthorities() == null) {
+				continue;
+			}
+			for (UserAuthority auth : group.getAuthorities()) {
+				register(auth.getAuthority());
+			}
+		}
+	}
+
+	/**
+	 * Returns the ordinal of the given authority without registering it.
+	 *
+	 * @param authority
+	 * @return ordinal of the authority, or -1 if not registered
+	 */
+	public static int ordinalOf(String authority) {
+		if (authority == null) {
+			return -1;
+		}
+		Integer ordinal = ordinals.get(authority);
+		return (ordinal == null) ? -1 : ordinal;
+	}
+
+	/**
+	 * Builds the bitset for the given granted authorities. Authorities not yet
+	 * known to the registry are registered.
+	 *
+	 * @param authorities
+	 * @return
+	 */
+	public static BitSet toBitSet(Collection<? extends GrantedAuthority> authorities) {
+		BitSet bits = new BitSet(counter.get());
+		if (authorities != null) {
+			for (GrantedAuthority auth : authorities) {
+				int ordinal = register(auth.getAuthority());
+				if (ordinal >= 0) {
+					bits.set(ordinal);
+				}
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Checks if the given bitset contains the specified authority.
+	 *
+	 * @param bits
+	 * @param authority
+	 * @return
+	 */
+	public static boolean hasAuthority(BitSet bits, String authority) {
+		int ordinal = ordinalOf(authority);
+		return ordinal >= 0 && bits.get(ordinal);
+	}
+
+	/**
+	 * Returns the number of registered authorities.
+	 *
+	 * @return
+	 */
+	public static int size() {
+		return ordinals.size();
+	}
+}
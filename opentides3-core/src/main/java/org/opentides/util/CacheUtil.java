@@ -25,9 +25,11 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.Column;
@@ -36,6 +38,7 @@ import javax.persistence.Transient;
 
 import org.apache.log4j.Logger;
 import org.hibernate.annotations.Columns;
+import org.hibernate.proxy.HibernateProxy;
 import org.opentides.annotation.Auditable;
 import org.opentides.annotation.BuildDeleteStatement;
 import org.opentides.annotation.BuildInsertStatement;
@@ -47,6 +50,7 @@ import org.opentides.annotation.SearchableFields;
 import org.opentides.annotation.SynchronizableFields;
 import org.opentides.bean.AuditableField;
 import org.opentides.bean.BaseEntity;
+import org.opentides.bean.EntityAccessor;
 import org.opentides.bean.JoinTable;
 
 /**
@@ -86,6 +90,10 @@ public class CacheUtil {
 	private static final Map<Class<?>, Method> updateMethods = new ConcurrentHashMap<Class<?>, Method>();
 
 	private static final Map<Class<?>, Method> deleteMethods = new ConcurrentHashMap<Class<?>, Method>();
+
+	private static final Map<Class<?>, EntityAccessor<?>> accessors = new ConcurrentHashMap<Class<?>, EntityAccessor<?>>();
+
+	private static final Set<Class<?>> noAccessors = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
 	
 	static {
 		excludeFields.add("createDate");
@@ -110,7 +118,16 @@ public class CacheUtil {
 	 * @return
 	 */
 	public static String getReadableName(BaseEntity obj) {
-		Class<?> clazz = obj.getClass();
+		return getReadableName(obj.getClass());
+	}
+
+	/**
+	 * Same as {@link #getReadableName(BaseEntity)} but for the given entity class.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	public static String getReadableName(Class<?> clazz) {
 		String ret = readableName.get(clazz);
 		if (ret == null) {
 			if (clazz.isAnnotationPresent(Auditable.class)) {
@@ -133,8 +150,8 @@ public class CacheUtil {
 				_log.debug(clazz.getSimpleName() + " has readable name of '"
 						+ ret + "'");
 			}
-			readableName.put(obj.getClass(), ret);
-			ret = readableName.get(obj.getClass());
+			readableName.put(clazz, ret);
+			ret = readableName.get(clazz);
 		}
 		return ret;
 	}
@@ -148,13 +165,28 @@ public class CacheUtil {
 	 * @return
 	 */
 	public static List<AuditableField> getAuditable(BaseEntity obj) {
-		Class<?> clazz = obj.getClass();
+		return getAuditable(obj.getClass());
+	}
+
+	/**
+	 * Same as {@link #getAuditable(BaseEntity)} but for the given entity class.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	public static List<AuditableField> getAuditable(Class<?> clazz) {
 		List<AuditableField> ret = auditable.get(clazz);
 		if (ret == null) {
 			List<AuditableField> auditableFields = new ArrayList<AuditableField>();
 			// no annotated method, use auto-detection
 			Auditable annotation = clazz.getAnnotation(Auditable.class);
-			if (annotation != null) {
+			EntityAccessor<BaseEntity> accessor = (annotation == null) ? null : getAccessor(clazz);
+			if (accessor != null) {
+				for (String fieldName : accessor.getAuditableFields()) {
+					if (!excludeFields.contains(fieldName))
+						auditableFields.add(new AuditableField(fieldName));
+				}
+			} else if (annotation != null) {
 				final List<Field> fields = CrudUtil.getAllFields(clazz,
 						annotation.includeParentFields());
 				List<String> exclude = Arrays
@@ -175,8 +207,8 @@ public class CacheUtil {
 					_log.debug(audit.getTitle() + ":" + audit.getFieldName());
 				}
 			}
-			auditable.put(obj.getClass(), auditableFields);
-			ret = auditable.get(obj.getClass());
+			auditable.put(clazz, auditableFields);
+			ret = auditable.get(clazz);
 		}
 		return ret;
 	}
@@ -189,7 +221,16 @@ public class CacheUtil {
 	 * @return
 	 */
 	public static AuditableField getPrimaryField(BaseEntity obj) {
-		Class<?> clazz = obj.getClass();
+		return getPrimaryField(obj.getClass());
+	}
+
+	/**
+	 * Same as {@link #getPrimaryField(BaseEntity)} but for the given entity class.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	public static AuditableField getPrimaryField(Class<?> clazz) {
 		AuditableField ret = primaryField.get(clazz);
 		if (ret == null) {
 			// loop all fields
@@ -225,8 +266,8 @@ public class CacheUtil {
 
 			if (pf == null)
 				pf = new AuditableField("", "");
-			primaryField.put(obj.getClass(), pf);
-			ret = primaryField.get(obj.getClass());
+			primaryField.put(clazz, pf);
+			ret = primaryField.get(clazz);
 			if (_log.isDebugEnabled()) {
 				_log.debug("Primary Field is " + ret.getTitle() + ":"
 						+ ret.getFieldName());
@@ -392,18 +433,23 @@ public class CacheUtil {
 		Class<?> clazz = obj.getClass();
 		List<String> ret = searchableFields.get(clazz);
 		if (ret == null) {
-			// check if method annotated with searchableFields is available
 			List<String> fields = null;
-			for (Method m : clazz.getDeclaredMethods()) {
-				if (m.isAnnotationPresent(SearchableFields.class)) {
-					try {
-						fields = (List<String>) m.invoke(obj);
-					} catch (Exception e) {
-						_log.warn(
-								"Unable to execute annotated method @SearchableFields of "
-										+ obj.getClass().getSimpleName(), e);
+			EntityAccessor<BaseEntity> accessor = getAccessor(clazz);
+			if (accessor != null)
+				fields = accessor.getSearchableFields();
+			// check if method annotated with searchableFields is available
+			if (fields == null) {
+				for (Method m : clazz.getDeclaredMethods()) {
+					if (m.isAnnotationPresent(SearchableFields.class)) {
+						try {
+							fields = (List<String>) m.invoke(obj);
+						} catch (Exception e) {
+							_log.warn(
+									"Unable to execute annotated method @SearchableFields of "
+											+ obj.getClass().getSimpleName(), e);
+						}
+						break;
 					}
-					break;
 				}
 			}
 			if (fields == null) {
@@ -659,6 +705,44 @@ public class CacheUtil {
 	}
 	
 
+	/**
+	 * Retrieves the accessor generated at compile time for the entity class.
+	 * Hibernate proxies use the accessor of their entity.
+	 * 
+	 * @param clazz
+	 * @return the accessor, or null if the entity has no generated accessor
+	 */
+	@SuppressWarnings("unchecked")
+	public static EntityAccessor<BaseEntity> getAccessor(Class<?> clazz) {
+		EntityAccessor<?> ret = accessors.get(clazz);
+		if (ret == null && !noAccessors.contains(clazz)) {
+			Class<?> entityClass = clazz;
+			if (HibernateProxy.class.isAssignableFrom(clazz))
+				entityClass = clazz.getSuperclass();
+			try {
+				Class<?> accessorClass = Class.forName(entityClass.getName()
+						+ EntityAccessor.SUFFIX, false, entityClass.getClassLoader());
+				if (EntityAccessor.class.isAssignableFrom(accessorClass)) {
+					EntityAccessor<?> accessor = (EntityAccessor<?>) accessorClass.newInstance();
+					if (accessor.getEntityClass() == entityClass)
+						ret = accessor;
+				}
+			} catch (ClassNotFoundException e) {
+				// no generated accessor, use reflection
+			} catch (Exception e) {
+				_log.warn("Unable to create accessor of " + entityClass.getName(), e);
+			}
+			if (ret == null) {
+				noAccessors.add(clazz);
+			} else {
+				if (_log.isDebugEnabled())
+					_log.debug("Using generated accessor for " + entityClass.getName());
+				accessors.put(clazz, ret);
+			}
+		}
+		return (EntityAccessor<BaseEntity>) ret;
+	}
+
 	/**
 	 * Private helper to check if field is persistent.
 	 * @param field
@@ -0,0 +1,371 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.util;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.opentides.bean.BaseEntity;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.springframework.objenesis.Objenesis;
+import org.springframework.objenesis.ObjenesisStd;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * Creates deep copies of entities without going through serialization.
+ * 
+ * The same fields are copied as with serialization: all non-static and 
+ * non-transient fields, including those of the parent classes. Fields are
+ * resolved once per class and instances are created without calling their
+ * constructors, same as when deserialized. Strings, numbers, enums and other
+ * immutable values are shared with the source.
+ * 
+ * Hibernate proxies are replaced by a copy of their implementation and
+ * initialized persistent collections are copied into plain java collections,
+ * so the copy is detached from the session of the source. Uninitialized 
+ * proxies and collections are not loaded. An uninitialized collection is 
+ * copied field by field like any other object, which leaves it without a 
+ * session as serialization did, so reading it throws a lazy initialization
+ * error. An uninitialized proxy of an entity is copied as a new instance 
+ * holding only its id, or null if the entity cannot be created that way.
+ * 
+ * Each object in the graph is copied only once, so shared references and 
+ * cycles (e.g. user to credential and back) are kept in the copy. Objects 
+ * beyond the given depth are shared with the source.
+ * 
+ * @author allanctan
+ */
+public class CloneUtil {
+
+	private static final Logger _log = Logger.getLogger(CloneUtil.class);
+
+	private static final Objenesis objenesis = new ObjenesisStd(true);
+
+	private static final Map<Class<?>, Field[]> fields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+	private static final Map<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+	private static final Set<Class<?>> noConstructors = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
+	private static final Set<Class<?>> immutables = new HashSet<Class<?>>();
+
+	static {
+		immutables.addAll(Arrays.<Class<?>> asList(String.class, Boolean.class, Character.class, 
+				Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+				BigDecimal.class, BigInteger.class, Class.class, Locale.class, UUID.class));
+	}
+
+	/**
+	 * Hide the constructor.
+	 */
+	private CloneUtil() {
+	}
+
+	/**
+	 * Creates a deep copy of the given object.
+	 * 
+	 * @param source
+	 * @return the copy, or null if source is null
+	 */
+	public static <T> T copy(final T source) {
+		return copy(source, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a copy of the given object. Objects that are more than maxDepth
+	 * references away from the source are shared with the source, e.g. with 
+	 * maxDepth 0 only the source is copied and with maxDepth 1 the objects it
+	 * refers to are also copied. Elements of a collection are at the same 
+	 * depth as the field holding the collection.
+	 * 
+	 * @param source
+	 * @param maxDepth
+	 * @return the copy, or null if source is null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T copy(final T source, final int maxDepth) {
+		return (T) new Copier(maxDepth).copy(source, 0);
+	}
+
+	/**
+	 * Copies a single object graph, keeping track of the objects 
+	 * already copied.
+	 */
+	private static class Copier {
+		private final int maxDepth;
+		private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+		private Copier(int maxDepth) {
+			this.maxDepth = maxDepth;
+		}
+
+		private Object copy(Object source, int depth) {
+			if (source == null || isImmutable(source.getClass()))
+				return source;
+			if (source instanceof HibernateProxy) {
+				LazyInitializer initializer = ((HibernateProxy) source).getHibernateLazyInitializer();
+				if (initializer.isUninitialized())
+					return copyUninitialized(source, initializer);
+				source = initializer.getImplementation();
+				if (source == null)
+					return null;
+			}
+			Object copy = copies.get(source);
+			if (copy != null || depth > maxDepth)
+				return (copy != null) ? copy : source;
+			if (source instanceof PersistentCollection 
+					&& !((PersistentCollection) source).wasInitialized()) {
+				// the session is transient, so the copy is detached
+				copy = copyFields(source, depth);
+			} else if (source instanceof Date || source instanceof Calendar || source instanceof TimeZone) {
+				copy = cloneValue(source);
+			} else if (source instanceof Collection) {
+				copy = copyCollection((Collection<?>) source, depth);
+			} else if (source instanceof Map) {
+				copy = copyMap((Map<?, ?>) source, depth);
+			} else if (source.getClass().isArray()) {
+				copy = copyArray(source, depth);
+			} else if (source.getClass().getName().startsWith("java.")) {
+				// other jdk classes are not copied field by field
+				if (source instanceof Serializable)
+					copy = SerializationUtils.deserialize(SerializationUtils.serialize(source));
+				else
+					copy = source;
+				copies.put(source, copy);
+			} else {
+				copy = copyFields(source, depth);
+			}
+			return copy;
+		}
+
+		private Object copyFields(Object source, int depth) {
+			Object copy = objenesis.newInstance(source.getClass());
+			copies.put(source, copy);
+			for (Field field : getFields(source.getClass())) {
+				try {
+					Object value = field.get(source);
+					if (field.getType().isPrimitive())
+						field.set(copy, value);
+					else
+						field.set(copy, copy(value, depth + 1));
+				} catch (IllegalAccessException e) {
+					_log.error("Failed to copy field " + field.getName() + " of " + source.getClass(), e);
+				}
+			}
+			return copy;
+		}
+
+		private Object copyUninitialized(Object source, LazyInitializer initializer) {
+			Object copy = copies.get(source);
+			if (copy != null)
+				return copy;
+			Class<?> clazz = initializer.getPersistentClass();
+			Object id = initializer.getIdentifier();
+			if (clazz == null || !BaseEntity.class.isAssignableFrom(clazz) 
+					|| Modifier.isAbstract(clazz.getModifiers()) || !(id instanceof Long))
+				return null;
+			try {
+				BaseEntity entity = (BaseEntity) objenesis.newInstance(clazz);
+				entity.setId((Long) id);
+				copies.put(source, entity);
+				return entity;
+			} catch (RuntimeException e) {
+				_log.debug("Failed to create instance of " + clazz, e);
+				return null;
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object copyCollection(Collection<?> source, int depth) {
+			Collection copy;
+			if (source instanceof EnumSet) {
+				copy = ((EnumSet) source).clone();
+				copies.put(source, copy);
+				return copy;
+			}
+			if (source instanceof SortedSet)
+				copy = new TreeSet(((SortedSet) source).comparator());
+			else
+				copy = (Collection) newInstance(source);
+			if (copy == null) {
+				if (source instanceof Set)
+					copy = new LinkedHashSet(source.size());
+				else
+					copy = new ArrayList(source.size());
+			}
+			copies.put(source, copy);
+			for (Object element : source) {
+				copy.add(copy(element, depth));
+			}
+			return copy;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object copyMap(Map<?, ?> source, int depth) {
+			Map copy;
+			if (source instanceof EnumMap)
+				copy = new EnumMap((EnumMap) source);
+			else if (source instanceof SortedMap)
+				copy = new TreeMap(((SortedMap) source).comparator());
+			else
+				copy = (Map) newInstance(source);
+			if (copy == null)
+				copy = new LinkedHashMap(source.size());
+			copies.put(source, copy);
+			for (Map.Entry<?, ?> entry : source.entrySet()) {
+				copy.put(copy(entry.getKey(), depth), copy(entry.getValue(), depth));
+			}
+			return copy;
+		}
+
+		private Object copyArray(Object source, int depth) {
+			Class<?> type = source.getClass().getComponentType();
+			int length = Array.getLength(source);
+			Object copy = Array.newInstance(type, length);
+			copies.put(source, copy);
+			if (type.isPrimitive()) {
+				System.arraycopy(source, 0, copy, 0, length);
+			} else {
+				Object[] from = (Object[]) source;
+				Object[] to = (Object[]) copy;
+				for (int i = 0; i < length; i++) {
+					to[i] = copy(from[i], depth);
+				}
+			}
+			return copy;
+		}
+
+		private Object cloneValue(Object source) {
+			Object copy;
+			if (source instanceof Date)
+				copy = ((Date) source).clone();
+			else if (source instanceof Calendar)
+				copy = ((Calendar) source).clone();
+			else
+				copy = ((TimeZone) source).clone();
+			copies.put(source, copy);
+			return copy;
+		}
+	}
+
+	/**
+	 * Checks if instances of the given class can be shared between
+	 * the source and the copy.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	private static boolean isImmutable(Class<?> clazz) {
+		return clazz.isPrimitive() || clazz.isEnum() || immutables.contains(clazz)
+				|| (clazz.getSuperclass() != null && clazz.getSuperclass().isEnum());
+	}
+
+	/**
+	 * Creates an empty collection or map of the same class as the source.
+	 * Only java collections with a public no-arg constructor are created 
+	 * this way, others (e.g. hibernate or unmodifiable collections) are 
+	 * replaced by standard collections.
+	 * 
+	 * @param source
+	 * @return the new instance, or null if not supported
+	 */
+	private static Object newInstance(Object source) {
+		Class<?> clazz = source.getClass();
+		if (source instanceof PersistentCollection || noConstructors.contains(clazz))
+			return null;
+		Constructor<?> constructor = constructors.get(clazz);
+		if (constructor == null) {
+			try {
+				if (clazz.getName().startsWith("java.") && Modifier.isPublic(clazz.getModifiers()))
+					constructor = clazz.getConstructor();
+			} catch (NoSuchMethodException e) {
+				// fall through
+			}
+			if (constructor == null) {
+				noConstructors.add(clazz);
+				return null;
+			}
+			constructors.put(clazz, constructor);
+		}
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			_log.debug("Failed to create instance of " + clazz, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the fields to copy of the given class, parent fields first.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	private static Field[] getFields(Class<?> clazz) {
+		Field[] ret = fields.get(clazz);
+		if (ret == null) {
+			List<Field> list = new ArrayList<Field>();
+			for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+				List<Field> declared = new ArrayList<Field>();
+				for (Field field : c.getDeclaredFields()) {
+					int modifiers = field.getModifiers();
+					if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+						continue;
+					field.setAccessible(true);
+					declared.add(field);
+				}
+				list.addAll(0, declared);
+			}
+			ret = list.toArray(new Field[list.size()]);
+			fields.put(clazz, ret);
+		}
+		return ret;
+	}
+}
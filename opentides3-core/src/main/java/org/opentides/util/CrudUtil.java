@@ -19,11 +19,6 @@
 
 package org.opentides.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -37,14 +32,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.hibernate.LazyInitializationException;
 import org.opentides.annotation.Auditable;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
 import org.opentides.bean.AuditableField;
 import org.opentides.bean.BaseEntity;
+import org.opentides.bean.EntityAccessor;
 import org.opentides.bean.MessageResponse;
 import org.opentides.bean.SystemCodes;
 import org.opentides.exception.InvalidImplementationException;
@@ -77,44 +76,6 @@ public class CrudUtil {
 	private CrudUtil() {
 	}
 
-	/**
-	 * Creates the logging message for new audit logs
-	 * 
-	 * @param obj
-	 * @return
-	 */
-	public static String buildCreateMessage(final BaseEntity obj) {
-		final StringBuilder message = new StringBuilder();
-		if (obj.getClass().isAnnotationPresent(Auditable.class)) {
-			final AuditableField pf = CacheUtil.getPrimaryField(obj);
-			message.append("<p class='add-message'>Added new ");
-			message.append(buildPrimaryField(pf, obj)).append(
-					" with the following: ");
-
-			// loop through the fields list
-			final List<AuditableField> auditFields = CacheUtil
-					.getAuditable(obj);
-			int count = 0;
-			for (final AuditableField property : auditFields) {
-				Object ret = retrieveNullableObjectValue(obj,
-						property.getFieldName());
-				ret = normalizeValue(ret);
-				if (ret.toString().trim().length() > 0
-						&& !pf.getFieldName().equals(property.getFieldName())) {
-					if (count > 0) {
-						message.append("and ");
-					}
-					message.append(property.getTitle())
-							.append("=<span class='field-value'>")
-							.append(ret.toString()).append("</span> ");
-					count++;
-				}
-			}
-			message.append("</p>");
-		}
-		return message.toString();
-	}
-
 	/**
 	 * Returns the list of fields that have difference values or updated.
 	 * 
@@ -157,124 +118,32 @@ public class CrudUtil {
 		return sb.toString();
 	}
 
+	/**
+	 * Creates the logging message for new audit logs
+	 * 
+	 * @param obj
+	 * @return
+	 */
+	public static String buildCreateMessage(final BaseEntity obj) {
+		if (!obj.getClass().isAnnotationPresent(Auditable.class))
+			return "";
+		return renderAuditMessage(AuditLog.ACTION_ADDED, obj.getClass(),
+				buildPrimaryValue(obj), buildCreateChanges(obj));
+	}
+
 	/**
 	 * Creates the logging message for update audit logs
 	 * 
 	 * @param obj
 	 * @return
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public static String buildUpdateMessage(final BaseEntity oldObject,
 			final BaseEntity newObject) {
-
-		final StringBuilder message = new StringBuilder(
-				"<p class='change-message'>Changed ");
-		final AuditableField pf = CacheUtil.getPrimaryField(oldObject);
-		message.append(buildPrimaryField(pf, oldObject)).append(
-				" with the following: ");
-		// loop through the fields list
-		final List<AuditableField> auditableFields = CacheUtil
-				.getAuditable(oldObject);
-		int count = 0;
-
-		// scenarios
-		// 1 - collection vs null -> Enter collection
-		// 2 - collection vs collection -> Enter collection
-		// 3 - object vs null -> Enter object
-		// 4 - object vs object -> Enter object
-		// 5 - collection vs object -> Invalid or convert collection to object.
-
-		for (final AuditableField property : auditableFields) {
-			_log.debug("Building update message for field "
-					+ property.getFieldName());
-			Object oldValue = retrieveNullableObjectValue(oldObject,
-					property.getFieldName());
-			Object newValue = retrieveNullableObjectValue(newObject,
-					property.getFieldName());
-			oldValue = normalizeValue(oldValue);
-			newValue = normalizeValue(newValue);
-
-			if (!oldValue.getClass().getCanonicalName().startsWith(
-					newValue.getClass().getCanonicalName()) ) {
-				_log.debug("Old object: " + oldValue);
-				_log.warn("Unable to compare [" + property.getFieldName()
-						+ "] for audit logging due to difference in datatype. "
-						+ "oldValue is [" + oldValue.getClass()
-						+ "] and newValue is [" + newValue.getClass() + "]");
-				continue;
-			}
-
-			if (Collection.class.isAssignableFrom(oldValue.getClass())
-					&& Collection.class.isAssignableFrom(newValue.getClass())) {
-				if (((Collection) oldValue).isEmpty()
-						&& ((Collection) newValue).isEmpty()) {
-					_log.debug("Old and New values are empty");
-					continue;
-				}
-				_log.debug("Old and New values are not empty");
-				final List addedList = new ArrayList((Collection) newValue);
-				// Collection addedCollection = (Collection)newValue;
-				// addedCollection.removeAll((Collection)oldValue);
-				// addedList.addAll(new ArrayList((Collection)newValue));
-				addedList.removeAll(new ArrayList((Collection) oldValue));
-
-				final List removedList = new ArrayList((Collection) oldValue);
-				// removedList.addAll((List) oldValue);
-				removedList.removeAll(new ArrayList((Collection) newValue));
-				// Collection removedCollection = (Collection)oldValue;
-				// removedCollection.remove((Collection)newValue);
-				if (!addedList.isEmpty() || !removedList.isEmpty()) {
-					if (count > 0) {
-						message.append("and ");
-					}
-				}
-				if (!addedList.isEmpty()) {
-					message.append("added ").append(property.getTitle())
-							.append(" <span class='field-values-added'>")
-							.append(addedList).append("</span> ");
-				}
-				if (!removedList.isEmpty()) {
-					if (!addedList.isEmpty()) {
-						message.append("and ");
-					}
-					message.append("removed ").append(property.getTitle())
-							.append(" <span class='field-values-removed'>")
-							.append(removedList).append("</span> ");
-					count++;
-				}
-			} else {
-				if (!oldValue.equals(newValue)) {
-					if (count > 0) {
-						message.append("and ");
-					}
-					if (StringUtil.isEmpty(newValue.toString())) {
-						message.append(property.getTitle())
-								.append(" <span class='field-value-removed'>")
-								.append(oldValue.toString())
-								.append("</span> is removed ");
-					} else {
-						message.append(property.getTitle());
-						if (!StringUtil.isEmpty(oldValue.toString())) {
-							message.append(
-									" from <span class='field-value-from'>")
-									.append(oldValue.toString())
-									.append("</span> ");
-						} else {
-							message.append(" is set ");
-						}
-						message.append("to <span class='field-value-to'>")
-								.append(newValue.toString()).append("</span> ");
-					}
-					count++;
-				}
-			}
-		}
-		message.append("</p>");
-		if (count == 0) {
+		final List<AuditLogChange> changes = buildUpdateChanges(oldObject, newObject);
+		if (changes.isEmpty())
 			return "";
-		} else {
-			return message.toString();
-		}
+		return renderAuditMessage(AuditLog.ACTION_CHANGED, oldObject.getClass(),
+				buildPrimaryValue(oldObject), changes);
 	}
 
 	/**
@@ -284,32 +153,176 @@ public class CrudUtil {
 	 * @return
 	 */
 	public static String buildDeleteMessage(final BaseEntity obj) {
-		final StringBuilder message = new StringBuilder(
-				"<p class='delete-message'>Deleted ");
+		return renderAuditMessage(AuditLog.ACTION_DELETED, obj.getClass(),
+				buildPrimaryValue(obj), null);
+	}
+
+	/**
+	 * Returns the values of the auditable fields of a new object
+	 * as field changes, excluding empty fields and the primary field.
+	 * 
+	 * @param obj
+	 * @return
+	 */
+	public static List<AuditLogChange> buildCreateChanges(final BaseEntity obj) {
+		final List<AuditLogChange> changes = new ArrayList<AuditLogChange>();
+		if (!obj.getClass().isAnnotationPresent(Auditable.class))
+			return changes;
 		final AuditableField pf = CacheUtil.getPrimaryField(obj);
-		message.append(buildPrimaryField(pf, obj)).append("</p>");
-		return message.toString();
+		for (final AuditableField property : CacheUtil.getAuditable(obj)) {
+			final Object ret = normalizeValue(retrieveNullableObjectValue(obj,
+					property.getFieldName()));
+			if (ret.toString().trim().length() > 0
+					&& !pf.getFieldName().equals(property.getFieldName())) {
+				changes.add(new AuditLogChange(property.getFieldName(), null,
+						ret.toString(), ret instanceof Collection));
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Compares the auditable fields of the old and new object and returns
+	 * the fields that were changed. For collections, only the added and
+	 * removed elements are recorded.
+	 * 
+	 * @param oldObject
+	 * @param newObject
+	 * @return
+	 */
+	public static List<AuditLogChange> buildUpdateChanges(final BaseEntity oldObject,
+			final BaseEntity newObject) {
+		return AuditDiffUtil.diff(oldObject, newObject);
 	}
 
 	/**
-	 * Private helper to build primary field message.
+	 * Same as {@link #buildUpdateChanges(BaseEntity, BaseEntity)} but only
+	 * compares the given fields.
+	 * 
+	 * @param oldObject
+	 * @param newObject
+	 * @param dirtyFields names of fields that may have changed, or null to compare all
+	 * @return
+	 */
+	public static List<AuditLogChange> buildUpdateChanges(final BaseEntity oldObject,
+			final BaseEntity newObject, final Set<String> dirtyFields) {
+		return AuditDiffUtil.diff(oldObject, newObject, dirtyFields);
+	}
+
+	/**
+	 * Returns the value of the primary field of the object, 
+	 * or an empty string if not available.
 	 * 
-	 * @param pf
 	 * @param obj
 	 * @return
 	 */
-	private static String buildPrimaryField(final AuditableField pf,
-			final BaseEntity obj) {
-		final StringBuilder message = new StringBuilder();
-		final String shortName = CacheUtil.getReadableName(obj);
-		message.append(shortName); // class name
+	public static String buildPrimaryValue(final BaseEntity obj) {
+		final AuditableField pf = CacheUtil.getPrimaryField(obj);
+		if (StringUtil.isEmpty(pf.getFieldName()))
+			return "";
 		final Object value = retrieveNullableObjectValue(obj, pf.getFieldName());
-		if (value != null && !StringUtil.isEmpty(value.toString())) {
-			message.append(" with ").append(pf.getTitle())
+		return value == null ? "" : value.toString();
+	}
+
+	/**
+	 * Renders the readable message of an audit log from its field changes.
+	 * 
+	 * @param log
+	 * @return
+	 */
+	public static String renderAuditMessage(final AuditLog log) {
+		return renderAuditMessage(log.getAction(), log.getEntityClass(),
+				log.getStoredMessage(), log.getChanges());
+	}
+
+	/**
+	 * Renders the readable message of an audit log.
+	 * 
+	 * @param action one of added, changed or deleted
+	 * @param entityClass class of the audited object
+	 * @param primaryValue value of the primary field
+	 * @param changes field changes
+	 * @return
+	 */
+	public static String renderAuditMessage(final String action, final Class<?> entityClass,
+			final String primaryValue, final List<AuditLogChange> changes) {
+		final StringBuilder message = AuditDiffUtil.getBuffer();
+		if (AuditLog.ACTION_ADDED.equals(action)) {
+			message.append("<p class='add-message'>Added new ");
+		} else if (AuditLog.ACTION_CHANGED.equals(action)) {
+			message.append("<p class='change-message'>Changed ");
+		} else {
+			message.append("<p class='delete-message'>Deleted ");
+		}
+		message.append(CacheUtil.getReadableName(entityClass));
+		if (!StringUtil.isEmpty(primaryValue)) {
+			message.append(" with ").append(CacheUtil.getPrimaryField(entityClass).getTitle())
 					.append(":<span class='primary-field'>")
-					.append(value.toString()).append("</span>");
+					.append(primaryValue).append("</span>");
+		}
+		if (AuditLog.ACTION_DELETED.equals(action)) {
+			return AuditDiffUtil.releaseBuffer(message.append("</p>"));
+		}
+		message.append(" with the following: ");
+		int count = 0;
+		if (changes != null) {
+			for (final AuditLogChange change : changes) {
+				if (count++ > 0) {
+					message.append("and ");
+				}
+				final String title = getFieldTitle(entityClass, change.getFieldName());
+				final String oldValue = change.getOldValue() == null ? "" : change.getOldValue();
+				final String newValue = change.getNewValue() == null ? "" : change.getNewValue();
+				if (AuditLog.ACTION_ADDED.equals(action)) {
+					message.append(title).append("=<span class='field-value'>")
+							.append(newValue).append("</span> ");
+				} else if (change.isCollection()) {
+					if (!newValue.isEmpty()) {
+						message.append("added ").append(title)
+								.append(" <span class='field-values-added'>")
+								.append(newValue).append("</span> ");
+					}
+					if (!oldValue.isEmpty()) {
+						if (!newValue.isEmpty()) {
+							message.append("and ");
+						}
+						message.append("removed ").append(title)
+								.append(" <span class='field-values-removed'>")
+								.append(oldValue).append("</span> ");
+					}
+				} else if (newValue.isEmpty()) {
+					message.append(title)
+							.append(" <span class='field-value-removed'>")
+							.append(oldValue).append("</span> is removed ");
+				} else {
+					message.append(title);
+					if (!oldValue.isEmpty()) {
+						message.append(" from <span class='field-value-from'>")
+								.append(oldValue).append("</span> ");
+					} else {
+						message.append(" is set ");
+					}
+					message.append("to <span class='field-value-to'>")
+							.append(newValue).append("</span> ");
+				}
+			}
 		}
-		return message.toString();
+		return AuditDiffUtil.releaseBuffer(message.append("</p>"));
+	}
+
+	/**
+	 * Private helper that returns the display title of an auditable field.
+	 * 
+	 * @param entityClass
+	 * @param fieldName
+	 * @return
+	 */
+	private static String getFieldTitle(final Class<?> entityClass, final String fieldName) {
+		for (final AuditableField property : CacheUtil.getAuditable(entityClass)) {
+			if (property.getFieldName().equals(fieldName))
+				return property.getTitle();
+		}
+		return new AuditableField(fieldName).getTitle();
 	}
 
 	/**
@@ -441,15 +454,21 @@ public class CrudUtil {
 	}
 
 	/**
-	 * Builds the query string appended to queryByExample
+	 * Builds the query string appended to queryByExample. Uses the generated
+	 * accessor of the entity, if available.
 	 * 
 	 * @param example
 	 * @param exactMatch
 	 * @return
 	 */
-	@SuppressWarnings("rawtypes")
 	public static String buildJpaQueryString(final BaseEntity example,
 			final boolean exactMatch) {
+		final EntityAccessor<BaseEntity> accessor = CacheUtil.getAccessor(example.getClass());
+		if (accessor != null) {
+			final String query = accessor.buildJpaQueryString(example, exactMatch);
+			if (query != null)
+				return query;
+		}
 		int count = 0;
 		final StringBuilder clause = new StringBuilder(" where ");
 		final List<String> exampleFields = CacheUtil
@@ -458,86 +477,103 @@ public class CrudUtil {
 			// get the value
 			final Object ret = retrieveObjectValue(example, property);
 			// append the alias
-			property = "obj." + property;
-			if (ret != null) {
-				if (String.class.isAssignableFrom(ret.getClass())
-						&& !exactMatch) {
-					if (ret.toString().trim().length() > 0) {
-						if (count > 0) {
-							clause.append(" and ");
-						}
-						clause.append(property)
-								.append(" like '%")
-								.append(StringUtil.escapeSql(ret.toString(),
-										true)).append("%'")
-								.append(" escape '\\'"); // escape for Oracle
-															// database
-						count++;
-					}
-				} else if (SystemCodes.class.isAssignableFrom(ret.getClass())) {
-					final SystemCodes sc = (SystemCodes) ret;
-					if (!StringUtil.isEmpty(sc.getKey())) {
-						if (count > 0) {
-							clause.append(" and ");
-						}
-						clause.append(property).append(".key").append(" = '")
-								.append(sc.getKey() + "'");
-						count++;
-					}
-				} else if (BaseEntity.class.isAssignableFrom(ret.getClass())) {
-					final BaseEntity be = (BaseEntity) ret;
-					if (be.getId() != null) {
-						if (count > 0) {
-							clause.append(" and ");
-						}
-						clause.append(property).append(".id").append(" = ")
-								.append(be.getId());
-						count++;
+			count = appendQueryCondition(clause, count, "obj." + property, ret, exactMatch);
+		}
+		if (count > 0) {
+			return clause.toString();
+		} else {
+			return "";
+		}
+	}
+
+	/**
+	 * Appends the condition matching the example value of the property
+	 * to the query string built by {@link #buildJpaQueryString(BaseEntity, boolean)}.
+	 * 
+	 * @param clause
+	 * @param count number of conditions in the clause
+	 * @param property the property, including the alias
+	 * @param ret the example value
+	 * @param exactMatch
+	 * @return the number of conditions in the clause
+	 */
+	@SuppressWarnings("rawtypes")
+	public static int appendQueryCondition(final StringBuilder clause, int count,
+			final String property, final Object ret, final boolean exactMatch) {
+		if (ret != null) {
+			if (String.class.isAssignableFrom(ret.getClass())
+					&& !exactMatch) {
+				if (ret.toString().trim().length() > 0) {
+					if (count > 0) {
+						clause.append(" and ");
 					}
-				} else if (Integer.class.isAssignableFrom(ret.getClass())
-						|| Float.class.isAssignableFrom(ret.getClass())
-						|| Long.class.isAssignableFrom(ret.getClass())
-						|| Double.class.isAssignableFrom(ret.getClass())
-						|| BigDecimal.class.isAssignableFrom(ret.getClass())
-						|| Boolean.class.isAssignableFrom(ret.getClass())) {
-					// numeric types doesn't need to be enclosed in single
-					// quotes
-					if (ret.toString().trim().length() > 0) {
-						if (count > 0) {
-							clause.append(" and ");
-						}
-						clause.append(property).append(" = ")
-								.append(ret.toString());
-						count++;
+					clause.append(property)
+							.append(" like '%")
+							.append(StringUtil.escapeSql(ret.toString(),
+									true)).append("%'")
+							.append(" escape '\\'"); // escape for Oracle
+														// database
+					count++;
+				}
+			} else if (SystemCodes.class.isAssignableFrom(ret.getClass())) {
+				final SystemCodes sc = (SystemCodes) ret;
+				if (!StringUtil.isEmpty(sc.getKey())) {
+					if (count > 0) {
+						clause.append(" and ");
 					}
-				} else if (Class.class.isAssignableFrom(ret.getClass())) {
+					clause.append(property).append(".key").append(" = '")
+							.append(sc.getKey() + "'");
+					count++;
+				}
+			} else if (BaseEntity.class.isAssignableFrom(ret.getClass())) {
+				final BaseEntity be = (BaseEntity) ret;
+				if (be.getId() != null) {
 					if (count > 0) {
 						clause.append(" and ");
 					}
-					final Class clazz = (Class) ret;
-					clause.append(property).append(" = '")
-							.append(clazz.getName()).append("'");
+					clause.append(property).append(".id").append(" = ")
+							.append(be.getId());
 					count++;
-				} else if (Collection.class.isAssignableFrom(ret.getClass())) {
-					// not supported yet
-					_log.warn("FindByExample on type Collection is not supported.");
-				} else if (ret.toString().trim().length() > 0) {
+				}
+			} else if (Integer.class.isAssignableFrom(ret.getClass())
+					|| Float.class.isAssignableFrom(ret.getClass())
+					|| Long.class.isAssignableFrom(ret.getClass())
+					|| Double.class.isAssignableFrom(ret.getClass())
+					|| BigDecimal.class.isAssignableFrom(ret.getClass())
+					|| Boolean.class.isAssignableFrom(ret.getClass())) {
+				// numeric types doesn't need to be enclosed in single
+				// quotes
+				if (ret.toString().trim().length() > 0) {
 					if (count > 0) {
 						clause.append(" and ");
 					}
-					clause.append(property)
-							.append(" = '")
-							.append(StringUtil.escapeSql(ret.toString(), false))
-							.append("'");
+					clause.append(property).append(" = ")
+							.append(ret.toString());
 					count++;
 				}
+			} else if (Class.class.isAssignableFrom(ret.getClass())) {
+				if (count > 0) {
+					clause.append(" and ");
+				}
+				final Class clazz = (Class) ret;
+				clause.append(property).append(" = '")
+						.append(clazz.getName()).append("'");
+				count++;
+			} else if (Collection.class.isAssignableFrom(ret.getClass())) {
+				// not supported yet
+				_log.warn("FindByExample on type Collection is not supported.");
+			} else if (ret.toString().trim().length() > 0) {
+				if (count > 0) {
+					clause.append(" and ");
+				}
+				clause.append(property)
+						.append(" = '")
+						.append(StringUtil.escapeSql(ret.toString(), false))
+						.append("'");
+				count++;
 			}
 		}
-		if (count > 0) {
-			return clause.toString();
-		} else {
-			return "";
-		}
+		return count;
 	}
 
 	/**
@@ -563,14 +599,7 @@ public class CrudUtil {
 					final Map map = (Map) obj;
 					ivalue = map.get(props[0]);
 				} else {
-					Method method;
-					if (props[0].startsWith("get")) {
-						method = obj.getClass().getMethod(props[0]);
-					} else {
-						method = obj.getClass().getMethod(
-								NamingUtil.toGetterName(props[0]));
-					}
-					ivalue = method.invoke(obj);
+					ivalue = getPropertyValue(obj, props[0]);
 				}
 				if (ivalue == null) {
 					return null;
@@ -602,14 +631,7 @@ public class CrudUtil {
 					final Map map = (Map) obj;
 					return map.get(property);
 				} else {
-					Method method;
-					if (property.startsWith("get")) {
-						method = obj.getClass().getMethod(property);
-					} else {
-						method = obj.getClass().getMethod(
-								NamingUtil.toGetterName(property));
-					}
-					return method.invoke(obj);
+					return getPropertyValue(obj, property);
 				}
 			} catch (final Exception e) {
 				throw new InvalidImplementationException(
@@ -618,6 +640,35 @@ public class CrudUtil {
 		}
 	}
 
+	/**
+	 * Private helper that retrieves the value of a single property, using 
+	 * the generated accessor of the entity if available.
+	 * 
+	 * @param obj
+	 * @param property
+	 * @return
+	 * @throws Exception
+	 */
+	private static Object getPropertyValue(final Object obj,
+			final String property) throws Exception {
+		if (obj instanceof BaseEntity) {
+			final EntityAccessor<BaseEntity> accessor = CacheUtil.getAccessor(obj.getClass());
+			if (accessor != null) {
+				final int index = accessor.indexOf(property);
+				if (index >= 0)
+					return accessor.getValue((BaseEntity) obj, index);
+			}
+		}
+		Method method;
+		if (property.startsWith("get")) {
+			method = obj.getClass().getMethod(property);
+		} else {
+			method = obj.getClass().getMethod(
+					NamingUtil.toGetterName(property));
+		}
+		return method.invoke(obj);
+	}
+
 	/**
 	 * 
 	 * This method retrieves the object value that corresponds to the property
@@ -889,22 +940,18 @@ public class CrudUtil {
 	}
 
 	/**
-	 * Clones a base entity using serialization. Make sure that all the classes
-	 * in object's graph are serializable.
+	 * Clones a base entity including the objects it refers to.
+	 * Only fields that are serialized are copied, and lazy associations 
+	 * that are not yet loaded are detached without loading them.
 	 * 
+	 * @see CloneUtil#copy(Object)
 	 * @param source
 	 * @return
 	 */
 	public static BaseEntity clone(final BaseEntity source) {
 		try {
-			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
-			final ObjectOutputStream o = new ObjectOutputStream(buf);
-			o.writeObject(source);
-
-			final ObjectInputStream in = new ObjectInputStream(
-					new ByteArrayInputStream(buf.toByteArray()));
-			return (BaseEntity) in.readObject();
-		} catch (ClassNotFoundException | IOException e) {
+			return CloneUtil.copy(source);
+		} catch (RuntimeException e) {
 			_log.error("Failed to clone source object " + source.getClass(), e);
 		}
 
@@ -0,0 +1,89 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.util;
+
+import org.opentides.metrics.Counter;
+import org.opentides.metrics.Histogram;
+import org.opentides.metrics.MetricsProvider;
+import org.opentides.metrics.NoOpMetricsProvider;
+import org.opentides.metrics.Timer;
+
+/**
+ * Gives access to the metrics provider from anywhere in the framework,
+ * including classes not managed by Spring such as Hibernate interceptors.
+ * The provider is set on startup by {@link org.opentides.metrics.MetricsManager}.
+ *
+ * Callers building metric names on hot paths should check
+ * {@link #isEnabled()} first, so that nothing is allocated when
+ * metrics are disabled.
+ */
+public class MetricsUtil {
+
+	private static volatile MetricsProvider provider = NoOpMetricsProvider.INSTANCE;
+
+	/**
+	 * Hide the constructor.
+	 */
+	private MetricsUtil() {
+	}
+
+	/**
+	 * @return true if metrics are recorded
+	 */
+	public static boolean isEnabled() {
+		return provider != NoOpMetricsProvider.INSTANCE;
+	}
+
+	public static Timer timer(String name) {
+		return provider.timer(name);
+	}
+
+	public static Counter counter(String name) {
+		return provider.counter(name);
+	}
+
+	public static Histogram histogram(String name) {
+		return provider.histogram(name);
+	}
+
+	/**
+	 * Records the time elapsed since the given start in the named timer.
+	 *
+	 * @param name
+	 * @param startNanos value of System.nanoTime() when the operation started
+	 */
+	public static void time(String name, long startNanos) {
+		if (isEnabled())
+			provider.timer(name).update(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return the provider
+	 */
+	public static MetricsProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * @param provider the provider to set, null to disable metrics
+	 */
+	public static void setProvider(MetricsProvider provider) {
+		MetricsUtil.provider = (provider == null) ? NoOpMetricsProvider.INSTANCE : provider;
+	}
+}
@@ -24,8 +24,6 @@ import java.util.Date;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.log4j.Logger;
 import org.opentides.bean.user.SessionUser;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 /**
@@ -71,8 +69,7 @@ public class SecurityUtil {
 	public static boolean currentUserHasPermission(final String permission) {
 		final SessionUser user = SecurityUtil.getSessionUser();
 		if (user!=null && user.getAuthorities()!=null) {
-			final GrantedAuthority auth = new SimpleGrantedAuthority(permission);
-			return user.getAuthorities().contains(auth);
+			return user.hasPermission(permission);
 		}
 		return false;
 	}
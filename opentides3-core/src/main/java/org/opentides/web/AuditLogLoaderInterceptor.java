@@ -0,0 +1,40 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.web;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.opentides.persistence.listener.AuditLogLoader;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Closes the group of audit logs loaded by the request when the request
+ * completes, so that the group is not kept on the pooled thread.
+ * 
+ * @author allanctan
+ */
+public class AuditLogLoaderInterceptor extends HandlerInterceptorAdapter {
+
+	@Override
+	public void afterCompletion(HttpServletRequest request,
+			HttpServletResponse response, Object handler, Exception ex) {
+		AuditLogLoader.clear();
+	}
+}
@@ -35,7 +35,6 @@ import org.opentides.bean.BaseEntity;
 import org.opentides.bean.MessageResponse;
 import org.opentides.bean.MessageResponse.Type;
 import org.opentides.bean.SearchResults;
-import org.opentides.bean.Tag;
 import org.opentides.bean.Taggable;
 import org.opentides.exception.DataAccessException;
 import org.opentides.service.BaseCrudService;
@@ -521,14 +520,7 @@ public abstract class BaseCrudController<T extends BaseEntity> implements Initia
 	private void postProcessTaggableEntities(T command) {
 		if (Taggable.class.isAssignableFrom(command.getClass())) {
 			Taggable taggable = (Taggable)command;
-			if(taggable.getTags() != null && !taggable.getTags().isEmpty()) {
-				for(Tag tag : taggable.getTags()) {
-					if(tag.getTaggableId() == null) {
-						tag.setTaggableId(command.getId());
-						tagService.save(tag);
-					}
-				}
-			}
+			tagService.postProcessTags(taggable, command.getId());
 		}
 	}
 
@@ -0,0 +1,53 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.web.controller;
+
+import java.util.Map;
+
+import org.opentides.util.MetricsUtil;
+import org.opentides.util.SecurityUtil;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Read-only view of the metrics recorded by the framework.
+ * Requires the VIEW_METRICS permission.
+ *
+ * @author allanctan
+ */
+@Controller
+@RequestMapping("/admin/metrics")
+public class MetricsController {
+
+	/**
+	 * Returns the current values of all metrics, keyed by metric name.
+	 * The result is empty when metrics are disabled.
+	 *
+	 * @return
+	 */
+	@RequestMapping(method = RequestMethod.GET, produces = "application/json")
+	public @ResponseBody Map<String, Map<String, Number>> getMetrics() {
+		if (!SecurityUtil.currentUserHasPermission("VIEW_METRICS"))
+			throw new AccessDeniedException("Unauthorized access. You do not have permission to view metrics.");
+		return MetricsUtil.getProvider().getSnapshot();
+	}
+}
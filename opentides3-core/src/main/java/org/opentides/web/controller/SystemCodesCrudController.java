@@ -82,6 +82,21 @@ public class SystemCodesCrudController extends BaseCrudController<SystemCodes> {
 		setParent(command);
 	}
 	
+	@Override
+	protected void postCreate(SystemCodes command) {
+		systemCodesService.invalidateCache();
+	}
+
+	@Override
+	protected void postUpdate(SystemCodes command) {
+		systemCodesService.invalidateCache();
+	}
+
+	@Override
+	protected void postDelete(Long id) {
+		systemCodesService.invalidateCache();
+	}
+	
 	private void setParent(SystemCodes command) {
 		if(!StringUtil.isEmpty(command.getParentString())) {
 			SystemCodes parent = systemCodesService.findByKey(command.getParentString());
@@ -0,0 +1,31 @@
+package org.opentides.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.SystemCodes;
+import org.opentides.util.TenantContextHolder;
+
+public class AuditLogDaoImplTest {
+
+	@After
+	public void destroy() {
+		TenantContextHolder.clearContext();
+	}
+
+	@Test
+	public void testCreateLogSetsListenerColumns() {
+		TenantContextHolder.setSchemaName("tenant1");
+		SystemCodes sc = new SystemCodes("OFFICE", "HR", "Human Resources");
+		sc.setId(10L);
+		sc.setAuditUserId(7L);
+		sc.setAuditUsername("juan");
+		AuditLog log = AuditLogDaoImpl.createLog(AuditLog.ACTION_ADDED, sc, "HR", null);
+		// values written by the batch insert in place of the entity listeners
+		assertEquals("juan", log.getCreatedBy());
+		assertEquals("tenant1", log.getDbName());
+		assertEquals(Long.valueOf(7L), log.getUserId());
+	}
+}
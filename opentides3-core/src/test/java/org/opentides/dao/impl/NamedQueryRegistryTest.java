@@ -0,0 +1,128 @@
+package org.opentides.dao.impl;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.opentides.bean.Tag;
+import org.opentides.exception.InvalidImplementationException;
+import org.opentides.metrics.InMemoryMetricsProvider;
+import org.opentides.util.MetricsUtil;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class NamedQueryRegistryTest {
+
+	@Mock
+	private EntityManagerFactory entityManagerFactory;
+
+	@Mock
+	private EntityManager entityManager;
+
+	@Mock
+	private Query query;
+
+	@Mock
+	private Metamodel metamodel;
+
+	@Mock
+	private EntityType<Tag> tagType;
+
+	private final NamedQueryRegistry registry = new NamedQueryRegistry();
+
+	private final Properties jpqlProperties = new Properties();
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(tagType.getName()).thenReturn("Tag");
+		Mockito.when(tagType.getJavaType()).thenReturn(Tag.class);
+		Set<EntityType<?>> entities = Collections.<EntityType<?>>singleton(tagType);
+		Mockito.when(metamodel.getEntities()).thenReturn(entities);
+		Mockito.when(entityManagerFactory.getMetamodel()).thenReturn(metamodel);
+		Mockito.when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+		Mockito.when(entityManager.createQuery(Mockito.anyString())).thenReturn(query);
+		ReflectionTestUtils.setField(registry, "entityManagerFactory", entityManagerFactory);
+		ReflectionTestUtils.setField(registry, "jpqlProperties", jpqlProperties);
+	}
+
+	@Test
+	public void testQueriesAreRegisteredWithHints() {
+		jpqlProperties.put("jpql.test.findAll", "select t from Tag t");
+		jpqlProperties.put("jpql.test.findAll.hint.org.hibernate.cacheable", "true");
+		registry.init();
+
+		Assert.assertTrue(registry.isRegistered("jpql.test.findAll"));
+		Assert.assertFalse(registry.isRegistered("jpql.test.findAll.hint.org.hibernate.cacheable"));
+		Mockito.verify(query).setHint("org.hibernate.cacheable", "true");
+		Mockito.verify(entityManagerFactory).addNamedQuery("jpql.test.findAll", query);
+		Mockito.verify(entityManager).close();
+	}
+
+	@Test
+	public void testInvalidQueryFailsStartup() {
+		jpqlProperties.put("jpql.test.valid", "select t from Tag t");
+		jpqlProperties.put("jpql.test.invalid", "selec t from");
+		Mockito.when(entityManager.createQuery("selec t from"))
+				.thenThrow(new IllegalArgumentException("unexpected token"));
+		try {
+			registry.init();
+			Assert.fail("Expected invalid query to fail startup.");
+		} catch (InvalidImplementationException e) {
+			Assert.assertTrue(e.getMessage().contains("jpql.test.invalid"));
+		}
+
+		registry.setFailOnError(false);
+		registry.init();
+		Assert.assertTrue(registry.isRegistered("jpql.test.valid"));
+		Assert.assertFalse(registry.isRegistered("jpql.test.invalid"));
+	}
+
+	@Test
+	public void testUnmappedEntityIsSkipped() {
+		jpqlProperties.put("jpql.test.optional", "select o from OptionalModule o");
+		Mockito.when(entityManager.createQuery("select o from OptionalModule o"))
+				.thenThrow(new IllegalArgumentException("OptionalModule is not mapped"));
+		registry.init();
+		Assert.assertFalse(registry.isRegistered("jpql.test.optional"));
+	}
+
+	@Test
+	public void testGetUnmappedEntities() {
+		Set<String> names = Collections.singleton("Tag");
+		Assert.assertTrue(NamedQueryRegistry.getUnmappedEntities(
+				"select t from Tag t left join fetch t.tags where t.id in (select x.id from Tag x)", names).isEmpty());
+		Assert.assertEquals(Collections.singletonList("org.example.Device"), NamedQueryRegistry.getUnmappedEntities(
+				"select d from Tag t, org.example.Device d join d.owner o", names));
+		Assert.assertEquals(Collections.singletonList("Device"), NamedQueryRegistry.getUnmappedEntities(
+				"update Device d set d.name = :name", names));
+	}
+
+	@Test
+	public void testRecordMetrics() {
+		InMemoryMetricsProvider provider = new InMemoryMetricsProvider();
+		try {
+			MetricsUtil.setProvider(provider);
+			registry.record("jpql.test.findAll", System.nanoTime() - 1000);
+			registry.record("jpql.test.findAll", System.nanoTime() - 5000);
+			InMemoryMetricsProvider.InMemoryTimer timer =
+					(InMemoryMetricsProvider.InMemoryTimer) provider.timer("jpql.jpql.test.findAll");
+			Assert.assertEquals(2, timer.getCount());
+			Assert.assertTrue(timer.getMax() >= 5000);
+			Assert.assertTrue(timer.getSum() >= 6000);
+		} finally {
+			MetricsUtil.setProvider(null);
+		}
+	}
+}
@@ -79,6 +79,20 @@ public class SystemCodesDAOIntegrationTest extends BaseDaoTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	public void testFindAllWithParent() {
+		int expected = jdbcTemplate.queryForInt("SELECT count(*) FROM SYSTEM_CODES");
+		assertEquals(expected, dao.findAllWithParent().size());
+	}
+
+	@Test
+	public void testGetVersionStamp() {
+		String stamp = dao.getVersionStamp();
+		assertEquals(stamp, dao.getVersionStamp());
+		jdbcTemplate.update("DELETE FROM SYSTEM_CODES WHERE KEY_='TT'");
+		assertNotEquals(stamp, dao.getVersionStamp());
+	}
+
 	/*@Test
 	public void testGetAllKeys(){
 		int actual = dao.getAllKeys().size();
@@ -58,5 +58,15 @@ public class TagDaoIntegrationTest extends BaseDaoTest {
 		expected.add(tag1);
 		assertEquals(expected, actual);
 	}
+	
+	@Test
+	public void testFindByTagTexts() {
+		List<Tag> actual = tagDao.findByTagTexts(Arrays.asList("Tag 2", "Tag 1", "Missing"));
+		
+		assertEquals(2, actual.size());
+		assertEquals("Tag 1", actual.get(0).getTagText());
+		assertEquals("Tag 2", actual.get(1).getTagText());
+		assertTrue(tagDao.findByTagTexts(new ArrayList<String>()).isEmpty());
+	}
 
 }
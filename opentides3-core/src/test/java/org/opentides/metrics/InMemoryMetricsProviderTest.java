@@ -0,0 +1,82 @@
+package org.opentides.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opentides.metrics.InMemoryMetricsProvider.InMemoryHistogram;
+import org.opentides.util.MetricsUtil;
+
+public class InMemoryMetricsProviderTest {
+
+	private final InMemoryMetricsProvider provider = new InMemoryMetricsProvider();
+
+	@After
+	public void destroy() {
+		MetricsUtil.setProvider(null);
+	}
+
+	@Test
+	public void testCounter() {
+		provider.counter("c").increment();
+		provider.counter("c").increment(4);
+		assertSame(provider.counter("c"), provider.counter("c"));
+		assertEquals(5L, provider.getSnapshot().get("c").get("count"));
+	}
+
+	@Test
+	public void testHistogram() {
+		InMemoryHistogram histogram = (InMemoryHistogram) provider.histogram("h");
+		for (int i = 1; i <= 100; i++) {
+			histogram.update(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0.001);
+		// percentiles are the upper bound of the power of two bucket
+		assertEquals(63, histogram.getPercentile(0.5));
+		assertEquals(100, histogram.getPercentile(0.99));
+		assertTrue(histogram.getPercentile(0.1) >= 10);
+	}
+
+	@Test
+	public void testTimerSnapshotInMillis() {
+		provider.timer("t").update(2000000);
+		provider.timer("t").update(4000000);
+		Map<String, Number> values = provider.getSnapshot().get("t");
+		assertEquals(2L, values.get("count"));
+		assertEquals(6.0, values.get("total").doubleValue(), 0.001);
+		assertEquals(3.0, values.get("mean").doubleValue(), 0.001);
+		assertEquals(4.0, values.get("max").doubleValue(), 0.001);
+	}
+
+	@Test
+	public void testReset() {
+		Counter counter = provider.counter("c");
+		counter.increment();
+		provider.timer("t").update(10);
+		provider.reset();
+		assertEquals(0L, provider.getSnapshot().get("c").get("count"));
+		assertEquals(0L, provider.getSnapshot().get("t").get("count"));
+		// references held by callers still report to the provider
+		counter.increment();
+		assertEquals(1L, provider.getSnapshot().get("c").get("count"));
+	}
+
+	@Test
+	public void testMetricsUtil() {
+		assertFalse(MetricsUtil.isEnabled());
+		MetricsUtil.time("t", System.nanoTime());
+		assertTrue(MetricsUtil.getProvider().getSnapshot().isEmpty());
+		MetricsUtil.setProvider(provider);
+		assertTrue(MetricsUtil.isEnabled());
+		MetricsUtil.time("t", System.nanoTime());
+		assertEquals(1L, provider.getSnapshot().get("t").get("count"));
+	}
+}
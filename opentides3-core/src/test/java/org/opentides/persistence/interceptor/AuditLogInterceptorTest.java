@@ -0,0 +1,111 @@
+package org.opentides.persistence.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
+import org.opentides.bean.BaseEntity;
+import org.opentides.bean.SystemCodes;
+
+public class AuditLogInterceptorTest {
+
+	/**
+	 * Interceptor that keeps the audit logs instead of saving them.
+	 */
+	private static class TestInterceptor extends AuditLogInterceptor {
+		private static final long serialVersionUID = 1L;
+		private final boolean enabled;
+		private final List<List<AuditLog>> saved = new ArrayList<List<AuditLog>>();
+
+		private TestInterceptor(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		@Override
+		protected boolean isAuditEnabled() {
+			return enabled;
+		}
+
+		@Override
+		protected void saveLogs(List<AuditLog> logs) {
+			saved.add(logs);
+		}
+	}
+
+	@Test
+	public void testBuildPreviousState() {
+		SystemCodes current = new SystemCodes("OFFICE", "HR", "Human Resources");
+		current.setId(10L);
+		BaseEntity old = new TestInterceptor(true).buildPreviousState(current,
+				new Object[] { "OFFICE", "HR", "Personnel" },
+				new String[] { "category", "key", "value" });
+		assertNotNull(old);
+		assertEquals(Long.valueOf(10), old.getId());
+		assertEquals("Personnel", ((SystemCodes) old).getValue());
+		assertEquals("Human Resources", current.getValue());
+	}
+
+	@Test
+	public void testUnknownPropertyFallsBack() {
+		SystemCodes current = new SystemCodes("OFFICE", "HR", "Human Resources");
+		assertEquals(null, new TestInterceptor(true).buildPreviousState(current,
+				new Object[] { "x" }, new String[] { "noSuchField" }));
+		assertEquals(null, new TestInterceptor(true).buildPreviousState(current,
+				null, new String[] { "value" }));
+	}
+
+	@Test
+	public void testLogsOfFlushAreSavedTogether() {
+		TestInterceptor interceptor = new TestInterceptor(true);
+		SystemCodes inserted = new SystemCodes("OFFICE", "IT", "Information Technology");
+		inserted.setId(1L);
+		inserted.setAuditUserId(5L);
+		inserted.setAuditUsername("admin");
+		SystemCodes updated = new SystemCodes("OFFICE", "HR", "Human Resources");
+		updated.setId(2L);
+		updated.setAuditUserId(5L);
+		updated.setAuditUsername("admin");
+
+		interceptor.onSave(inserted, 1L, null, null, null);
+		interceptor.onFlushDirty(updated, 2L, null,
+				new Object[] { "OFFICE", "HR", "Personnel" },
+				new String[] { "category", "key", "value" }, null);
+		interceptor.postFlush(null);
+
+		assertEquals(1, interceptor.saved.size());
+		List<AuditLog> logs = interceptor.saved.get(0);
+		assertEquals(2, logs.size());
+		assertEquals(Long.valueOf(1), logs.get(0).getEntityId());
+		assertEquals(Long.valueOf(5), logs.get(0).getUserId());
+		assertEquals(Long.valueOf(2), logs.get(1).getEntityId());
+		assertTrue(logs.get(1).getMessage().contains("Personnel"));
+		// only the changed field is stored
+		assertEquals(AuditLog.ACTION_CHANGED, logs.get(1).getAction());
+		assertEquals("Personnel", logs.get(1).getStoredMessage());
+		assertEquals(1, logs.get(1).getChanges().size());
+		AuditLogChange change = logs.get(1).getChanges().get(0);
+		assertEquals("value", change.getFieldName());
+		assertEquals("Personnel", change.getOldValue());
+		assertEquals("Human Resources", change.getNewValue());
+		assertTrue(interceptor.updates.isEmpty());
+	}
+
+	@Test
+	public void testNothingIsBuiltWhenDisabled() {
+		TestInterceptor interceptor = new TestInterceptor(false);
+		SystemCodes updated = new SystemCodes("OFFICE", "HR", "Human Resources");
+		updated.setId(2L);
+		interceptor.onFlushDirty(updated, 2L, null,
+				new Object[] { "OFFICE", "HR", "Personnel" },
+				new String[] { "category", "key", "value" }, null);
+		assertTrue(interceptor.updates.isEmpty());
+		interceptor.postFlush(null);
+		assertTrue(interceptor.saved.isEmpty());
+	}
+}
@@ -0,0 +1,182 @@
+package org.opentides.persistence.listener;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.SystemCodes;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.util.TenantContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class AuditLogLoaderTest {
+
+	@Mock
+	private EntityManager em;
+
+	@Mock
+	private Query objectQuery;
+
+	@Mock
+	private Query userQuery;
+
+	private AuditLogLoader loader;
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(em.createQuery("select obj from " + SystemCodes.class.getName()
+				+ " obj where obj.id in (:ids)")).thenReturn(objectQuery);
+		Mockito.when(em.createQuery("select u from BaseUser u where u.id in (:ids)")).thenReturn(userQuery);
+		Mockito.when(objectQuery.setParameter(Mockito.eq("ids"), Mockito.any())).thenReturn(objectQuery);
+		Mockito.when(userQuery.setParameter(Mockito.eq("ids"), Mockito.any())).thenReturn(userQuery);
+		Mockito.when(objectQuery.getResultList()).thenReturn(
+				Arrays.asList(createSystemCodes(1L), createSystemCodes(2L)));
+		Mockito.when(userQuery.getResultList()).thenReturn(Arrays.asList(createUser(7L, "Juan")));
+		loader = new AuditLogLoader() {
+			@Override
+			protected EntityManager getEntityManager() {
+				return em;
+			}
+		};
+	}
+
+	@After
+	public void destroy() {
+		AuditLogLoader.setUserCacheTimeout(0);
+		AuditLogLoader.clearUserCache();
+		AuditLogLoader.clear();
+		TenantContextHolder.clearContext();
+		if (TransactionSynchronizationManager.isSynchronizationActive())
+			TransactionSynchronizationManager.clearSynchronization();
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testLoadIsLazyAndBatched() {
+		AuditLog log1 = createLog(1L, 7L);
+		AuditLog log2 = createLog(2L, 7L);
+		AuditLog log3 = createLog(1L, 7L);
+		loader.add(log1);
+		loader.add(log2);
+		loader.add(log3);
+		Mockito.verifyZeroInteractions(em);
+
+		Assert.assertEquals(Long.valueOf(2L), ((SystemCodes) log2.getObject()).getId());
+		Assert.assertEquals(Long.valueOf(1L), ((SystemCodes) log3.getObject()).getId());
+		Assert.assertEquals("Juan", log1.getUser().getFirstName());
+		Assert.assertEquals("by Juan Cruz", log3.getUserNameDisplay());
+
+		// one query for the objects and one for the users
+		Mockito.verify(objectQuery, Mockito.times(1)).getResultList();
+		Mockito.verify(userQuery, Mockito.times(1)).getResultList();
+		ArgumentCaptor<Object> ids = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(objectQuery).setParameter(Mockito.eq("ids"), ids.capture());
+		Assert.assertEquals(2, ((List) ids.getValue()).size());
+		Mockito.verify(em).close();
+	}
+
+	@Test
+	public void testUserProfileCache() {
+		AuditLogLoader.setUserCacheTimeout(60000);
+		loader.add(createLog(1L, 7L));
+		loader.load();
+
+		AuditLogLoader second = new AuditLogLoader() {
+			@Override
+			protected EntityManager getEntityManager() {
+				return em;
+			}
+		};
+		AuditLog log = createLog(2L, 7L);
+		second.add(log);
+		Assert.assertEquals("Juan", log.getUser().getFirstName());
+		Mockito.verify(userQuery, Mockito.times(1)).getResultList();
+	}
+
+	@Test
+	public void testLoadedGroupDoesNotAcceptMoreLogs() {
+		loader.add(createLog(1L, 7L));
+		loader.load();
+		Assert.assertFalse(loader.add(createLog(2L, 7L)));
+	}
+
+	@Test
+	public void testGroupIsClosedAtRequestEnd() {
+		AuditLog log1 = createLog(1L, 7L);
+		AuditLog log2 = createLog(2L, 7L);
+		AuditLogLoader.register(log1);
+		AuditLogLoader.register(log2);
+		Assert.assertSame(getLoader(log1), getLoader(log2));
+
+		AuditLogLoader.clear();
+		AuditLog log3 = createLog(1L, 7L);
+		AuditLogLoader.register(log3);
+		Assert.assertNotSame(getLoader(log1), getLoader(log3));
+	}
+
+	@Test
+	public void testGroupIsClosedAtTransactionEnd() {
+		TransactionSynchronizationManager.initSynchronization();
+		AuditLog log1 = createLog(1L, 7L);
+		AuditLogLoader.register(log1);
+		for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+			sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+		}
+		TransactionSynchronizationManager.clearSynchronization();
+
+		AuditLog log2 = createLog(2L, 7L);
+		AuditLogLoader.register(log2);
+		Assert.assertNotSame(getLoader(log1), getLoader(log2));
+	}
+
+	@Test
+	public void testGroupIsPerTenant() {
+		TenantContextHolder.setSchemaName("tenant_a");
+		AuditLog log1 = createLog(1L, 7L);
+		AuditLogLoader.register(log1);
+		TenantContextHolder.setSchemaName("tenant_b");
+		AuditLog log2 = createLog(2L, 7L);
+		AuditLogLoader.register(log2);
+		Assert.assertNotSame(getLoader(log1), getLoader(log2));
+	}
+
+	private Object getLoader(AuditLog log) {
+		return ReflectionTestUtils.getField(log, "loader");
+	}
+
+	private AuditLog createLog(Long entityId, Long userId) {
+		AuditLog log = new AuditLog();
+		log.setEntityClass(SystemCodes.class);
+		log.setEntityId(entityId);
+		log.setUserId(userId);
+		return log;
+	}
+
+	private SystemCodes createSystemCodes(Long id) {
+		SystemCodes sc = new SystemCodes();
+		sc.setId(id);
+		return sc;
+	}
+
+	private BaseUser createUser(Long id, String firstName) {
+		BaseUser user = new BaseUser();
+		user.setId(id);
+		user.setFirstName(firstName);
+		user.setLastName("Cruz");
+		return user;
+	}
+}
@@ -28,6 +28,104 @@ public class SystemCodesServiceImplTest {
 	@Before
 	public void init() {
 		MockitoAnnotations.initMocks(this);
+		// lookups go to the dao unless the test enables the cache
+		((SystemCodesServiceImpl) systemCodesService).setCacheEnabled(false);
+	}
+
+	@Test
+	public void testCachedLookups() {
+		SystemCodesServiceImpl service = enableCache();
+		SystemCodes ph = new SystemCodes("COUNTRY", "PH", "Philippines");
+		ph.setId(1l);
+		SystemCodes cn = new SystemCodes("COUNTRY", "CN", "China");
+		cn.setId(2l);
+		SystemCodes ad = new SystemCodes("OFFICE", "AD", "Administration Office");
+		ad.setId(3l);
+		when(systemCodesDao.getVersionStamp()).thenReturn("3:3:0");
+		when(systemCodesDao.findAllWithParent()).thenReturn(Arrays.asList(ph, cn, ad));
+
+		assertEquals("Philippines", service.findByKey("PH").getValue());
+		assertEquals(ad, service.findByKey(new SystemCodes("AD")));
+		assertNull(service.findByKey("XX"));
+		assertEquals("China", service.findById(2l).getValue());
+		assertEquals(Arrays.asList(cn, ph), service.findSystemCodesByCategory("COUNTRY"));
+		assertTrue(service.findSystemCodesByCategory("REGION").isEmpty());
+		assertEquals(Arrays.asList("COUNTRY", "OFFICE"), service.getAllCategories());
+		assertEquals(Arrays.asList("OFFICE"), service.getAllCategoriesExcept("COUNTRY"));
+
+		verify(systemCodesDao, times(1)).findAllWithParent();
+		verify(systemCodesDao, never()).loadBySystemCodesByKey(anyString());
+		verify(systemCodesDao, never()).findSystemCodesByCategory(anyString());
+	}
+
+	@Test
+	public void testCacheReloadsWhenStampChanges() {
+		SystemCodesServiceImpl service = enableCache();
+		service.setCheckInterval(0);
+		SystemCodes ph = new SystemCodes("COUNTRY", "PH", "Philippines");
+		SystemCodes renamed = new SystemCodes("COUNTRY", "PH", "Republic of the Philippines");
+		when(systemCodesDao.getVersionStamp()).thenReturn("1:1:0", "1:1:0", "1:1:1");
+		when(systemCodesDao.findAllWithParent()).thenReturn(Arrays.asList(ph), Arrays.asList(renamed));
+
+		assertEquals("Philippines", service.findByKey("PH").getValue());
+		assertEquals("Philippines", service.findByKey("PH").getValue());
+		verify(systemCodesDao, times(1)).findAllWithParent();
+		assertEquals("Republic of the Philippines", service.findByKey("PH").getValue());
+		verify(systemCodesDao, times(2)).findAllWithParent();
+	}
+
+	@Test
+	public void testInvalidateCache() {
+		SystemCodesServiceImpl service = enableCache();
+		when(systemCodesDao.getVersionStamp()).thenReturn("1:1:0");
+		when(systemCodesDao.findAllWithParent()).thenReturn(
+				Arrays.asList(new SystemCodes("COUNTRY", "PH", "Philippines")));
+
+		service.findByKey("PH");
+		service.findByKey("PH");
+		verify(systemCodesDao, times(1)).findAllWithParent();
+		service.invalidateCache();
+		service.findByKey("PH");
+		verify(systemCodesDao, times(2)).findAllWithParent();
+	}
+
+	@Test
+	public void testCachedLookupsReturnCopies() {
+		SystemCodesServiceImpl service = enableCache();
+		SystemCodes region = new SystemCodes("REGION", "ASIA", "Asia");
+		region.setId(1l);
+		SystemCodes country = new SystemCodes("COUNTRY", "PH", "Philippines");
+		country.setId(2l);
+		country.setParent(region);
+		SystemCodes city = new SystemCodes("CITY", "MNL", "Manila");
+		city.setId(3l);
+		// only the parent is fetched, the parent of the parent is a copy
+		SystemCodes parent = new SystemCodes("COUNTRY", "PH", "Philippines");
+		parent.setId(2l);
+		city.setParent(parent);
+		when(systemCodesDao.getVersionStamp()).thenReturn("3:3:0");
+		when(systemCodesDao.findAllWithParent()).thenReturn(Arrays.asList(region, country, city));
+
+		SystemCodes found = service.findByKey("MNL");
+		assertNotSame(city, found);
+		assertEquals("Asia", found.getParent().getParent().getValue());
+		found.setValue("Changed");
+		found.getParent().setValue("Changed");
+		service.findById(1l).setValue("Changed");
+		service.findSystemCodesByCategory("COUNTRY").get(0).setValue("Changed");
+
+		assertEquals("Manila", service.findByKey("MNL").getValue());
+		assertEquals("Philippines", service.findByKey("MNL").getParent().getValue());
+		assertEquals("Asia", service.findById(1l).getValue());
+		assertEquals("Philippines", service.findSystemCodesByCategory("COUNTRY").get(0).getValue());
+		// the loaded system codes are not changed either
+		assertSame(parent, city.getParent());
+	}
+
+	private SystemCodesServiceImpl enableCache() {
+		SystemCodesServiceImpl service = (SystemCodesServiceImpl) systemCodesService;
+		service.setCacheEnabled(true);
+		return service;
 	}
 
 	@Test
@@ -4,11 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import org.junit.Before;
@@ -60,6 +63,40 @@ public class TagServiceImplTest {
 		verify(tagDao).saveAllEntityModel(tags);
 	}
 
+	@Test
+	public void testCreateTags() {
+		Tag existing = new Tag("java");
+		existing.setId(5l);
+		when(tagDao.findByTagTexts(anyCollectionOf(String.class))).thenReturn(Arrays.asList(existing));
+		
+		List<Tag> actual = tagService.createTags(new String[] {"java", "", "spring", "java", "hibernate"});
+		
+		assertEquals(3, actual.size());
+		assertEquals(existing, actual.get(0));
+		assertEquals("spring", actual.get(1).getTagText());
+		assertEquals("hibernate", actual.get(2).getTagText());
+		verify(tagDao).findByTagTexts(new LinkedHashSet<String>(Arrays.asList("java", "spring", "hibernate")));
+		verify(tagDao).saveTags(Arrays.asList(actual.get(1), actual.get(2)));
+		verify(tagDao, times(0)).loadByText("java");
+	}
+	
+	@Test
+	public void testPostProcessTags() {
+		Tag attached = new Tag("Tag 1");
+		attached.setTaggableClass(SampleClass.class);
+		attached.setTaggableId(2l);
+		Tag tag = new Tag("Tag 2");
+		tag.setTaggableClass(SampleClass.class);
+		
+		SampleClass sample = new SampleClass();
+		sample.setTags(new ArrayList<Tag>(Arrays.asList(attached, tag)));
+		tagService.postProcessTags(sample, 3l);
+		
+		assertEquals(Long.valueOf(2l), attached.getTaggableId());
+		assertEquals(Long.valueOf(3l), tag.getTaggableId());
+		verify(tagDao).saveTags(Arrays.asList(tag));
+	}
+	
 	@Test
 	public void testFindByTaggableClassAndId() {
 		List<Tag> expected = new ArrayList<>();
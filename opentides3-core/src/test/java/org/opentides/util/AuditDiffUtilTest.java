@@ -0,0 +1,94 @@
+package org.opentides.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.opentides.bean.AuditLogChange;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.bean.user.UserGroup;
+
+public class AuditDiffUtilTest {
+
+	@Test
+	public void testCollectionsAreComparedById() {
+		BaseUser oldUser = createUser(0, 2000);
+		BaseUser newUser = createUser(1, 2001);
+		// same id with different name is the same element
+		for (UserGroup group : newUser.getGroups()) {
+			group.setName("RENAMED_" + group.getId());
+		}
+		List<AuditLogChange> changes = AuditDiffUtil.diff(oldUser, newUser);
+		assertEquals(1, changes.size());
+		AuditLogChange change = changes.get(0);
+		assertEquals("groups", change.getFieldName());
+		assertTrue(change.isCollection());
+		// one element added and one removed
+		assertTrue(change.getNewValue().startsWith("[") && !change.getNewValue().contains(","));
+		assertTrue(change.getOldValue().startsWith("[") && !change.getOldValue().contains(","));
+	}
+
+	@Test
+	public void testLargeChangesAreTruncated() {
+		List<AuditLogChange> changes = AuditDiffUtil.diff(createUser(0, 0), createUser(0, 2000));
+		assertEquals(1, changes.size());
+		assertNull(changes.get(0).getOldValue());
+		assertEquals(AuditLogChange.MAX_VALUE_LENGTH - 1, changes.get(0).getNewValue().length());
+	}
+
+	@Test
+	public void testOnlyDirtyFieldsAreCompared() {
+		BaseUser oldUser = createUser(0, 10);
+		BaseUser newUser = createUser(5, 10);
+		newUser.setLastName("Santos");
+		Set<String> dirty = new HashSet<String>(Arrays.asList("lastName"));
+		List<AuditLogChange> changes = AuditDiffUtil.diff(oldUser, newUser, dirty);
+		assertEquals(1, changes.size());
+		assertEquals("lastName", changes.get(0).getFieldName());
+		assertEquals("Dela Cruz", changes.get(0).getOldValue());
+		assertEquals("Santos", changes.get(0).getNewValue());
+		assertTrue(AuditDiffUtil.diff(oldUser, newUser, Collections.<String>emptySet()).isEmpty());
+	}
+
+	@Test
+	public void testScalarValues() {
+		assertNull(AuditDiffUtil.diffValue("name", null, ""));
+		assertNull(AuditDiffUtil.diffValue("groups", null, new ArrayList<UserGroup>()));
+		AuditLogChange change = AuditDiffUtil.diffValue("name", null, "Juan");
+		assertNull(change.getOldValue());
+		assertEquals("Juan", change.getNewValue());
+		UserGroup group = new UserGroup();
+		group.setId(1l);
+		assertNull(AuditDiffUtil.diffValue("group", group, createGroup(1)));
+		// collection compared with a single value is skipped
+		assertNull(AuditDiffUtil.diffValue("groups", group, new ArrayList<UserGroup>()));
+	}
+
+	private static BaseUser createUser(int start, int end) {
+		BaseUser user = new BaseUser();
+		user.setId(1l);
+		user.setFirstName("Juan");
+		user.setLastName("Dela Cruz");
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		for (int i = start; i < end; i++) {
+			groups.add(createGroup(i));
+		}
+		user.setGroups(groups);
+		return user;
+	}
+
+	private static UserGroup createGroup(long id) {
+		UserGroup group = new UserGroup();
+		group.setId(id);
+		group.setName("GROUP_" + id);
+		return group;
+	}
+}
@@ -0,0 +1,57 @@
+package org.opentides.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentides.bean.user.SessionUser;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+/**
+ * Unit test for {@link AuthorityRegistry}
+ *
+ */
+public class AuthorityRegistryTest {
+
+	@Test
+	public void testRegisterReturnsSameOrdinal() {
+		int ordinal = AuthorityRegistry.register("REGISTRY_TEST_A");
+		assertEquals(ordinal, AuthorityRegistry.register("REGISTRY_TEST_A"));
+		assertEquals(ordinal, AuthorityRegistry.ordinalOf("REGISTRY_TEST_A"));
+		assertEquals(-1, AuthorityRegistry.ordinalOf("REGISTRY_TEST_UNKNOWN"));
+		assertEquals(-1, AuthorityRegistry.register(""));
+	}
+
+	@Test
+	public void testToBitSet() {
+		AuthorityRegistry.registerAll(Arrays.asList("REGISTRY_TEST_B", "REGISTRY_TEST_C"));
+		List<GrantedAuthority> auths = new ArrayList<>();
+		auths.add(new SimpleGrantedAuthority("REGISTRY_TEST_C"));
+		auths.add(new SimpleGrantedAuthority("REGISTRY_TEST_D"));
+		BitSet bits = AuthorityRegistry.toBitSet(auths);
+		assertEquals(2, bits.cardinality());
+		assertFalse(AuthorityRegistry.hasAuthority(bits, "REGISTRY_TEST_B"));
+		assertTrue(AuthorityRegistry.hasAuthority(bits, "REGISTRY_TEST_C"));
+		assertTrue(AuthorityRegistry.hasAuthority(bits, "REGISTRY_TEST_D"));
+		assertFalse(AuthorityRegistry.hasAuthority(bits, "REGISTRY_TEST_UNKNOWN"));
+	}
+
+	@Test
+	public void testSessionUserHasPermission() {
+		List<GrantedAuthority> auths = new ArrayList<>();
+		auths.add(new SimpleGrantedAuthority("REGISTRY_TEST_E"));
+		SessionUser sessionUser = new SessionUser(new User("admin", "password", auths));
+		// registering after the user is created must not affect the user
+		AuthorityRegistry.register("REGISTRY_TEST_F");
+		assertTrue(sessionUser.hasPermission("REGISTRY_TEST_E"));
+		assertFalse(sessionUser.hasPermission("REGISTRY_TEST_F"));
+	}
+}
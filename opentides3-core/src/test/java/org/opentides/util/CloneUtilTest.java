@@ -0,0 +1,205 @@
+package org.opentides.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.hibernate.LazyInitializationException;
+import org.hibernate.collection.internal.PersistentSet;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.junit.Test;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.bean.user.UserCredential;
+import org.opentides.bean.user.UserGroup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CloneUtilTest {
+
+	@Test
+	public void testCopiesUserWithGroupsAndCredential() {
+		BaseUser user = createUser(3);
+		BaseUser copy = CloneUtil.copy(user);
+
+		assertNotSame(user, copy);
+		assertEquals(user.getId(), copy.getId());
+		assertEquals("Juan", copy.getFirstName());
+		assertEquals(user.getLastLogin(), copy.getLastLogin());
+		assertNotSame(user.getLastLogin(), copy.getLastLogin());
+		// transient fields are not copied, same as serialization
+		assertNull(ReflectionTestUtils.getField(copy, "skipAudit"));
+
+		assertNotSame(user.getCredential(), copy.getCredential());
+		assertEquals("juan", copy.getCredential().getUsername());
+		assertSame(copy, copy.getCredential().getUser());
+
+		assertNotSame(user.getGroups(), copy.getGroups());
+		assertEquals(user.getGroups(), copy.getGroups());
+		for (UserGroup group : copy.getGroups()) {
+			for (UserGroup original : user.getGroups()) {
+				assertNotSame(original, group);
+			}
+		}
+
+		copy.getCredential().setUsername("pedro");
+		copy.getGroups().clear();
+		assertEquals("juan", user.getCredential().getUsername());
+		assertEquals(3, user.getGroups().size());
+	}
+
+	@Test
+	public void testMaxDepth() {
+		BaseUser user = createUser(2);
+		BaseUser copy = CloneUtil.copy(user, 0);
+		assertSame(user.getCredential(), copy.getCredential());
+		assertSame(user.getGroups(), copy.getGroups());
+
+		copy = CloneUtil.copy(user, 1);
+		assertNotSame(user.getCredential(), copy.getCredential());
+		// already copied objects are reused regardless of depth
+		assertSame(copy, copy.getCredential().getUser());
+		assertNotSame(user.getGroups(), copy.getGroups());
+		UserGroup group = copy.getGroups().iterator().next();
+		assertTrue(user.getGroups().contains(group));
+	}
+
+	@Test
+	public void testHibernateCollections() {
+		BaseUser user = createUser(0);
+		@SuppressWarnings("unchecked")
+		Set<UserGroup> lazy = new PersistentSet((SessionImplementor) null);
+		user.setGroups(lazy);
+		Set<UserGroup> detached = CloneUtil.copy(user).getGroups();
+		// uninitialized collections are detached without loading them
+		assertNotSame(lazy, detached);
+		assertFalse(((PersistentCollection) detached).wasInitialized());
+		try {
+			detached.size();
+			fail("Detached collection should not be loaded.");
+		} catch (LazyInitializationException e) {
+			// expected, same as a deserialized collection
+		}
+		// so the audit log does not report the loaded groups as added
+		assertNull(AuditDiffUtil.diffValue("groups", detached, createUser(2).getGroups()));
+
+		Set<UserGroup> groups = new HashSet<UserGroup>(createUser(2).getGroups());
+		@SuppressWarnings("unchecked")
+		Set<UserGroup> loaded = new PersistentSet((SessionImplementor) null, groups);
+		user.setGroups(loaded);
+		Set<UserGroup> copy = CloneUtil.copy(user).getGroups();
+		assertEquals(LinkedHashSet.class, copy.getClass());
+		assertEquals(groups, copy);
+	}
+
+	@Test
+	public void testHibernateProxies() {
+		BaseUser user = createUser(0);
+		UserCredential credential = user.getCredential();
+
+		CredentialProxy lazy = new CredentialProxy(UserCredential.class, 7l, null);
+		user.setCredential(lazy);
+		BaseUser copy = CloneUtil.copy(user);
+		// uninitialized proxies are replaced by the id of the entity
+		assertEquals(UserCredential.class, copy.getCredential().getClass());
+		assertEquals(Long.valueOf(7), copy.getCredential().getId());
+		assertNull(copy.getCredential().getUsername());
+
+		user.setCredential(new CredentialProxy(UserCredential.class, 7l, credential));
+		UserCredential initialized = CloneUtil.copy(user).getCredential();
+		assertEquals(UserCredential.class, initialized.getClass());
+		assertEquals("juan", initialized.getUsername());
+		assertNotSame(credential, initialized);
+	}
+
+	@Test
+	public void testUninitializedValuesAreDetached() {
+		BaseUser user = createUser(0);
+		CredentialProxy lazy = new CredentialProxy(UserCredential.class, 7l, null);
+		user.setCredential(lazy);
+		Object[] values = new Object[] { user, lazy, new PersistentSet((SessionImplementor) null) };
+		Object[] copy = CloneUtil.copy(values);
+		// the same proxy is replaced by the same instance
+		assertSame(((BaseUser) copy[0]).getCredential(), copy[1]);
+		assertEquals(PersistentSet.class, copy[2].getClass());
+		assertNotSame(values[2], copy[2]);
+
+		// proxies that cannot be replaced by an entity are not copied
+		user.setCredential(new CredentialProxy(null, 7l, null));
+		assertNull(CloneUtil.copy(user).getCredential());
+		user.setCredential(new CredentialProxy(UserCredential.class, "7", null));
+		assertNull(CloneUtil.copy(user).getCredential());
+	}
+
+	private static BaseUser createUser(int groupCount) {
+		BaseUser user = new BaseUser();
+		user.setId(1l);
+		user.setFirstName("Juan");
+		user.setLastName("Dela Cruz");
+		user.setLastLogin(new Date());
+		user.setSkipAudit(true);
+		UserCredential credential = new UserCredential();
+		credential.setUsername("juan");
+		credential.setUser(user);
+		user.setCredential(credential);
+		Set<UserGroup> groups = new HashSet<UserGroup>();
+		for (int i = 0; i < groupCount; i++) {
+			UserGroup group = new UserGroup();
+			group.setId((long) i);
+			group.setName("GROUP_" + i);
+			groups.add(group);
+		}
+		user.setGroups(groups);
+		return user;
+	}
+
+	/**
+	 * Proxy of a credential, uninitialized if there is no implementation.
+	 */
+	@SuppressWarnings("serial")
+	private static class CredentialProxy extends UserCredential implements HibernateProxy {
+		private final LazyInitializer initializer;
+
+		private CredentialProxy(final Class<?> persistentClass, final Object id, 
+				final UserCredential implementation) {
+			initializer = (LazyInitializer) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { LazyInitializer.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if ("isUninitialized".equals(method.getName()))
+								return implementation == null;
+							if ("getImplementation".equals(method.getName()))
+								return implementation;
+							if ("getPersistentClass".equals(method.getName()))
+								return persistentClass;
+							if ("getIdentifier".equals(method.getName()))
+								return id;
+							throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+
+		@Override
+		public Object writeReplace() {
+			return this;
+		}
+
+		@Override
+		public LazyInitializer getHibernateLazyInitializer() {
+			return initializer;
+		}
+	}
+}
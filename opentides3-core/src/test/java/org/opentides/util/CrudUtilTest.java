@@ -30,6 +30,8 @@ import java.util.Map;
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.opentides.bean.AuditLog;
+import org.opentides.bean.AuditLogChange;
 import org.opentides.bean.SystemCodes;
 import org.opentides.bean.user.BaseUser;
 import org.opentides.bean.user.UserCredential;
@@ -199,6 +201,29 @@ public class CrudUtilTest {
 		
 	}
 	
+	@Test
+	public void testRenderStoredChanges() {
+		final SystemCodes oldsc = new SystemCodes("categoryold","keyold","value");
+		final SystemCodes newsc = new SystemCodes("categorynew","keynew","value");
+		final List<AuditLogChange> changes = CrudUtil.buildUpdateChanges(oldsc, newsc);
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("key", changes.get(0).getFieldName());
+		Assert.assertEquals("KEYOLD", changes.get(0).getOldValue());
+		Assert.assertEquals("KEYNEW", changes.get(0).getNewValue());
+
+		// log as loaded from the database renders the same message
+		final AuditLog log = new AuditLog("value", 1l, SystemCodes.class, null, 1l, "admin");
+		log.setAction(AuditLog.ACTION_CHANGED);
+		log.setChanges(changes);
+		Assert.assertEquals(CrudUtil.buildUpdateMessage(oldsc, newsc), log.getMessage());
+		Assert.assertEquals("value", log.getStoredMessage());
+
+		final AuditLog deleted = new AuditLog("old", 1l, SystemCodes.class, null, 1l, "admin");
+		deleted.setAction(AuditLog.ACTION_DELETED);
+		Assert.assertEquals("<p class='delete-message'>Deleted System Codes with Value:<span class='primary-field'>old</span></p>",
+				deleted.getMessage());
+	}
+
 	@Test 
     public void testBuildURLParameters() {
 		// empty parameter
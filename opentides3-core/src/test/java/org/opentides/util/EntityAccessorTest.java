@@ -0,0 +1,95 @@
+package org.opentides.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentides.bean.BaseEntity;
+import org.opentides.bean.EntityAccessor;
+import org.opentides.bean.user.BaseUser;
+
+public class EntityAccessorTest {
+
+	@Test
+	public void testAccessorIsFoundByName() {
+		EntityAccessor<BaseEntity> accessor = CacheUtil.getAccessor(Sample.class);
+		assertSame(SampleAccessor.class, accessor.getClass());
+		assertSame(accessor, CacheUtil.getAccessor(Sample.class));
+		// no accessor is generated for BaseUser
+		assertNull(CacheUtil.getAccessor(BaseUser.class));
+	}
+
+	@Test
+	public void testCrudUtilUsesAccessor() {
+		Sample sample = new Sample();
+		sample.setName("tides");
+		SampleAccessor.reads = 0;
+		assertEquals("tides", CrudUtil.retrieveObjectValue(sample, "name"));
+		assertEquals(1, SampleAccessor.reads);
+		assertEquals(" where custom", CrudUtil.buildJpaQueryString(sample, true));
+	}
+
+	public static class Sample extends BaseEntity {
+		private static final long serialVersionUID = 1L;
+
+		private String name;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+
+	public static class SampleAccessor implements EntityAccessor<Sample> {
+		private static int reads;
+
+		@Override
+		public Class<Sample> getEntityClass() {
+			return Sample.class;
+		}
+
+		@Override
+		public List<String> getFieldNames() {
+			return Arrays.asList("name");
+		}
+
+		@Override
+		public int indexOf(String fieldName) {
+			return getFieldNames().indexOf(fieldName);
+		}
+
+		@Override
+		public Object getValue(Sample entity, int index) {
+			reads++;
+			return entity.getName();
+		}
+
+		@Override
+		public void setValue(Sample entity, int index, Object value) {
+			entity.setName((String) value);
+		}
+
+		@Override
+		public List<String> getSearchableFields() {
+			return getFieldNames();
+		}
+
+		@Override
+		public List<String> getAuditableFields() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public String buildJpaQueryString(Sample example, boolean exactMatch) {
+			return " where custom";
+		}
+	}
+}
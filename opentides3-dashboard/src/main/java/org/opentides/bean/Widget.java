@@ -29,7 +29,6 @@ import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
-import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
@@ -47,8 +46,9 @@ import com.fasterxml.jackson.annotation.JsonManagedReference;
 import com.fasterxml.jackson.annotation.JsonView;
 
 /**
- * The Widget entity is responsible for holding the dashboard widgets and and its cache.
- * To make dashboard load efficient, a cache is maintained to reduce large database queries.
+ * The Widget entity is responsible for holding the dashboard widgets.
+ * To make dashboard load efficient, rendered content is kept in
+ * {@link org.opentides.util.WidgetCache} instead of the database.
  * User must be careful in using cache settings to avoid stale data.
  * 
  * @author ideyatech
@@ -100,9 +100,9 @@ public class Widget extends BaseEntity implements ImageUploadable {
 	@Temporal(TemporalType.TIMESTAMP)
 	private Date lastCacheUpdate;
 	
-	@Lob
-	@Column(name = "CACHE")
-	private byte[] cache;
+	// rendered content is kept in WidgetCache, not in the database
+	@Transient
+	private transient byte[] cache;
 
 	@Column(name = "CACHE_TYPE")
 	private String cacheType;
@@ -18,7 +18,10 @@
  */
 package org.opentides.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.opentides.bean.UserWidgets;
 
@@ -49,5 +52,28 @@ public interface UserWidgetsDao extends BaseEntityDao<UserWidgets, Long> {
 	 * @param baseUserId
 	 */
 	public void deleteUserWidget(long widgetId, long baseUserId);
+	
+	/**
+	 * Count the widgets installed in each column of the given users
+	 * @param userIds - the users
+	 * @return map of user id to the widget count per column
+	 */
+	public Map<Long, Map<Integer, Long>> countUserWidgetsColumns(Collection<Long> userIds);
+	
+	/**
+	 * Retrieve the names of the given widgets already installed by the given users
+	 * @param userIds - the users
+	 * @param widgetNames - the widgets to check
+	 * @return map of user id to names of the installed widgets
+	 */
+	public Map<Long, Set<String>> findInstalledWidgetNames(Collection<Long> userIds, Collection<String> widgetNames);
+	
+	/**
+	 * Inserts the given user widgets using JDBC batch statements.
+	 * Inserted rows are not added to the persistence context.
+	 * @param userWidgets - user widgets to insert
+	 * @return number of rows inserted
+	 */
+	public int insertUserWidgets(List<UserWidgets> userWidgets);
 
 }
@@ -18,16 +18,29 @@
  */
 package org.opentides.dao.impl;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.Query;
 
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
 import org.opentides.bean.UserWidgets;
 import org.opentides.dao.UserWidgetsDao;
+import org.opentides.util.StringUtil;
+import org.opentides.util.TenantContextHolder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -38,6 +51,16 @@ import org.springframework.stereotype.Repository;
 public class UserWidgetsDaoJpaImpl extends BaseEntityDaoJpaImpl<UserWidgets, Long>
 		implements UserWidgetsDao {
 
+	/** Maximum number of ids in a single IN clause. */
+	private static final int MAX_IDS = 500;
+
+	private static final String INSERT_SQL = "INSERT INTO USER_WIDGETS "
+			+ "(CREATEDATE, UPDATEDATE, CREATEDBY, VERSION, SCHEMANAME_, USER_ID, WIDGET_ID, "
+			+ "COLUMN_, ROW_, STATUS, IS_SHOWN) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	@Value("${userwidgets.insert.batch-size:500}")
+	private String insertBatchSize = "500";
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<UserWidgets> findUserWidgets(long userId, Integer... widgetStatus) {
@@ -74,4 +97,130 @@ public class UserWidgetsDaoJpaImpl extends BaseEntityDaoJpaImpl<UserWidgets, Lon
 		executeByNamedQuery("jpql.widget.deleteUserWidgetsByWidgetAndUser", params);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<Long, Map<Integer, Long>> countUserWidgetsColumns(Collection<Long> userIds) {
+		Map<Long, Map<Integer, Long>> result = new HashMap<Long, Map<Integer, Long>>();
+		for (List<Long> chunk : partition(userIds)) {
+			Query query = createNamedQuery("jpql.userwidgets.countColumnsByUsers");
+			query.setParameter("userIds", chunk);
+			for (Object[] row : (List<Object[]>) query.getResultList()) {
+				Long userId = (Long) row[0];
+				if (!result.containsKey(userId))
+					result.put(userId, new HashMap<Integer, Long>());
+				result.get(userId).put((Integer) row[1], (Long) row[2]);
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<Long, Set<String>> findInstalledWidgetNames(Collection<Long> userIds,
+			Collection<String> widgetNames) {
+		Map<Long, Set<String>> result = new HashMap<Long, Set<String>>();
+		if (widgetNames == null || widgetNames.isEmpty())
+			return result;
+		for (List<Long> chunk : partition(userIds)) {
+			Query query = createNamedQuery("jpql.userwidgets.findWidgetNamesByUsers");
+			query.setParameter("userIds", chunk);
+			query.setParameter("widgetNames", widgetNames);
+			for (Object[] row : (List<Object[]>) query.getResultList()) {
+				Long userId = (Long) row[0];
+				if (!result.containsKey(userId))
+					result.put(userId, new HashSet<String>());
+				result.get(userId).add((String) row[1]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public int insertUserWidgets(final List<UserWidgets> userWidgets) {
+		if (userWidgets == null || userWidgets.isEmpty())
+			return 0;
+		final int batchSize = StringUtil.convertToInt(insertBatchSize, 500);
+		final int[] inserted = new int[1];
+		// pending changes must reach the database before the rows are inserted
+		getEntityManager().flush();
+		getEntityManager().unwrap(Session.class).doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				Timestamp now = new Timestamp(System.currentTimeMillis());
+				PreparedStatement ps = connection.prepareStatement(INSERT_SQL);
+				try {
+					int pending = 0;
+					for (UserWidgets userWidget : userWidgets) {
+						// same values as set by the entity listeners on persist
+						setAuditUserId(userWidget);
+						userWidget.setCreateDate(now);
+						userWidget.setUpdateDate(now);
+						if (StringUtil.isEmpty(userWidget.getCreatedBy()))
+							userWidget.setCreatedBy(userWidget.getAuditUsername());
+						if (userWidget.getDbName() == null)
+							userWidget.setDbName(TenantContextHolder.getSchemaName());
+						ps.setTimestamp(1, now);
+						ps.setTimestamp(2, now);
+						ps.setString(3, userWidget.getCreatedBy());
+						if (userWidget.getVersion() == null)
+							ps.setNull(4, Types.BIGINT);
+						else
+							ps.setLong(4, userWidget.getVersion());
+						ps.setString(5, userWidget.getDbName());
+						ps.setLong(6, userWidget.getUser().getId());
+						ps.setLong(7, userWidget.getWidget().getId());
+						setInteger(ps, 8, userWidget.getColumn());
+						setInteger(ps, 9, userWidget.getRow());
+						setInteger(ps, 10, userWidget.getStatus());
+						if (userWidget.getIsShown() == null)
+							ps.setNull(11, Types.BOOLEAN);
+						else
+							ps.setBoolean(11, userWidget.getIsShown());
+						ps.addBatch();
+						if (++pending == batchSize) {
+							inserted[0] += count(ps.executeBatch());
+							pending = 0;
+						}
+					}
+					if (pending > 0)
+						inserted[0] += count(ps.executeBatch());
+				} finally {
+					ps.close();
+				}
+			}
+		});
+		return inserted[0];
+	}
+
+	private static void setInteger(PreparedStatement ps, int index, Integer value) throws SQLException {
+		if (value == null)
+			ps.setNull(index, Types.INTEGER);
+		else
+			ps.setInt(index, value);
+	}
+
+	private static int count(int[] results) {
+		int total = 0;
+		for (int result : results) {
+			// some drivers only report that the statement succeeded
+			total += (result == PreparedStatement.SUCCESS_NO_INFO) ? 1 : result;
+		}
+		return total;
+	}
+
+	private static List<List<Long>> partition(Collection<Long> ids) {
+		List<List<Long>> chunks = new ArrayList<List<Long>>();
+		List<Long> chunk = new ArrayList<Long>();
+		for (Long id : ids) {
+			if (chunk.size() == MAX_IDS) {
+				chunks.add(chunk);
+				chunk = new ArrayList<Long>();
+			}
+			chunk.add(id);
+		}
+		if (!chunk.isEmpty())
+			chunks.add(chunk);
+		return chunks;
+	}
+
 }
@@ -97,6 +97,7 @@ public interface UserWidgetsService extends BaseCrudService<UserWidgets> {
 	 * Automatically add Widgets that is visible by default to all users within the User Group.
 	 * @param userGroup
 	 * @param userAccessRoles
+	 * @return number of user widgets created
 	 */
-	public void setupUserGroupWidgets(UserGroup userGroup, List<UserAuthority> userAccessRoles);
+	public int setupUserGroupWidgets(UserGroup userGroup, List<UserAuthority> userAccessRoles);
 }
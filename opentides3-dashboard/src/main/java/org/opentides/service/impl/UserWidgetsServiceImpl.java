@@ -19,7 +19,12 @@
 package org.opentides.service.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.opentides.bean.UserWidgets;
@@ -191,8 +196,14 @@ public class UserWidgetsServiceImpl extends BaseCrudServiceImpl<UserWidgets> imp
 		}
 	}
 
+	/**
+	 * Installs the widgets to all users of the group that do not have them yet.
+	 * The installed widgets and the widget count per column of all users are
+	 * retrieved with set-based queries and the new rows are inserted in JDBC
+	 * batches, so the number of statements does not grow with the group size.
+	 */
 	@Override
-	public void setupUserGroupWidgets(UserGroup userGroup,
+	public int setupUserGroupWidgets(UserGroup userGroup,
 			List<UserAuthority> userAccessRoles) {
 		List<String> rolesList = new ArrayList<String>(userAccessRoles.size());
 		for (UserAuthority userAuthority : userAccessRoles) {
@@ -200,26 +211,72 @@ public class UserWidgetsServiceImpl extends BaseCrudServiceImpl<UserWidgets> imp
 		}
 		
 		//get all the widgets with the access roles from the user
-		List<Widget> widgets = widgetService.findWidgetWithAccessCode(rolesList);
-		for(Widget widget : widgets){
-			if(widget.getIsShown()){
-				for(BaseUser user : userGroup.getUsers()) {
-					int[] pos = getColumnRowOfUserWidget(user.getId());
-					UserWidgets tempUserWidgets = this.findSpecificUserWidgets(user, widget.getName());
-					if(tempUserWidgets == null) {
-						UserWidgets userWidgets = new UserWidgets();
-						userWidgets.setWidget(widget);
-						userWidgets.setUser(user);
-						userWidgets.setStatus(1);
-						userWidgets.setColumn(pos[0]);
-						userWidgets.setRow((int)++pos[1]);
-						
-						getDao().saveEntityModel(userWidgets);		
-					}
-				}
+		List<Widget> widgets = new ArrayList<Widget>();
+		Set<String> widgetNames = new HashSet<String>();
+		for (Widget widget : widgetService.findWidgetWithAccessCode(rolesList)) {
+			if (widget.getIsShown() != null && widget.getIsShown()) {
+				widgets.add(widget);
+				widgetNames.add(widget.getName());
 			}
 		}
+		Map<Long, BaseUser> users = new LinkedHashMap<Long, BaseUser>();
+		for (BaseUser user : userGroup.getUsers()) {
+			users.put(user.getId(), user);
+		}
+		if (widgets.isEmpty() || users.isEmpty())
+			return 0;
 		
+		UserWidgetsDao userWidgetsDao = (UserWidgetsDao) getDao();
+		Map<Long, Set<String>> installed = userWidgetsDao.findInstalledWidgetNames(users.keySet(), widgetNames);
+		Map<Long, Map<Integer, Long>> columnCounts = userWidgetsDao.countUserWidgetsColumns(users.keySet());
+		int columns = widgetService.getColumnConfig();
+		List<UserWidgets> newWidgets = new ArrayList<UserWidgets>();
+		for (Widget widget : widgets) {
+			for (BaseUser user : users.values()) {
+				Set<String> names = installed.get(user.getId());
+				if (names == null) {
+					names = new HashSet<String>();
+					installed.put(user.getId(), names);
+				}
+				if (!names.add(widget.getName()))
+					continue;
+				Map<Integer, Long> counts = columnCounts.get(user.getId());
+				if (counts == null) {
+					counts = new HashMap<Integer, Long>();
+					columnCounts.put(user.getId(), counts);
+				}
+				int[] pos = getColumnRow(counts, columns);
+				UserWidgets userWidgets = new UserWidgets();
+				userWidgets.setWidget(widget);
+				userWidgets.setUser(user);
+				userWidgets.setStatus(1);
+				userWidgets.setColumn(pos[0]);
+				userWidgets.setRow(pos[1] + 1);
+				newWidgets.add(userWidgets);
+				counts.put(pos[0], pos[1] + 1l);
+			}
+		}
+		int created = userWidgetsDao.insertUserWidgets(newWidgets);
+		_log.info("Installed " + created + " widgets to users of group " + userGroup.getName());
+		return created;
+	}
+	
+	/**
+	 * Returns the column with the least widgets and its widget count,
+	 * the same way as {@link #getColumnRowOfUserWidget(long)}.
+	 */
+	private static int[] getColumnRow(Map<Integer, Long> counts, int columns) {
+		int col = 1;
+		long row = 0;
+		for (int start = 1; start <= columns; start++) {
+			Long value = counts.get(start);
+			long count = (value == null) ? 0 : value;
+			if (start == 1 || row > count) {
+				row = count;
+				col = start;
+			}
+		}
+		return new int[] { col, (int) row };
 	}
 
 }
@@ -3,11 +3,15 @@ package org.opentides.service.impl;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.log4j.Logger;
@@ -20,7 +24,10 @@ import org.opentides.service.WidgetService;
 import org.opentides.util.SecurityUtil;
 import org.opentides.util.StringUtil;
 import org.opentides.util.UrlUtil;
+import org.opentides.util.WidgetCache;
 import org.opentides.util.WidgetUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service("widgetService")
@@ -32,6 +39,18 @@ public class WidgetServiceImpl extends BaseCrudServiceImpl<Widget> implements
 	private String widgetColumn;
 	
 	private String IPAddress;
+
+	/** Prefix of cache keys of images embedded in widgets. */
+	private static final String IMAGE_KEY = "image:";
+
+	@Value("#{applicationSettings['widget.cache.miss-timeout']}")
+	private String missTimeout;
+
+	@Value("#{applicationSettings['widget.cache.image-timeout']}")
+	private String imageTimeout;
+
+	@Autowired
+	private WidgetCache widgetCache;
 	
 	private static Pattern pattern = Pattern.compile("<img\\s[^>]*src=\"?(.*?)[\" ]",
 			Pattern.CASE_INSENSITIVE|Pattern.MULTILINE);
@@ -77,93 +96,152 @@ public class WidgetServiceImpl extends BaseCrudServiceImpl<Widget> implements
 	public Widget requestWidget(String widgetUrl, String name,
 			HttpServletRequest req) {
 		Widget widget = findByName(name);
-		if (widget != null) {
-			long now = System.currentTimeMillis();
-			Date lastCacheDate = widget.getLastCacheUpdate();
-
-			boolean useCache = false;
-			// check if we should use cache or not
-			if (lastCacheDate != null) {
-				long expire = widget.getLastCacheUpdate().getTime()
-						+ widget.getCacheDuration() * 1000;
-				if (widget.getCacheType().startsWith(
-						Widget.TYPE_IMAGE)
-						|| now < expire)
-					useCache = true;
+		if (widget == null) {
+			// images embedded in widgets are only kept in the widget cache
+			WidgetCache.Entry image = widgetCache.get(IMAGE_KEY + name);
+			if (image == null)
+				return null;
+			return toRendered(name, null, image);
+		}
+		WidgetCache.Entry entry = widgetCache.get(widget.getName());
+		if (entry != null && entry.isFresh(widget.getCacheDuration())) {
+			_log.debug("Reusing widget [" + widget.getName()
+					+ "] from cache...");
+			return toRendered(widget.getName(), widget, entry);
+		}
+		Future<WidgetCache.Entry> refresh = widgetCache.refresh(widget.getName(),
+				createLoader(widget, widgetUrl, req));
+		if (entry == null) {
+			// nothing to serve yet, wait a bit for the first fetch
+			entry = widgetCache.await(refresh,
+					StringUtil.convertToLong(missTimeout, 3000L));
+			if (entry == null)
+				return null;
+		} else {
+			_log.debug("Serving stale widget [" + widget.getName()
+					+ "] while refreshing...");
+		}
+		return toRendered(widget.getName(), widget, entry);
+	}
+
+	/**
+	 * Creates the task that retrieves the widget content from its url.
+	 * Everything needed from the request is captured here because the task
+	 * runs after the request has completed.
+	 */
+	private Callable<WidgetCache.Entry> createLoader(final Widget widget,
+			final String widgetUrl, HttpServletRequest req) {
+		String url = widget.getUrl();
+		if (!UrlUtil.hasProtocol(url)) {
+			String slash = "/";
+			if (!url.startsWith("/")) {
+				url = slash + url;
 			}
-			if (useCache) {
-				_log.debug("Reusing widget [" + widget.getName()
-						+ "] from cache...");
-				// retrieve from cache
-				return widget;
-			} else {
-				// retrieve from url
-				String url = widget.getUrl();
-				if (!UrlUtil.hasProtocol(url)) {
-					String slash = "/";
-					if (!url.startsWith("/")) {
-						url = slash + url;
-					}
-					url = req.getContextPath().toString() + url;
-					if (req.getServerPort() != 80) {
-						url = ":" + Integer.toString(req.getServerPort()) + url;
-					}
-					url = UrlUtil.ensureProtocol(req.getServerName() + url);
-				}
-				
-				// set the IP Address as param
-				Map<String, Object> param = new HashMap<String, Object>();				
-				if (StringUtil.isEmpty(IPAddress))
-					param.put("IPAddress", IPAddress);
-				
-				UrlResponseObject response = WidgetUtil.getPage(url, req, param);
-				if (response==null)
-					return null;
-				if (response.getResponseType()
-						.startsWith(Widget.TYPE_IMAGE)) {
-					_log.debug("Retrieving image [" + widget.getName()
-							+ "] from url [" + widget.getUrl() + "]...");
-					widget.setCacheType(response.getResponseType());
-					widget.setCache(response.getResponseBody());
-					widget.setLastCacheUpdate(new Date());
-					save(widget);
-					_log.debug("Saved image [" + widget.getName()
-							+ "] to cache...");
-					return widget;
+			url = req.getContextPath().toString() + url;
+			if (req.getServerPort() != 80) {
+				url = ":" + Integer.toString(req.getServerPort()) + url;
+			}
+			url = UrlUtil.ensureProtocol(req.getServerName() + url);
+		}
+		final String pageUrl = url;
+		final String name = widget.getName();
+		final String userAgent = req.getHeader("User-Agent");
+		final Cookie[] cookies = req.getCookies();
+		return new Callable<WidgetCache.Entry>() {
+			@Override
+			public WidgetCache.Entry call() {
+				return fetchWidget(name, pageUrl, widgetUrl, userAgent, cookies);
+			}
+		};
+	}
+
+	/**
+	 * Retrieves the widget from the given url. Images referenced by html
+	 * widgets are retrieved in parallel and the html is rewritten to
+	 * load them from the cache.
+	 *
+	 * @return the new cache entry, or null if the url cannot be retrieved
+	 */
+	protected WidgetCache.Entry fetchWidget(String name, String url, String widgetUrl,
+			final String userAgent, final Cookie[] cookies) {
+		// set the IP Address as param
+		Map<String, Object> param = new HashMap<String, Object>();
+		if (StringUtil.isEmpty(IPAddress))
+			param.put("IPAddress", IPAddress);
+
+		UrlResponseObject response = WidgetUtil.getPage(url, userAgent, cookies, param);
+		if (response == null)
+			return null;
+		if (response.getResponseType().startsWith(Widget.TYPE_IMAGE)) {
+			_log.debug("Retrieved image [" + name + "] from url [" + url + "]...");
+			return new WidgetCache.Entry(response.getResponseType(),
+					response.getResponseBody());
+		}
+		_log.debug("Retrieved widget [" + name + "] from url [" + url + "]...");
+		// check for image inside the html
+		String html = new String(response.getResponseBody());
+		String hostname = UrlUtil.getHostname(url);
+		Map<String, String> images = new LinkedHashMap<String, String>();
+		Matcher matcher = pattern.matcher(html);
+		while (matcher.find()) {
+			String imageUrl = matcher.group(1);
+			String cacheUrl = imageUrl;
+			if (!UrlUtil.hasProtocol(cacheUrl)) {
+				if (!imageUrl.startsWith("/")) {
+					cacheUrl = "http://" + hostname + "/" + imageUrl;
 				} else {
-					_log.debug("Retrieving widget [" + widget.getName()
-							+ "] from url [" + widget.getUrl() + "]...");
-					widget.setCacheType(response.getResponseType());
-					// check for image inside the html
-					String html = new String(response.getResponseBody());
-					String hostname = UrlUtil.getHostname(url);
-					Matcher matcher = pattern.matcher(html);
-					while (matcher.find()) {
-						// add image link to cache
-						String imageUrl = matcher.group(1);
-						String cacheUrl = imageUrl;
-						if (!UrlUtil.hasProtocol(cacheUrl)) {
-							if (!imageUrl.startsWith("/")) { 
-								cacheUrl = "http://" + hostname + "/" + imageUrl;
-							} else {
-								cacheUrl = "http://" + hostname  + imageUrl;
-							}
-						}
-						String imageName = this.addCache(cacheUrl, req, widget);
-						// replace html that reference to image with cached image
-						String newUrl = widgetUrl+"?name="+imageName;
-						html = html.replace(imageUrl, newUrl);
-					}
-					widget.setCache(html.getBytes());
-					widget.setLastCacheUpdate(new Date());
-					save(widget);
-					_log.debug("Saved widget [" + widget.getName()
-							+ "] to cache...");
-					return widget;
+					cacheUrl = "http://" + hostname + imageUrl;
 				}
 			}
+			images.put(imageUrl, cacheUrl);
 		}
-		return null; 
+		Map<String, Callable<WidgetCache.Entry>> loaders = new HashMap<String, Callable<WidgetCache.Entry>>();
+		for (final String cacheUrl : images.values()) {
+			String key = IMAGE_KEY + WidgetCache.hash(cacheUrl);
+			if (loaders.containsKey(key) || widgetCache.get(key) != null)
+				continue;
+			loaders.put(key, new Callable<WidgetCache.Entry>() {
+				@Override
+				public WidgetCache.Entry call() {
+					UrlResponseObject image = WidgetUtil.getPage(cacheUrl, userAgent, cookies, null);
+					if (image == null)
+						return null;
+					String type = image.getResponseType().startsWith(Widget.TYPE_IMAGE) ?
+							Widget.TYPE_IMAGE : Widget.TYPE_HTML;
+					return new WidgetCache.Entry(type, image.getResponseBody());
+				}
+			});
+		}
+		if (!loaders.isEmpty())
+			widgetCache.fetchAll(loaders, StringUtil.convertToLong(imageTimeout, 15000L));
+		for (Map.Entry<String, String> image : images.entrySet()) {
+			String imageName = WidgetCache.hash(image.getValue());
+			if (widgetCache.get(IMAGE_KEY + imageName) == null)
+				continue;
+			// replace html that reference to image with cached image
+			html = html.replace(image.getKey(), widgetUrl + "?name=" + imageName);
+		}
+		return new WidgetCache.Entry(response.getResponseType(), html.getBytes());
+	}
+
+	/**
+	 * Returns a copy of the widget holding the cached content. A copy is
+	 * used so the persistent widget is not modified.
+	 */
+	private Widget toRendered(String name, Widget widget, WidgetCache.Entry entry) {
+		Widget rendered = new Widget();
+		if (widget != null) {
+			rendered.setId(widget.getId());
+			rendered.setTitle(widget.getTitle());
+			rendered.setUrl(widget.getUrl());
+			rendered.setCacheDuration(widget.getCacheDuration());
+			rendered.setAccessCode(widget.getAccessCode());
+		}
+		rendered.setName(name);
+		rendered.setCacheType(entry.getType());
+		rendered.setCache(entry.getBody());
+		rendered.setLastCacheUpdate(new Date(entry.getFetchedAt()));
+		return rendered;
 	}
 
 	@Override
@@ -192,27 +270,5 @@ public class WidgetServiceImpl extends BaseCrudServiceImpl<Widget> implements
 	public void setWidgetColumn(String widgetColumn) {
 		this.widgetColumn = widgetColumn;
 	}
-	
-	/**
-	 * Private helper to save image cache.
-	 * 
-	 * @param imageUrl
-	 * @return
-	 */
-	private String addCache(String url, HttpServletRequest req, Widget parentSettings) {
-		Widget settings = this.findByUrl(url);
-		if (settings == null)
-			settings = new Widget(url, parentSettings);
-		UrlResponseObject response = WidgetUtil.getPage(url, req, null);
-		if (response.getResponseType().startsWith(Widget.TYPE_IMAGE))
-			settings.setCacheType(Widget.TYPE_IMAGE);
-		else
-			settings.setCacheType(Widget.TYPE_HTML);
-		settings.setCache(response.getResponseBody());
-		this.save(settings);
-		settings.setName(""+settings.getId());
-		this.save(settings);
-		return settings.getName();
-	}
 
 }
\ No newline at end of file
@@ -0,0 +1,538 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.Widget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Two-tier cache for rendered widget content.
+ *
+ * Entries are kept in memory (least recently used are dropped once
+ * widget.cache.memory-size bytes is exceeded) and written to files under
+ * widget.cache.dir, so content survives restarts and evictions without
+ * being stored in the WIDGET table. If widget.cache.dir is not set, files
+ * are written to the temporary directory of the web application, so 
+ * applications on the same host do not share cached content. Keys are 
+ * scoped to the schema of the current tenant.
+ *
+ * Entries of any type, images included, are dropped once they are older
+ * than widget.cache.max-age seconds. Files are also deleted, oldest first,
+ * once they exceed widget.cache.disk-size bytes in total. The directory is
+ * swept on startup, at least hourly while entries are written, and whenever
+ * the disk size is exceeded.
+ *
+ * Refreshes run in the background, at most one at a time per key. Callers
+ * keep receiving the stale entry while the refresh is in progress.
+ *
+ * @author opentides
+ */
+@Component(value="widgetCache")
+public class WidgetCache implements ServletContextAware {
+
+	private static final Logger _log = Logger.getLogger(WidgetCache.class);
+
+	@Value("#{applicationSettings['widget.cache.dir']}")
+	private String cacheDir;
+
+	@Value("#{applicationSettings['widget.cache.memory-size']}")
+	private String memorySize;
+
+	@Value("#{applicationSettings['widget.cache.disk-size']}")
+	private String diskSize;
+
+	@Value("#{applicationSettings['widget.cache.max-age']}")
+	private String maxAge;
+
+	@Value("#{applicationSettings['widget.cache.refresh-threads']}")
+	private String refreshThreads;
+
+	@Value("#{applicationSettings['widget.cache.fetch-threads']}")
+	private String fetchThreads;
+
+	private File directory;
+
+	private ServletContext servletContext;
+
+	private long memoryBytes;
+
+	private long maxMemoryBytes;
+
+	private long maxDiskBytes;
+
+	private long maxAgeMillis;
+
+	private final AtomicLong diskBytes = new AtomicLong();
+
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	private volatile long nextSweep;
+
+	private static final long SWEEP_INTERVAL = 3600000L;
+
+	private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private final ConcurrentMap<String, Future<Entry>> inFlight = new ConcurrentHashMap<String, Future<Entry>>();
+
+	private ExecutorService refreshExecutor;
+
+	private ExecutorService fetchExecutor;
+
+	/**
+	 * Cached content of a widget or of an image embedded in a widget.
+	 */
+	public static class Entry {
+		private final String type;
+		private final byte[] body;
+		private final long fetchedAt;
+
+		public Entry(String type, byte[] body) {
+			this(type, body, System.currentTimeMillis());
+		}
+
+		public Entry(String type, byte[] body, long fetchedAt) {
+			this.type = type == null ? Widget.TYPE_HTML : type;
+			this.body = body == null ? new byte[0] : body;
+			this.fetchedAt = fetchedAt;
+		}
+
+		/**
+		 * Checks if this entry can still be used for a widget with the
+		 * given cache duration in seconds. Images never expire.
+		 */
+		public boolean isFresh(long cacheDuration) {
+			return type.startsWith(Widget.TYPE_IMAGE)
+					|| System.currentTimeMillis() < fetchedAt + cacheDuration * 1000;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public long getFetchedAt() {
+			return fetchedAt;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		File tempDir = (servletContext == null) ? null
+				: (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+		if (!StringUtil.isEmpty(cacheDir)) {
+			directory = new File(cacheDir);
+		} else if (tempDir != null) {
+			directory = new File(tempDir, "widget-cache");
+		} else {
+			_log.info("No widget.cache.dir and web application temporary directory, "
+					+ "only memory cache will be used.");
+			directory = null;
+		}
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			_log.warn("Unable to create widget cache directory [" + directory
+					+ "], only memory cache will be used.");
+			directory = null;
+		}
+		maxMemoryBytes = StringUtil.convertToLong(memorySize, 16L * 1024 * 1024);
+		maxDiskBytes = StringUtil.convertToLong(diskSize, 256L * 1024 * 1024);
+		maxAgeMillis = StringUtil.convertToLong(maxAge, 7L * 24 * 3600) * 1000;
+		if (directory != null)
+			sweepDisk(null);
+		refreshExecutor = Executors.newFixedThreadPool(StringUtil.convertToInt(refreshThreads, 2));
+		fetchExecutor = Executors.newFixedThreadPool(StringUtil.convertToInt(fetchThreads, 4));
+	}
+
+	@Override
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (refreshExecutor != null)
+			refreshExecutor.shutdownNow();
+		if (fetchExecutor != null)
+			fetchExecutor.shutdownNow();
+	}
+
+	/**
+	 * Returns the cached entry for the given key from memory, or from disk
+	 * if it was dropped from memory.
+	 *
+	 * @param key
+	 * @return the entry, or null if not cached or older than the max age
+	 */
+	public Entry get(String key) {
+		key = scoped(key);
+		synchronized (memory) {
+			Entry entry = memory.get(key);
+			if (entry != null && !isExpired(entry))
+				return entry;
+			if (entry != null) {
+				memory.remove(key);
+				memoryBytes -= entry.getBody().length;
+			}
+		}
+		Entry entry = readFromDisk(key);
+		if (entry != null)
+			putInMemory(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Stores the entry in both memory and disk.
+	 *
+	 * @param key
+	 * @param entry
+	 */
+	public void put(String key, Entry entry) {
+		store(scoped(key), entry);
+	}
+
+	/**
+	 * Removes the entry from both memory and disk.
+	 *
+	 * @param key
+	 */
+	public void evict(String key) {
+		key = scoped(key);
+		synchronized (memory) {
+			Entry removed = memory.remove(key);
+			if (removed != null)
+				memoryBytes -= removed.getBody().length;
+		}
+		if (directory != null)
+			new File(directory, hash(key)).delete();
+	}
+
+	/**
+	 * Reloads the entry in the background using the given loader. If a
+	 * refresh for the same key is already running, no new refresh is
+	 * started and the running one is returned instead.
+	 *
+	 * @param key
+	 * @param loader returns the new entry, or null if it cannot be loaded
+	 * @return
+	 */
+	public Future<Entry> refresh(String key, final Callable<Entry> loader) {
+		final String scopedKey = scoped(key);
+		FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+			@Override
+			public Entry call() throws Exception {
+				try {
+					Entry entry = loader.call();
+					if (entry != null)
+						store(scopedKey, entry);
+					return entry;
+				} finally {
+					inFlight.remove(scopedKey);
+				}
+			}
+		});
+		Future<Entry> running = inFlight.putIfAbsent(scopedKey, task);
+		if (running != null)
+			return running;
+		refreshExecutor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Waits up to the given time for a refresh to finish.
+	 *
+	 * @param future
+	 * @param timeout in milliseconds
+	 * @return the loaded entry, or null if failed or not yet done
+	 */
+	public Entry await(Future<Entry> future, long timeout) {
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			_log.error("Failed to refresh widget cache.", e.getCause());
+		} catch (TimeoutException e) {
+			_log.debug("Widget cache refresh still in progress.");
+		}
+		return null;
+	}
+
+	/**
+	 * Runs all the given loaders in parallel and waits for them to finish.
+	 * Successfully loaded entries are stored in the cache.
+	 *
+	 * @param loaders loader for each key
+	 * @param timeout in milliseconds
+	 * @return the entries loaded, by key
+	 */
+	public Map<String, Entry> fetchAll(Map<String, Callable<Entry>> loaders, long timeout) {
+		Map<String, Future<Entry>> futures = new HashMap<String, Future<Entry>>();
+		for (Map.Entry<String, Callable<Entry>> loader : loaders.entrySet()) {
+			futures.put(loader.getKey(), fetchExecutor.submit(loader.getValue()));
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		Map<String, Entry> result = new HashMap<String, Entry>();
+		for (Map.Entry<String, Future<Entry>> future : futures.entrySet()) {
+			long remaining = Math.max(0, deadline - System.currentTimeMillis());
+			try {
+				Entry entry = future.getValue().get(remaining, TimeUnit.MILLISECONDS);
+				if (entry != null) {
+					put(future.getKey(), entry);
+					result.put(future.getKey(), entry);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				_log.error("Failed to fetch [" + future.getKey() + "]", e.getCause());
+			} catch (TimeoutException e) {
+				future.getValue().cancel(true);
+				_log.warn("Timed out fetching [" + future.getKey() + "]");
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes the cache files older than the max age, then the oldest files
+	 * until the total size is within the disk size.
+	 *
+	 * @param keep name of a file that is not deleted for size, or null
+	 */
+	void sweepDisk(String keep) {
+		if (directory == null || !sweeping.compareAndSet(false, true))
+			return;
+		try {
+			long now = System.currentTimeMillis();
+			nextSweep = now + SWEEP_INTERVAL;
+			File[] files = directory.listFiles();
+			if (files == null)
+				return;
+			long total = 0;
+			int count = 0;
+			for (int i = 0; i < files.length; i++) {
+				File file = files[i];
+				// only the files named by hash() belong to the cache
+				if (!file.isFile() || file.getName().length() != 40 || file.getName().indexOf('.') >= 0) {
+					files[i] = null;
+				} else if (maxAgeMillis > 0 && file.lastModified() + maxAgeMillis <= now) {
+					file.delete();
+					files[i] = null;
+				} else {
+					total += file.length();
+					count++;
+				}
+			}
+			if (total > maxDiskBytes) {
+				File[] remaining = new File[count];
+				int i = 0;
+				for (File file : files) {
+					if (file != null)
+						remaining[i++] = file;
+				}
+				Arrays.sort(remaining, new Comparator<File>() {
+					@Override
+					public int compare(File f1, File f2) {
+						long m1 = f1.lastModified();
+						long m2 = f2.lastModified();
+						return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+					}
+				});
+				for (File file : remaining) {
+					if (total <= maxDiskBytes)
+						break;
+					if (file.getName().equals(keep))
+						continue;
+					long length = file.length();
+					if (file.delete())
+						total -= length;
+				}
+			}
+			diskBytes.set(total);
+		} finally {
+			sweeping.set(false);
+		}
+	}
+
+	/**
+	 * Returns a file-name safe hash of the given string.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static String hash(String value) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(value.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Prefixes the key with the schema of the current tenant, if any.
+	 */
+	private static String scoped(String key) {
+		String schema = TenantContextHolder.getSchemaName();
+		return StringUtil.isEmpty(schema) ? key : schema + ":" + key;
+	}
+
+	private boolean isExpired(Entry entry) {
+		return maxAgeMillis > 0 && entry.getFetchedAt() + maxAgeMillis <= System.currentTimeMillis();
+	}
+
+	private void store(String scopedKey, Entry entry) {
+		putInMemory(scopedKey, entry);
+		writeToDisk(scopedKey, entry);
+	}
+
+	private void putInMemory(String key, Entry entry) {
+		synchronized (memory) {
+			Entry previous = memory.put(key, entry);
+			if (previous != null)
+				memoryBytes -= previous.getBody().length;
+			memoryBytes += entry.getBody().length;
+			Iterator<Entry> it = memory.values().iterator();
+			while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+				Entry eldest = it.next();
+				if (eldest == entry)
+					break;
+				memoryBytes -= eldest.getBody().length;
+				it.remove();
+			}
+		}
+	}
+
+	private Entry readFromDisk(String key) {
+		if (directory == null)
+			return null;
+		File file = new File(directory, hash(key));
+		if (!file.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			String type = in.readUTF();
+			long fetchedAt = in.readLong();
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+			Entry entry = new Entry(type, body, fetchedAt);
+			if (isExpired(entry)) {
+				in.close();
+				in = null;
+				file.delete();
+				return null;
+			}
+			return entry;
+		} catch (IOException e) {
+			_log.warn("Ignoring unreadable widget cache file [" + file + "]", e);
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	private void writeToDisk(String key, Entry entry) {
+		if (directory == null)
+			return;
+		String name = hash(key);
+		File tmp = new File(directory, name + "." + Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeUTF(entry.getType());
+			out.writeLong(entry.getFetchedAt());
+			out.writeInt(entry.getBody().length);
+			out.write(entry.getBody());
+			out.close();
+			out = null;
+			File file = new File(directory, name);
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file))
+					_log.warn("Unable to write widget cache file [" + file + "]");
+			}
+			if (diskBytes.addAndGet(file.length()) > maxDiskBytes
+					|| System.currentTimeMillis() >= nextSweep)
+				sweepDisk(name);
+		} catch (IOException e) {
+			_log.warn("Unable to write widget cache for [" + key + "]", e);
+		} finally {
+			closeQuietly(out);
+			tmp.delete();
+		}
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
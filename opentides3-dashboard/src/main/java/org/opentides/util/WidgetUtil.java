@@ -68,6 +68,28 @@ public class WidgetUtil{
 	public static final UrlResponseObject getPage(final String queryURL,
 								  	   final HttpServletRequest request,
 									   final Map<String, Object> param) {
+		return getPage(queryURL, request.getHeader("User-Agent"),
+				request.getCookies(), param);
+	}
+
+	/**
+	 * Same as {@link #getPage(String, HttpServletRequest, Map)} but only takes
+	 * the values needed from the request, so it can be called after the
+	 * request has completed (e.g. from a background thread).
+	 * 
+	 * @param queryURL
+	 *            - URL of engine to retrieve
+	 * @param userAgent
+	 *            - user agent to send
+	 * @param cookies
+	 *            - cookies to forward if forwardCookie is set
+	 * @param param
+	 *            - additional parameters
+	 */
+	public static final UrlResponseObject getPage(final String queryURL,
+									   final String userAgent,
+									   final Cookie[] cookies,
+									   final Map<String, Object> param) {
 		// determine if get or post method
 		HttpMethodBase httpMethodBase;
 		Boolean forwardCookie = false;
@@ -96,7 +118,6 @@ public class WidgetUtil{
 			// declare the connection objects
 			HttpClient client = new HttpClient();
 			HostConfiguration hostConfig = new HostConfiguration();
-			String userAgent = request.getHeader("User-Agent");
 				
 			// for debugging
 			if (_log.isDebugEnabled())
@@ -111,9 +132,7 @@ public class WidgetUtil{
 			httpMethodBase.addRequestHeader("accept-language", "en-us");
 			httpMethodBase.addRequestHeader("user-agent", userAgent);
 
-			if (forwardCookie) {
-				// get cookies from request
-				Cookie[] cookies = request.getCookies();
+			if (forwardCookie && cookies != null) {
 				String cookieString = "";
 				for (Cookie c : cookies) {
 					cookieString += c.getName() + "=" + c.getValue() + "; ";
@@ -4,13 +4,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 import org.opentides.bean.UserWidgets;
+import org.opentides.bean.Widget;
+import org.opentides.bean.user.BaseUser;
 import org.opentides.dao.UserWidgetsDao;
+import org.opentides.util.TenantContextHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
@@ -71,4 +78,65 @@ public class UserWidgetsDaoIntegrationTest extends BaseDaoTest {
 		});
 	}
 
+	@Test
+	public void testCountUserWidgetsColumns() {
+		Map<Long, Map<Integer, Long>> actual = userWidgetsDao.countUserWidgetsColumns(Arrays.asList(1l, 2l));
+		assertEquals(1, actual.size());
+		assertEquals(Long.valueOf(2l), actual.get(1l).get(1));
+		assertEquals(Long.valueOf(1l), actual.get(1l).get(2));
+	}
+
+	@Test
+	public void testFindInstalledWidgetNames() {
+		Map<Long, Set<String>> actual = userWidgetsDao.findInstalledWidgetNames(Arrays.asList(1l, 2l),
+				Arrays.asList("Widget 1", "Widget 3"));
+		assertEquals(1, actual.size());
+		assertEquals(2, actual.get(1l).size());
+		assertTrue(actual.get(1l).contains("Widget 1"));
+		assertTrue(actual.get(1l).contains("Widget 3"));
+	}
+
+	@Test
+	public void testInsertUserWidgets() {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				List<UserWidgets> userWidgets = new ArrayList<UserWidgets>();
+				for (long userId = 2; userId <= 3; userId++) {
+					for (long widgetId = 1; widgetId <= 3; widgetId++) {
+						BaseUser user = new BaseUser();
+						user.setId(userId);
+						Widget widget = new Widget();
+						widget.setId(widgetId);
+						UserWidgets userWidget = new UserWidgets();
+						userWidget.setUser(user);
+						userWidget.setWidget(widget);
+						userWidget.setColumn(1);
+						userWidget.setRow((int) widgetId);
+						userWidget.setStatus(1);
+						userWidget.setIsShown(true);
+						userWidget.setAuditUsername("admin");
+						userWidgets.add(userWidget);
+					}
+				}
+				TenantContextHolder.setSchemaName("tenant1");
+				try {
+					assertEquals(6, userWidgetsDao.insertUserWidgets(userWidgets));
+				} finally {
+					TenantContextHolder.clearContext();
+				}
+				List<UserWidgets> inserted = userWidgetsDao.findUserWidgets(2, 1);
+				assertEquals(3, inserted.size());
+				// columns set by the entity listeners are also written
+				for (UserWidgets userWidget : inserted) {
+					assertEquals("admin", userWidget.getCreatedBy());
+					assertEquals("tenant1", userWidget.getDbName());
+					assertEquals(Boolean.TRUE, userWidget.getIsShown());
+					assertNotNull(userWidget.getCreateDate());
+				}
+				assertEquals(3l, userWidgetsDao.countUserWidgetsColumn(1, 3));
+			}
+		});
+	}
+
 }
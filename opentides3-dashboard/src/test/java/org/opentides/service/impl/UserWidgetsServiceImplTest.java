@@ -4,10 +4,17 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -15,7 +22,9 @@ import org.opentides.bean.UserWidgets;
 import org.opentides.bean.Widget;
 import org.opentides.bean.user.BaseUser;
 import org.opentides.bean.user.SessionUser;
+import org.opentides.bean.user.UserAuthority;
 import org.opentides.bean.user.UserCredential;
+import org.opentides.bean.user.UserGroup;
 import org.opentides.dao.UserWidgetsDao;
 import org.opentides.service.UserService;
 import org.opentides.service.WidgetService;
@@ -78,6 +87,57 @@ public class UserWidgetsServiceImplTest {
 		verify(userWidgetsDao, times(3)).saveEntityModel(isA(UserWidgets.class));
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSetupUserGroupWidgets() {
+		Widget widget1 = getSampleWidget(1l, "Widget1", "Widget 1");
+		widget1.setIsShown(true);
+		Widget widget2 = getSampleWidget(2l, "Widget2", "Widget 2");
+		widget2.setIsShown(true);
+		Widget hidden = getSampleWidget(3l, "Widget3", "Widget 3");
+		hidden.setIsShown(false);
+		when(widgetService.findWidgetWithAccessCode(Arrays.asList("ACCESS_1")))
+				.thenReturn(Arrays.asList(widget1, widget2, hidden));
+		when(widgetService.getColumnConfig()).thenReturn(2);
+		
+		BaseUser user1 = getTestBaseUser();
+		BaseUser user2 = getTestBaseUser();
+		user2.setId(2l);
+		UserGroup group = new UserGroup();
+		group.setUsers(new LinkedHashSet<BaseUser>(Arrays.asList(user1, user2)));
+		// user 1 already has widget 1 in column 1
+		Map<Long, Set<String>> installed = new HashMap<Long, Set<String>>();
+		installed.put(1l, new LinkedHashSet<String>(Arrays.asList("Widget1")));
+		when(userWidgetsDao.findInstalledWidgetNames(anyCollection(), anyCollection())).thenReturn(installed);
+		Map<Long, Map<Integer, Long>> counts = new HashMap<Long, Map<Integer, Long>>();
+		counts.put(1l, new HashMap<Integer, Long>(Collections.singletonMap(1, 1l)));
+		when(userWidgetsDao.countUserWidgetsColumns(anyCollection())).thenReturn(counts);
+		when(userWidgetsDao.insertUserWidgets(anyList())).thenReturn(3);
+		
+		UserAuthority authority = new UserAuthority();
+		authority.setAuthority("ACCESS_1");
+		assertEquals(3, userWidgetService.setupUserGroupWidgets(group, Arrays.asList(authority)));
+		
+		@SuppressWarnings("rawtypes")
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(userWidgetsDao).insertUserWidgets(captor.capture());
+		List<UserWidgets> created = captor.getValue();
+		assertEquals(3, created.size());
+		// user 2 gets widget 1 in the first column, then widget 2 in the next
+		assertPosition(created.get(0), user2, widget1, 1, 1);
+		assertPosition(created.get(1), user1, widget2, 2, 1);
+		assertPosition(created.get(2), user2, widget2, 2, 1);
+		verify(userWidgetsDao, never()).saveEntityModel(isA(UserWidgets.class));
+	}
+	
+	private void assertPosition(UserWidgets userWidgets, BaseUser user, Widget widget, int column, int row) {
+		assertSame(user, userWidgets.getUser());
+		assertSame(widget, userWidgets.getWidget());
+		assertEquals(Integer.valueOf(column), userWidgets.getColumn());
+		assertEquals(Integer.valueOf(row), userWidgets.getRow());
+		assertEquals(Integer.valueOf(1), userWidgets.getStatus());
+	}
+	
 	/*@Test
 	public void testAddUserWidgetsLongWidget() {
 		Widget widget1 = getSampleWidget(1l, "Widget1", "Widget 1");
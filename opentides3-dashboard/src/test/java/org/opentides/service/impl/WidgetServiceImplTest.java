@@ -1,5 +1,6 @@
 package org.opentides.service.impl;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.verify;
@@ -9,9 +10,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.http.Cookie;
+
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -20,6 +28,7 @@ import org.opentides.bean.Widget;
 import org.opentides.bean.user.BaseUser;
 import org.opentides.bean.user.SessionUser;
 import org.opentides.dao.WidgetDao;
+import org.opentides.util.WidgetCache;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -28,11 +37,33 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
 
 public class WidgetServiceImplTest {
 	
 	@InjectMocks
-	private WidgetServiceImpl widgetService = new WidgetServiceImpl();
+	private WidgetServiceImpl widgetService = new WidgetServiceImpl() {
+		@Override
+		protected WidgetCache.Entry fetchWidget(String name, String url, String widgetUrl,
+				String userAgent, Cookie[] cookies) {
+			fetchCount.incrementAndGet();
+			try {
+				fetchLatch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return new WidgetCache.Entry(Widget.TYPE_HTML, "new".getBytes());
+		}
+	};
+	
+	private final WidgetCache widgetCache = new WidgetCache();
+	
+	private final AtomicInteger fetchCount = new AtomicInteger();
+	
+	private CountDownLatch fetchLatch = new CountDownLatch(0);
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 	
 	@Mock
 	private WidgetDao widgetDao;
@@ -40,10 +71,18 @@ public class WidgetServiceImplTest {
 	@Before
 	public void init() {
 		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(widgetCache, "cacheDir", folder.getRoot().getAbsolutePath());
+		widgetCache.init();
+		ReflectionTestUtils.setField(widgetService, "widgetCache", widgetCache);
 		SecurityContextHolder.clearContext();
 		SecurityContextHolder.getContext().setAuthentication(getAuthentication());
 	}
 
+	@After
+	public void destroy() {
+		widgetCache.destroy();
+	}
+
 	@Test
 	public void testFindByName() {
 		Widget expected = new Widget();
@@ -147,16 +186,20 @@ public class WidgetServiceImplTest {
 		Widget widget = new Widget();
 		widget.setName("Widget1");
 		widget.setUrl("/url/widget1");
-		widget.setCacheType(Widget.TYPE_IMAGE);
-		widget.setLastCacheUpdate(new Date());
+		widget.setCacheDuration(0);
 		
 		Widget sample = new Widget();
 		sample.setName("Widget1");
 		when(widgetDao.findByExample(sample, true)).thenReturn(Arrays.asList(widget));
+		widgetCache.put("Widget1", new WidgetCache.Entry(Widget.TYPE_IMAGE, new byte[] {1, 2, 3},
+				System.currentTimeMillis() - 3600000));
 		
 		Widget actual = widgetService.requestWidget("/url/widget1", "Widget1", new MockHttpServletRequest());
 		
-		assertEquals(widget, actual);
+		assertEquals("Widget1", actual.getName());
+		assertEquals(Widget.TYPE_IMAGE, actual.getCacheType());
+		assertArrayEquals(new byte[] {1, 2, 3}, actual.getCache());
+		verify(widgetDao, Mockito.never()).saveEntityModel(Mockito.any(Widget.class));
 	}
 	
 	@Test
@@ -164,17 +207,67 @@ public class WidgetServiceImplTest {
 		Widget widget = new Widget();
 		widget.setName("Widget1");
 		widget.setUrl("/url/widget1");
-		widget.setCacheType(Widget.TYPE_HTML);
-		widget.setLastCacheUpdate(new Date());
 		widget.setCacheDuration(3600);
 		
 		Widget sample = new Widget();
 		sample.setName("Widget1");
 		when(widgetDao.findByExample(sample, true)).thenReturn(Arrays.asList(widget));
+		widgetCache.put("Widget1", new WidgetCache.Entry(Widget.TYPE_HTML, "<p>cached</p>".getBytes()));
 		
 		Widget actual = widgetService.requestWidget("/url/widget1", "Widget1", new MockHttpServletRequest());
 		
-		assertEquals(widget, actual);
+		assertEquals("<p>cached</p>", new String(actual.getCache()));
+		assertEquals(0, fetchCount.get());
+		assertNull(widget.getCache());
+	}
+	
+	@Test
+	public void testRequestWidgetServesStaleWhileRefreshing() throws Exception {
+		Widget widget = new Widget();
+		widget.setName("Widget1");
+		widget.setUrl("http://localhost/url/widget1");
+		widget.setCacheDuration(60);
+		
+		Widget sample = new Widget();
+		sample.setName("Widget1");
+		when(widgetDao.findByExample(sample, true)).thenReturn(Arrays.asList(widget));
+		widgetCache.put("Widget1", new WidgetCache.Entry(Widget.TYPE_HTML, "old".getBytes(),
+				System.currentTimeMillis() - 120000));
+		
+		fetchLatch = new CountDownLatch(1);
+		for (int i = 0; i < 3; i++) {
+			Widget actual = widgetService.requestWidget("/url/widget1", "Widget1", new MockHttpServletRequest());
+			assertEquals("old", new String(actual.getCache()));
+		}
+		fetchLatch.countDown();
+		
+		// only one refresh is done for concurrent requests
+		Widget actual = null;
+		for (int i = 0; i < 50; i++) {
+			actual = widgetService.requestWidget("/url/widget1", "Widget1", new MockHttpServletRequest());
+			if ("new".equals(new String(actual.getCache())))
+				break;
+			Thread.sleep(20);
+		}
+		assertEquals("new", new String(actual.getCache()));
+		assertEquals(1, fetchCount.get());
+	}
+	
+	@Test
+	public void testRequestWidgetFirstFetch() {
+		Widget widget = new Widget();
+		widget.setName("Widget1");
+		widget.setUrl("http://localhost/url/widget1");
+		widget.setCacheDuration(60);
+		
+		Widget sample = new Widget();
+		sample.setName("Widget1");
+		when(widgetDao.findByExample(sample, true)).thenReturn(Arrays.asList(widget));
+		
+		Widget actual = widgetService.requestWidget("/url/widget1", "Widget1", new MockHttpServletRequest());
+		assertEquals("new", new String(actual.getCache()));
+		assertEquals(Widget.TYPE_HTML, actual.getCacheType());
+		assertEquals(1, fetchCount.get());
 	}
 	
 	@Test
@@ -0,0 +1,194 @@
+package org.opentides.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentides.bean.Widget;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class WidgetCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WidgetCache cache;
+
+	@Before
+	public void init() {
+		cache = createCache();
+	}
+
+	@After
+	public void destroy() {
+		cache.destroy();
+	}
+
+	@Test
+	public void testMemoryOverflowIsReadFromDisk() {
+		cache.put("a", new WidgetCache.Entry(Widget.TYPE_HTML, "aaaaaaaa".getBytes()));
+		cache.put("b", new WidgetCache.Entry(Widget.TYPE_HTML, "bbbbbbbb".getBytes()));
+		// "a" no longer fits in memory but is still on disk
+		assertEquals("aaaaaaaa", new String(cache.get("a").getBody()));
+
+		cache.evict("a");
+		assertNull(cache.get("a"));
+	}
+
+	@Test
+	public void testDiskTierSurvivesRestart() {
+		long fetchedAt = System.currentTimeMillis() - 1000;
+		cache.put("image:1", new WidgetCache.Entry(Widget.TYPE_IMAGE, new byte[] {1, 2}, fetchedAt));
+		cache.destroy();
+		cache = createCache();
+		WidgetCache.Entry entry = cache.get("image:1");
+		assertNotNull(entry);
+		assertEquals(Widget.TYPE_IMAGE, entry.getType());
+		assertEquals(fetchedAt, entry.getFetchedAt());
+		assertArrayEquals(new byte[] {1, 2}, entry.getBody());
+	}
+
+	@Test
+	public void testEntriesExpireAfterMaxAge() {
+		long dayAgo = System.currentTimeMillis() - 24L * 3600 * 1000;
+		cache.put("image:old", new WidgetCache.Entry(Widget.TYPE_IMAGE, new byte[] {1}, dayAgo));
+		cache.put("w", new WidgetCache.Entry(Widget.TYPE_HTML, "x".getBytes()));
+		cache.destroy();
+		cache = createCache("3600", "1000000");
+		// images are dropped too, from disk and memory
+		assertNull(cache.get("image:old"));
+		assertFalse(new File(folder.getRoot(), WidgetCache.hash("image:old")).exists());
+		cache.put("image:old", new WidgetCache.Entry(Widget.TYPE_IMAGE, new byte[] {1}, dayAgo));
+		assertNull(cache.get("image:old"));
+		assertEquals("x", new String(cache.get("w").getBody()));
+	}
+
+	@Test
+	public void testDiskSizeIsBounded() {
+		cache.destroy();
+		cache = createCache("3600", "100");
+		for (int i = 0; i < 10; i++) {
+			cache.put("w" + i, new WidgetCache.Entry(Widget.TYPE_HTML, "0123456789".getBytes()));
+		}
+		long total = 0;
+		for (File file : folder.getRoot().listFiles()) {
+			total += file.length();
+		}
+		assertTrue(total <= 100);
+		// the entry just written is kept
+		assertEquals("0123456789", new String(cache.get("w9").getBody()));
+	}
+
+	@Test
+	public void testRefreshIsSingleFlight() throws Exception {
+		final CountDownLatch latch = new CountDownLatch(1);
+		Callable<WidgetCache.Entry> loader = new Callable<WidgetCache.Entry>() {
+			@Override
+			public WidgetCache.Entry call() throws Exception {
+				latch.await();
+				return new WidgetCache.Entry(Widget.TYPE_HTML, "x".getBytes());
+			}
+		};
+		Future<WidgetCache.Entry> first = cache.refresh("w", loader);
+		Future<WidgetCache.Entry> second = cache.refresh("w", loader);
+		assertSame(first, second);
+		latch.countDown();
+		assertEquals("x", new String(first.get().getBody()));
+		assertEquals("x", new String(cache.get("w").getBody()));
+	}
+
+	@Test
+	public void testFetchAll() {
+		Map<String, Callable<WidgetCache.Entry>> loaders = new HashMap<String, Callable<WidgetCache.Entry>>();
+		for (int i = 0; i < 5; i++) {
+			final byte[] body = new byte[] { (byte) i };
+			loaders.put("image:" + i, new Callable<WidgetCache.Entry>() {
+				@Override
+				public WidgetCache.Entry call() {
+					return new WidgetCache.Entry(Widget.TYPE_IMAGE, body);
+				}
+			});
+		}
+		loaders.put("image:failed", new Callable<WidgetCache.Entry>() {
+			@Override
+			public WidgetCache.Entry call() {
+				return null;
+			}
+		});
+		Map<String, WidgetCache.Entry> result = cache.fetchAll(loaders, 5000);
+		assertEquals(5, result.size());
+		assertArrayEquals(new byte[] {3}, cache.get("image:3").getBody());
+		assertNull(cache.get("image:failed"));
+	}
+
+	@Test
+	public void testIsFresh() {
+		long hourAgo = System.currentTimeMillis() - 3600000;
+		assertFalse(new WidgetCache.Entry(Widget.TYPE_HTML, null, hourAgo).isFresh(60));
+		assertTrue(new WidgetCache.Entry(Widget.TYPE_HTML, null, hourAgo).isFresh(7200));
+		assertTrue(new WidgetCache.Entry("image/png", null, hourAgo).isFresh(60));
+	}
+
+	@Test
+	public void testDefaultDirectoryIsPerApplication() throws Exception {
+		File tempDir = folder.newFolder("app-temp");
+		MockServletContext servletContext = new MockServletContext();
+		servletContext.setAttribute(ServletContext.TEMPDIR, tempDir);
+		WidgetCache widgetCache = new WidgetCache();
+		widgetCache.setServletContext(servletContext);
+		widgetCache.init();
+		try {
+			widgetCache.put("w", new WidgetCache.Entry(Widget.TYPE_HTML, "x".getBytes()));
+			assertTrue(new File(new File(tempDir, "widget-cache"), WidgetCache.hash("w")).isFile());
+		} finally {
+			widgetCache.destroy();
+		}
+	}
+
+	@Test
+	public void testKeysAreScopedToTenant() {
+		try {
+			TenantContextHolder.setSchemaName("tenant1");
+			cache.put("w", new WidgetCache.Entry(Widget.TYPE_HTML, "1".getBytes()));
+			TenantContextHolder.setSchemaName("tenant2");
+			assertNull(cache.get("w"));
+			TenantContextHolder.setSchemaName("tenant1");
+			assertEquals("1", new String(cache.get("w").getBody()));
+		} finally {
+			TenantContextHolder.clearContext();
+		}
+	}
+
+	private WidgetCache createCache() {
+		return createCache(null, null);
+	}
+
+	private WidgetCache createCache(String maxAge, String diskSize) {
+		WidgetCache widgetCache = new WidgetCache();
+		ReflectionTestUtils.setField(widgetCache, "cacheDir", folder.getRoot().getAbsolutePath());
+		ReflectionTestUtils.setField(widgetCache, "memorySize", "10");
+		ReflectionTestUtils.setField(widgetCache, "maxAge", maxAge);
+		ReflectionTestUtils.setField(widgetCache, "diskSize", diskSize);
+		widgetCache.init();
+		return widgetCache;
+	}
+}
@@ -18,8 +18,11 @@
  */
 package org.opentides.bean;
 
+import java.util.Date;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.Table;
 
@@ -37,7 +40,8 @@ import com.fasterxml.jackson.annotation.JsonView;
  * @author allantan
  */
 @Entity
-@Table(name = "CHANGE_LOG")
+@Table(name = "CHANGE_LOG",
+	indexes = { @Index(name = "IDX_CHANGE_LOG_BRANCH", columnList = "BRANCH_ID,CLIENT_CODE,ID") })
 @JsonInclude(Include.NON_NULL)
 public class ChangeLog extends BaseEntity {
 
@@ -103,6 +107,13 @@ public class ChangeLog extends BaseEntity {
     @Lob
     @JsonView(Views.FormView.class)
     private String sqlCommand;
+
+    /**
+     * Key of the statement template in CHANGE_LOG_TEMPLATE.
+     * Set instead of sqlCommand for statements built by SyncUtil.
+     */
+    @Column(name = "TEMPLATE_ID", updatable = false)
+    private Long templateId;
     
 	/**
      * Default constructor.
@@ -161,6 +172,39 @@ public class ChangeLog extends BaseEntity {
 		this.branchId = branchId;
 		this.sqlCommand = sqlCommand;
 	}
+	/**
+	 * Used by queries that retrieve only the columns needed by devices.
+	 * 
+	 * @param id
+	 * @param createDate
+	 * @param entityId
+	 * @param entityClass
+	 * @param action
+	 * @param updateFields
+	 * @param templateId
+	 * @param sqlCommand
+	 * @param params
+	 * @param branchId
+	 * @param clientCode
+	 */
+	@SuppressWarnings("rawtypes")
+	public ChangeLog(Long id, Date createDate, Long entityId, Class entityClass, 
+			int action, String updateFields, Long templateId, String sqlCommand, 
+			String params, Long branchId, String clientCode) {
+		super();
+		setId(id);
+		setCreateDate(createDate);
+		this.entityId = entityId;
+		this.entityClass = entityClass;
+		this.action = action;
+		this.updateFields = updateFields;
+		this.templateId = templateId;
+		this.sqlCommand = sqlCommand;
+		this.params = params;
+		this.branchId = branchId;
+		this.clientCode = clientCode;
+	}
+
 	/**
 	 * @return the entityId
 	 */
@@ -235,7 +279,20 @@ public class ChangeLog extends BaseEntity {
 	public final void setSqlCommand(String sqlCommand) {
 		this.sqlCommand = sqlCommand;
 	}
-	
+
+	/**
+	 * @return the templateId
+	 */
+	public final Long getTemplateId() {
+		return templateId;
+	}
+
+	/**
+	 * @param templateId the templateId to set
+	 */
+	public final void setTemplateId(Long templateId) {
+		this.templateId = templateId;
+	}
 	
 	/**
 	 * @return the sqlCommand
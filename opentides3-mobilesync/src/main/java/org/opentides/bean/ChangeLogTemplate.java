@@ -0,0 +1,95 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.bean;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * SQL statement template shared by change logs with the same entity,
+ * action and set of columns. The change log only stores the template key
+ * and the parameters, and the SQL statement is stored once here.
+ * 
+ * @author allantan
+ */
+@Entity
+@Table(name = "CHANGE_LOG_TEMPLATE")
+public class ChangeLogTemplate extends BaseEntity {
+
+	private static final long serialVersionUID = 3169581934872602941L;
+
+	/**
+	 * Hash of the SQL statement, see SyncUtil.getTemplateKey.
+	 */
+	@Column(name = "TEMPLATE_KEY", nullable = false, unique = true, updatable = false)
+	private Long templateKey;
+
+	/**
+	 * SQL statement to be executed in the device.
+	 */
+	@Column(name = "SQL_COMMAND", columnDefinition="LONGBLOB", updatable = false)
+	@Lob
+	private String sqlCommand;
+
+	/**
+	 * Default constructor.
+	 */
+	public ChangeLogTemplate() {
+	}
+
+	/**
+	 * @param templateKey
+	 * @param sqlCommand
+	 */
+	public ChangeLogTemplate(Long templateKey, String sqlCommand) {
+		this.templateKey = templateKey;
+		this.sqlCommand = sqlCommand;
+	}
+
+	/**
+	 * @return the templateKey
+	 */
+	public final Long getTemplateKey() {
+		return templateKey;
+	}
+
+	/**
+	 * @param templateKey the templateKey to set
+	 */
+	public final void setTemplateKey(Long templateKey) {
+		this.templateKey = templateKey;
+	}
+
+	/**
+	 * @return the sqlCommand
+	 */
+	public final String getSqlCommand() {
+		return sqlCommand;
+	}
+
+	/**
+	 * @param sqlCommand the sqlCommand to set
+	 */
+	public final void setSqlCommand(String sqlCommand) {
+		this.sqlCommand = sqlCommand;
+	}
+
+}
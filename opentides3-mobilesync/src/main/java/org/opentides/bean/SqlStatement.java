@@ -13,6 +13,7 @@ public class SqlStatement {
 	private Long   lookupId;
 	private String stmt;
 	private String value;
+	private transient Long templateId;
 	
 	public SqlStatement(Long syncId, String stmt, String value) {
 		super();
@@ -29,6 +30,18 @@ public class SqlStatement {
 		this.lookupId = lookupId;
 	}
 	
+	/**
+	 * Used by queries on change logs. The statement is resolved from
+	 * the template when stmt is null.
+	 */
+	public SqlStatement(Long syncId, Long templateId, String stmt, String value) {
+		super();
+		this.syncId = syncId;
+		this.templateId = templateId;
+		this.stmt = stmt;
+		this.value = value;
+	}
+	
 	public SqlStatement() {
 		super();
 	}
@@ -94,6 +107,20 @@ public class SqlStatement {
 		this.lookupId = lookupId;
 	}
 
+	/**
+	 * @return the templateId
+	 */
+	public Long getTemplateId() {
+		return templateId;
+	}
+
+	/**
+	 * @param templateId the templateId to set
+	 */
+	public void setTemplateId(Long templateId) {
+		this.templateId = templateId;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -4,6 +4,7 @@
 package org.opentides.bean;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opentides.web.json.Views;
 import java.io.Serializable;
@@ -27,6 +28,13 @@ public class SyncResults implements Serializable {
 	@JsonView(Views.FormView.class)
 	private List<ChangeLog> logs;
 
+	/**
+	 * SQL statements of the templates used by the logs, keyed by
+	 * template id.
+	 */
+	@JsonView(Views.FormView.class)
+	private Map<Long, String> templates;
+
 	@JsonView(Views.FormView.class)
 	private String imageBase64;
 
@@ -69,6 +77,20 @@ public class SyncResults implements Serializable {
 		this.logs = logs;
 	}
 
+	/**
+	 * @return the templates
+	 */
+	public final Map<Long, String> getTemplates() {
+		return templates;
+	}
+
+	/**
+	 * @param templates the templates to set
+	 */
+	public final void setTemplates(Map<Long, String> templates) {
+		this.templates = templates;
+	}
+
 	/**
 	 * @return the imageBase64
 	 */
@@ -3,7 +3,9 @@
  */
 package org.opentides.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.opentides.bean.ChangeLog;
 import org.opentides.bean.SqlStatement;
@@ -33,6 +35,31 @@ public interface ChangeLogDao extends BaseEntityDao<ChangeLog, Long> {
 	public List<SqlStatement> findUpdates(Long version, Long branchId,
 			String clientCode);
 	
+	/**
+	 * Returns the changes after the given version for the branch, 
+	 * retrieving only the columns needed by devices.
+	 * @param version
+	 * @param branchId
+	 * @param maxResults
+	 * @return
+	 */
+	public List<ChangeLog> findChangesAfterVersion(Long version, Long branchId, int maxResults);
+	
+	/**
+	 * Returns the latest version applicable for the branch, or of all 
+	 * changes if branchId is null. Uses only indexed columns.
+	 * @param branchId
+	 * @return
+	 */
+	public Long findMaxVersion(Long branchId);
+	
+	/**
+	 * Returns the SQL statement of the given templates, keyed by template id.
+	 * @param templateIds
+	 * @return
+	 */
+	public Map<Long, String> findTemplates(Collection<Long> templateIds);
+	
 	/**
 	 * Returns the latest change log filtered by id
 	 * @param branchId
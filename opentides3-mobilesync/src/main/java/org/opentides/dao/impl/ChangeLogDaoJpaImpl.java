@@ -4,7 +4,10 @@
 package org.opentides.dao.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.Query;
 
@@ -104,6 +107,48 @@ public class ChangeLogDaoJpaImpl extends BaseEntityDaoJpaImpl<ChangeLog, Long>
 		return (List<SqlStatement>) query.getResultList();		
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<ChangeLog> findChangesAfterVersion(Long version, Long branchId, int maxResults) {
+		Query query = createNamedQuery("jpql.mobilesync.findChangeRowsAfterVersion");
+		query.setParameter("version", version);
+		query.setParameter("branchId", branchId);
+		query.setMaxResults(maxResults);
+		
+		return (List<ChangeLog>) query.getResultList();
+	}
+
+	@Override
+	public Long findMaxVersion(Long branchId) {
+		if (branchId == null) {
+			Query query = createNamedQuery("jpql.mobilesync.findMaxVersion");
+			Long max = (Long) query.getSingleResult();
+			return (max == null) ? 0l : max;
+		}
+		// separate queries so that each is answered by the index
+		Query query = createNamedQuery("jpql.mobilesync.findMaxVersionWithoutBranch");
+		Long common = (Long) query.getSingleResult();
+		query = createNamedQuery("jpql.mobilesync.findMaxVersionByBranch");
+		query.setParameter("branchId", branchId);
+		Long branch = (Long) query.getSingleResult();
+		return Math.max(common == null ? 0l : common, branch == null ? 0l : branch);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<Long, String> findTemplates(Collection<Long> templateIds) {
+		Map<Long, String> templates = new HashMap<Long, String>();
+		if (templateIds.isEmpty())
+			return templates;
+		Query query = createNamedQuery("jpql.mobilesync.findTemplates");
+		query.setParameter("templateIds", templateIds);
+		
+		for (Object[] row : (List<Object[]>) query.getResultList()) {
+			templates.put((Long) row[0], (String) row[1]);
+		}
+		return templates;
+	}
+
 	@Override
 	public Long getLatestVersion(String clientCode) {
 		String jpql = getJpqlQuery("jpql.mobilesync.getLatestVersion");
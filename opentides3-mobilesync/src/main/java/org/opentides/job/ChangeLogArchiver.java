@@ -0,0 +1,347 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.job;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.ChangeLog;
+import org.opentides.util.MetricsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves change logs that were already applied by all active endpoints to
+ * CHANGE_LOG_ARCHIVE, so that the change log only contains the changes 
+ * still to be sent to most devices. A change log is applied by an endpoint 
+ * when its id is not greater than the sync version of the endpoint. An 
+ * endpoint is active if it was created or synced within the last 
+ * sync.archive.stale-after milliseconds (default 30 days, 0 for no limit),
+ * so an abandoned device does not stop archiving.
+ * 
+ * Archiving is enabled by setting sync.archive.enabled to true, which 
+ * requires a jdbcTemplate or dataSource bean. Change logs are moved in 
+ * batches of sync.archive.batch-size, every sync.archive.delay milliseconds.
+ * If missing, the archive table is created like CHANGE_LOG, which requires
+ * MySQL.
+ * 
+ * Archived changes are still sent to devices that are behind the archive,
+ * such as new devices that start from version 0 or devices that were not
+ * active, see findArchivedChanges().
+ * 
+ * @author allantan
+ */
+@Component("changeLogArchiver")
+public class ChangeLogArchiver {
+
+	private static final Logger _log = Logger.getLogger(ChangeLogArchiver.class);
+
+	@Autowired(required = false)
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired(required = false)
+	private DataSource dataSource;
+
+	@Value("${sync.archive.enabled:false}")
+	private String enabled = "false";
+
+	@Value("${sync.archive.batch-size:1000}")
+	private String batchSize = "1000";
+
+	@Value("${sync.archive.stale-after:2592000000}")
+	private String staleAfter = "2592000000";
+
+	private volatile boolean archiveExists;
+
+	/**
+	 * Uses the dataSource bean if there is no jdbcTemplate bean, and fails
+	 * if archiving is enabled without either.
+	 */
+	@PostConstruct
+	public void init() {
+		if (jdbcTemplate == null && dataSource != null)
+			jdbcTemplate = new JdbcTemplate(dataSource);
+		if ("true".equals(enabled) && jdbcTemplate == null)
+			throw new IllegalStateException("sync.archive.enabled is true, "
+					+ "but there is no jdbcTemplate or dataSource bean.");
+	}
+
+	/**
+	 * Archives the change logs applied by all active endpoints, if enabled.
+	 */
+	@Scheduled(fixedDelayString = "${sync.archive.delay:3600000}")
+	public void execute() {
+		if (!isEnabled())
+			return;
+		long startTime = System.nanoTime();
+		try {
+			int count = archiveChanges();
+			if (count > 0)
+				_log.info("Archived " + count + " change logs.");
+			if (MetricsUtil.isEnabled()) {
+				MetricsUtil.time("sync.archive", startTime);
+				MetricsUtil.counter("sync.archive.logs").increment(count);
+			}
+		} catch (Exception e) {
+			_log.error("Failed to archive change logs.", e);
+		}
+	}
+
+	/**
+	 * Moves the change logs applied by all active endpoints to the archive.
+	 * Each batch is moved in its own transaction.
+	 * 
+	 * @return the number of change logs archived
+	 */
+	public int archiveChanges() {
+		return jdbcTemplate.execute(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection connection) throws SQLException {
+				Long version = findArchiveVersion(connection);
+				if (version == null || version == 0)
+					return 0;
+				createArchive(connection);
+				int total = 0;
+				int size = Integer.parseInt(batchSize);
+				boolean autoCommit = connection.getAutoCommit();
+				connection.setAutoCommit(false);
+				try {
+					Long from = queryForLong(connection, "SELECT MIN(ID) FROM CHANGE_LOG");
+					while (from != null && from <= version) {
+						long to = Math.min(version, from + size - 1);
+						update(connection, "INSERT INTO CHANGE_LOG_ARCHIVE SELECT * FROM CHANGE_LOG "
+								+ "WHERE ID BETWEEN ? AND ?", from, to);
+						total += update(connection, "DELETE FROM CHANGE_LOG WHERE ID BETWEEN ? AND ?", from, to);
+						connection.commit();
+						from = queryForLong(connection, "SELECT MIN(ID) FROM CHANGE_LOG");
+					}
+				} catch (SQLException e) {
+					connection.rollback();
+					throw e;
+				} finally {
+					connection.setAutoCommit(autoCommit);
+				}
+				return total;
+			}
+		});
+	}
+
+	/**
+	 * Returns the archived changes after the given version, in the same
+	 * form and order as the change logs sent to devices. Devices behind the
+	 * archive receive these first, then continue with the change log.
+	 * 
+	 * @param version sync version of the endpoint
+	 * @param branchId branch of the endpoint
+	 * @param maxResults maximum number of changes returned
+	 * @return the archived changes, empty if the endpoint is not behind
+	 *         the archive or archiving is disabled
+	 */
+	public List<ChangeLog> findArchivedChanges(final long version, final Long branchId,
+			final int maxResults) {
+		if (!isEnabled())
+			return Collections.emptyList();
+		return jdbcTemplate.execute(new ConnectionCallback<List<ChangeLog>>() {
+			@Override
+			public List<ChangeLog> doInConnection(Connection connection) throws SQLException {
+				List<ChangeLog> changes = new ArrayList<ChangeLog>();
+				if (!archiveExists && !hasArchive(connection))
+					return changes;
+				archiveExists = true;
+				PreparedStatement ps = connection.prepareStatement("SELECT ID, CREATEDATE, ENTITY_ID, "
+						+ "ENTITY_CLASS, ACTION, UPDATE_FIELDS, TEMPLATE_ID, SQL_COMMAND, PARAMS, BRANCH_ID, "
+						+ "CLIENT_CODE FROM CHANGE_LOG_ARCHIVE WHERE ID > ? "
+						+ "AND (BRANCH_ID IS NULL OR BRANCH_ID = ?) ORDER BY ID");
+				try {
+					ps.setMaxRows(maxResults);
+					ps.setLong(1, version);
+					if (branchId == null)
+						ps.setNull(2, Types.BIGINT);
+					else
+						ps.setLong(2, branchId);
+					ResultSet rs = ps.executeQuery();
+					while (rs.next()) {
+						changes.add(new ChangeLog(rs.getLong(1), rs.getTimestamp(2),
+								getLong(rs, 3), toClass(rs.getString(4)), rs.getInt(5),
+								rs.getString(6), getLong(rs, 7), rs.getString(8),
+								rs.getString(9), getLong(rs, 10), rs.getString(11)));
+					}
+					rs.close();
+				} finally {
+					ps.close();
+				}
+				return changes;
+			}
+		});
+	}
+
+	/**
+	 * @return true if archiving is enabled
+	 */
+	public boolean isEnabled() {
+		return "true".equals(enabled) && jdbcTemplate != null;
+	}
+
+	/**
+	 * @param enabled true to archive change logs
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = String.valueOf(enabled);
+	}
+
+	/**
+	 * @param staleAfter milliseconds without sync after which an endpoint
+	 *        no longer holds back archiving, or 0 for no limit
+	 */
+	public void setStaleAfter(long staleAfter) {
+		this.staleAfter = String.valueOf(staleAfter);
+	}
+
+	/**
+	 * @param batchSize number of change logs moved in each transaction
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = String.valueOf(batchSize);
+	}
+
+	/**
+	 * @param jdbcTemplate the jdbcTemplate to set
+	 */
+	public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Private helper that creates the archive table, if missing.
+	 */
+	private static void createArchive(Connection connection) throws SQLException {
+		if (!hasArchive(connection)) {
+			Statement stmt = connection.createStatement();
+			try {
+				stmt.execute("CREATE TABLE CHANGE_LOG_ARCHIVE LIKE CHANGE_LOG");
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	/**
+	 * Private helper that returns the lowest sync version of the active
+	 * endpoints, or null if there are none.
+	 */
+	private Long findArchiveVersion(Connection connection) throws SQLException {
+		long stale = Long.parseLong(staleAfter);
+		if (stale <= 0)
+			return queryForLong(connection, "SELECT MIN(SYNC_VERSION) FROM SYNC_ENDPOINT");
+		PreparedStatement ps = connection.prepareStatement("SELECT MIN(SYNC_VERSION) FROM SYNC_ENDPOINT "
+				+ "WHERE COALESCE(UPDATEDATE, CREATEDATE) >= ?");
+		try {
+			ps.setTimestamp(1, new Timestamp(System.currentTimeMillis() - stale));
+			ResultSet rs = ps.executeQuery();
+			Long value = null;
+			if (rs.next()) {
+				value = rs.getLong(1);
+				if (rs.wasNull())
+					value = null;
+			}
+			rs.close();
+			return value;
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Private helper that checks if the archive table exists.
+	 */
+	private static boolean hasArchive(Connection connection) throws SQLException {
+		ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, 
+				"CHANGE_LOG_ARCHIVE", null);
+		boolean exists = rs.next();
+		rs.close();
+		if (!exists) {
+			rs = connection.getMetaData().getTables(connection.getCatalog(), null, 
+					"change_log_archive", null);
+			exists = rs.next();
+			rs.close();
+		}
+		return exists;
+	}
+
+	private static Long queryForLong(Connection connection, String sql) throws SQLException {
+		Statement stmt = connection.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			Long value = null;
+			if (rs.next()) {
+				value = rs.getLong(1);
+				if (rs.wasNull())
+					value = null;
+			}
+			rs.close();
+			return value;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static Long getLong(ResultSet rs, int index) throws SQLException {
+		long value = rs.getLong(index);
+		return rs.wasNull() ? null : value;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Class toClass(String className) {
+		if (className == null)
+			return null;
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			_log.debug("Class of archived change log not found: " + className);
+			return null;
+		}
+	}
+
+	private static int update(Connection connection, String sql, long from, long to) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(sql);
+		try {
+			ps.setLong(1, from);
+			ps.setLong(2, to);
+			return ps.executeUpdate();
+		} finally {
+			ps.close();
+		}
+	}
+}
@@ -1,77 +1,322 @@
-/**
- * 
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
  */
 package org.opentides.job;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.log4j.Logger;
 import org.atmosphere.cpr.MetaBroadcaster;
 import org.opentides.bean.SyncMessage;
 import org.opentides.context.ApplicationContextProvider;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.opentides.util.MetricsUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
+ * Notifies devices to check for updates. Requests are debounced: lookups
+ * are collected until no new request arrived for sync.notify.debounce
+ * milliseconds, but never longer than sync.notify.max-delay milliseconds
+ * after the first request. Each lookup is then broadcast once, and all
+ * lookups are broadcast in parallel.
+ * 
+ * Requests are recorded without locking, so callers such as the change
+ * log writer are never blocked by a broadcast in progress.
+ * 
  * @author allantan
  *
  */
+@Component("notifyDevices")
 public class NotifyDevices implements Runnable {
 
 	private static Logger _log = Logger.getLogger(NotifyDevices.class);
-	
-	private static Set<String> lookups = Collections.synchronizedSet(new HashSet<String>()); 
 
-	private static Future<?> futureTask = null;
+	private static final String SYNC_MESSAGE = buildMessage("getVersion");
+
+	private static volatile NotifyDevices instance;
+
+	@Value("${sync.notify.debounce:2000}")
+	private String debounce = "2000";
+
+	@Value("${sync.notify.max-delay:10000}")
+	private String maxDelay = "10000";
+
+	@Value("${sync.notify.timeout:30000}")
+	private String timeout = "30000";
+
+	private volatile TaskScheduler scheduler;
+
+	private final Set<String> lookups = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private volatile long firstRequest;
+
+	private volatile long lastRequest;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong pendingRequests = new AtomicLong();
+
+	private final AtomicLong broadcasts = new AtomicLong();
+
+	/**
+	 * Registers this bean as the notifier used by {@link #notifySync(String)}.
+	 */
+	@PostConstruct
+	public void init() {
+		instance = this;
+	}
+
+	/**
+	 * Notifies the device to check for updates. 
+	 * Useful when there are server side changes to be pushed to device.
+	 * 
+	 * @param lookup
+	 */
+	public static void notifySync(String lookup) {
+		getInstance().request(lookup);
+	}
+
+	/**
+	 * Adds the lookup to the pending notifications and schedules
+	 * the broadcast, if not yet scheduled.
+	 * 
+	 * @param lookup
+	 */
+	public void request(String lookup) {
+		long now = System.currentTimeMillis();
+		lastRequest = now;
+		requests.incrementAndGet();
+		pendingRequests.incrementAndGet();
+		lookups.add(lookup);
+		if (scheduled.compareAndSet(false, true)) {
+			firstRequest = now;
+			schedule(Long.parseLong(debounce));
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
 	 */
 	@Override
-	@SuppressWarnings("deprecation")
-	public void run() {		
-		synchronized(lookups) {
-			for (String lookup:lookups) {
-				_log.info("Trying to notify devices with lookup " + lookup
-						+ ". Retrieving Broadcaster...");		
-				
-				try {
-		    		ObjectMapper mapper = new ObjectMapper();
-					SyncMessage syncCommand = new SyncMessage();
-					syncCommand.setCommand("getVersion");			    		
-					String jsonString = mapper.writeValueAsString(syncCommand);
-					MetaBroadcaster.getDefault().broadcastTo(lookup, jsonString);					
-				} catch (JsonProcessingException e) {
-					_log.error("Failed to convert to JSON.", e);
-				}
+	public void run() {
+		long now = System.currentTimeMillis();
+		long due = Math.min(lastRequest + Long.parseLong(debounce),
+				firstRequest + Long.parseLong(maxDelay));
+		if (due > now) {
+			// still receiving requests, wait a bit more
+			schedule(due - now);
+			return;
+		}
+		// requests from here on schedule the next broadcast
+		scheduled.set(false);
+		flush();
+	}
+
+	/**
+	 * Broadcasts all pending lookups in parallel and waits for
+	 * the broadcasts to complete.
+	 */
+	public void flush() {
+		long coalesced = pendingRequests.getAndSet(0);
+		List<String> batch = new ArrayList<String>();
+		for (String lookup : lookups) {
+			if (lookups.remove(lookup))
+				batch.add(lookup);
+		}
+		if (batch.isEmpty())
+			return;
+		long startTime = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+		for (String lookup : batch) {
+			try {
+				futures.add(broadcast(lookup, SYNC_MESSAGE));
+			} catch (Exception e) {
+				_log.error("Failed to notify devices with lookup " + lookup + ".", e);
 			}
-			lookups.clear();
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeout));
+		for (Future<?> future : futures) {
+			if (future == null)
+				continue;
+			try {
+				future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (Exception e) {
+				_log.warn("Broadcast to devices did not complete: " + e.getMessage());
+			}
+		}
+		broadcasts.addAndGet(batch.size());
+		if (_log.isDebugEnabled())
+			_log.debug("Notified devices with lookups " + batch + " for " + coalesced + " requests.");
+		if (MetricsUtil.isEnabled()) {
+			MetricsUtil.time("sync.notify.broadcast", startTime);
+			MetricsUtil.counter("sync.notify.requests").increment(coalesced);
+			MetricsUtil.counter("sync.notify.broadcasts").increment(batch.size());
+			MetricsUtil.histogram("sync.notify.coalesced").update(coalesced);
 		}
 	}
 
-	
 	/**
-	 * Notifies the device to check for updates. 
-	 * Useful when there are server side changes to be pushed to device.
+	 * Sends the message to the devices listening on the lookup.
 	 * 
 	 * @param lookup
+	 * @param message
+	 * @return future completed when the message was delivered, may be null
 	 */
-	public static void notifySync(String lookup) {
-		synchronized(lookups) {
-			lookups.add(lookup);
-			if ( futureTask == null || futureTask.isDone() || futureTask.isCancelled() ) {	
-				ThreadPoolTaskScheduler scheduler = (ThreadPoolTaskScheduler) 
-						ApplicationContextProvider.getApplicationContext().getBean("scheduler");
-				Date scheduledTime = new Date(new Date().getTime() + 10000); // after 10 secs.
-				NotifyDevices nd = new NotifyDevices();
-				futureTask = scheduler.schedule(nd, scheduledTime);
+	@SuppressWarnings("deprecation")
+	protected Future<?> broadcast(String lookup, String message) {
+		return MetaBroadcaster.getDefault().broadcastTo(lookup, message);
+	}
+
+	/**
+	 * Returns the number of requests for each lookup broadcast.
+	 * 
+	 * @return the coalescing ratio, 0 if nothing was broadcast yet
+	 */
+	public double getCoalescingRatio() {
+		long count = broadcasts.get();
+		return count == 0 ? 0 : (double) requests.get() / count;
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of lookups broadcast
+	 */
+	public long getBroadcasts() {
+		return broadcasts.get();
+	}
+
+	/**
+	 * @param debounce milliseconds without requests before broadcasting
+	 */
+	public void setDebounce(long debounce) {
+		this.debounce = String.valueOf(debounce);
+	}
+
+	/**
+	 * @param maxDelay maximum milliseconds from the first request to the broadcast
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = String.valueOf(maxDelay);
+	}
+
+	/**
+	 * @param timeout maximum milliseconds to wait for the broadcasts
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = String.valueOf(timeout);
+	}
+
+	/**
+	 * @param scheduler the scheduler to set
+	 */
+	public void setScheduler(TaskScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Private helper that schedules this notifier after the given delay.
+	 */
+	private void schedule(long delay) {
+		getScheduler().schedule(this, new Date(System.currentTimeMillis() + delay));
+	}
+
+	/**
+	 * Private helper that retrieves the scheduler bean of the application.
+	 * If not available, a single daemon thread is used.
+	 */
+	private TaskScheduler getScheduler() {
+		if (scheduler == null) {
+			synchronized (this) {
+				if (scheduler == null) {
+					try {
+						scheduler = (TaskScheduler) ApplicationContextProvider
+								.getApplicationContext().getBean("scheduler");
+					} catch (Exception e) {
+						_log.warn("No scheduler bean found, notifying devices on own thread.");
+						CustomizableThreadFactory factory = new CustomizableThreadFactory("notify-devices-");
+						factory.setDaemon(true);
+						scheduler = new ConcurrentTaskScheduler(
+								Executors.newSingleThreadScheduledExecutor(factory));
+					}
+				}
 			}
-		}		
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Private helper that returns the notifier bean, or a notifier with
+	 * default settings when running outside the application context.
+	 */
+	private static NotifyDevices getInstance() {
+		if (instance == null) {
+			synchronized (NotifyDevices.class) {
+				if (instance == null) {
+					NotifyDevices notifier = null;
+					try {
+						notifier = (NotifyDevices) ApplicationContextProvider
+								.getApplicationContext().getBean("notifyDevices");
+					} catch (Exception e) {
+						notifier = new NotifyDevices();
+					}
+					instance = notifier;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Private helper that serializes the sync command once.
+	 */
+	private static String buildMessage(String command) {
+		SyncMessage syncCommand = new SyncMessage();
+		syncCommand.setCommand(command);
+		try {
+			return new ObjectMapper().writeValueAsString(syncCommand);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Failed to convert sync message to JSON.", e);
+		}
 	}
 }
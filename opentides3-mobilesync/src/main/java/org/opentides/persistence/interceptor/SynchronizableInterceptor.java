@@ -21,33 +21,33 @@ package org.opentides.persistence.interceptor;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.sql.Types;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.hibernate.CallbackException;
+import org.hibernate.Transaction;
 import org.hibernate.collection.internal.PersistentBag;
 import org.hibernate.type.Type;
 import org.opentides.annotation.Synchronizable;
 import org.opentides.bean.BaseEntity;
 import org.opentides.bean.ChangeLog;
-import org.opentides.bean.ChangedField;
-import org.opentides.bean.ChangedRecord;
 import org.opentides.bean.JoinTable;
 import org.opentides.bean.SystemCodes;
 import org.opentides.bean.user.BaseUser;
 import org.opentides.bean.user.UserCredential;
 import org.opentides.context.ApplicationContextProvider;
-import org.opentides.job.NotifyDevices;
+import org.opentides.persistence.jdbc.ChangeLogWriter;
 import org.opentides.util.CacheUtil;
+import org.opentides.util.MetricsUtil;
 import org.opentides.util.StringUtil;
 import org.opentides.util.SyncUtil;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -57,6 +57,10 @@ import org.springframework.jdbc.core.JdbcTemplate;
  * save the corresponding SQL statement in the change log. The change log is
  * sent to the mobile devices for sync of database operations.
  * 
+ * Changes are recorded per thread, since the interceptor is shared by all
+ * sessions, and the change logs of a flush are saved together by the 
+ * {@link ChangeLogWriter}.
+ * 
  * @author allantan
  * 
  */
@@ -69,43 +73,75 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 
 	private static boolean disableAuditLog = false;
 
-	protected Set<PersistentBag> insertCollection = Collections
-			.synchronizedSet(new HashSet<PersistentBag>());
-	
-	protected Set<PersistentBag> updateCollection = Collections
-			.synchronizedSet(new HashSet<PersistentBag>());
-	
-	protected Set<ChangedRecord> updateRecords = Collections
-			.synchronizedSet(new HashSet<ChangedRecord>());
+	private static volatile ChangeLogWriter changeLogWriter;
+
+	/**
+	 * Synchronizable field of each property, by class.
+	 */
+	private static final Map<Class<?>, Map<String, String>> syncFieldNames = 
+			new ConcurrentHashMap<Class<?>, Map<String, String>>();
+
+	private static final ThreadLocal<PendingChanges> pending = new ThreadLocal<PendingChanges>() {
+		@Override
+		protected PendingChanges initialValue() {
+			return new PendingChanges();
+		}
+	};
+
+	/**
+	 * Changes recorded until the session is flushed.
+	 */
+	protected static class PendingChanges {
+		protected final List<ChangeLogWriter.Entry> removes = new ArrayList<ChangeLogWriter.Entry>();
+		protected final List<BaseEntity> deletes = new ArrayList<BaseEntity>();
+		protected final List<BaseEntity> inserts = new ArrayList<BaseEntity>();
+		protected final Set<PersistentBag> insertCollections = new LinkedHashSet<PersistentBag>();
+		protected final Map<BaseEntity, Set<String>> updates = new LinkedHashMap<BaseEntity, Set<String>>();
+		protected final Set<PersistentBag> updateCollections = new LinkedHashSet<PersistentBag>();
+	}
+
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state,
+			String[] propertyNames, Type[] types) throws CallbackException {
+		if (entity instanceof BaseEntity && isEntitySynchronizable(entity))
+			pending.get().inserts.add((BaseEntity) entity);
+		return super.onSave(entity, id, state, propertyNames, types);
+	}
+
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state,
+			String[] propertyNames, Type[] types) {
+		if (entity instanceof BaseEntity && isEntitySynchronizable(entity))
+			pending.get().deletes.add((BaseEntity) entity);
+		super.onDelete(entity, id, state, propertyNames, types);
+	}
 
 	@Override
 	public boolean onFlushDirty(Object entity, Serializable id,
 			Object[] currentState, Object[] previousState,
 			String[] propertyNames, Type[] types) throws CallbackException {
-		if (entity instanceof BaseEntity) {
-			List<ChangedField> changedFields = new ArrayList<ChangedField>();
-			List<String> fields = CacheUtil.getSynchronizableFields((BaseEntity)entity, entity.getClass());
-
+		if (entity instanceof BaseEntity && isEntitySynchronizable(entity)) {
+			Map<String, String> syncNames = getSyncFieldNames((BaseEntity) entity);
+			Set<String> fields = null;
 			for (int i = 0; i < propertyNames.length; i++) {
-				if (currentState[i] != previousState[i]) {
-					String fieldName = propertyNames[i];
-					boolean sync = false;
-					// sync only fields declared
-					for (String syncName:fields) {
-						if (syncName.startsWith(fieldName)) {
-							fieldName = syncName;
-							sync = true;
-						}
-					}
-					if (sync)
-						changedFields.add(new ChangedField(currentState[i],
-							previousState[i], fieldName, types[i]));
-				}
+				Object previous = (previousState == null) ? null : previousState[i];
+				if (currentState[i] == previous)
+					continue;
+				// sync only fields declared
+				String fieldName = syncNames.get(propertyNames[i]);
+				if (fieldName == null || types[i].isEqual(previous, currentState[i]))
+					continue;
+				if (fields == null)
+					fields = new LinkedHashSet<String>();
+				fields.add(fieldName);
 			}
-			if (changedFields.size() > 0) {
-				synchronized(updateRecords) {
-					updateRecords.add(new ChangedRecord(entity, id, changedFields));					
-				}
+			if (fields != null) {
+				Map<BaseEntity, Set<String>> updates = pending.get().updates;
+				Set<String> previousFields = updates.get(entity);
+				if (previousFields == null)
+					updates.put((BaseEntity) entity, fields);
+				else
+					previousFields.addAll(fields);
 			}
 		}
 		return false;
@@ -115,9 +151,7 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 	public void onCollectionRecreate(Object collection, Serializable key)
 			throws CallbackException {
 		if (isSynchronizable(collection)) {
-			synchronized (insertCollection) {
-				insertCollection.add((PersistentBag) collection);
-			}
+			pending.get().insertCollections.add((PersistentBag) collection);
 		}
 	}
 
@@ -127,22 +161,17 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 		if (isSynchronizable(collection)) {
 			PersistentBag entries = (PersistentBag) collection;
 			BaseEntity owner = (BaseEntity) entries.getOwner();
-			Class<?> clazz = owner.getClass();
 			Class<?> clazz2 = entries.get(0).getClass();
 
 			JoinTable join = CacheUtil.getJoinTableFields(owner, clazz2);
 			if (join != null) {
-				StringBuffer statementBuffer = new StringBuffer();
-				statementBuffer.append("delete from ")
-						.append(join.getTableName()).append(" where ")
-						.append(join.getColumn1()).append(" = ?")
-						.append(" and ").append(join.getColumn2())
-						.append(" = ?");
-				String stmt = statementBuffer.toString();
+				String stmt = "delete from " + join.getTableName() + " where "
+						+ join.getColumn1() + " = ? and " + join.getColumn2() + " = ?";
+				List<ChangeLogWriter.Entry> removes = pending.get().removes;
 				for (Object obj : entries) {
 					BaseEntity entity = (BaseEntity) obj;
-					this.saveLog(owner, ChangeLog.DELETE, "", stmt,
-							"[" + owner.getId() + "," + entity.getId() + "]");
+					removes.add(new ChangeLogWriter.Entry(owner, ChangeLog.DELETE, "", stmt,
+							"[" + owner.getId() + "," + entity.getId() + "]"));
 				}
 			}
 		}
@@ -152,9 +181,7 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 	public void onCollectionUpdate(Object collection, Serializable key)
 			throws CallbackException {
 		if (isSynchronizable(collection)) {
-			synchronized (updateCollection) {
-				updateCollection.add((PersistentBag) collection);
-			}
+			pending.get().updateCollections.add((PersistentBag) collection);
 		}
 	}
 
@@ -165,130 +192,73 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 	 * org.opentides.persistence.interceptor.AuditLogInterceptor#postFlush(java
 	 * .util.Iterator)
 	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void postFlush(Iterator iterator) throws CallbackException {
+		long startTime = System.nanoTime();
+		PendingChanges changes = pending.get();
+		pending.remove();
+		List<ChangeLogWriter.Entry> entries = new ArrayList<ChangeLogWriter.Entry>(changes.removes);
 		try {
 			// we may now delete the parent
-			synchronized (deletes) {
-				for (BaseEntity entity : deletes) {
-					if (isEntitySynchronizable(entity)) {
-						String deleteStmt = SyncUtil
-								.buildDeleteStatement(entity);
-						this.saveLog(entity, ChangeLog.DELETE, "", deleteStmt,
-								"["+entity.getId().toString()+"]");
-					}
-				}
+			for (BaseEntity entity : changes.deletes) {
+				entries.add(new ChangeLogWriter.Entry(entity, ChangeLog.DELETE, "",
+						SyncUtil.buildDeleteStatement(entity), "[" + entity.getId() + "]"));
 			}
 
 			// insert the parent first
-			synchronized (inserts) {
-				for (BaseEntity entity : inserts) {
-					if (isEntitySynchronizable(entity)) {
-						Method m = CacheUtil.getInsertMethod(entity.getClass());
-						if (m == null) {
-							String[] insertStmt = SyncUtil
-									.buildInsertStatement(entity);
-							this.saveLog(entity, ChangeLog.INSERT, "",
-									insertStmt[0], insertStmt[1]);
-						} else {
-							List<String[]> stmts = (List<String[]>) m.invoke(entity);
-							for (String[] stmt : stmts)
-								this.saveLog(entity, ChangeLog.INSERT, "",
-										stmt[0], stmt[1]);
-						}
-					}
+			for (BaseEntity entity : changes.inserts) {
+				Method m = CacheUtil.getInsertMethod(entity.getClass());
+				if (m == null) {
+					String[] insertStmt = SyncUtil.buildInsertStatement(entity);
+					entries.add(new ChangeLogWriter.Entry(entity, ChangeLog.INSERT, "",
+							insertStmt[0], insertStmt[1]));
+				} else {
+					for (String[] stmt : (List<String[]>) m.invoke(entity))
+						entries.add(new ChangeLogWriter.Entry(entity, ChangeLog.INSERT, "",
+								stmt[0], stmt[1]));
 				}
 			}
 
 			// then insert child records
-			synchronized (insertCollection) {
-				for (PersistentBag collection : insertCollection) {
-					if (collection.size() > 0) {
-						BaseEntity owner = (BaseEntity) collection.getOwner();
-						JoinTable join = CacheUtil.getJoinTableFields(owner,
-								collection.get(0).getClass());
-						if (join != null) {
-							StringBuffer statementBuffer = new StringBuffer();
-							statementBuffer.append("insert into ")
-									.append(join.getTableName()).append(" (")
-									.append(join.getColumn1()).append(",")
-									.append(join.getColumn2())
-									.append(") VALUES (?,?)");
-							String stmt = statementBuffer.toString();
-							for (Object obj : collection) {
-								BaseEntity entity = (BaseEntity) obj;
-								this.saveLog(
-										owner,
-										ChangeLog.INSERT,
-										"",
-										stmt,
-										"[" + owner.getId() + ","
-												+ entity.getId() + "]");
-							}
-						}
-					}
-				}
+			for (PersistentBag collection : changes.insertCollections) {
+				addJoinInserts(entries, collection);
 			}
 
-			synchronized (updateRecords) {
-				for (ChangedRecord record:updateRecords) {
-					if (isEntitySynchronizable(record.getEntity())) {
-						BaseEntity entity = (BaseEntity) record.getEntity();
-						Method m = CacheUtil.getUpdateMethod(entity.getClass());
-						if (m == null) {
-							List<String> fields = new ArrayList<String>();
-							for (ChangedField field:record.getChangedFields()) {
-								fields.add(field.getPropertyName());
-							}
-							String[] updateStmt = SyncUtil
-									.buildUpdateStatement(entity, fields);
-							this.saveLog(entity, ChangeLog.UPDATE,
-									StringUtils.join(fields, ","), updateStmt[0],
-									updateStmt[1]);
-						} else {
-							List<String[]> stmts = (List<String[]>) m.invoke(entity);
-							for (String[] stmt : stmts)
-								this.saveLog(entity, ChangeLog.UPDATE, "",
-										stmt[0], stmt[1]);
-						}						
-					}
+			for (Map.Entry<BaseEntity, Set<String>> record : changes.updates.entrySet()) {
+				BaseEntity entity = record.getKey();
+				Method m = CacheUtil.getUpdateMethod(entity.getClass());
+				if (m == null) {
+					List<String> fields = new ArrayList<String>(record.getValue());
+					String[] updateStmt = SyncUtil.buildUpdateStatement(entity, fields);
+					entries.add(new ChangeLogWriter.Entry(entity, ChangeLog.UPDATE,
+							StringUtils.join(fields, ","), updateStmt[0], updateStmt[1]));
+				} else {
+					for (String[] stmt : (List<String[]>) m.invoke(entity))
+						entries.add(new ChangeLogWriter.Entry(entity, ChangeLog.UPDATE, "",
+								stmt[0], stmt[1]));
 				}
 			}
 
-			synchronized (updateCollection) {
-				for (PersistentBag collection : updateCollection) {
-					if (collection.size() > 0) {
-						BaseEntity owner = (BaseEntity) collection.getOwner();
-						JoinTable join = CacheUtil.getJoinTableFields(owner,
-								collection.get(0).getClass());
-						if (join != null) {
-							// delete old record
-							this.saveLog(owner, ChangeLog.DELETE, "",
-									"delete from " + join.getTableName()
-											+ " where " + join.getColumn1()
-											+ " = ?", "[" + owner.getId() + "]");
-							// insert the new
-							StringBuffer statementBuffer = new StringBuffer();
-							statementBuffer.append("insert into ")
-									.append(join.getTableName()).append(" (")
-									.append(join.getColumn1()).append(",")
-									.append(join.getColumn2())
-									.append(") VALUES (?,?)");
-							String stmt = statementBuffer.toString();
-							for (Object obj : collection) {
-								BaseEntity entity = (BaseEntity) obj;
-								this.saveLog(
-										owner,
-										ChangeLog.INSERT,
-										"",
-										stmt,
-										"[" + owner.getId() + ","
-												+ entity.getId() + "]");
-							}
-						}
+			for (PersistentBag collection : changes.updateCollections) {
+				if (collection.size() > 0) {
+					BaseEntity owner = (BaseEntity) collection.getOwner();
+					JoinTable join = CacheUtil.getJoinTableFields(owner,
+							collection.get(0).getClass());
+					if (join != null) {
+						// delete old record
+						entries.add(new ChangeLogWriter.Entry(owner, ChangeLog.DELETE, "",
+								"delete from " + join.getTableName() + " where "
+										+ join.getColumn1() + " = ?", "[" + owner.getId() + "]"));
+						// insert the new
+						addJoinInserts(entries, collection);
 					}
 				}
 			}
+
+			if (!entries.isEmpty())
+				getChangeLogWriter().write(entries);
+
 			// should we record auditLog from superclass?
 			if (!disableAuditLog)
 				super.postFlush(iterator);
@@ -296,30 +266,35 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 		} catch (Throwable e) {
 			_log.error(e, e);
 		} finally {
-			synchronized (inserts) {
-				inserts.clear();
-			}
-			synchronized (insertCollection) {
-				insertCollection.clear();
-			}
-			synchronized (updates) {
-				updates.clear();
-			}
-			synchronized (updateRecords) {
-				updateRecords.clear();
-			}
-			synchronized (updateCollection) {
-				updateCollection.clear();
-			}
-			synchronized (deletes) {
-				deletes.clear();
-			}
-			synchronized (oldies) {
-				oldies.clear();
+			if (disableAuditLog) {
+				synchronized (inserts) {
+					inserts.clear();
+				}
+				synchronized (updates) {
+					updates.clear();
+				}
+				synchronized (deletes) {
+					deletes.clear();
+				}
+				synchronized (oldies) {
+					oldies.clear();
+				}
 			}
+			if (MetricsUtil.isEnabled())
+				MetricsUtil.time("sync.postFlush", startTime);
 		}
 	}
 
+	/**
+	 * Discards the changes recorded by a transaction that ended without 
+	 * flushing them.
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		pending.remove();
+		super.afterTransactionCompletion(tx);
+	}
+
 	/**
 	 * Saves the change log into the database.
 	 * 
@@ -329,33 +304,8 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 	 */
 	public void saveLog(BaseEntity entity, int action, String updateFields,
 			String sqlCommand, String param) {
-
-		JdbcTemplate jTemplate = connectDb(entity.getDbName());
-
-		try {
-			String dateStr = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss")
-					.format(new Date());
-
-			String changeLogSql = "INSERT INTO CHANGE_LOG" + " (`CREATEDATE`, "
-					+ " `VERSION`, " + " `ACTION`, " + " `ENTITY_CLASS`, "
-					+ " `ENTITY_ID`, " + " `SQL_COMMAND`,  " + " `PARAMS`, "
-					+ " `UPDATE_FIELDS`" + ") " + " VALUES (?,?,?,?,?,?,?,?); ";
-
-			Object[] params = new Object[] { dateStr, 0, action,
-					entity.getClass().getName(),
-					(entity.getId() == null) ? 0 : entity.getId(), sqlCommand,
-					param, updateFields };
-
-			int[] types = new int[] { Types.VARCHAR, Types.BIGINT,
-					Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.BLOB,
-					Types.BLOB, Types.VARCHAR };
-
-			jTemplate.update(changeLogSql, params, types);
-			NotifyDevices.notifySync("/" + entity.getDbName() + "/*");
-		} catch (Exception ex) {
-			_log.error("Failed to save change log on ["
-					+ entity.getClass().getSimpleName() + "]", ex);
-		}
+		getChangeLogWriter().write(Collections.singletonList(
+				new ChangeLogWriter.Entry(entity, action, updateFields, sqlCommand, param)));
 	}
 
 	/**
@@ -366,6 +316,32 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 		SynchronizableInterceptor.disableAuditLog = disableAuditLog;
 	}
 
+	/**
+	 * @param changeLogWriter the writer of the change logs to use
+	 */
+	public static void setChangeLogWriter(ChangeLogWriter changeLogWriter) {
+		SynchronizableInterceptor.changeLogWriter = changeLogWriter;
+	}
+
+	/**
+	 * Returns the writer of the change logs, using the jdbcTemplate bean
+	 * if none is set.
+	 * 
+	 * @return
+	 */
+	protected ChangeLogWriter getChangeLogWriter() {
+		ChangeLogWriter writer = changeLogWriter;
+		if (writer == null) {
+			synchronized (SynchronizableInterceptor.class) {
+				if (changeLogWriter == null)
+					changeLogWriter = new ChangeLogWriter((JdbcTemplate) ApplicationContextProvider
+							.getApplicationContext().getBean("jdbcTemplate"));
+				writer = changeLogWriter;
+			}
+		}
+		return writer;
+	}
+
 	public JdbcTemplate connectDb(String schemaName) {
 		// Get jdbc template
 		JdbcTemplate jTemplate = (JdbcTemplate) ApplicationContextProvider
@@ -377,6 +353,48 @@ public class SynchronizableInterceptor extends AuditLogInterceptor {
 		return jTemplate;
 	}
 
+	/**
+	 * Private helper that adds the insert statements of the records in 
+	 * the join table of the collection.
+	 */
+	private void addJoinInserts(List<ChangeLogWriter.Entry> entries, PersistentBag collection) {
+		if (collection.size() > 0) {
+			BaseEntity owner = (BaseEntity) collection.getOwner();
+			JoinTable join = CacheUtil.getJoinTableFields(owner,
+					collection.get(0).getClass());
+			if (join != null) {
+				String stmt = "insert into " + join.getTableName() + " ("
+						+ join.getColumn1() + "," + join.getColumn2() + ") VALUES (?,?)";
+				for (Object obj : collection) {
+					BaseEntity entity = (BaseEntity) obj;
+					entries.add(new ChangeLogWriter.Entry(owner, ChangeLog.INSERT, "", stmt,
+							"[" + owner.getId() + "," + entity.getId() + "]"));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Private helper that returns the synchronizable field of each property
+	 * of the entity. Properties are matched to the field with the same name,
+	 * or to the nested field of the property (e.g. owner.id).
+	 */
+	private static Map<String, String> getSyncFieldNames(BaseEntity entity) {
+		Map<String, String> names = syncFieldNames.get(entity.getClass());
+		if (names == null) {
+			names = new ConcurrentHashMap<String, String>();
+			for (String syncName : CacheUtil.getSynchronizableFields(entity, entity.getClass())) {
+				int idx = syncName.indexOf('.');
+				if (idx < 0)
+					names.put(syncName, syncName);
+				else if (!names.containsKey(syncName.substring(0, idx)))
+					names.put(syncName.substring(0, idx), syncName);
+			}
+			syncFieldNames.put(entity.getClass(), names);
+		}
+		return names;
+	}
+
 	/**
 	 * Private helper that checks if the given collection should be
 	 * synchronized.
@@ -0,0 +1,303 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.persistence.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.BaseEntity;
+import org.opentides.job.NotifyDevices;
+import org.opentides.util.MetricsUtil;
+import org.opentides.util.StringUtil;
+import org.opentides.util.SyncUtil;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Writes the change logs of a flush to the database using JDBC batches.
+ * 
+ * Statements are saved as templates in CHANGE_LOG_TEMPLATE, so that the 
+ * change log only holds the template key and the parameters. Devices 
+ * sync by the change log id assigned by the database, so VERSION is not 
+ * used and is saved as 0.
+ * 
+ * @author allantan
+ */
+public class ChangeLogWriter {
+
+	private static final Logger _log = Logger.getLogger(ChangeLogWriter.class);
+
+	private static final String INSERT_SQL = "INSERT INTO CHANGE_LOG (CREATEDATE, VERSION, ACTION, "
+			+ "ENTITY_CLASS, ENTITY_ID, SQL_COMMAND, TEMPLATE_ID, PARAMS, UPDATE_FIELDS) "
+			+ "VALUES (?,?,?,?,?,?,?,?,?)";
+
+	private static final String INSERT_TEMPLATE_SQL = "INSERT INTO CHANGE_LOG_TEMPLATE "
+			+ "(CREATEDATE, VERSION, TEMPLATE_KEY, SQL_COMMAND) VALUES (?,?,?,?)";
+
+	private static final int BATCH_SIZE = 500;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	/**
+	 * Keys of templates already saved, by database.
+	 */
+	private final ConcurrentMap<String, Set<Long>> savedTemplates = new ConcurrentHashMap<String, Set<Long>>();
+
+	/**
+	 * Change to be saved in the change log.
+	 */
+	public static class Entry {
+		private final String dbName;
+		private final String entityClass;
+		private final Long entityId;
+		private final int action;
+		private final String updateFields;
+		private final String sqlCommand;
+		private final String params;
+
+		public Entry(BaseEntity entity, int action, String updateFields,
+				String sqlCommand, String params) {
+			this.dbName = entity.getDbName();
+			this.entityClass = entity.getClass().getName();
+			this.entityId = (entity.getId() == null) ? 0 : entity.getId();
+			this.action = action;
+			this.updateFields = updateFields;
+			this.sqlCommand = sqlCommand;
+			this.params = params;
+		}
+
+		/**
+		 * @return the dbName
+		 */
+		public String getDbName() {
+			return dbName;
+		}
+
+		/**
+		 * @return the sqlCommand
+		 */
+		public String getSqlCommand() {
+			return sqlCommand;
+		}
+
+		/**
+		 * @return the params
+		 */
+		public String getParams() {
+			return params;
+		}
+	}
+
+	public ChangeLogWriter(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * Saves the given changes and notifies the devices of each database
+	 * with changes. Changes are saved in the given order.
+	 * 
+	 * @param entries
+	 */
+	public void write(List<Entry> entries) {
+		if (entries.isEmpty())
+			return;
+		long startTime = System.nanoTime();
+		Map<String, List<Entry>> byDatabase = new LinkedHashMap<String, List<Entry>>();
+		for (Entry entry : entries) {
+			String key = (entry.dbName == null) ? "" : entry.dbName;
+			List<Entry> list = byDatabase.get(key);
+			if (list == null) {
+				list = new ArrayList<Entry>();
+				byDatabase.put(key, list);
+			}
+			list.add(entry);
+		}
+		for (final Map.Entry<String, List<Entry>> group : byDatabase.entrySet()) {
+			try {
+				jdbcTemplate.execute(new ConnectionCallback<Void>() {
+					@Override
+					public Void doInConnection(Connection connection) throws SQLException {
+						write(connection, group.getKey(), group.getValue());
+						return null;
+					}
+				});
+			} catch (Exception ex) {
+				_log.error("Failed to save " + group.getValue().size()
+						+ " change logs on [" + group.getKey() + "]", ex);
+				continue;
+			}
+			try {
+				NotifyDevices.notifySync("/" + group.getValue().get(0).dbName + "/*");
+			} catch (Exception ex) {
+				_log.error("Failed to notify devices on [" + group.getKey() + "]", ex);
+			}
+		}
+		if (MetricsUtil.isEnabled()) {
+			MetricsUtil.time("sync.changeLog.write", startTime);
+			MetricsUtil.counter("sync.changeLogs").increment(entries.size());
+		}
+	}
+
+	/**
+	 * Private helper that saves the changes of a database on the given connection.
+	 */
+	private void write(Connection connection, String dbName, List<Entry> entries) 
+			throws SQLException {
+		if (!StringUtil.isEmpty(dbName)) {
+			Statement stmt = connection.createStatement();
+			try {
+				stmt.execute("USE " + dbName);
+			} finally {
+				stmt.close();
+			}
+		}
+		Set<Long> templates = saveTemplates(connection, dbName, entries);
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		PreparedStatement ps = connection.prepareStatement(INSERT_SQL);
+		try {
+			int count = 0;
+			for (Entry entry : entries) {
+				Long templateId = null;
+				if (entry.sqlCommand != null) {
+					long key = SyncUtil.getTemplateKey(entry.sqlCommand);
+					if (templates.contains(key))
+						templateId = key;
+				}
+				ps.setTimestamp(1, now);
+				ps.setLong(2, 0);
+				ps.setInt(3, entry.action);
+				ps.setString(4, entry.entityClass);
+				ps.setLong(5, entry.entityId);
+				if (templateId == null) {
+					ps.setString(6, entry.sqlCommand);
+					ps.setNull(7, Types.BIGINT);
+				} else {
+					ps.setNull(6, Types.BLOB);
+					ps.setLong(7, templateId);
+				}
+				ps.setString(8, entry.params);
+				ps.setString(9, entry.updateFields);
+				ps.addBatch();
+				if (++count % BATCH_SIZE == 0)
+					ps.executeBatch();
+			}
+			if (count % BATCH_SIZE != 0)
+				ps.executeBatch();
+		} finally {
+			ps.close();
+		}
+	}
+
+	/**
+	 * Private helper that saves the templates of the changes that are not
+	 * yet saved in the database. Returns the keys of the saved templates; 
+	 * changes without saved template keep their statement in the change log.
+	 */
+	private Set<Long> saveTemplates(Connection connection, String dbName, List<Entry> entries) {
+		Set<Long> saved = savedTemplates.get(dbName);
+		if (saved == null) {
+			savedTemplates.putIfAbsent(dbName,
+					Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>()));
+			saved = savedTemplates.get(dbName);
+		}
+		Map<Long, String> missing = new LinkedHashMap<Long, String>();
+		for (Entry entry : entries) {
+			if (entry.sqlCommand != null) {
+				long key = SyncUtil.getTemplateKey(entry.sqlCommand);
+				if (!saved.contains(key))
+					missing.put(key, entry.sqlCommand);
+			}
+		}
+		if (missing.isEmpty())
+			return saved;
+		try {
+			missing.keySet().removeAll(findTemplates(connection, missing.keySet()));
+			if (!missing.isEmpty()) {
+				Timestamp now = new Timestamp(System.currentTimeMillis());
+				PreparedStatement ps = connection.prepareStatement(INSERT_TEMPLATE_SQL);
+				try {
+					for (Map.Entry<Long, String> template : missing.entrySet()) {
+						ps.setTimestamp(1, now);
+						ps.setLong(2, 0);
+						ps.setLong(3, template.getKey());
+						ps.setString(4, template.getValue());
+						ps.addBatch();
+					}
+					ps.executeBatch();
+				} catch (BatchUpdateException e) {
+					// some templates may have been saved by another server
+					_log.debug("Failed to save templates, checking saved templates.", e);
+				} finally {
+					ps.close();
+				}
+			}
+			saved.addAll(findTemplates(connection, missing.keySet()));
+		} catch (SQLException e) {
+			_log.warn("Failed to save change log templates on [" + dbName + "]", e);
+		}
+		return saved;
+	}
+
+	/**
+	 * Private helper that returns the keys among the given keys that are 
+	 * already saved.
+	 */
+	private Set<Long> findTemplates(Connection connection, Set<Long> keys) throws SQLException {
+		Set<Long> found = new HashSet<Long>();
+		if (keys.isEmpty())
+			return found;
+		StringBuilder sql = new StringBuilder(
+				"SELECT TEMPLATE_KEY FROM CHANGE_LOG_TEMPLATE WHERE TEMPLATE_KEY IN (");
+		for (int i = 0; i < keys.size(); i++) {
+			sql.append(i > 0 ? ",?" : "?");
+		}
+		sql.append(")");
+		PreparedStatement ps = connection.prepareStatement(sql.toString());
+		try {
+			int i = 1;
+			for (Long key : keys) {
+				ps.setLong(i++, key);
+			}
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				found.add(rs.getLong(1));
+			}
+			rs.close();
+		} finally {
+			ps.close();
+		}
+		return found;
+	}
+}
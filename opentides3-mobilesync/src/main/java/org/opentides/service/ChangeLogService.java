@@ -1,6 +1,7 @@
 package org.opentides.service;
 
 import java.util.List;
+import java.util.Map;
 
 import org.opentides.bean.ChangeLog;
 import org.opentides.bean.SqlStatement;
@@ -30,6 +31,15 @@ public interface ChangeLogService extends BaseCrudService<ChangeLog> {
 	 */
 	public List<SqlStatement> findUpdates(Long version, Long branchId, String clientCode);
 
+	/**
+	 * Returns the SQL statement of the templates used by the given 
+	 * change logs, keyed by template id.
+	 * 
+	 * @param logs
+	 * @return
+	 */
+	public Map<Long, String> findTemplates(List<ChangeLog> logs);
+
 		
 	/**
 	 * Returns the list of changes after the given version.
@@ -3,17 +3,30 @@
  */
 package org.opentides.service.impl;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.opentides.bean.ChangeLog;
 import org.opentides.bean.SqlStatement;
 import org.opentides.dao.ChangeLogDao;
+import org.opentides.job.ChangeLogArchiver;
 import org.opentides.service.ChangeLogService;
+import org.opentides.util.SyncUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
+ * Latest versions are kept in memory for sync.version-cache.ttl seconds,
+ * so that polling devices do not query the change logs for each request.
+ * Devices behind the change log archive receive the archived changes first.
+ * 
  * @author allantan
  *
  */
@@ -21,44 +34,151 @@ import org.springframework.stereotype.Service;
 public class ChangeLogServiceImpl extends BaseCrudServiceImpl<ChangeLog> implements
 		ChangeLogService {
 
+	private static final int MAX_CHANGES = 250;
+
+	@Autowired(required = false)
+	private ChangeLogArchiver changeLogArchiver;
+
+	@Value("${sync.version-cache.ttl:5}")
+	private String versionCacheTtl = "5";
+
+	/**
+	 * Latest versions by branch and client.
+	 */
+	private final ConcurrentMap<String, CachedVersion> versions = new ConcurrentHashMap<String, CachedVersion>();
+
+	private static class CachedVersion {
+		private final Long version;
+		private final long expires;
+
+		private CachedVersion(Long version, long expires) {
+			this.version = version;
+			this.expires = expires;
+		}
+	}
 
 	@Override
 	public List<SqlStatement> findUpdates(Long version, Long branchId,
 			String clientCode) {
-		return ((ChangeLogDao) getDao()).findUpdates(version, branchId, clientCode);
-		
+		List<SqlStatement> updates = ((ChangeLogDao) getDao()).findUpdates(version, branchId, clientCode);
+		Set<Long> templateIds = new HashSet<Long>();
+		for (SqlStatement update : updates) {
+			if (update.getStmt() == null && update.getTemplateId() != null)
+				templateIds.add(update.getTemplateId());
+		}
+		if (!templateIds.isEmpty()) {
+			Map<Long, String> templates = findTemplates(templateIds);
+			for (SqlStatement update : updates) {
+				if (update.getStmt() == null && update.getTemplateId() != null)
+					update.setStmt(templates.get(update.getTemplateId()));
+			}
+		}
+		return updates;
+	}
+
+	@Override
+	public Map<Long, String> findTemplates(List<ChangeLog> logs) {
+		Set<Long> templateIds = new HashSet<Long>();
+		for (ChangeLog log : logs) {
+			if (log.getTemplateId() != null)
+				templateIds.add(log.getTemplateId());
+		}
+		return findTemplates(templateIds);
+	}
+
+	/**
+	 * Private helper that returns the SQL statement of the templates,
+	 * loading the templates not yet known to this server.
+	 */
+	private Map<Long, String> findTemplates(Collection<Long> templateIds) {
+		Map<Long, String> templates = new HashMap<Long, String>();
+		Set<Long> missing = new HashSet<Long>();
+		for (Long templateId : templateIds) {
+			String sql = SyncUtil.getTemplate(templateId);
+			if (sql == null)
+				missing.add(templateId);
+			else
+				templates.put(templateId, sql);
+		}
+		if (!missing.isEmpty()) {
+			for (Map.Entry<Long, String> entry : ((ChangeLogDao) getDao())
+					.findTemplates(missing).entrySet()) {
+				SyncUtil.putTemplate(entry.getKey(), entry.getValue());
+				templates.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return templates;
 	}
 	
 	@Override
 	public Long findTargetVersion(Long branchId, String clientCode){
-		return ((ChangeLogDao)getDao()).findTargetVersion(branchId, clientCode);
+		String key = branchId + ":" + clientCode;
+		Long version = getCachedVersion(key);
+		if (version == null)
+			version = cacheVersion(key, ((ChangeLogDao)getDao()).findTargetVersion(branchId, clientCode));
+		return version;
 	}
 
 	@Override
 	@Deprecated
 	public List<ChangeLog> findAfterVersion(Long version, Long branchId) {
-		Map<String, Object> map = new HashMap<String, Object>();
-		map.put("version", version);
-		map.put("branchId", branchId);
-		return getDao().findByNamedQuery("jpql.mobilesync.findChangesAfterVersion", map, 0, 250);
+		List<ChangeLog> changes = ((ChangeLogDao)getDao()).findChangesAfterVersion(version, branchId, MAX_CHANGES);
+		if (changeLogArchiver != null && changeLogArchiver.isEnabled()) {
+			// checked after the change log, so changes archived in between are not skipped
+			List<ChangeLog> archived = changeLogArchiver.findArchivedChanges(version, branchId, MAX_CHANGES);
+			if (!archived.isEmpty())
+				return archived;
+		}
+		return changes;
 	}
 	
 	@Override
 	@Deprecated
 	public Long findTargetVersion(){
-		return ((ChangeLogDao)getDao()).findTargetVersion();
-		
+		return findTargetVersion((Long) null);
 	}
 
 	@Override
 	@Deprecated
 	public Long findTargetVersion(Long branchId){
-		return ((ChangeLogDao)getDao()).findTargetVersion(branchId);
+		String key = String.valueOf(branchId);
+		Long version = getCachedVersion(key);
+		if (version == null)
+			version = cacheVersion(key, ((ChangeLogDao)getDao()).findMaxVersion(branchId));
+		return version;
 	}	
 
 	@Override
 	@Deprecated
 	public ChangeLog findLatestChange(Long branchId) {
-		return ((ChangeLogDao)getDao()).findLatestChangeByBranch(branchId);
+		Long version = findTargetVersion(branchId);
+		if (version == null || version == 0)
+			return null;
+		return getDao().loadEntityModel(version);
+	}
+
+	/**
+	 * Private helper that returns the cached version, or null if not 
+	 * cached or expired.
+	 */
+	private Long getCachedVersion(String key) {
+		CachedVersion cached = versions.get(key);
+		if (cached != null && cached.expires > System.currentTimeMillis())
+			return cached.version;
+		return null;
+	}
+
+	private Long cacheVersion(String key, Long version) {
+		long ttl = Long.parseLong(versionCacheTtl) * 1000;
+		if (ttl > 0)
+			versions.put(key, new CachedVersion(version, System.currentTimeMillis() + ttl));
+		return version;
+	}
+
+	/**
+	 * @param versionCacheTtl seconds the latest versions are cached, 0 to disable
+	 */
+	public void setVersionCacheTtl(int versionCacheTtl) {
+		this.versionCacheTtl = String.valueOf(versionCacheTtl);
 	}
 }
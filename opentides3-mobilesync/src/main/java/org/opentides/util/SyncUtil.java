@@ -20,11 +20,16 @@ under the License.
 package org.opentides.util;
 
 import java.lang.annotation.Annotation;
-import java.math.BigDecimal;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 import javax.persistence.Table;
 
@@ -32,7 +37,17 @@ import org.apache.log4j.Logger;
 import org.opentides.bean.BaseEntity;
 import org.opentides.editor.Normalizer;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 /**
+ * Builds the SQL statements sent to the devices for sync.
+ * 
+ * Statements are built from templates that are computed once for each 
+ * entity and set of columns, so that change logs with the same columns 
+ * share the same SQL statement and only differ in parameters. Parameters 
+ * are encoded as JSON array, where numbers are numbers and all other 
+ * values are strings.
  * 
  * @author allantan
  *
@@ -41,12 +56,118 @@ public class SyncUtil {
 
 	private static Logger _log = Logger.getLogger(SyncUtil.class);
 	
+	private static final char INSERT = 'I';
+	
+	private static final char UPDATE = 'U';
+	
+	private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+	
 	/**
 	 * List of normalizer to be executed when converting values to SQL.
 	 * Use setNormalizer method to add to the list.
 	 */
 	private static List<Normalizer> normalizer;
 	
+	private static final Gson JSON = new GsonBuilder().disableHtmlEscaping().create();
+	
+	/**
+	 * Column mapping of synchronizable fields, by class.
+	 */
+	private static final Map<Class<?>, ColumnPlan> columnPlans = new ConcurrentHashMap<Class<?>, ColumnPlan>();
+
+	private static final Map<Class<?>, String> tableNames = new ConcurrentHashMap<Class<?>, String>();
+	
+	private static final ConcurrentMap<TemplateKey, String> templates = 
+			new ConcurrentHashMap<TemplateKey, String>();
+	
+	private static final ConcurrentMap<String, Long> templateKeys = new ConcurrentHashMap<String, Long>();
+	
+	private static final ConcurrentMap<Long, String> templateStatements = new ConcurrentHashMap<Long, String>();
+	
+	/**
+	 * Columns of a synchronizable field and its getter.
+	 */
+	private static class FieldColumns {
+		private final String field;
+		private final Method getter;
+		private final String[] columns;
+		
+		private FieldColumns(String field, Method getter, String[] columns) {
+			this.field = field;
+			this.getter = getter;
+			this.columns = columns;
+		}
+		
+		private Object get(Object obj) {
+			if (getter == null)
+				return CrudUtil.retrieveNullableObjectValue(obj, field);
+			try {
+				return getter.invoke(obj);
+			} catch (Exception e) {
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * Columns of the fields of a class. Inserts include all synchronizable 
+	 * fields that are mapped to columns.
+	 */
+	private static class ColumnPlan {
+		private final Map<String, String> columnNames;
+		private final List<FieldColumns> inserts = new ArrayList<FieldColumns>();
+		private final ConcurrentMap<String, FieldColumns> fields = new ConcurrentHashMap<String, FieldColumns>();
+		
+		private ColumnPlan(Map<String, String> columnNames) {
+			this.columnNames = columnNames;
+		}
+	}
+	
+	/**
+	 * Identifies the statement template of an entity for a given list of 
+	 * fields and the columns with values.
+	 */
+	private static class TemplateKey {
+		private final Class<?> entityClass;
+		private final Class<?> clazz;
+		private final char action;
+		private final List<String> fields;
+		private final BitSet mask;
+		private final int hash;
+		
+		private TemplateKey(Class<?> entityClass, Class<?> clazz, char action, 
+				List<String> fields, BitSet mask) {
+			this.entityClass = entityClass;
+			this.clazz = clazz;
+			this.action = action;
+			this.fields = fields;
+			this.mask = mask;
+			int h = entityClass.hashCode();
+			h = 31 * h + clazz.hashCode();
+			h = 31 * h + action;
+			h = 31 * h + (fields == null ? 0 : fields.hashCode());
+			this.hash = 31 * h + mask.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof TemplateKey))
+				return false;
+			TemplateKey other = (TemplateKey) obj;
+			return hash == other.hash && action == other.action
+					&& entityClass == other.entityClass && clazz == other.clazz
+					&& mask.equals(other.mask)
+					&& (fields == null ? other.fields == null : fields.equals(other.fields));
+		}
+	}
+	
 	/**
 	 * Overloaded method to build insert statement, including parent fields.
 	 * @param obj
@@ -58,111 +179,106 @@ public class SyncUtil {
 
 	/**
 	 * Builds the insert statement for sqlLite.
-	 * @return
+	 * @return array containing the statement and the parameters
 	 */
 	public static String[] buildInsertStatement(BaseEntity obj, Class<?> clazz) {
 		if (clazz == null) clazz = obj.getClass();
-		StringBuilder sql = new StringBuilder("insert into ");
-		StringBuilder columns = new StringBuilder("(");
-		StringBuilder values = new StringBuilder("(");
-		String[] insertQuery = new String[2];
+		List<FieldColumns> fields = getColumnPlan(obj, clazz).inserts;
 		StringBuilder param = new StringBuilder("[");
+		BitSet mask = new BitSet();
+		int index = 0;
 		
-		List<String> fields = null;
-		Map<String, String> columnFields = null;
-		
-		fields = CacheUtil.getSynchronizableFields(obj, clazz);
-		columnFields = CacheUtil.getColumnNames(obj, clazz);			
-		if (!fields.contains("id"))
-			fields.add("id");
-		int count = 0;
-		
-		for (String field : fields) {
-			String[] pField = StringUtil.splitSafe(field, "\\.");
-			Object ret = CrudUtil.retrieveNullableObjectValue(obj, field);
-			String column = columnFields.get(pField[0]);
-
-			if (column != null) {
-				String[] cols = StringUtil.splitSafe(column, ",");
-				if (cols != null && cols.length > 0) {
-					for (int i = 0; i < cols.length; i++) {
-						String n = normalizeValue(ret, cols[i]);
-						if (n.trim().length() > 0) {
-							if (count++ > 0) {
-								columns.append(",");
-								values.append(",");
-								param.append(",");
-							}
-							columns.append(cols[i]);
-							values.append("?");
-							param.append(n);
+		for (FieldColumns field : fields) {
+			Object ret = field.get(obj);
+			for (String column : field.columns) {
+				String n = normalizeValue(ret, column);
+				if (n.length() > 0) {
+					if (param.length() > 1)
+						param.append(",");
+					param.append(n);
+					mask.set(index);
+				}
+				index++;
+			}
+		}
+		param.append("]");
 
+		TemplateKey key = new TemplateKey(obj.getClass(), clazz, INSERT, null, mask);
+		String sql = templates.get(key);
+		if (sql == null) {
+			StringBuilder columns = new StringBuilder("(");
+			StringBuilder values = new StringBuilder("(");
+			index = 0;
+			for (FieldColumns field : fields) {
+				for (String column : field.columns) {
+					if (mask.get(index++)) {
+						if (columns.length() > 1) {
+							columns.append(",");
+							values.append(",");
 						}
+						columns.append(column);
+						values.append("?");
 					}
-				}				
+				}
 			}
+			columns.append(")");
+			values.append(")");
+			sql = registerTemplate(key, "insert into " + getTableName(obj) + " "
+					+ columns + " values " + values);
 		}
-
-		columns.append(")");
-		values.append(")");
-		
-		String tableName = SyncUtil.getTableName(obj);
-		
-		sql.append(tableName).append(" ").append(columns).append(" values ")
-				.append(values);
-		insertQuery[0] = sql.toString();
-
-		param.append("]");
-		insertQuery[1] = param.toString();
-
-		return insertQuery;
+		return new String[] { sql, param.toString() };
 	}
 
 	/**
-	 * Builds the insert statement for sqlLite.
-	 * @return
+	 * Builds the update statement for sqlLite.
+	 * @return array containing the statement and the parameters
 	 */
 	public static String[] buildUpdateStatement(BaseEntity obj, List<String> fields) {
-		String[] updateQuery = new String[2];
-		
-		String tableName = SyncUtil.getTableName(obj);
-
-		Map<String, String> columns = CacheUtil.getColumnNames(obj);
-
+		ColumnPlan plan = getColumnPlan(obj, obj.getClass());
+		List<FieldColumns> updates = new ArrayList<FieldColumns>(fields.size());
 		StringBuilder params = new StringBuilder("[");
-		StringBuilder sql = new StringBuilder("update ");
-		sql.append(tableName).append(" set ");
-
-		int count = 0;
+		BitSet mask = new BitSet();
+		int index = 0;
+		
 		for (String field : fields) {
-			String[] pField = StringUtil.splitSafe(field, "\\.");
-			String column = columns.get(pField[0]);
-			Object ret = CrudUtil.retrieveNullableObjectValue(obj, field);
-			if (column != null) {
-				String[] cols = StringUtil.splitSafe(column, ",");
-				if (cols != null && cols.length > 0) {
-					for (int i = 0; i < cols.length; i++) {
-						String n = normalizeValue(ret, cols[i]);
-						if (n.trim().length() > 0) {
-							if (count++ > 0) {
-								sql.append(",");
-								params.append(",");
-							}
-							sql.append(cols[i]).append("=?");
-							params.append(n);
-						}
-					}
+			FieldColumns fc = getFieldColumns(plan, obj.getClass(), field);
+			updates.add(fc);
+			Object ret = fc.get(obj);
+			for (String column : fc.columns) {
+				String n = normalizeValue(ret, column);
+				if (n.length() > 0) {
+					params.append(n).append(",");
+					mask.set(index);
 				}
+				index++;
 			}
-
 		}
-		sql.append(" where id=?");
-		if (count > 0) params.append(",");
-		params.append(obj.getId());
+		params.append(JSON.toJson(obj.getId()));
 		params.append("]");
-		updateQuery[0] = sql.toString();
-		updateQuery[1] = params.toString();
-		return updateQuery;
+		
+		TemplateKey key = new TemplateKey(obj.getClass(), obj.getClass(), UPDATE, fields, mask);
+		String sql = templates.get(key);
+		if (sql == null) {
+			StringBuilder sb = new StringBuilder("update ");
+			sb.append(getTableName(obj)).append(" set ");
+			index = 0;
+			int count = 0;
+			for (FieldColumns fc : updates) {
+				for (String column : fc.columns) {
+					if (mask.get(index++)) {
+						if (count++ > 0)
+							sb.append(",");
+						sb.append(column).append("=?");
+					}
+				}
+			}
+			sb.append(" where id=?");
+			// copy the fields since the key is kept in the cache
+			key = new TemplateKey(obj.getClass(), obj.getClass(), UPDATE, 
+					new ArrayList<String>(fields), mask);
+			sql = registerTemplate(key, sb.toString());
+		}
+		return new String[] { sql, params.toString() };
 	}
 	
 	/**
@@ -170,10 +286,7 @@ public class SyncUtil {
 	 * @return
 	 */
 	public static String buildDeleteStatement(BaseEntity obj) {
-		String tableName = SyncUtil.getTableName(obj);
-		StringBuilder sql = new StringBuilder("delete from ");
-		sql.append(tableName).append(" where id=?");
-		return sql.toString();
+		return "delete from " + getTableName(obj) + " where id=?";
 	}
 	
 	/**
@@ -182,8 +295,11 @@ public class SyncUtil {
 	 * @param obj
 	 */
 	public static String getTableName(BaseEntity obj) {
+		String tableName = tableNames.get(obj.getClass());
+		if (tableName != null)
+			return tableName;
 		Annotation annotation = obj.getClass().getAnnotation(Table.class);
-		String tableName = NamingUtil.toSQLName(obj.getClass().getSimpleName());
+		tableName = NamingUtil.toSQLName(obj.getClass().getSimpleName());
 		try {
 			if (annotation != null) {
 				tableName = (String) annotation.annotationType()
@@ -191,12 +307,128 @@ public class SyncUtil {
 			}
 		} catch (Exception e) {
 		}
+		tableNames.put(obj.getClass(), tableName);
 		return tableName;
 	}
 	
+	/**
+	 * Returns the key of the template of the given SQL statement. The key
+	 * is a 64-bit hash of the statement, so that the same statement 
+	 * has the same key on all servers.
+	 * 
+	 * @param sql
+	 * @return
+	 */
+	public static long getTemplateKey(String sql) {
+		Long key = templateKeys.get(sql);
+		if (key == null) {
+			// FNV-1a hash
+			long hash = 0xcbf29ce484222325L;
+			for (int i = 0; i < sql.length(); i++) {
+				hash ^= sql.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			key = hash;
+			templateKeys.putIfAbsent(sql, key);
+			templateStatements.putIfAbsent(key, sql);
+		}
+		return key;
+	}
+	
+	/**
+	 * Returns the SQL statement of the given template key, if the template
+	 * is known to this server. Otherwise, returns null.
+	 * 
+	 * @param templateKey
+	 * @return
+	 */
+	public static String getTemplate(Long templateKey) {
+		return templateStatements.get(templateKey);
+	}
+	
+	/**
+	 * Adds the SQL statement of a template loaded from the database.
+	 * 
+	 * @param templateKey
+	 * @param sql
+	 */
+	public static void putTemplate(Long templateKey, String sql) {
+		templateStatements.putIfAbsent(templateKey, sql);
+	}
+	
+	/**
+	 * Private helper that caches the given template and returns the 
+	 * cached statement.
+	 */
+	private static String registerTemplate(TemplateKey key, String sql) {
+		String existing = templates.putIfAbsent(key, sql);
+		if (existing != null)
+			return existing;
+		getTemplateKey(sql);
+		if (_log.isDebugEnabled())
+			_log.debug("Added sync template [" + sql + "]");
+		return sql;
+	}
+	
+	/**
+	 * Private helper that returns the column mapping of the synchronizable 
+	 * fields of the class, including id.
+	 */
+	private static ColumnPlan getColumnPlan(BaseEntity obj, Class<?> clazz) {
+		ColumnPlan ret = columnPlans.get(clazz);
+		if (ret == null) {
+			List<String> fields = new ArrayList<String>(CacheUtil.getSynchronizableFields(obj, clazz));
+			if (!fields.contains("id"))
+				fields.add("id");
+			Map<String, String> columnNames = CacheUtil.getColumnNames(obj, clazz);
+			ret = new ColumnPlan(columnNames);
+			for (String field : fields) {
+				FieldColumns fc = newFieldColumns(clazz, columnNames, field);
+				ret.fields.put(field, fc);
+				if (fc.columns.length > 0)
+					ret.inserts.add(fc);
+			}
+			columnPlans.put(clazz, ret);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Private helper that returns the columns of the given field.
+	 */
+	private static FieldColumns getFieldColumns(ColumnPlan plan, Class<?> clazz, String field) {
+		FieldColumns fc = plan.fields.get(field);
+		if (fc == null) {
+			// not a synchronizable field
+			fc = newFieldColumns(clazz, plan.columnNames, field);
+			plan.fields.putIfAbsent(field, fc);
+		}
+		return fc;
+	}
+	
+	private static FieldColumns newFieldColumns(Class<?> clazz, Map<String, String> columnNames, String field) {
+		String[] pField = StringUtil.splitSafe(field, "\\.");
+		String column = columnNames.get(pField[0]);
+		String[] cols = new String[0];
+		if (column != null) {
+			cols = StringUtil.splitSafe(column, ",");
+		}
+		Method getter = null;
+		if (!field.contains(".")) {
+			try {
+				getter = clazz.getMethod(NamingUtil.toGetterName(field));
+			} catch (NoSuchMethodException e) {
+				_log.debug("No getter for synchronizable field [" + field
+						+ "] of " + clazz.getName());
+			}
+		}
+		return new FieldColumns(field, getter, cols);
+	}
+	
     /**
-     * Private helper that converts object into other form for 
-     * audit log comparison and display purposes.
+     * Private helper that converts object into its JSON value for the
+     * statement parameters. Returns an empty string if the value should 
+     * not be included in the statement.
      * @param obj
      * @return
      */
@@ -214,26 +446,23 @@ public class SyncUtil {
 				if (n.handles(obj)) {
 					String value = n.normalize(obj, column);
 					if (!StringUtil.isEmpty(value)) {
-						return value;
+						return fromSqlValue(value);
 					}				
 				}
 			}
 		}
 		
 		// no quotes needed
-		if (obj instanceof Long || obj instanceof Integer
-				|| obj instanceof BigDecimal || obj instanceof Double)
+		if (obj instanceof Number)
 			return "" + obj;
 
 		// convert date into string
 		if (obj instanceof Date) {
 			if (DateUtil.hasTime((Date) obj)) {
-				return "'"
-						+ DateUtil.dateToString((Date) obj,
-								"yyyy-MM-dd HH:mm:ss") + "'";
+				return JSON.toJson(DateUtil.dateToString((Date) obj,
+								"yyyy-MM-dd HH:mm:ss"));
 			} else
-				return "'" + DateUtil.dateToString((Date) obj, "yyyy-MM-dd")
-						+ "'";
+				return JSON.toJson(DateUtil.dateToString((Date) obj, "yyyy-MM-dd"));
 		}
 
 		if (obj instanceof Boolean) {
@@ -242,17 +471,28 @@ public class SyncUtil {
 
 		if (obj instanceof BaseEntity
 				|| BaseEntity.class.isAssignableFrom(obj.getClass())) {
-			return "" + ((BaseEntity) obj).getId();
+			return JSON.toJson(((BaseEntity) obj).getId());
 		}
 
-		if (obj.toString().length() > 0) {
-			String queryValue = "" + obj;
-			queryValue = queryValue.replaceAll("'", "\\\\'");
-			return "'" + queryValue + "'";
+		String queryValue = obj.toString();
+		if (queryValue.length() > 0) {
+			return JSON.toJson(queryValue);
 		} else {
 			return "";
 		}
 	}
+	
+	/**
+	 * Private helper that converts SQL value returned by normalizers 
+	 * into JSON value.
+	 */
+	private static String fromSqlValue(String value) {
+		if (value.length() > 1 && value.startsWith("'") && value.endsWith("'"))
+			return JSON.toJson(value.substring(1, value.length() - 1).replace("\\'", "'"));
+		if (NUMBER.matcher(value).matches())
+			return value;
+		return JSON.toJson(value);
+	}
 
 	/**
 	 * @param normalizer the normalizer to set
@@ -261,4 +501,4 @@ public class SyncUtil {
 		SyncUtil.normalizer = normalizer;
 	}
 	
-}
\ No newline at end of file
+}
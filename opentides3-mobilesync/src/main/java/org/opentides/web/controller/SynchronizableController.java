@@ -21,6 +21,7 @@ import org.opentides.bean.SyncResults;
 import org.opentides.service.ChangeLogService;
 import org.opentides.service.SyncEndpointService;
 import org.opentides.util.DatabaseUtil;
+import org.opentides.util.MetricsUtil;
 import org.opentides.web.json.Views;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -88,46 +89,57 @@ public class SynchronizableController {
 	public ResponseEntity getUpdates(
 			@PathVariable("clientcode") String clientcode,
 			@PathVariable("branchId") String branch) {
-		this.clientCode = clientcode;
-		getLogger();
+		long startTime = System.nanoTime();
+		try {
+			this.clientCode = clientcode;
+			getLogger();
 		
-		SyncResults results = new SyncResults();
-		SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
-		Long branchId = Long.parseLong(branch);
-
-		if (endpoint != null) {
-
-			List<ChangeLog> changes = changeLogService
-					.findAfterVersion(endpoint.getSyncVersion(), branchId);
+			SyncResults results = new SyncResults();
+			SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
+			Long branchId = Long.parseLong(branch);
+
+			if (endpoint != null) {
+
+				List<ChangeLog> changes = changeLogService
+						.findAfterVersion(endpoint.getSyncVersion(), branchId);
+
+				if (!changes.isEmpty()) {
+					ChangeLog last = changes.get(changes.size() - 1);
+					results.setLatestVersion(last.getId());
+					results.setLogs(changes);
+					results.setTemplates(changeLogService.findTemplates(changes));
+					if (MetricsUtil.isEnabled())
+						MetricsUtil.histogram("sync.getUpdates.logs").update(changes.size());
+				} else {
+					results.setLatestVersion(endpoint.getSyncVersion());
+					//results.setLogs(new ArrayList<ChangeLog>());
+				}
 
-			if (!changes.isEmpty()) {
-				ChangeLog last = changes.get(changes.size() - 1);
-				results.setLatestVersion(last.getId());
-				results.setLogs(changes);
+			    Long targetVersion = this.changeLogService.findTargetVersion(branchId);
+			    // latest version is cached, but never behind the changes sent
+			    if (targetVersion == null || targetVersion < results.getLatestVersion())
+			    	targetVersion = results.getLatestVersion();
+		    
+			    results.setTargetVersion(targetVersion);
+		
+				// Log updates from WEB to POS
+				_log.info("[" + clientcode + "] " + UPDATE_ENDPOINT
+						+ " Send Change Log version " + endpoint.getSyncVersion()
+						+ " to " + results.getLatestVersion() + ". TARGET VERSION: " + targetVersion);
 			} else {
-				results.setLatestVersion(endpoint.getSyncVersion());
-				//results.setLogs(new ArrayList<ChangeLog>());
+				_log.info("[" + clientcode + "] " + UPDATE_ENDPOINT + FAIL
+						+ " End point is null");
 			}
 
-		    Long targetVersion = this.changeLogService.findTargetVersion(branchId) != null ?
-		    		this.changeLogService.findTargetVersion(branchId) : 0L;
-		    
-		    results.setTargetVersion(targetVersion);
+			Gson gSon = new Gson();
+			results.setStatus(SyncResults.Status.SUCCESS);
 		
-			// Log updates from WEB to POS
-			_log.info("[" + clientcode + "] " + UPDATE_ENDPOINT
-					+ " Send Change Log version " + endpoint.getSyncVersion()
-					+ " to " + results.getLatestVersion() + ". TARGET VERSION: " + targetVersion);
-		} else {
-			_log.info("[" + clientcode + "] " + UPDATE_ENDPOINT + FAIL
-					+ " End point is null");
+			ResponseEntity response = new ResponseEntity(gSon.toJson(results), httpHeaders,
+					HttpStatus.OK);
+			return response;
+		} finally {
+			MetricsUtil.time("sync.getUpdates", startTime);
 		}
-
-		Gson gSon = new Gson();
-		results.setStatus(SyncResults.Status.SUCCESS);
-		
-		return new ResponseEntity(gSon.toJson(results), httpHeaders,
-				HttpStatus.OK);
 	}
 
 	/**
@@ -142,34 +154,40 @@ public class SynchronizableController {
 	public ResponseEntity updateEndpoint(
 			@PathVariable("clientcode") String clientcode,
 			@PathVariable("version") Long version) {
-		this.clientCode = clientcode;
-		getLogger();
+		long startTime = System.nanoTime();
+		try {
+			this.clientCode = clientcode;
+			getLogger();
 		
-		SyncResults results = new SyncResults();
-		SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
-
-		if (endpoint != null) {
-			endpoint.setSyncVersion(version);
-			syncEndpointService.save(endpoint);
-
-			// Update sync endpoint latest version to WEB
-			_log.info("[" + clientcode + "] " + WEB_UPDATE + SUCCESS
-					+ " Previous Endpoint sync success. Web "
-					+ "will update endpoint sync version to "
-					+ endpoint.getSyncVersion());
-
-		} else {
-			_log.info("[" + clientcode + "] " + WEB_UPDATE + FAIL
-					+ " End point is null");
-		}
+			SyncResults results = new SyncResults();
+			SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
+
+			if (endpoint != null) {
+				endpoint.setSyncVersion(version);
+				syncEndpointService.save(endpoint);
+
+				// Update sync endpoint latest version to WEB
+				_log.info("[" + clientcode + "] " + WEB_UPDATE + SUCCESS
+						+ " Previous Endpoint sync success. Web "
+						+ "will update endpoint sync version to "
+						+ endpoint.getSyncVersion());
+
+			} else {
+				_log.info("[" + clientcode + "] " + WEB_UPDATE + FAIL
+						+ " End point is null");
+			}
 
-		results.setLatestVersion(version);
-		results.setStatus(SyncResults.Status.SUCCESS);
+			results.setLatestVersion(version);
+			results.setStatus(SyncResults.Status.SUCCESS);
 		
-		Gson gSon = new Gson();
+			Gson gSon = new Gson();
 
-		return new ResponseEntity(gSon.toJson(results), httpHeaders,
-				HttpStatus.OK);
+			ResponseEntity response = new ResponseEntity(gSon.toJson(results), httpHeaders,
+					HttpStatus.OK);
+			return response;
+		} finally {
+			MetricsUtil.time("sync.updateEndpoint", startTime);
+		}
 	}
 
 	/**
@@ -186,104 +204,115 @@ public class SynchronizableController {
 			@PathVariable("clientcode") String clientcode,
 			@PathVariable("branchId") String branch,
 			HttpServletRequest request) {
-		this.clientCode = clientcode;
-		getLogger();
+		long startTime = System.nanoTime();
+		try {
+			this.clientCode = clientcode;
+			getLogger();
 		
-		SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
-		Long branchId = Long.parseLong(branch);
+			SyncEndpoint endpoint = syncEndpointService.findSyncEndpointByClientCode(clientcode);
+			Long branchId = Long.parseLong(branch);
 		
-		StringBuilder appender = new StringBuilder();
-		String result = SUCCESS;
-		String errorMsg = "";
+			StringBuilder appender = new StringBuilder();
+			String result = SUCCESS;
+			String errorMsg = "";
 
-		SyncResults response = new SyncResults();
+			SyncResults response = new SyncResults();
 
-		String clientParam = "";
-		try {
-			clientParam = getBody(request);
-			appender.append(clientParam);
+			String clientParam = "";
+			try {
+				clientParam = getBody(request);
+				appender.append(clientParam);
 			
-		} catch (IOException e) {
-			_log.error(EXCEPTION + e.getMessage(), e);
-			result = FAIL;
-			errorMsg = "Client parameters parsing error.";
+			} catch (IOException e) {
+				_log.error(EXCEPTION + e.getMessage(), e);
+				result = FAIL;
+				errorMsg = "Client parameters parsing error.";
 			
-			e.printStackTrace();
-		}
-
-		if (endpoint != null) {
+				e.printStackTrace();
+			}
 
-			List<ChangeLog> changes = changeLogService
-					.findAfterVersion(endpoint.getSyncVersion(), branchId);
+			if (endpoint != null) {
 
-			long latestVersion = 0L;
+				List<ChangeLog> changes = changeLogService
+						.findAfterVersion(endpoint.getSyncVersion(), branchId);
 
-			if (changes != null && changes.size() > 0) {
-				latestVersion = changes.get(changes.size() - 1).getId();
-				response.setLatestVersion(latestVersion);
-			}
-			response.setLogs(changes);
+				long latestVersion = 0L;
 
-			Gson gSon = new Gson();
-			SyncResults clientChanges = gSon.fromJson(clientParam,
-					SyncResults.class);
+				if (changes != null && changes.size() > 0) {
+					latestVersion = changes.get(changes.size() - 1).getId();
+					response.setLatestVersion(latestVersion);
+				}
+				response.setLogs(changes);
+				if (changes != null)
+					response.setTemplates(changeLogService.findTemplates(changes));
+
+				Gson gSon = new Gson();
+				SyncResults clientChanges = gSon.fromJson(clientParam,
+						SyncResults.class);
+
+				List<ChangeLog> logs = clientChanges.getLogs();
+				if (logs != null && logs.size() > 0) {
+					if (MetricsUtil.isEnabled())
+						MetricsUtil.histogram("sync.updateServer.logs").update(logs.size());
+					EntityManager em = DatabaseUtil.getEntityManager();
+					try {
+						Query query = null;
+						em.getTransaction().begin();
+
+						for (int i = 0; i < logs.size(); i++) {
+							String sql = logs.get(i).getSqlCommand();
+
+							query = em.createNativeQuery(sql);
+							query.executeUpdate();
+							int changeLogAction = ChangeLog.INSERT;
+							if (sql.toLowerCase().contains("update")) {
+								changeLogAction = ChangeLog.UPDATE;
+							} else if (sql.toLowerCase().contains("delete")) {
+								changeLogAction = ChangeLog.DELETE;
+							}
+							BaseEntity bse = (BaseEntity) logs.get(i);
+							ChangeLog cl = new ChangeLog(0L, bse.getClass(),
+									changeLogAction, "", sql);
+							latestVersion++;
+							em.persist(cl);
 
-			List<ChangeLog> logs = clientChanges.getLogs();
-			if (logs != null && logs.size() > 0) {
-				EntityManager em = DatabaseUtil.getEntityManager();
-				try {
-					Query query = null;
-					em.getTransaction().begin();
-
-					for (int i = 0; i < logs.size(); i++) {
-						String sql = logs.get(i).getSqlCommand();
-
-						query = em.createNativeQuery(sql);
-						query.executeUpdate();
-						int changeLogAction = ChangeLog.INSERT;
-						if (sql.toLowerCase().contains("update")) {
-							changeLogAction = ChangeLog.UPDATE;
-						} else if (sql.toLowerCase().contains("delete")) {
-							changeLogAction = ChangeLog.DELETE;
 						}
-						BaseEntity bse = (BaseEntity) logs.get(i);
-						ChangeLog cl = new ChangeLog(0L, bse.getClass(),
-								changeLogAction, "", sql);
-						latestVersion++;
-						em.persist(cl);
 
-					}
-
-					em.getTransaction().commit();
+						em.getTransaction().commit();
 
-				} catch (Exception ex) {
-					result = FAIL;
-					errorMsg = "(Error: " + stackTraceToString(ex) + ")";
+					} catch (Exception ex) {
+						result = FAIL;
+						errorMsg = "(Error: " + stackTraceToString(ex) + ")";
 
-					_log.error(EXCEPTION + ex.getMessage(), ex);
-					em.getTransaction().rollback();
-				} finally {
-					if (em != null && em.isOpen()) {
-						em.close();
+						_log.error(EXCEPTION + ex.getMessage(), ex);
+						em.getTransaction().rollback();
+					} finally {
+						if (em != null && em.isOpen()) {
+							em.close();
+						}
 					}
+
 				}
 
+				response.setLatestVersion(latestVersion);
+			}else{
+				result = FAIL;
+				errorMsg = "End point is null";
 			}
 
-			response.setLatestVersion(latestVersion);
-		}else{
-			result = FAIL;
-			errorMsg = "End point is null";
-		}
-
-		response.setStatus(SyncResults.Status.SUCCESS);
-		Gson gSon = new Gson();
+			response.setStatus(SyncResults.Status.SUCCESS);
+			Gson gSon = new Gson();
 
-		_log.info("[" + clientcode + "] " + WEB_UPDATE + result
-				+ appender.toString() + errorMsg);
+			_log.info("[" + clientcode + "] " + WEB_UPDATE + result
+					+ appender.toString() + errorMsg);
 
-		return new ResponseEntity(gSon.toJson(response), httpHeaders,
-				HttpStatus.OK);
+			if (MetricsUtil.isEnabled() && FAIL.equals(result))
+				MetricsUtil.counter("sync.updateServer.failed").increment();
+			return new ResponseEntity(gSon.toJson(response), httpHeaders,
+					HttpStatus.OK);
+		} finally {
+			MetricsUtil.time("sync.updateServer", startTime);
+		}
 	}
 
 	@SuppressWarnings("deprecation")
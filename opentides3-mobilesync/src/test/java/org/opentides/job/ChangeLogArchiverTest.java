@@ -0,0 +1,133 @@
+package org.opentides.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentides.bean.ChangeLog;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+public class ChangeLogArchiverTest {
+
+	private JdbcTemplate jdbc;
+
+	private ChangeLogArchiver archiver;
+
+	@Before
+	public void init() {
+		jdbc = new JdbcTemplate(new DriverManagerDataSource(
+				"jdbc:hsqldb:mem:archivertest", "sa", ""));
+		String columns = " (ID BIGINT PRIMARY KEY, CREATEDATE TIMESTAMP, ENTITY_ID BIGINT, "
+				+ "ENTITY_CLASS VARCHAR(255), ACTION INTEGER, PARAMS VARCHAR(255), UPDATE_FIELDS VARCHAR(255), "
+				+ "SQL_COMMAND VARCHAR(255), TEMPLATE_ID BIGINT, BRANCH_ID BIGINT, CLIENT_CODE VARCHAR(255))";
+		jdbc.execute("CREATE TABLE CHANGE_LOG" + columns);
+		jdbc.execute("CREATE TABLE CHANGE_LOG_ARCHIVE" + columns);
+		jdbc.execute("CREATE TABLE SYNC_ENDPOINT (ID BIGINT PRIMARY KEY, SYNC_VERSION BIGINT, "
+				+ "CREATEDATE TIMESTAMP, UPDATEDATE TIMESTAMP)");
+		for (int i = 1; i <= 10; i++) {
+			jdbc.update("INSERT INTO CHANGE_LOG (ID, ENTITY_ID, ENTITY_CLASS, ACTION, PARAMS, SQL_COMMAND, BRANCH_ID) "
+					+ "VALUES (?, ?, ?, 1, ?, 'insert', ?)", i, i, ChangeLog.class.getName(), "p" + i,
+					i == 5 ? 2L : null);
+		}
+		archiver = new ChangeLogArchiver();
+		archiver.setJdbcTemplate(jdbc);
+		archiver.setBatchSize(3);
+	}
+
+	@After
+	public void destroy() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	private void addEndpoint(long id, long version, long lastSync) {
+		Timestamp date = new Timestamp(lastSync);
+		jdbc.update("INSERT INTO SYNC_ENDPOINT VALUES (?, ?, ?, ?)", id, version, date, date);
+	}
+
+	@Test
+	public void testArchivesUpToLowestSyncVersion() {
+		addEndpoint(1, 9, System.currentTimeMillis());
+		addEndpoint(2, 7, System.currentTimeMillis());
+		assertEquals(7, archiver.archiveChanges());
+		assertEquals(Long.valueOf(8), jdbc.queryForObject("SELECT MIN(ID) FROM CHANGE_LOG", Long.class));
+		assertEquals(Long.valueOf(7), jdbc.queryForObject("SELECT COUNT(*) FROM CHANGE_LOG_ARCHIVE", Long.class));
+		assertEquals("p7", jdbc.queryForObject("SELECT PARAMS FROM CHANGE_LOG_ARCHIVE WHERE ID = 7", String.class));
+
+		// nothing more to archive until endpoints catch up
+		assertEquals(0, archiver.archiveChanges());
+		jdbc.update("UPDATE SYNC_ENDPOINT SET SYNC_VERSION = 10");
+		assertEquals(3, archiver.archiveChanges());
+	}
+
+	@Test
+	public void testNewEndpointReceivesArchivedChanges() {
+		archiver.setEnabled(true);
+		assertTrue(archiver.findArchivedChanges(0, null, 250).isEmpty());
+
+		addEndpoint(1, 10, System.currentTimeMillis());
+		assertEquals(10, archiver.archiveChanges());
+
+		// a device registered after the archive starts from 0 and replays it
+		List<ChangeLog> changes = archiver.findArchivedChanges(0, null, 4);
+		assertEquals(4, changes.size());
+		assertEquals(Long.valueOf(1), changes.get(0).getId());
+		assertEquals(Long.valueOf(4), changes.get(3).getId());
+		assertEquals(ChangeLog.class, changes.get(0).getEntityClass());
+		assertEquals("p1", changes.get(0).getParams());
+		assertEquals("insert", changes.get(0).getSqlCommand());
+		assertNull(changes.get(0).getBranchId());
+
+		// change 5 is only sent to branch 2
+		assertEquals(9, archiver.findArchivedChanges(0, null, 250).size());
+		assertEquals(10, archiver.findArchivedChanges(0, 2L, 250).size());
+		assertEquals(Long.valueOf(10), archiver.findArchivedChanges(9, null, 250).get(0).getId());
+		assertTrue(archiver.findArchivedChanges(10, null, 250).isEmpty());
+
+		archiver.setEnabled(false);
+		assertTrue(archiver.findArchivedChanges(0, null, 250).isEmpty());
+	}
+
+	@Test
+	public void testStaleEndpointDoesNotBlockArchive() {
+		archiver.setStaleAfter(60000);
+		addEndpoint(1, 9, System.currentTimeMillis());
+		addEndpoint(2, 2, System.currentTimeMillis() - 120000);
+		assertEquals(9, archiver.archiveChanges());
+
+		// without a limit, the abandoned device holds back the archive
+		jdbc.update("INSERT INTO SYNC_ENDPOINT VALUES (3, 0, NULL, NULL)");
+		archiver.setStaleAfter(0);
+		assertEquals(0, archiver.archiveChanges());
+	}
+
+	@Test
+	public void testEnabledWithoutTemplate() {
+		ChangeLogArchiver disabled = new ChangeLogArchiver();
+		disabled.init();
+
+		ChangeLogArchiver enabled = new ChangeLogArchiver();
+		enabled.setEnabled(true);
+		try {
+			enabled.init();
+			fail("Archiving without a jdbcTemplate should fail at startup.");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("sync.archive.enabled"));
+		}
+	}
+
+	@Test
+	public void testSkipsWithoutEndpoints() {
+		assertEquals(0, archiver.archiveChanges());
+		addEndpoint(1, 0, System.currentTimeMillis());
+		assertEquals(0, archiver.archiveChanges());
+		assertEquals(Long.valueOf(10), jdbc.queryForObject("SELECT COUNT(*) FROM CHANGE_LOG", Long.class));
+	}
+}
@@ -0,0 +1,110 @@
+package org.opentides.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+
+public class NotifyDevicesTest {
+
+	private CountingScheduler scheduler;
+
+	private List<String> sent;
+
+	private NotifyDevices notifier;
+
+	@Before
+	public void init() {
+		scheduler = new CountingScheduler();
+		sent = new ArrayList<String>();
+		notifier = new NotifyDevices() {
+			@Override
+			protected Future<?> broadcast(String lookup, String message) {
+				sent.add(lookup + "=" + message);
+				return null;
+			}
+		};
+		notifier.setScheduler(scheduler);
+	}
+
+	@Test
+	public void testCoalescesRequests() {
+		notifier.setDebounce(0);
+		for (int i = 0; i < 5; i++) {
+			notifier.request("/db1/*");
+		}
+		notifier.request("/db2/*");
+		// only the first request schedules the broadcast
+		assertEquals(1, scheduler.scheduled);
+		notifier.run();
+
+		assertEquals(2, sent.size());
+		assertTrue(sent.contains("/db1/*={\"command\":\"getVersion\"}"));
+		assertEquals(3.0, notifier.getCoalescingRatio(), 0.001);
+
+		notifier.request("/db1/*");
+		assertEquals(2, scheduler.scheduled);
+	}
+
+	@Test
+	public void testWaitsForDebounce() {
+		notifier.setDebounce(60000);
+		notifier.request("/db1/*");
+		notifier.run();
+		assertEquals(0, sent.size());
+		assertEquals(2, scheduler.scheduled);
+
+		// max delay reached even if requests keep coming
+		notifier.setMaxDelay(0);
+		notifier.request("/db1/*");
+		notifier.run();
+		assertEquals(1, sent.size());
+	}
+
+	/**
+	 * Scheduler that only counts the scheduled runs.
+	 */
+	private static class CountingScheduler implements TaskScheduler {
+		private int scheduled = 0;
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable task, Date startTime) {
+			scheduled++;
+			return null;
+		}
+
+		@Override
+		public ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.opentides.persistence.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentides.bean.ChangeLog;
+import org.opentides.bean.SystemCodes;
+import org.opentides.util.SyncUtil;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+public class ChangeLogWriterTest {
+
+	private JdbcTemplate jdbc;
+
+	private ChangeLogWriter writer;
+
+	@Before
+	public void init() {
+		jdbc = new JdbcTemplate(new DriverManagerDataSource(
+				"jdbc:hsqldb:mem:changelogtest", "sa", ""));
+		jdbc.execute("CREATE TABLE CHANGE_LOG (ID BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY, "
+				+ "CREATEDATE TIMESTAMP, VERSION BIGINT, ACTION INTEGER, ENTITY_CLASS VARCHAR(255), "
+				+ "ENTITY_ID BIGINT, SQL_COMMAND CLOB, TEMPLATE_ID BIGINT, PARAMS CLOB, UPDATE_FIELDS VARCHAR(255))");
+		jdbc.execute("CREATE TABLE CHANGE_LOG_TEMPLATE (ID BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY, "
+				+ "CREATEDATE TIMESTAMP, VERSION BIGINT, TEMPLATE_KEY BIGINT UNIQUE, SQL_COMMAND CLOB)");
+		jdbc.update("INSERT INTO CHANGE_LOG (VERSION, ACTION) VALUES (41, 1)");
+		writer = new ChangeLogWriter(jdbc);
+	}
+
+	@After
+	public void destroy() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	@Test
+	public void testWriteSharesTemplates() {
+		List<ChangeLogWriter.Entry> entries = new ArrayList<ChangeLogWriter.Entry>();
+		for (int i = 1; i <= 3; i++) {
+			SystemCodes sc = new SystemCodes("category" + i, "key" + i, "value" + i);
+			sc.setId((long) i);
+			String[] stmt = SyncUtil.buildInsertStatement(sc);
+			entries.add(new ChangeLogWriter.Entry(sc, ChangeLog.INSERT, "", stmt[0], stmt[1]));
+		}
+		writer.write(entries);
+		writer.write(entries.subList(0, 1));
+
+		assertEquals(Long.valueOf(1), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM CHANGE_LOG_TEMPLATE", Long.class));
+		List<Map<String, Object>> logs = jdbc.queryForList(
+				"SELECT VERSION, TEMPLATE_ID, SQL_COMMAND, PARAMS FROM CHANGE_LOG WHERE ID > 1 ORDER BY ID");
+		assertEquals(4, logs.size());
+		long templateId = SyncUtil.getTemplateKey(entries.get(0).getSqlCommand());
+		for (int i = 0; i < logs.size(); i++) {
+			// devices sync by id, the version is not used
+			assertEquals(0L, ((Number) logs.get(i).get("VERSION")).longValue());
+			assertEquals(templateId, ((Number) logs.get(i).get("TEMPLATE_ID")).longValue());
+			assertNull(logs.get(i).get("SQL_COMMAND"));
+		}
+		assertEquals(entries.get(2).getParams(), logs.get(2).get("PARAMS"));
+	}
+
+	@Test
+	public void testWriteWithoutTemplateTable() {
+		jdbc.execute("DROP TABLE CHANGE_LOG_TEMPLATE");
+		SystemCodes sc = new SystemCodes("category", "key", "value");
+		sc.setId(1l);
+		writer.write(java.util.Collections.singletonList(new ChangeLogWriter.Entry(
+				sc, ChangeLog.DELETE, "", SyncUtil.buildDeleteStatement(sc), "[1]")));
+
+		Map<String, Object> log = jdbc.queryForMap(
+				"SELECT TEMPLATE_ID, SQL_COMMAND FROM CHANGE_LOG WHERE ID > 1");
+		assertNull(log.get("TEMPLATE_ID"));
+		assertEquals("delete from SYSTEM_CODES where id=?", log.get("SQL_COMMAND"));
+	}
+}
@@ -1,11 +1,18 @@
 package org.opentides.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
+import javax.persistence.Column;
+import javax.persistence.Table;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.opentides.annotation.SynchronizableFields;
+import org.opentides.bean.BaseEntity;
 import org.opentides.bean.SystemCodes;
 
 public class SyncUtilTest {
@@ -13,28 +20,59 @@ public class SyncUtilTest {
 	@Test
 	public void buildInsertStatement() {
 		SystemCodes sc = new SystemCodes("category1","key1","value1");
-		SyncUtil.buildInsertStatement(sc);
-		Assert.assertEquals(
-				"insert into system_codes (KEY_,VALUE_,CATEGORY_) values ('KEY1','value1','CATEGORY1')",
-				SyncUtil.buildInsertStatement(sc));
-		
-		Date now = new Date();
-		sc.setCreateDate(now);
-		String nowString = DateUtil.dateToString(now, "yyyy-MM-dd HH:mm:ss");
+		String[] stmt = SyncUtil.buildInsertStatement(sc);
 		Assert.assertEquals(
-				"insert into system_codes (CREATEDATE,KEY_,VALUE_,CATEGORY_) values ('"
-						+ nowString + "','KEY1','value1','CATEGORY1')",
-						SyncUtil.buildInsertStatement(sc));
+				"insert into SYSTEM_CODES (KEY_,VALUE_,CATEGORY_) values (?,?,?)",
+				stmt[0]);
+		Assert.assertEquals("[\"KEY1\",\"value1\",\"CATEGORY1\"]", stmt[1]);
 		
 		SystemCodes p = new SystemCodes("categoryP","keyP","parentP");
 		p.setId(2l);
 		sc.setParent(p);
 		sc.setId(3l);
+		stmt = SyncUtil.buildInsertStatement(sc);
+		Assert.assertEquals(
+				"insert into SYSTEM_CODES (KEY_,VALUE_,CATEGORY_,PARENT_,ID) values (?,?,?,?,?)",
+				stmt[0]);
+		Assert.assertEquals("[\"KEY1\",\"value1\",\"CATEGORY1\",2,3]", stmt[1]);
+	}
+	
+	@Test
+	public void buildInsertStatementWithDate() {
+		SyncSample sample = new SyncSample();
+		sample.setId(5l);
+		sample.setName("sample");
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(2015, Calendar.JANUARY, 2);
+		sample.setEventDate(cal.getTime());
+		cal.set(2015, Calendar.JANUARY, 2, 3, 4, 5);
+		sample.setCreateDate(cal.getTime());
+		String[] stmt = SyncUtil.buildInsertStatement(sample);
 		Assert.assertEquals(
-				"insert into system_codes (ID,CREATEDATE,KEY_,VALUE_,CATEGORY_,PARENT_) values (3,'"
-						+ nowString + "','KEY1','value1','CATEGORY1',2)",
-						SyncUtil.buildInsertStatement(sc));
+				"insert into SYNC_SAMPLE (CREATEDATE,NAME,EVENT_DATE,ID) values (?,?,?,?)",
+				stmt[0]);
+		// dates are strings, without the time if there is none
+		Assert.assertEquals("[\"2015-01-02 03:04:05\",\"sample\",\"2015-01-02\",5]", stmt[1]);
 		
+		List<String> updatedFields = new ArrayList<String>();
+		updatedFields.add("eventDate");
+		stmt = SyncUtil.buildUpdateStatement(sample, updatedFields);
+		Assert.assertEquals("update SYNC_SAMPLE set EVENT_DATE=? where id=?", stmt[0]);
+		Assert.assertEquals("[\"2015-01-02\",5]", stmt[1]);
+	}
+	
+	@Test
+	public void buildInsertStatementSharesTemplate() {
+		SystemCodes sc1 = new SystemCodes("category1","key1","it's \"quoted\"");
+		SystemCodes sc2 = new SystemCodes("category2","key2","value2");
+		String[] stmt1 = SyncUtil.buildInsertStatement(sc1);
+		String[] stmt2 = SyncUtil.buildInsertStatement(sc2);
+		Assert.assertSame(stmt1[0], stmt2[0]);
+		Assert.assertEquals(SyncUtil.getTemplateKey(stmt1[0]), 
+				SyncUtil.getTemplateKey(new String(stmt2[0])));
+		Assert.assertEquals(stmt1[0], SyncUtil.getTemplate(SyncUtil.getTemplateKey(stmt1[0])));
+		Assert.assertEquals("[\"KEY1\",\"it's \\\"quoted\\\"\",\"CATEGORY1\"]", stmt1[1]);
 	}
 	
 	@Test
@@ -46,10 +84,19 @@ public class SyncUtilTest {
 		updatedFields.add("category");
 		updatedFields.add("value");
 
+		String[] stmt = SyncUtil.buildUpdateStatement(_new, updatedFields);
 		Assert.assertEquals(
-				"update system_codes set CATEGORY_='CATEGORY2',VALUE_='value2' where id=1",
-				SyncUtil.buildUpdateStatement(_new, updatedFields));
+				"update SYSTEM_CODES set CATEGORY_=?,VALUE_=? where id=?",
+				stmt[0]);
+		Assert.assertEquals("[\"CATEGORY2\",\"value2\",1]", stmt[1]);
 		
+		// empty values are not updated
+		_new.setValue("");
+		stmt = SyncUtil.buildUpdateStatement(_new, updatedFields);
+		Assert.assertEquals(
+				"update SYSTEM_CODES set CATEGORY_=? where id=?",
+				stmt[0]);
+		Assert.assertEquals("[\"CATEGORY2\",1]", stmt[1]);
 	}
 	
 	@Test
@@ -57,8 +104,39 @@ public class SyncUtilTest {
 		SystemCodes sc = new SystemCodes("category1","key1","value1");
 		sc.setId(1l);
 		
-		Assert.assertEquals("delete from system_codes where id=1",
+		Assert.assertEquals("delete from SYSTEM_CODES where id=?",
 				SyncUtil.buildDeleteStatement(sc));
 	}
 
+	@Table(name = "SYNC_SAMPLE")
+	public static class SyncSample extends BaseEntity {
+		private static final long serialVersionUID = 1L;
+
+		@Column(name = "NAME")
+		private String name;
+
+		@Column(name = "EVENT_DATE")
+		private Date eventDate;
+
+		@SynchronizableFields
+		public List<String> getSynchronizableFields() {
+			return new ArrayList<String>(Arrays.asList("createDate", "name", "eventDate"));
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Date getEventDate() {
+			return eventDate;
+		}
+
+		public void setEventDate(Date eventDate) {
+			this.eventDate = eventDate;
+		}
+	}
 }
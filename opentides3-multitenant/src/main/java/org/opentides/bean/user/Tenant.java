@@ -48,6 +48,14 @@ public class Tenant extends BaseEntity {
 
 	private static final long serialVersionUID = 7098049941717350892L;
 
+	public static final String EVOLVE_RUNNING = "RUNNING";
+
+	public static final String EVOLVE_COMPLETED = "COMPLETED";
+
+	public static final String EVOLVE_FAILED = "FAILED";
+
+	public static final String EVOLVE_WARNING = "WARNING";
+
 	@Column(name="COMPANY")
 	@JsonView(Views.SearchView.class)	
 	private String company;
@@ -78,6 +86,25 @@ public class Tenant extends BaseEntity {
 	@JsonView(Views.SearchView.class)	
     @Temporal(TemporalType.TIMESTAMP)
 	private Date expirationDate;
+
+	@Column(name = "EVOLVE_STATUS")
+	@JsonView(Views.FormView.class)
+	private String evolveStatus;
+
+	@Column(name = "EVOLVE_SIGNATURE")
+	private String evolveSignature;
+
+	@Column(name = "EVOLVE_DURATION")
+	@JsonView(Views.FormView.class)
+	private Long evolveDuration;
+
+	@Column(name = "EVOLVE_DATE")
+	@JsonView(Views.FormView.class)
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date evolveDate;
+
+	@Column(name = "EVOLVE_ERROR", length = 2000)
+	private String evolveError;
 	
 	@Transient
 	private transient String name;
@@ -180,6 +207,76 @@ public class Tenant extends BaseEntity {
 		this.expirationDate = expirationDate;
 	}
 
+	/**
+	 * @return the status of the last schema evolve
+	 */
+	public final String getEvolveStatus() {
+		return evolveStatus;
+	}
+
+	/**
+	 * @param evolveStatus the evolveStatus to set
+	 */
+	public final void setEvolveStatus(final String evolveStatus) {
+		this.evolveStatus = evolveStatus;
+	}
+
+	/**
+	 * @return the signature of the mappings and evolve scripts last applied
+	 */
+	public final String getEvolveSignature() {
+		return evolveSignature;
+	}
+
+	/**
+	 * @param evolveSignature the evolveSignature to set
+	 */
+	public final void setEvolveSignature(final String evolveSignature) {
+		this.evolveSignature = evolveSignature;
+	}
+
+	/**
+	 * @return the duration of the last schema evolve in milliseconds
+	 */
+	public final Long getEvolveDuration() {
+		return evolveDuration;
+	}
+
+	/**
+	 * @param evolveDuration the evolveDuration to set
+	 */
+	public final void setEvolveDuration(final Long evolveDuration) {
+		this.evolveDuration = evolveDuration;
+	}
+
+	/**
+	 * @return the date the last schema evolve finished
+	 */
+	public final Date getEvolveDate() {
+		return evolveDate;
+	}
+
+	/**
+	 * @param evolveDate the evolveDate to set
+	 */
+	public final void setEvolveDate(final Date evolveDate) {
+		this.evolveDate = evolveDate;
+	}
+
+	/**
+	 * @return the error of the last failed schema evolve
+	 */
+	public final String getEvolveError() {
+		return evolveError;
+	}
+
+	/**
+	 * @param evolveError the evolveError to set
+	 */
+	public final void setEvolveError(final String evolveError) {
+		this.evolveError = evolveError;
+	}
+
 	/**
 	 * @return the company
 	 */
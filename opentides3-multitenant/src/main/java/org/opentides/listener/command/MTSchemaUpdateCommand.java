@@ -19,14 +19,10 @@
 
 package org.opentides.listener.command;
 
-import java.util.List;
-
 import org.apache.log4j.Logger;
-import org.opentides.bean.user.Tenant;
 import org.opentides.persistence.hibernate.MultiTenantDBEvolveManager;
+import org.opentides.persistence.hibernate.MultiTenantEvolveOrchestrator;
 import org.opentides.persistence.hibernate.MultiTenantSchemaUpdate;
-import org.opentides.persistence.jdbc.MultitenantJdbcTemplate;
-import org.opentides.service.TenantService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -53,10 +49,7 @@ public class MTSchemaUpdateCommand implements StartupCommand {
 	private MultiTenantDBEvolveManager multiTenantDBEvolveManager;
 	
 	@Autowired
-	protected MultitenantJdbcTemplate jdbcTemplate;
-	
-	@Autowired
-	private TenantService tenantService;
+	private MultiTenantEvolveOrchestrator multiTenantEvolveOrchestrator;
 
 	@Override
 	public void execute() {
@@ -67,14 +60,8 @@ public class MTSchemaUpdateCommand implements StartupCommand {
 		// evolve the master database
 		multiTenantDBEvolveManager.evolve(defaultSchema);		
 		
-		List<Tenant> tenants = tenantService.findAll();		
-		for (Tenant t:tenants) {
-			_log.info("Running evolve for " + t.getSchema());
-			// now let's schema update all tenants
-			multiTenantSchemaUpdate.schemaEvolve(t.getSchema());
-			// and evolve all tenants
-			multiTenantDBEvolveManager.evolve(t.getSchema());
-		}
+		// now let's schema update and evolve all tenants
+		multiTenantEvolveOrchestrator.evolveAll(false);
 				
 	}
 }
@@ -21,10 +21,18 @@ package org.opentides.persistence.hibernate;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
@@ -32,10 +40,14 @@ import org.hibernate.HibernateException;
 import org.hibernate.engine.jdbc.connections.internal.DatasourceConnectionProviderImpl;
 import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
 import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.opentides.util.DatabaseUtil;
 import org.opentides.util.MultitenancyUtil;
+import org.opentides.util.StringUtil;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.util.Assert;
 
 /**
@@ -46,6 +58,22 @@ import org.springframework.util.Assert;
  * server connects to only one database server and connection pool is shared
  * across multiple tenants.
  * 
+ * The schema of a connection is only altered when it differs from the
+ * current catalog of the connection, which the driver keeps track of. When
+ * multitenant.connection.reset-on-release is false, connections are not
+ * switched back to the default schema when released; only disable this
+ * when nothing else uses the data source assuming the default schema.
+ * 
+ * Optionally, tenants borrowing more than multitenant.connection.hot-borrows
+ * connections in a minute get a small dedicated pool of connections that
+ * always stay on the tenant schema. At most multitenant.connection.dedicated-pools
+ * pools are kept; the least recently used pool is closed when the limit is
+ * reached. Idle connections of a dedicated pool are validated before they
+ * are handed out and are closed after multitenant.connection.dedicated-idle-timeout
+ * milliseconds, so connections dropped by the database server are not reused.
+ * 
+ * Borrow counts and wait times are recorded per tenant.
+ * 
  * @author allantan
  *
  */
@@ -57,14 +85,229 @@ public class MultiTenantConnectionProviderImpl implements
 	private static final Logger _log = Logger
 			.getLogger(MultiTenantConnectionProviderImpl.class);
 
+	private static final long WINDOW = 60000;
+
 	private ConnectionProvider connectionProvider = null;
 
 	@Autowired
 	private DataSource dataSource;
 
+	/**
+	 * Source of the connections of dedicated pools. Defaults to a
+	 * non-pooling data source using the database url.
+	 */
+	private DataSource dedicatedDataSource;
+
 	@Value("${database.default_schema}")
 	private String defaultSchema;
 
+	@Value("${multitenant.connection.reset-on-release:true}")
+	private String resetOnRelease = "true";
+
+	@Value("${multitenant.connection.dedicated-pools:0}")
+	private String dedicatedPools = "0";
+
+	@Value("${multitenant.connection.dedicated-pool-size:2}")
+	private String dedicatedPoolSize = "2";
+
+	@Value("${multitenant.connection.hot-borrows:600}")
+	private String hotBorrows = "600";
+
+	@Value("${multitenant.connection.max-wait:30000}")
+	private String maxWait = "30000";
+
+	@Value("${multitenant.connection.dedicated-idle-timeout:300000}")
+	private String dedicatedIdleTimeout = "300000";
+
+	@Value("${multitenant.connection.validation-timeout:5}")
+	private String validationTimeout = "5";
+
+	private final ConcurrentMap<String, TenantPool> pools = new ConcurrentHashMap<String, TenantPool>();
+
+	private final ConcurrentMap<Connection, TenantPool> borrowed = new ConcurrentHashMap<Connection, TenantPool>();
+
+	private final ConcurrentMap<String, TenantStatistics> statistics = new ConcurrentHashMap<String, TenantStatistics>();
+
+	private boolean reset = true;
+
+	private int maxPools;
+
+	private int poolSize;
+
+	private long hotThreshold;
+
+	private long maxWaitMillis;
+
+	private long idleTimeoutMillis;
+
+	private int validationSeconds;
+
+	/**
+	 * Connection statistics of a single tenant.
+	 */
+	public static class TenantStatistics {
+		private final AtomicLong borrows = new AtomicLong();
+		private final AtomicLong dedicatedBorrows = new AtomicLong();
+		private final AtomicLong switches = new AtomicLong();
+		private final AtomicLong totalWaitNanos = new AtomicLong();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		private long windowStart = System.currentTimeMillis();
+		private long windowBorrows;
+
+		private void record(long waitNanos, boolean dedicated, boolean switched) {
+			borrows.incrementAndGet();
+			if (dedicated)
+				dedicatedBorrows.incrementAndGet();
+			if (switched)
+				switches.incrementAndGet();
+			totalWaitNanos.addAndGet(waitNanos);
+			long max = maxWaitNanos.get();
+			while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+				max = maxWaitNanos.get();
+			}
+		}
+
+		/**
+		 * Counts a borrow in the current one minute window.
+		 * 
+		 * @return number of borrows in the window so far
+		 */
+		private synchronized long countInWindow(long now) {
+			if (now - windowStart > WINDOW) {
+				windowStart = now;
+				windowBorrows = 0;
+			}
+			return ++windowBorrows;
+		}
+
+		public long getBorrows() {
+			return borrows.get();
+		}
+
+		/**
+		 * @return number of connections borrowed from a dedicated pool
+		 */
+		public long getDedicatedBorrows() {
+			return dedicatedBorrows.get();
+		}
+
+		/**
+		 * @return number of times a connection had to be switched to the schema
+		 */
+		public long getSwitches() {
+			return switches.get();
+		}
+
+		public long getTotalWaitNanos() {
+			return totalWaitNanos.get();
+		}
+
+		public long getMaxWaitNanos() {
+			return maxWaitNanos.get();
+		}
+	}
+
+	/**
+	 * Connection waiting in a dedicated pool.
+	 */
+	private static class IdleConnection {
+		private final Connection connection;
+		private final long since = System.currentTimeMillis();
+
+		private IdleConnection(Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Small pool of connections that stay on the schema of one tenant.
+	 */
+	private class TenantPool {
+		private final String schema;
+		private final Semaphore permits;
+		private final ConcurrentLinkedQueue<IdleConnection> idle = new ConcurrentLinkedQueue<IdleConnection>();
+		private volatile long lastUsed = System.currentTimeMillis();
+		private volatile boolean closed = false;
+
+		private TenantPool(String schema, int size) {
+			this.schema = schema;
+			this.permits = new Semaphore(size, true);
+		}
+
+		private Connection borrow() throws SQLException {
+			lastUsed = System.currentTimeMillis();
+			try {
+				if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS))
+					throw new SQLException("Timed out waiting for a connection of schema ["
+							+ schema + "]");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection.", e);
+			}
+			try {
+				IdleConnection candidate;
+				while ((candidate = idle.poll()) != null) {
+					if (isUsable(candidate))
+						return candidate.connection;
+					JdbcUtils.closeConnection(candidate.connection);
+				}
+				final Connection connection = dedicatedDataSource.getConnection();
+				MultitenancyUtil.switchSchema(schema, connection);
+				return connection;
+			} catch (SQLException e) {
+				permits.release();
+				throw e;
+			} catch (RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+		}
+
+		private void release(Connection connection, boolean broken) {
+			if (closed || broken) {
+				JdbcUtils.closeConnection(connection);
+			} else {
+				idle.offer(new IdleConnection(connection));
+			}
+			permits.release();
+			evictIdle();
+		}
+
+		/**
+		 * Checks that the idle connection has not timed out and is still
+		 * connected to the database.
+		 */
+		private boolean isUsable(IdleConnection candidate) {
+			if (System.currentTimeMillis() - candidate.since > idleTimeoutMillis)
+				return false;
+			try {
+				return candidate.connection.isValid(validationSeconds);
+			} catch (SQLException e) {
+				_log.debug("Failed to validate connection of schema [" + schema + "]", e);
+				return false;
+			}
+		}
+
+		/**
+		 * Closes the connections that were idle longer than the idle timeout.
+		 */
+		private void evictIdle() {
+			final long now = System.currentTimeMillis();
+			for (final IdleConnection candidate : idle) {
+				if (now - candidate.since > idleTimeoutMillis && idle.remove(candidate))
+					JdbcUtils.closeConnection(candidate.connection);
+			}
+		}
+
+		private void close() {
+			closed = true;
+			IdleConnection candidate;
+			while ((candidate = idle.poll()) != null) {
+				JdbcUtils.closeConnection(candidate.connection);
+			}
+		}
+	}
+
 	@Override
 	public Connection getAnyConnection() throws SQLException {
 		return connectionProvider.getConnection();
@@ -77,27 +320,120 @@ public class MultiTenantConnectionProviderImpl implements
 
 	@Override
 	public Connection getConnection(final String tenantId) throws SQLException {
+		final long start = System.nanoTime();
+		final TenantStatistics stat = getTenantStatistics(tenantId);
+		final TenantPool pool = getPool(tenantId, stat);
+		if (pool != null) {
+			final Connection connection = pool.borrow();
+			borrowed.put(connection, pool);
+			stat.record(System.nanoTime() - start, true, false);
+			return connection;
+		}
 		final Connection connection = getAnyConnection();
-		MultitenancyUtil.switchSchema(tenantId, connection);
+		final long waited = System.nanoTime() - start;
+		final boolean switched;
+		try {
+			switched = MultitenancyUtil.switchSchema(tenantId, connection);
+		} catch (final HibernateException e) {
+			releaseAnyConnection(connection);
+			throw e;
+		}
+		stat.record(waited, false, switched);
 		return connection;
 	}
 
 	@Override
 	public void releaseConnection(final String tenantIdentifier, final Connection connection)
 			throws SQLException {
-		try {
-			connection.createStatement().execute("USE " + defaultSchema);
-		} catch (final SQLException e) {
-			// on error, throw an exception to make sure the connection is not
-			// returned to the pool.
-			throw new HibernateException(
-					"Could not alter JDBC connection to specified schema ["
-							+ tenantIdentifier + "]", e);
+		final TenantPool pool = borrowed.remove(connection);
+		if (pool != null) {
+			pool.release(connection, connection.isClosed());
+			return;
+		}
+		if (reset) {
+			try {
+				MultitenancyUtil.switchSchema(defaultSchema, connection);
+			} catch (final HibernateException e) {
+				// on error, throw an exception to make sure the connection is not
+				// returned to the pool.
+				throw new HibernateException(
+						"Could not alter JDBC connection to specified schema ["
+								+ tenantIdentifier + "]", e.getCause());
+			}
 		}
 
 		connectionProvider.closeConnection(connection);
 	}
 
+	/**
+	 * Returns the connection statistics of all tenants.
+	 * 
+	 * @return
+	 */
+	public Map<String, TenantStatistics> getStatistics() {
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	/**
+	 * Returns the number of idle connections of each dedicated pool.
+	 * 
+	 * @return
+	 */
+	public Map<String, Integer> getDedicatedPools() {
+		final Map<String, Integer> result = new HashMap<String, Integer>();
+		for (final TenantPool pool : pools.values()) {
+			result.put(pool.schema, pool.idle.size());
+		}
+		return result;
+	}
+
+	private TenantStatistics getTenantStatistics(final String tenantId) {
+		TenantStatistics stat = statistics.get(tenantId);
+		if (stat == null) {
+			statistics.putIfAbsent(tenantId, new TenantStatistics());
+			stat = statistics.get(tenantId);
+		}
+		return stat;
+	}
+
+	/**
+	 * Returns the dedicated pool of the tenant, creating one if the tenant
+	 * has become hot.
+	 * 
+	 * @return the pool, or null if the shared pool should be used
+	 */
+	private TenantPool getPool(final String tenantId, final TenantStatistics stat) {
+		if (maxPools <= 0 || tenantId.equals(defaultSchema))
+			return null;
+		final TenantPool pool = pools.get(tenantId);
+		if (pool != null)
+			return pool;
+		if (stat.countInWindow(System.currentTimeMillis()) < hotThreshold)
+			return null;
+		synchronized (pools) {
+			if (pools.containsKey(tenantId))
+				return pools.get(tenantId);
+			while (pools.size() >= maxPools) {
+				TenantPool eldest = null;
+				for (final TenantPool candidate : pools.values()) {
+					if (eldest == null || candidate.lastUsed < eldest.lastUsed)
+						eldest = candidate;
+				}
+				pools.remove(eldest.schema);
+				eldest.close();
+				_log.info("Closed dedicated connection pool of schema [" + eldest.schema + "]");
+			}
+			if (dedicatedDataSource == null) {
+				dedicatedDataSource = new DriverManagerDataSource(DatabaseUtil.getUrl(),
+						DatabaseUtil.getUsername(), DatabaseUtil.getPassword());
+			}
+			final TenantPool created = new TenantPool(tenantId, poolSize);
+			pools.put(tenantId, created);
+			_log.info("Created dedicated connection pool of schema [" + tenantId + "]");
+			return created;
+		}
+	}
+
 	/**
 	 * @param dataSource
 	 *            the dataSource to set
@@ -106,6 +442,14 @@ public class MultiTenantConnectionProviderImpl implements
 		this.dataSource = dataSource;
 	}
 
+	/**
+	 * @param dedicatedDataSource
+	 *            the source of connections of the dedicated pools
+	 */
+	public void setDedicatedDataSource(final DataSource dedicatedDataSource) {
+		this.dedicatedDataSource = dedicatedDataSource;
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public boolean isUnwrappableAs(final Class unwrapType) {
@@ -130,7 +474,7 @@ public class MultiTenantConnectionProviderImpl implements
 	@Override
 	@PostConstruct
 	public void afterPropertiesSet() throws Exception {
-		if (dataSource != null) {
+		if (dataSource != null && connectionProvider == null) {
 			final DatasourceConnectionProviderImpl ds = new DatasourceConnectionProviderImpl();
 			final Map<String, String> config = new HashMap<String, String>();
 			ds.setDataSource(dataSource);
@@ -141,5 +485,26 @@ public class MultiTenantConnectionProviderImpl implements
 		Assert.notNull(connectionProvider, this.getClass().getSimpleName()
 				+ " does not have a datasource for the database connection."
 				+ " Please check your configuration.");
+
+		reset = !"false".equals(resetOnRelease);
+		maxPools = StringUtil.convertToInt(dedicatedPools, 0);
+		poolSize = Math.max(1, StringUtil.convertToInt(dedicatedPoolSize, 2));
+		hotThreshold = StringUtil.convertToLong(hotBorrows, 600);
+		maxWaitMillis = StringUtil.convertToLong(maxWait, 30000);
+		idleTimeoutMillis = StringUtil.convertToLong(dedicatedIdleTimeout, 300000);
+		validationSeconds = Math.max(0, StringUtil.convertToInt(validationTimeout, 5));
+	}
+
+	/**
+	 * Closes all dedicated pools.
+	 */
+	@PreDestroy
+	public void destroy() {
+		synchronized (pools) {
+			for (final TenantPool pool : pools.values()) {
+				pool.close();
+			}
+			pools.clear();
+		}
 	}
-}
\ No newline at end of file
+}
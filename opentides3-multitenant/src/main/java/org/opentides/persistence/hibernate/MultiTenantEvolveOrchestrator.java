@@ -0,0 +1,295 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.persistence.hibernate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.user.Tenant;
+import org.opentides.persistence.evolve.DBEvolveManager;
+import org.opentides.service.TenantService;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Evolves the schemas of all tenants in parallel.
+ * 
+ * At most multitenant.evolve.threads schemas are evolved at the same time,
+ * which also bounds the number of database connections used. Only the
+ * schema update runs in parallel, since it uses its own connection per
+ * tenant; the evolve scripts run one tenant at a time because they share
+ * the DAOs, entity manager and schema switching of the master schema.
+ * 
+ * The status and duration of each tenant evolve is recorded in the TENANT
+ * table of the master schema, together with a signature of the mappings
+ * and evolve scripts applied. DDL statements of the schema update that
+ * fail (e.g. a duplicate index) do not stop the evolve scripts; the tenant
+ * is then recorded with a warning instead of completed. Tenants already
+ * evolved with the current signature are skipped, so running the evolve
+ * again after a failure resumes with the tenants that were not completed.
+ * 
+ * @author allantan
+ *
+ */
+@Service("multiTenantEvolveOrchestrator")
+public class MultiTenantEvolveOrchestrator {
+
+	private static final Logger _log = Logger
+			.getLogger(MultiTenantEvolveOrchestrator.class);
+
+	@Autowired
+	private MultiTenantSchemaUpdate multiTenantSchemaUpdate;
+
+	@Autowired
+	private MultiTenantDBEvolveManager multiTenantDBEvolveManager;
+
+	@Autowired
+	private DBEvolveManager dbEvolveManager;
+
+	@Autowired
+	private TenantService tenantService;
+
+	@Value("${multitenant.evolve.threads:4}")
+	private String threads = "4";
+
+	@Value("${multitenant.evolve.progress-interval:30}")
+	private String progressInterval = "30";
+
+	private volatile Progress progress;
+
+	private final Object dbEvolveLock = new Object();
+
+	/**
+	 * Progress of an evolve of all tenants.
+	 */
+	public static class Progress {
+		private final int total;
+		private final AtomicInteger completed = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger warnings = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final Set<String> running = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final long startTime = System.currentTimeMillis();
+
+		private Progress(int total) {
+			this.total = total;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		public int getCompleted() {
+			return completed.get();
+		}
+
+		public int getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * @return the completed tenants with failed DDL statements
+		 */
+		public int getWarnings() {
+			return warnings.get();
+		}
+
+		public int getSkipped() {
+			return skipped.get();
+		}
+
+		/**
+		 * @return the schemas currently being evolved
+		 */
+		public Set<String> getRunning() {
+			return Collections.unmodifiableSet(running);
+		}
+
+		public long getElapsed() {
+			return System.currentTimeMillis() - startTime;
+		}
+
+		public boolean isDone() {
+			return getCompleted() + getFailed() + getSkipped() >= total;
+		}
+
+		@Override
+		public String toString() {
+			return (getCompleted() + getFailed() + getSkipped()) + "/" + total
+					+ " tenants done (completed=" + getCompleted()
+					+ ", failed=" + getFailed() + ", warnings=" + getWarnings()
+					+ ", skipped=" + getSkipped()
+					+ ") in " + getElapsed() + "ms";
+		}
+	}
+
+	/**
+	 * Evolves all tenants that are not yet evolved with the current mappings
+	 * and evolve scripts, and waits until all are done.
+	 * 
+	 * @param force if true, evolves all tenants even if already up to date
+	 * @return the progress of the evolve
+	 */
+	public Progress evolveAll(boolean force) {
+		final List<Tenant> tenants = tenantService.findAll();
+		final String signature = getSignature();
+		final Progress current = new Progress(tenants.size());
+		progress = current;
+
+		final int poolSize = Math.max(1, Math.min(
+				StringUtil.convertToInt(threads, 4), tenants.size()));
+		_log.info("Evolving " + tenants.size() + " tenants using " + poolSize
+				+ " threads.");
+		final ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		for (final Tenant tenant : tenants) {
+			if (!force && (Tenant.EVOLVE_COMPLETED.equals(tenant.getEvolveStatus())
+					|| Tenant.EVOLVE_WARNING.equals(tenant.getEvolveStatus()))
+					&& signature.equals(tenant.getEvolveSignature())) {
+				_log.debug("Tenant [" + tenant.getSchema() + "] is up to date.");
+				current.skipped.incrementAndGet();
+				continue;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					evolve(tenant, signature, current);
+				}
+			});
+		}
+		executor.shutdown();
+
+		final long interval = StringUtil.convertToLong(progressInterval, 30);
+		try {
+			while (!executor.awaitTermination(interval, TimeUnit.SECONDS)) {
+				_log.info("Evolve in progress: " + current + ", running "
+						+ current.getRunning());
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		_log.info("Evolve finished: " + current);
+		return current;
+	}
+
+	/**
+	 * Evolves the schema of a single tenant and records the result.
+	 * 
+	 * @param tenant
+	 * @return true if successful
+	 */
+	public boolean evolve(Tenant tenant) {
+		return evolve(tenant, getSignature(), new Progress(1));
+	}
+
+	/**
+	 * Returns the progress of the last or currently running evolve.
+	 * 
+	 * @return the progress, or null if no evolve was done yet
+	 */
+	public Progress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Returns the signature of the current mappings and evolve scripts.
+	 * 
+	 * @return
+	 */
+	public String getSignature() {
+		return multiTenantSchemaUpdate.getMappingSignature() + "-"
+				+ dbEvolveManager.getLatestVersion();
+	}
+
+	private boolean evolve(Tenant tenant, String signature, Progress current) {
+		final String schema = tenant.getSchema();
+		final long start = System.currentTimeMillis();
+		String error = null;
+		String warning = null;
+		current.running.add(schema);
+		try {
+			tenantService.updateEvolveStatus(tenant, Tenant.EVOLVE_RUNNING,
+					tenant.getEvolveSignature(), null, null);
+			final int ddlErrors = multiTenantSchemaUpdate.schemaEvolveErrors(schema);
+			if (ddlErrors >= 0) {
+				if (ddlErrors > 0)
+					warning = ddlErrors + " DDL statements failed in schema update, see logs for details.";
+				synchronized (dbEvolveLock) {
+					multiTenantDBEvolveManager.evolve(schema);
+				}
+			} else {
+				error = "Schema update failed, see logs for details.";
+			}
+		} catch (RuntimeException e) {
+			_log.error("Failed to evolve tenant [" + schema + "].", e);
+			error = e.getClass().getName() + ": " + e.getMessage();
+		} finally {
+			current.running.remove(schema);
+		}
+
+		final long duration = System.currentTimeMillis() - start;
+		try {
+			if (error == null && warning == null) {
+				tenantService.updateEvolveStatus(tenant, Tenant.EVOLVE_COMPLETED,
+						signature, duration, null);
+			} else if (error == null) {
+				tenantService.updateEvolveStatus(tenant, Tenant.EVOLVE_WARNING,
+						signature, duration, warning);
+			} else {
+				tenantService.updateEvolveStatus(tenant, Tenant.EVOLVE_FAILED,
+						tenant.getEvolveSignature(), duration, error);
+			}
+		} catch (RuntimeException e) {
+			_log.error("Failed to record evolve status of tenant [" + schema + "].", e);
+		}
+
+		if (error == null) {
+			current.completed.incrementAndGet();
+			if (warning != null) {
+				current.warnings.incrementAndGet();
+				_log.warn("Evolved tenant [" + schema + "] with warning: "
+						+ warning);
+			}
+			_log.info("Evolved tenant [" + schema + "] in " + duration + "ms, "
+					+ current);
+		} else {
+			current.failed.incrementAndGet();
+			_log.warn("Failed to evolve tenant [" + schema + "] in " + duration
+					+ "ms, " + current);
+		}
+		return error == null;
+	}
+
+	/**
+	 * @param threads the maximum number of schemas evolved at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = String.valueOf(threads);
+	}
+}
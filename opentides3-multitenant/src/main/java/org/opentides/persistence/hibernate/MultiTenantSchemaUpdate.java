@@ -20,14 +20,18 @@ package org.opentides.persistence.hibernate;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import javax.sql.DataSource;
 import javax.transaction.Transactional;
@@ -35,10 +39,11 @@ import javax.transaction.Transactional;
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
 import org.hibernate.dialect.Dialect;
-import org.hibernate.engine.jdbc.connections.internal.DatasourceConnectionProviderImpl;
 import org.hibernate.engine.jdbc.internal.FormatStyle;
 import org.hibernate.engine.jdbc.internal.Formatter;
+import org.hibernate.mapping.Table;
 import org.hibernate.tool.hbm2ddl.DatabaseMetadata;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 import org.hibernate.tool.hbm2ddl.SchemaUpdateScript;
@@ -54,6 +59,11 @@ import org.springframework.util.Assert;
 /**
  * Utilities for performing multi-tenancy operations.
  * 
+ * The hibernate configuration is built only once and shared by all schema
+ * updates, so several schemas can be updated in parallel. Only the
+ * generation of DDL scripts is serialized; reading the database metadata
+ * and executing the scripts are done concurrently.
+ * 
  * @author allantan
  *
  */
@@ -76,6 +86,17 @@ public class MultiTenantSchemaUpdate {
 	private Boolean logDdl = false;
 	
 	private Connection defaultConnection;
+
+	private Configuration configuration;
+
+	private Dialect dialect;
+
+	/**
+	 * Tables of the configuration, as name, schema, catalog and quoted flag.
+	 */
+	private List<Object[]> tables;
+
+	private String mappingSignature;
 	
 	/**
 	 * Persistence name in hibernate.
@@ -87,80 +108,66 @@ public class MultiTenantSchemaUpdate {
 	 * Creates or updates the schema for the given tenantId. Invoke this method
 	 * only when a separate schema is needed for the tenant.
 	 * 
+	 * This method is thread-safe. Each call uses its own connection to the
+	 * schema.
+	 * 
 	 * @param tenantId
-	 * @return
+	 * @return false if the schema could not be updated; DDL statements that
+	 *         fail are only logged
 	 * @throws ClassNotFoundException
 	 * @throws SQLException
 	 * @throws HibernateException
 	 */
-	@Transactional
 	public boolean schemaEvolve(final String schema) {
+		return schemaEvolveErrors(schema) >= 0;
+	}
+
+	/**
+	 * Same as schemaEvolve, but returns the number of DDL statements
+	 * that failed, or -1 if the schema could not be updated at all.
+	 * 
+	 * @param schema
+	 * @return the number of failed DDL statements, or -1
+	 */
+	@Transactional
+	public int schemaEvolveErrors(final String schema) {
 		Assert.notNull(schema);
 		_log.info("Performing schema update for schema = " + schema);
 		Connection connection = null;
-		DatasourceConnectionProviderImpl connectionProvider = null;
+		Statement stmt = null;
 		try {
-			
-			if (defaultConnection==null) {
-				final DataSource dataSource =  new DriverManagerDataSource(DatabaseUtil.getUrl(), 
-						DatabaseUtil.getUsername(), DatabaseUtil.getPassword());
-				final Map<String, String> config = new HashMap<String, String>();
-				DatasourceConnectionProviderImpl dcp = new DatasourceConnectionProviderImpl();
-				dcp.setDataSource(dataSource);
-				dcp.configure(config);
-				defaultConnection = dcp.getConnection();				
-			}
-			
-			defaultConnection.createStatement().execute(
-					"CREATE SCHEMA IF NOT EXISTS " + schema + ";");
+			createSchema(schema);
 
 			final DataSource dataSource =  new DriverManagerDataSource("jdbc:mysql://localhost/"+schema, 
 					DatabaseUtil.getUsername(), DatabaseUtil.getPassword());
-			final Map<String, String> config = new HashMap<String, String>();
-			connectionProvider = new DatasourceConnectionProviderImpl();
-			connectionProvider.setDataSource(dataSource);
-			connectionProvider.configure(config);
-			connection = connectionProvider.getConnection();
+			connection = dataSource.getConnection();
 			
-			// Code below is specific to hibernate
-			final Configuration cfg = new Configuration();
-			for (final String clazz : DatabaseUtil.getClasses()) {
-				try {
-					cfg.addAnnotatedClass(Class.forName(clazz));
-				} catch (final ClassNotFoundException e) {
-					_log.error("Class not found for schema update [" + clazz
-							+ "]", e);
-				}
-			}
-			// add classes from packagesToScan
-			for (final String clazz : persistenceScanner.scanPackages()) {
-				try {
-					cfg.addAnnotatedClass(Class.forName(clazz));
-				} catch (final ClassNotFoundException e) {
-					_log.error("Class not found for schema update [" + clazz
-							+ "]", e);
-				}
-			}
-			cfg.configure();
+			final Configuration cfg = getConfiguration();
 
 			// is this a new schema?
-			if (connection.createStatement()
-					.executeQuery("SHOW TABLES LIKE 'SYSTEM_CODES'").next() == false) {
+			stmt = connection.createStatement();
+			final ResultSet rs = stmt.executeQuery("SHOW TABLES LIKE 'SYSTEM_CODES'");
+			final boolean exists = rs.next();
+			rs.close();
+			if (exists == false) {
 				// new schema, let's build it
 				initializeSchema(cfg, connection, schema);
+				return 0;
 			} else {
 				// old schema, let's evolve it
-				updateSchema(cfg, connection, schema);
+				return updateSchema(cfg, connection, schema);
 			}
-			return true;
 		} catch (final HibernateException e) {
 			_log.error("Failed to update schema for [" + schema + "].", e);
-			return false;
+			return -1;
 		} catch (final SQLException e) {
 			_log.error("Failed to update schema for [" + schema + "].", e);
-			return false;
+			return -1;
 		} finally {
 			try {
+				if( stmt != null ) {
+					stmt.close();
+				}
 				if( connection != null ) {
 					connection.close();
 				}
@@ -170,6 +177,90 @@ public class MultiTenantSchemaUpdate {
 		}
 	}
 
+	/**
+	 * Returns a hash of the DDL that creates all the mapped tables. The
+	 * signature changes whenever the mappings change, so it can be used to
+	 * check if a schema is already up to date.
+	 * 
+	 * @return
+	 */
+	public String getMappingSignature() {
+		getConfiguration();
+		return mappingSignature;
+	}
+
+	/**
+	 * Creates the schema using the connection of the default schema.
+	 * 
+	 * @param schema
+	 * @throws SQLException
+	 */
+	private synchronized void createSchema(final String schema) throws SQLException {
+		if (defaultConnection==null) {
+			final DataSource dataSource =  new DriverManagerDataSource(DatabaseUtil.getUrl(), 
+					DatabaseUtil.getUsername(), DatabaseUtil.getPassword());
+			defaultConnection = dataSource.getConnection();				
+		}
+		final Statement stmt = defaultConnection.createStatement();
+		try {
+			stmt.execute("CREATE SCHEMA IF NOT EXISTS " + schema + ";");
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Builds the hibernate configuration of all persistent classes. This is
+	 * done only once, the configuration is reused for all schemas.
+	 * 
+	 * @return
+	 */
+	private synchronized Configuration getConfiguration() {
+		if (configuration != null)
+			return configuration;
+		final Configuration cfg = new Configuration();
+		for (final String clazz : DatabaseUtil.getClasses()) {
+			try {
+				cfg.addAnnotatedClass(Class.forName(clazz));
+			} catch (final ClassNotFoundException e) {
+				_log.error("Class not found for schema update [" + clazz
+						+ "]", e);
+			}
+		}
+		// add classes from packagesToScan
+		for (final String clazz : persistenceScanner.scanPackages()) {
+			try {
+				cfg.addAnnotatedClass(Class.forName(clazz));
+			} catch (final ClassNotFoundException e) {
+				_log.error("Class not found for schema update [" + clazz
+						+ "]", e);
+			}
+		}
+		cfg.configure();
+		dialect = Dialect.getDialect( cfg.getProperties() );
+
+		// compile the mappings now, before the configuration is shared
+		final String[] script = cfg.generateSchemaCreationScript(dialect);
+		mappingSignature = hash(script);
+
+		final String defaultSchema = cfg.getProperty(Environment.DEFAULT_SCHEMA);
+		final String defaultCatalog = cfg.getProperty(Environment.DEFAULT_CATALOG);
+		tables = new ArrayList<Object[]>();
+		final Iterator<Table> iter = cfg.getTableMappings();
+		while (iter.hasNext()) {
+			final Table table = iter.next();
+			if (table.isPhysicalTable()) {
+				tables.add(new Object[] {
+						table.getName(),
+						table.getSchema() == null ? defaultSchema : table.getSchema(),
+						table.getCatalog() == null ? defaultCatalog : table.getCatalog(),
+						table.isQuoted() });
+			}
+		}
+		configuration = cfg;
+		return configuration;
+	}
+
 	/**
 	 * This is the helper function that initializes the schema and tables
 	 * using hibernate SchemaExport.
@@ -181,7 +272,10 @@ public class MultiTenantSchemaUpdate {
 			final Connection connection, final String schema) {
 		_log.info("Initializing schema [" + schema
 				+ "] using SchemaExport. ");
-		final SchemaExport export = new SchemaExport(cfg, connection);
+		final SchemaExport export;
+		synchronized (cfg) {
+			export = new SchemaExport(cfg, connection);
+		}
 		if (logDdl) {
 			final String dir = ddlLogs + schema;
 			final String file= dir + "/create-" 
@@ -199,15 +293,16 @@ public class MultiTenantSchemaUpdate {
 	 * using Hibernate SchemaUpdate.
 	 * 
 	 * @param tenantId
+	 * @return the number of statements that failed
 	 */
 	@Transactional
-	private void updateSchema(final Configuration cfg, final Connection connection, final String schema) {
+	private int updateSchema(final Configuration cfg, final Connection connection, final String schema) {
 		_log.info("Updating schema [" + schema + "]. ");
-		final Dialect dialect = Dialect.getDialect( cfg.getProperties() );
 		final Formatter formatter = FormatStyle.DDL.getFormatter();
 		
 		Statement stmt = null;
 		Writer outputFileWriter = null;
+		int errors = 0;
 		
 		if (logDdl) {
 			final String dir = ddlLogs + schema;
@@ -224,30 +319,68 @@ public class MultiTenantSchemaUpdate {
 		
 		try {			
 			DatabaseMetadata meta = new DatabaseMetadata(connection, dialect, cfg );
+			// read the table metadata of this schema outside the lock,
+			// script generation below only uses the cached metadata
+			for (Object[] table : tables) {
+				meta.getTableMetadata((String) table[0], (String) table[1],
+						(String) table[2], (Boolean) table[3]);
+			}
 			stmt = connection.createStatement();
 
-			List<SchemaUpdateScript> scripts = cfg.generateSchemaUpdateScriptList( dialect, meta );
+			List<SchemaUpdateScript> scripts;
+			synchronized (cfg) {
+				scripts = cfg.generateSchemaUpdateScriptList( dialect, meta );
+			}
 			for ( SchemaUpdateScript script : scripts ) {
 				String formatted = formatter.format( script.getScript() );
 				try {
 					formatted += ";";
 					stmt.executeUpdate( formatted );						
-					if ( logDdl != null ) {
+					if ( outputFileWriter != null ) {
 						outputFileWriter.write( formatted + "\n" );
 					}
 				} catch ( SQLException e ) {
 					_log.error("Error in schema update using statement:" + formatted, e);
+					errors++;
 				}
 			}
 		} catch ( Exception e ) {
 			_log.error("Error in schema update.", e);
+			errors++;
 		} finally {
 			try {
+				if( stmt != null ) {
+					stmt.close();
+				}
 				if( outputFileWriter != null ) {
 					outputFileWriter.close();
 				}
 			} catch(Exception e) {
 			}
 		}
+		return errors;
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the given statements.
+	 */
+	private static String hash(final String[] statements) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			for (final String statement : statements) {
+				md.update(statement.getBytes("UTF-8"));
+				md.update((byte) ';');
+			}
+			final StringBuilder hex = new StringBuilder();
+			for (final byte b : md.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 }
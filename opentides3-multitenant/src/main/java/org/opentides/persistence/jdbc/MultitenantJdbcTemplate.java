@@ -18,6 +18,7 @@
  *******************************************************************************/
 package org.opentides.persistence.jdbc;
 
+import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
 import java.util.regex.Matcher;
@@ -25,7 +26,10 @@ import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
+import org.opentides.util.MultitenancyUtil;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.util.Assert;
 
 /**
@@ -43,7 +47,12 @@ public class MultitenantJdbcTemplate extends JdbcTemplate {
 	 */
 	public void switchSchema(final String schema) {
 		Assert.notNull(schema);
-		execute("USE " + schema);
+		execute(new ConnectionCallback<Boolean>() {
+			@Override
+			public Boolean doInConnection(Connection con) {
+				return MultitenancyUtil.switchSchema(schema, con);
+			}
+		});
 	}
 
 	/**
@@ -52,9 +61,10 @@ public class MultitenantJdbcTemplate extends JdbcTemplate {
 	 * @return
 	 */
 	public String getCurrentSchemaName() {
+		Connection connection = null;
 		try {
-			final DatabaseMetaData metaData = getDataSource().getConnection()
-					.getMetaData();
+			connection = getDataSource().getConnection();
+			final DatabaseMetaData metaData = connection.getMetaData();
 
 			final String url = metaData.getURL();
 			final String schema = extractSchema(url);
@@ -65,6 +75,8 @@ public class MultitenantJdbcTemplate extends JdbcTemplate {
 		} catch (final SQLException e) {
 			_log.error("Cannot get schema name.", e);
 			throw new HibernateException("Cannot get current schema name.", e);
+		} finally {
+			JdbcUtils.closeConnection(connection);
 		}
 	}
 
@@ -0,0 +1,798 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.    
+ */
+package org.opentides.persistence.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.opentides.exception.DataAccessException;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Component;
+
+/**
+ * Clones a database schema within the same database server using plain
+ * JDBC, without calling external database tools.
+ * 
+ * Tables are created from the JDBC metadata of the source schema, or on
+ * MySQL from SHOW CREATE TABLE so that table options such as the character
+ * set and collation and column clauses such as ON UPDATE CURRENT_TIMESTAMP
+ * are kept. The data of each table is then copied with a single
+ * INSERT ... SELECT statement, several tables in parallel, and the row
+ * counts of source and target are compared. Secondary indexes and foreign
+ * keys, including their ON DELETE and ON UPDATE rules, are created after 
+ * the data is copied, so tables can be copied in any order and rows are
+ * not indexed one by one. Only an index on a MySQL AUTO_INCREMENT column
+ * is created with the table, since MySQL requires it. Views and triggers
+ * are created last, so triggers do not fire on the copied rows.
+ * 
+ * Works on MySQL, where schemas are catalogs, and on databases with
+ * standard schemas such as HSQLDB.
+ * 
+ * @author allantan
+ *
+ */
+@Component("schemaCloner")
+public class SchemaCloner {
+
+	private static final Logger _log = Logger.getLogger(SchemaCloner.class);
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Value("${multitenant.clone.threads:4}")
+	private String threads = "4";
+
+	/**
+	 * Creates the target schema with the same tables, indexes, foreign keys
+	 * and data as the source schema. The target schema must not exist yet.
+	 * If cloning fails, the target schema is dropped.
+	 * 
+	 * @param source name of the schema to copy
+	 * @param target name of the schema to create
+	 * @return number of rows copied, by table name
+	 */
+	public Map<String, Long> cloneSchema(final String source, final String target) {
+		_log.info("Cloning schema [" + source + "] to [" + target + "].");
+		final long start = System.currentTimeMillis();
+		Connection connection = null;
+		boolean created = false;
+		try {
+			connection = dataSource.getConnection();
+			final Dialect dialect = new Dialect(connection.getMetaData());
+			execute(connection, "CREATE SCHEMA " + target);
+			created = true;
+
+			final List<TableInfo> tables = readTables(connection, dialect, source);
+			for (final TableInfo table : tables) {
+				execute(connection, table.createTableSql(dialect, target));
+			}
+			final Map<String, Long> counts = copyData(dialect, tables, source, target);
+			for (final TableInfo table : tables) {
+				for (final String sql : table.constraintSql(dialect, target)) {
+					execute(connection, sql);
+				}
+			}
+			createViews(connection, dialect, source, target);
+			createTriggers(connection, dialect, source, target);
+			_log.info("Cloned " + tables.size() + " tables of schema [" + source
+					+ "] to [" + target + "] in "
+					+ (System.currentTimeMillis() - start) + "ms.");
+			return counts;
+		} catch (final Exception e) {
+			if (created) {
+				dropSchema(connection, target);
+			}
+			if (e instanceof DataAccessException) {
+				throw (DataAccessException) e;
+			}
+			throw new DataAccessException("Failed to clone schema [" + source
+					+ "] to [" + target + "].", e);
+		} finally {
+			JdbcUtils.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Executes the statements of the given SQL script on the given schema.
+	 * 
+	 * @param schema
+	 * @param script
+	 */
+	public void executeScript(final String schema, final Resource script) {
+		Connection connection = null;
+		String original = null;
+		boolean useCatalog = false;
+		try {
+			connection = dataSource.getConnection();
+			useCatalog = new Dialect(connection.getMetaData()).useCatalog;
+			if (useCatalog) {
+				original = connection.getCatalog();
+				connection.setCatalog(schema);
+			} else {
+				execute(connection, "SET SCHEMA " + schema);
+			}
+			ScriptUtils.executeSqlScript(connection, script);
+		} catch (final SQLException e) {
+			throw new DataAccessException("Failed to execute script ["
+					+ script + "] on schema [" + schema + "].", e);
+		} finally {
+			if (useCatalog && original != null) {
+				try {
+					connection.setCatalog(original);
+				} catch (final SQLException e) {
+					_log.warn("Failed to restore catalog [" + original + "].", e);
+				}
+			}
+			JdbcUtils.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Copies the data of all tables in parallel, each table using its own
+	 * connection.
+	 */
+	private Map<String, Long> copyData(final Dialect dialect,
+			final List<TableInfo> tables, final String source, final String target)
+			throws Exception {
+		final Map<String, Long> counts = new TreeMap<String, Long>();
+		if (tables.isEmpty())
+			return counts;
+		final int poolSize = Math.max(1, Math.min(
+				StringUtil.convertToInt(threads, 4), tables.size()));
+		final ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+		try {
+			final Map<String, Future<Long>> futures = new LinkedHashMap<String, Future<Long>>();
+			for (final TableInfo table : tables) {
+				futures.put(table.name, executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return copyTable(dialect, table, source, target);
+					}
+				}));
+			}
+			for (final Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+				try {
+					counts.put(future.getKey(), future.getValue().get());
+				} catch (final ExecutionException e) {
+					throw (Exception) e.getCause();
+				}
+			}
+			return counts;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Copies the rows of one table and verifies the row count.
+	 * 
+	 * @return number of rows copied
+	 */
+	private long copyTable(final Dialect dialect, final TableInfo table,
+			final String source, final String target) throws SQLException {
+		Connection connection = null;
+		try {
+			connection = dataSource.getConnection();
+			final String columns = table.columnList(dialect);
+			execute(connection, "INSERT INTO " + dialect.qualify(target, table.name)
+					+ " (" + columns + ") SELECT " + columns + " FROM "
+					+ dialect.qualify(source, table.name));
+			final long expected = count(connection, dialect.qualify(source, table.name));
+			final long copied = count(connection, dialect.qualify(target, table.name));
+			if (expected != copied) {
+				throw new DataAccessException("Row count mismatch on table ["
+						+ table.name + "]: expected " + expected + " but copied "
+						+ copied + ".");
+			}
+			for (final String sql : table.identitySql(dialect, target, connection)) {
+				execute(connection, sql);
+			}
+			_log.debug("Copied " + copied + " rows of table [" + table.name + "].");
+			return copied;
+		} finally {
+			JdbcUtils.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Creates the views of the source schema on the target schema. Views
+	 * may use other views, so views that fail are retried until no more
+	 * views can be created.
+	 */
+	private void createViews(final Connection connection, final Dialect dialect,
+			final String source, final String target) throws SQLException {
+		final Map<String, String> views = new LinkedHashMap<String, String>();
+		final PreparedStatement stmt = connection.prepareStatement(
+				"SELECT TABLE_NAME, VIEW_DEFINITION FROM INFORMATION_SCHEMA.VIEWS"
+				+ " WHERE TABLE_SCHEMA = ?");
+		try {
+			stmt.setString(1, dialect.toMetaName(source));
+			final ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				views.put(rs.getString(1), "CREATE VIEW "
+						+ dialect.qualify(target, rs.getString(1)) + " AS "
+						+ dialect.retarget(rs.getString(2), source, target));
+			}
+		} finally {
+			JdbcUtils.closeStatement(stmt);
+		}
+		while (!views.isEmpty()) {
+			final int remaining = views.size();
+			SQLException failure = null;
+			for (final Iterator<String> it = views.values().iterator(); it.hasNext();) {
+				try {
+					execute(connection, it.next());
+					it.remove();
+				} catch (final SQLException e) {
+					failure = e;
+				}
+			}
+			if (views.size() == remaining)
+				throw failure;
+		}
+	}
+
+	/**
+	 * Creates the triggers of the source schema on the target schema.
+	 */
+	private void createTriggers(final Connection connection, final Dialect dialect,
+			final String source, final String target) throws SQLException {
+		final List<String> triggers = new ArrayList<String>();
+		final PreparedStatement stmt = connection.prepareStatement(
+				"SELECT * FROM INFORMATION_SCHEMA.TRIGGERS WHERE TRIGGER_SCHEMA = ?");
+		try {
+			stmt.setString(1, dialect.toMetaName(source));
+			final ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				final StringBuilder sql = new StringBuilder("CREATE TRIGGER ")
+						.append(dialect.qualify(target, rs.getString("TRIGGER_NAME")))
+						.append(' ').append(rs.getString("ACTION_TIMING"))
+						.append(' ').append(rs.getString("EVENT_MANIPULATION"))
+						.append(" ON ").append(dialect.qualify(target,
+								rs.getString("EVENT_OBJECT_TABLE")));
+				if (!dialect.mysql) {
+					final String oldRow = rs.getString("ACTION_REFERENCE_OLD_ROW");
+					final String newRow = rs.getString("ACTION_REFERENCE_NEW_ROW");
+					if (oldRow != null || newRow != null) {
+						sql.append(" REFERENCING");
+						if (oldRow != null)
+							sql.append(" OLD ROW AS ").append(oldRow);
+						if (newRow != null)
+							sql.append(" NEW ROW AS ").append(newRow);
+					}
+				}
+				sql.append(" FOR EACH ").append(rs.getString("ACTION_ORIENTATION"))
+						.append(' ').append(dialect.retarget(
+								rs.getString("ACTION_STATEMENT"), source, target));
+				triggers.add(sql.toString());
+			}
+		} finally {
+			JdbcUtils.closeStatement(stmt);
+		}
+		for (final String sql : triggers) {
+			execute(connection, sql);
+		}
+	}
+
+	/**
+	 * Reads the columns, primary key, indexes and foreign keys of all tables
+	 * in the given schema. On MySQL, the CREATE TABLE statement of each table
+	 * is also read.
+	 */
+	private List<TableInfo> readTables(final Connection connection,
+			final Dialect dialect, final String schema) throws SQLException {
+		final DatabaseMetaData meta = connection.getMetaData();
+		final String catalogName = dialect.useCatalog ? dialect.toMetaName(schema) : null;
+		final String schemaName = dialect.useCatalog ? null : dialect.toMetaName(schema);
+		final List<TableInfo> tables = new ArrayList<TableInfo>();
+		ResultSet rs = meta.getTables(catalogName, schemaName, "%", new String[] { "TABLE" });
+		try {
+			while (rs.next()) {
+				tables.add(new TableInfo(rs.getString("TABLE_NAME")));
+			}
+		} finally {
+			JdbcUtils.closeResultSet(rs);
+		}
+		if (tables.isEmpty()) {
+			throw new DataAccessException("No tables found in schema [" + schema + "].");
+		}
+
+		for (final TableInfo table : tables) {
+			rs = meta.getColumns(catalogName, schemaName, table.name, "%");
+			try {
+				while (rs.next()) {
+					table.columns.add(new ColumnInfo(rs));
+				}
+			} finally {
+				JdbcUtils.closeResultSet(rs);
+			}
+			Collections.sort(table.columns);
+
+			if (dialect.mysql) {
+				final Statement stmt = connection.createStatement();
+				try {
+					final ResultSet create = stmt.executeQuery("SHOW CREATE TABLE "
+							+ dialect.qualify(schema, table.name));
+					if (create.next())
+						table.createSql = create.getString(2);
+				} finally {
+					JdbcUtils.closeStatement(stmt);
+				}
+			}
+
+			final Map<Integer, String> pk = new TreeMap<Integer, String>();
+			rs = meta.getPrimaryKeys(catalogName, schemaName, table.name);
+			try {
+				while (rs.next()) {
+					pk.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+				}
+			} finally {
+				JdbcUtils.closeResultSet(rs);
+			}
+			table.primaryKey.addAll(pk.values());
+
+			rs = meta.getIndexInfo(catalogName, schemaName, table.name, false, false);
+			try {
+				while (rs.next()) {
+					final String name = rs.getString("INDEX_NAME");
+					if (name == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+						continue;
+					KeyInfo index = table.indexes.get(name);
+					if (index == null) {
+						index = new KeyInfo(name);
+						index.unique = !rs.getBoolean("NON_UNIQUE");
+						table.indexes.put(name, index);
+					}
+					index.columns.put((int) rs.getShort("ORDINAL_POSITION"),
+							rs.getString("COLUMN_NAME"));
+				}
+			} finally {
+				JdbcUtils.closeResultSet(rs);
+			}
+
+			rs = meta.getImportedKeys(catalogName, schemaName, table.name);
+			try {
+				while (rs.next()) {
+					final String name = rs.getString("FK_NAME");
+					KeyInfo fk = table.foreignKeys.get(name);
+					if (fk == null) {
+						fk = new KeyInfo(name);
+						fk.referencedTable = rs.getString("PKTABLE_NAME");
+						fk.updateRule = rs.getShort("UPDATE_RULE");
+						fk.deleteRule = rs.getShort("DELETE_RULE");
+						table.foreignKeys.put(name, fk);
+					}
+					final int seq = rs.getShort("KEY_SEQ");
+					fk.columns.put(seq, rs.getString("FKCOLUMN_NAME"));
+					fk.referencedColumns.put(seq, rs.getString("PKCOLUMN_NAME"));
+				}
+			} finally {
+				JdbcUtils.closeResultSet(rs);
+			}
+		}
+		return tables;
+	}
+
+	private void dropSchema(final Connection connection, final String schema) {
+		if (connection == null)
+			return;
+		try {
+			execute(connection, "DROP SCHEMA " + schema
+					+ (new Dialect(connection.getMetaData()).mysql ? "" : " CASCADE"));
+		} catch (final SQLException e) {
+			_log.error("Failed to drop incomplete schema [" + schema + "].", e);
+		}
+	}
+
+	private static void execute(final Connection connection, final String sql)
+			throws SQLException {
+		_log.debug(sql);
+		final Statement stmt = connection.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			JdbcUtils.closeStatement(stmt);
+		}
+	}
+
+	private static long count(final Connection connection, final String table)
+			throws SQLException {
+		final Statement stmt = connection.createStatement();
+		try {
+			final ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table);
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			JdbcUtils.closeStatement(stmt);
+		}
+	}
+
+	/**
+	 * @param threads the maximum number of tables copied at the same time
+	 */
+	public void setThreads(final int threads) {
+		this.threads = String.valueOf(threads);
+	}
+
+	/**
+	 * @param dataSource the dataSource to set
+	 */
+	public void setDataSource(final DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Database specific naming and syntax.
+	 */
+	private static class Dialect {
+		private final boolean mysql;
+		private final boolean useCatalog;
+		private final boolean upperCase;
+		private final boolean lowerCase;
+		private final String quote;
+
+		private Dialect(final DatabaseMetaData meta) throws SQLException {
+			mysql = meta.getDatabaseProductName().toLowerCase().contains("mysql");
+			useCatalog = !meta.supportsSchemasInTableDefinitions();
+			upperCase = meta.storesUpperCaseIdentifiers();
+			lowerCase = meta.storesLowerCaseIdentifiers();
+			final String q = meta.getIdentifierQuoteString();
+			quote = q == null || q.trim().isEmpty() ? "" : q.trim();
+		}
+
+		private String toMetaName(final String name) {
+			if (upperCase)
+				return name.toUpperCase();
+			if (lowerCase)
+				return name.toLowerCase();
+			return name;
+		}
+
+		private String quote(final String name) {
+			return quote + name + quote;
+		}
+
+		private String qualify(final String schema, final String name) {
+			return schema + "." + quote(name);
+		}
+
+		private String identity() {
+			return mysql ? " AUTO_INCREMENT" : " GENERATED BY DEFAULT AS IDENTITY";
+		}
+
+		/**
+		 * Replaces the references to the source schema in the given view
+		 * or trigger definition with the target schema.
+		 */
+		private String retarget(final String sql, final String source, final String target) {
+			final String name = Pattern.quote(toMetaName(source));
+			final String q = Pattern.quote(quote);
+			return Pattern.compile("(?<![\\w$])(" + q + name + q + "|" + name + ")\\.",
+					Pattern.CASE_INSENSITIVE).matcher(sql)
+					.replaceAll(Matcher.quoteReplacement(target + "."));
+		}
+	}
+
+	/**
+	 * Column definition read from the metadata.
+	 */
+	private static class ColumnInfo implements Comparable<ColumnInfo> {
+		private final String name;
+		private final String typeName;
+		private final int dataType;
+		private final int size;
+		private final int scale;
+		private final boolean nullable;
+		private final String defaultValue;
+		private final boolean autoIncrement;
+		private final int position;
+
+		private ColumnInfo(final ResultSet rs) throws SQLException {
+			name = rs.getString("COLUMN_NAME");
+			typeName = rs.getString("TYPE_NAME");
+			dataType = rs.getInt("DATA_TYPE");
+			size = rs.getInt("COLUMN_SIZE");
+			scale = rs.getInt("DECIMAL_DIGITS");
+			nullable = rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls;
+			defaultValue = rs.getString("COLUMN_DEF");
+			autoIncrement = "YES".equalsIgnoreCase(rs.getString("IS_AUTOINCREMENT"));
+			position = rs.getInt("ORDINAL_POSITION");
+		}
+
+		private String definition(final Dialect dialect) {
+			final StringBuilder sql = new StringBuilder(dialect.quote(name))
+					.append(' ').append(typeName);
+			switch (dataType) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.BINARY:
+			case Types.VARBINARY:
+				if (size > 0 && typeName.indexOf('(') < 0)
+					sql.append('(').append(size).append(')');
+				break;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				if (size > 0 && typeName.indexOf('(') < 0)
+					sql.append('(').append(size).append(',').append(scale).append(')');
+				break;
+			default:
+			}
+			if (autoIncrement) {
+				sql.append(dialect.identity());
+			} else if (defaultValue != null) {
+				sql.append(" DEFAULT ").append(defaultLiteral());
+			}
+			if (!nullable)
+				sql.append(" NOT NULL");
+			return sql.toString();
+		}
+
+		/**
+		 * Some drivers return the default value as an expression and some
+		 * as the plain value, so plain text values are quoted.
+		 */
+		private String defaultLiteral() {
+			final String value = defaultValue.trim();
+			if (value.startsWith("'") || value.startsWith("(")
+					|| value.matches("-?[0-9.]+|(?i)null|true|false|current_\\w+")
+					|| value.matches("(?i)\\w+\\(.*\\)")) {
+				return value;
+			}
+			return "'" + value.replace("'", "''") + "'";
+		}
+
+		@Override
+		public int compareTo(final ColumnInfo o) {
+			return position - o.position;
+		}
+	}
+
+	/**
+	 * Index or foreign key read from the metadata.
+	 */
+	private static class KeyInfo {
+		private final String name;
+		private boolean unique;
+		private String referencedTable;
+		private int updateRule = DatabaseMetaData.importedKeyNoAction;
+		private int deleteRule = DatabaseMetaData.importedKeyNoAction;
+		private final Map<Integer, String> columns = new TreeMap<Integer, String>();
+		private final Map<Integer, String> referencedColumns = new TreeMap<Integer, String>();
+
+		private KeyInfo(final String name) {
+			this.name = name;
+		}
+
+		private String columnList(final Dialect dialect, final Map<Integer, String> names) {
+			final StringBuilder sql = new StringBuilder();
+			for (final String column : names.values()) {
+				if (sql.length() > 0)
+					sql.append(", ");
+				sql.append(dialect.quote(column));
+			}
+			return sql.toString();
+		}
+
+		/**
+		 * Clause of the given foreign key rule. RESTRICT and NO ACTION are
+		 * the default, so no clause is needed.
+		 */
+		private String ruleSql(final String event, final int rule) {
+			switch (rule) {
+			case DatabaseMetaData.importedKeyCascade:
+				return " ON " + event + " CASCADE";
+			case DatabaseMetaData.importedKeySetNull:
+				return " ON " + event + " SET NULL";
+			case DatabaseMetaData.importedKeySetDefault:
+				return " ON " + event + " SET DEFAULT";
+			default:
+				return "";
+			}
+		}
+	}
+
+	/**
+	 * Table definition read from the metadata.
+	 */
+	private static class TableInfo {
+		private final String name;
+		private final List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+		private final List<String> primaryKey = new ArrayList<String>();
+		private final Map<String, KeyInfo> indexes = new LinkedHashMap<String, KeyInfo>();
+		private final Map<String, KeyInfo> foreignKeys = new LinkedHashMap<String, KeyInfo>();
+		private final List<String> keyClauses = new ArrayList<String>();
+		private String createSql;
+
+		private TableInfo(final String name) {
+			this.name = name;
+		}
+
+		private String columnList(final Dialect dialect) {
+			final StringBuilder sql = new StringBuilder();
+			for (final ColumnInfo column : columns) {
+				if (sql.length() > 0)
+					sql.append(", ");
+				sql.append(dialect.quote(column.name));
+			}
+			return sql.toString();
+		}
+
+		private String createTableSql(final Dialect dialect, final String schema) {
+			if (createSql != null)
+				return createTableFromShowCreate(dialect, schema);
+			final StringBuilder sql = new StringBuilder("CREATE TABLE ")
+					.append(dialect.qualify(schema, name)).append(" (");
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0)
+					sql.append(", ");
+				sql.append(columns.get(i).definition(dialect));
+			}
+			if (!primaryKey.isEmpty()) {
+				sql.append(", PRIMARY KEY (");
+				for (int i = 0; i < primaryKey.size(); i++) {
+					if (i > 0)
+						sql.append(", ");
+					sql.append(dialect.quote(primaryKey.get(i)));
+				}
+				sql.append(')');
+			}
+			return sql.append(')').toString();
+		}
+
+		/**
+		 * Statement read from SHOW CREATE TABLE, on the target schema and 
+		 * without the secondary indexes and foreign keys, which are added 
+		 * after the data is copied. Indexes on an AUTO_INCREMENT column are
+		 * kept, since MySQL requires the column to be indexed.
+		 */
+		private String createTableFromShowCreate(final Dialect dialect, final String schema) {
+			final StringBuilder sql = new StringBuilder();
+			keyClauses.clear();
+			for (final String line : createSql.split("\\r?\\n")) {
+				final String trimmed = line.trim();
+				if (trimmed.matches("(?i)CONSTRAINT\\s.*\\sFOREIGN KEY\\s.*"))
+					continue;
+				if (trimmed.matches("(?i)((UNIQUE|FULLTEXT|SPATIAL)\\s+)?(KEY|INDEX)\\s.*")
+						&& !hasAutoIncrement(dialect, trimmed)) {
+					keyClauses.add(trimmed.endsWith(",") ?
+							trimmed.substring(0, trimmed.length() - 1) : trimmed);
+					continue;
+				}
+				if (sql.length() > 0)
+					sql.append('\n');
+				sql.append(line);
+			}
+			return sql.toString()
+					.replaceFirst("^CREATE TABLE " + Pattern.quote(dialect.quote(name)),
+							Matcher.quoteReplacement("CREATE TABLE " + dialect.qualify(schema, name)))
+					.replaceFirst(",(\\s*\\n\\))", "$1");
+		}
+
+		private boolean hasAutoIncrement(final Dialect dialect, final String keyClause) {
+			final String keyColumns = keyClause.substring(keyClause.indexOf('('));
+			for (final ColumnInfo column : columns) {
+				if (column.autoIncrement && keyColumns.contains(dialect.quote(column.name)))
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Statements that create the indexes and foreign keys. Generated
+		 * names (starting with SYS_) are replaced, since these are reserved
+		 * on some databases. On MySQL, the indexes removed from SHOW CREATE
+		 * TABLE are added back with a single ALTER TABLE.
+		 */
+		private List<String> constraintSql(final Dialect dialect, final String schema) {
+			final List<String> sql = new ArrayList<String>();
+			if (!keyClauses.isEmpty()) {
+				final StringBuilder alter = new StringBuilder("ALTER TABLE ")
+						.append(dialect.qualify(schema, name));
+				for (int i = 0; i < keyClauses.size(); i++) {
+					alter.append(i > 0 ? ", ADD " : " ADD ").append(keyClauses.get(i));
+				}
+				sql.add(alter.toString());
+			}
+			int count = 0;
+			for (final KeyInfo index : indexes.values()) {
+				// created from the statement of SHOW CREATE TABLE
+				if (createSql != null)
+					break;
+				if (new ArrayList<String>(index.columns.values()).equals(primaryKey))
+					continue;
+				final String indexName = index.name.startsWith("SYS_") ?
+						"IDX_" + name + "_" + (++count) : index.name;
+				sql.add("CREATE " + (index.unique ? "UNIQUE " : "") + "INDEX "
+						+ dialect.quote(indexName) + " ON " + dialect.qualify(schema, name)
+						+ " (" + index.columnList(dialect, index.columns) + ")");
+			}
+			count = 0;
+			for (final KeyInfo fk : foreignKeys.values()) {
+				final String fkName = fk.name == null || fk.name.startsWith("SYS_") ?
+						"FK_" + name + "_" + (++count) : fk.name;
+				sql.add("ALTER TABLE " + dialect.qualify(schema, name)
+						+ " ADD CONSTRAINT " + dialect.quote(fkName)
+						+ " FOREIGN KEY (" + fk.columnList(dialect, fk.columns)
+						+ ") REFERENCES " + dialect.qualify(schema, fk.referencedTable)
+						+ " (" + fk.columnList(dialect, fk.referencedColumns) + ")"
+						+ fk.ruleSql("DELETE", fk.deleteRule)
+						+ fk.ruleSql("UPDATE", fk.updateRule));
+			}
+			return sql;
+		}
+
+		/**
+		 * Statements that continue the identity columns after the copied
+		 * rows. Not needed on MySQL, which does this on insert.
+		 */
+		private List<String> identitySql(final Dialect dialect, final String schema,
+				final Connection connection) throws SQLException {
+			final List<String> sql = new ArrayList<String>();
+			if (dialect.mysql)
+				return sql;
+			for (final ColumnInfo column : columns) {
+				if (!column.autoIncrement)
+					continue;
+				final Statement stmt = connection.createStatement();
+				try {
+					final ResultSet rs = stmt.executeQuery("SELECT MAX("
+							+ dialect.quote(column.name) + ") FROM "
+							+ dialect.qualify(schema, name));
+					if (rs.next() && rs.getLong(1) > 0) {
+						sql.add("ALTER TABLE " + dialect.qualify(schema, name)
+								+ " ALTER COLUMN " + dialect.quote(column.name)
+								+ " RESTART WITH " + (rs.getLong(1) + 1));
+					}
+				} finally {
+					JdbcUtils.closeStatement(stmt);
+				}
+			}
+			return sql;
+		}
+	}
+}
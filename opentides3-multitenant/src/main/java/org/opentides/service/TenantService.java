@@ -58,8 +58,7 @@ public interface TenantService extends BaseCrudService<Tenant> {
 	
 	/**
 	 * Clones the template to create new tenant. 
-	 * This uses mysql command line statement, so it is required that mysql client
-	 * is installed on the server.
+	 * Tables and data are copied through JDBC within the same database server.
 	 * 
 	 * @param template
 	 * @param tenant
@@ -90,4 +89,16 @@ public interface TenantService extends BaseCrudService<Tenant> {
 	 * @return
 	 */
 	public void changeSchema(String schemaName) throws SQLException;
+
+	/**
+	 * Records the result of a schema evolve of the tenant in the master schema.
+	 * 
+	 * @param tenant
+	 * @param status one of the Tenant.EVOLVE_* constants
+	 * @param signature signature of the mappings and evolve scripts applied
+	 * @param duration in milliseconds
+	 * @param error message of the failure or warning, if any
+	 */
+	public void updateEvolveStatus(Tenant tenant, String status,
+			String signature, Long duration, String error);
 }
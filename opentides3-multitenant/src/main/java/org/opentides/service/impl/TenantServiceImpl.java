@@ -18,28 +18,28 @@
  */
 package org.opentides.service.impl;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.InputStreamReader;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.opentides.bean.user.MultitenantUser;
 import org.opentides.bean.user.Tenant;
 import org.opentides.dao.TenantDao;
+import org.opentides.exception.DataAccessException;
 import org.opentides.persistence.hibernate.MultiTenantSchemaUpdate;
 import org.opentides.persistence.jdbc.MultitenantJdbcTemplate;
+import org.opentides.persistence.jdbc.SchemaCloner;
 import org.opentides.service.MultitenantUserService;
 import org.opentides.service.TenantService;
-import org.opentides.util.DateUtil;
-import org.opentides.util.FileUtil;
 import org.opentides.util.StringUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * @author allantan
@@ -64,17 +64,8 @@ public class TenantServiceImpl extends BaseCrudServiceImpl<Tenant> implements
 	@Autowired
 	private MultitenantJdbcTemplate jdbcTemplate;
 	
-	@Value("${jpa.log_ddl.directory}")
-	private String ddlLogs = "/var/log/ss_ddl/";
-	
-	@Value("${database.username}")
-	private String sqlUsername = "ss";
-	
-	@Value("${database.password}")
-	private String sqlPassword = "ideyatech";
-	
-	@Value("${database.mysql.bin}")
-	private String mySQLBin = "/usr/local/mysql/bin";
+	@Autowired
+	private SchemaCloner schemaCloner;
 	
 	@Value("${multitenant.post_create_script}")
 	private File updateSchamanameScript;
@@ -153,102 +144,40 @@ public class TenantServiceImpl extends BaseCrudServiceImpl<Tenant> implements
 	}
 
 
+	@Override
+	@Transactional
+	public void updateEvolveStatus(Tenant tenant, String status,
+			String signature, Long duration, String error) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("id", tenant.getId());
+		params.put("status", status);
+		params.put("signature", signature);
+		params.put("duration", duration);
+		params.put("date", new Date());
+		params.put("error", error != null && error.length() > 2000 ? 
+				error.substring(0, 2000) : error);
+		getDao().executeByNamedQuery("jpql.tenant.updateEvolveStatus", params);
+		tenant.setEvolveStatus(status);
+		tenant.setEvolveSignature(signature);
+		tenant.setEvolveDuration(duration);
+		tenant.setEvolveError(error);
+	}
+
 	@Override
 	public void cloneTenantSchema(Tenant template, Tenant tenant) {
-		final String dir = ddlLogs + "/"
-				+ DateUtil.convertShortDate(new Date());
 		final String company = tenant.getCompany();
 		final String schema = findUniqueSchemaName(company);
 		tenant.setSchema(schema);
 		tenant.setDbVersion(1l);
-		
-		final File sqlFile = new File(dir + "/schema-" + schema + ".sql");
-		final File logFile = new File(dir + "/schema-" + schema + ".log");
-		String credential = " -u "+sqlUsername+" -p"+sqlPassword;
-		_log.info("DDL logs can be found in " + sqlFile.getAbsolutePath());
-		FileUtil.createDirectory(dir);
-
-		// sample command is 
-		//   mysqladmin -u gt -pideyatech create test
-		//   mysqldump -u root tpl_Retail_Master | mysql -u root test --verbose
-		final String createSchema = mySQLBin + "/mysqladmin " + credential + " create "+ schema;
-		final String dumpSchema = mySQLBin + "/mysqldump " +credential+" " + template.getSchema() + " > " +sqlFile.getAbsolutePath();
-		final String loadSchema = mySQLBin +"/mysql " + credential + " " + schema + " < " + sqlFile.getAbsolutePath();
-		String updateSchema = null;
-		if (updateSchamanameScript != null && updateSchamanameScript.exists()) {
-			updateSchema = mySQLBin +"/mysql " + credential + " " + schema + " < " + updateSchamanameScript.getAbsolutePath();
-		}
-		
+
 		try {
-			this.executeShell(createSchema, logFile);
-			this.executeShell(dumpSchema, logFile);
-			this.executeShell(loadSchema, logFile);
-			if(updateSchema != null) this.executeShell(updateSchema, logFile);
-		} catch (Exception e) {
-			_log.error("Failed to execute command for cloning tenant.",e);
-		}
-	}
-		
-	
-	/**
-	 * Private helper that executes shell command. 
-	 * Used for cloning database schema.
-	 * @param command
-	 */
-	private void executeShell(String command, File outputFile) throws Exception {
-		Process p;
-		BufferedWriter writer = null;
-		BufferedReader reader = null;
-		BufferedReader error  = null;
-		int exitStatus = 0;
-
-		String line = "";
-		_log.info("Executing shell command :" + command);
-		try {			
-			String[] script = {
-					"/bin/sh",
-					"-c",
-					command
-			};
-
-			p = Runtime.getRuntime().exec(script);
-			reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-		    writer = new BufferedWriter(new FileWriter(outputFile));				
-			
-			while (true) {
-				try {
-					exitStatus = p.waitFor();
-					break;
-				} catch (java.lang.InterruptedException e) {
-					// do nothing...
-				}
-			}
-			
-			// write any result to file
-			while ((line = reader.readLine())!= null) {
-				writer.write(line + "\n");
-			}					
-
-			if (exitStatus != 0) {
-				// get the error stream of the process and print it
-				error = new BufferedReader(
-						new InputStreamReader(p.getErrorStream()));
-				StringBuffer errorMsg = new StringBuffer();
-				while ((line = error.readLine()) != null) {
-					errorMsg.append(line);
-				}
-				throw new Exception("Error executing command" + command 
-						+ " with return value :" + exitStatus + "\n" + errorMsg);
+			schemaCloner.cloneSchema(template.getSchema(), schema);
+			if (updateSchamanameScript != null && updateSchamanameScript.exists()) {
+				schemaCloner.executeScript(schema, 
+						new FileSystemResource(updateSchamanameScript));
 			}
-			
-			_log.info("Execution of " +command+" successful.");			
-		} catch (Exception e) {
-			throw new Exception("Failed to record log file during tenant creation.", e);
-		} finally {
-	        if ( writer != null)
-	        	try { writer.close( ); } catch (Exception e) { };
-	        if (reader != null)
-	        	try { reader.close( ); } catch (Exception e) { };			
+		} catch (DataAccessException e) {
+			_log.error("Failed to clone schema for tenant.",e);
 		}
 	}
 }
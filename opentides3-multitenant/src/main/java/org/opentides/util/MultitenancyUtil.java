@@ -33,14 +33,22 @@ public class MultitenancyUtil {
 	private static final Logger _log = Logger.getLogger(MultitenancyUtil.class);
 
 	/**
+	 * Switches the connection to the given schema, unless it is already
+	 * using it. The current schema is taken from the connection catalog,
+	 * which the MySQL driver tracks without a round trip to the server.
+	 * 
 	 * @param schema
 	 * @param connection
+	 * @return true if the schema was switched
 	 */
-	public static void switchSchema(final String schema,
+	public static boolean switchSchema(final String schema,
 			final Connection connection) {
 		try {
+			if (schema.equals(connection.getCatalog()))
+				return false;
 			_log.debug("Altering connection to schema [" + schema + "]");
-			connection.createStatement().execute("USE " + schema);
+			connection.setCatalog(schema);
+			return true;
 		} catch (final SQLException e) {
 			throw new HibernateException(
 					"Could not alter JDBC connection to specified schema ["
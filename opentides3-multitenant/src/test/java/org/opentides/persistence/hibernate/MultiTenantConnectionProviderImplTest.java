@@ -0,0 +1,230 @@
+package org.opentides.persistence.hibernate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MultiTenantConnectionProviderImplTest {
+
+	private FakeDataSource shared;
+
+	private FakeDataSource dedicated;
+
+	private MultiTenantConnectionProviderImpl provider;
+
+	@Before
+	public void init() throws Exception {
+		shared = new FakeDataSource(true);
+		dedicated = new FakeDataSource(false);
+		provider = new MultiTenantConnectionProviderImpl();
+		provider.setDataSource(shared);
+		provider.setDedicatedDataSource(dedicated);
+		ReflectionTestUtils.setField(provider, "defaultSchema", "master");
+	}
+
+	@Test
+	public void testSkipsRedundantSwitches() throws Exception {
+		ReflectionTestUtils.setField(provider, "resetOnRelease", "false");
+		provider.afterPropertiesSet();
+
+		Connection c = provider.getConnection("tenant1");
+		assertEquals("tenant1", c.getCatalog());
+		provider.releaseConnection("tenant1", c);
+		// connection stays on tenant1, so no switch is needed
+		c = provider.getConnection("tenant1");
+		provider.releaseConnection("tenant1", c);
+		assertEquals(1, shared.switches.get());
+		assertEquals(2, provider.getStatistics().get("tenant1").getBorrows());
+		assertEquals(1, provider.getStatistics().get("tenant1").getSwitches());
+	}
+
+	@Test
+	public void testResetsOnRelease() throws Exception {
+		provider.afterPropertiesSet();
+
+		Connection c = provider.getConnection("tenant1");
+		provider.releaseConnection("tenant1", c);
+		assertEquals("master", c.getCatalog());
+		assertEquals(2, shared.switches.get());
+		// default schema needs no switch at all
+		c = provider.getConnection("master");
+		provider.releaseConnection("master", c);
+		assertEquals(2, shared.switches.get());
+	}
+
+	@Test
+	public void testDedicatedPoolForHotTenant() throws Exception {
+		ReflectionTestUtils.setField(provider, "dedicatedPools", "1");
+		ReflectionTestUtils.setField(provider, "hotBorrows", "3");
+		provider.afterPropertiesSet();
+
+		for (int i = 0; i < 2; i++) {
+			provider.releaseConnection("tenant1", provider.getConnection("tenant1"));
+		}
+		assertEquals(0, dedicated.opened.get());
+		// third borrow in the minute makes the tenant hot
+		Connection c1 = provider.getConnection("tenant1");
+		assertEquals(1, dedicated.opened.get());
+		assertEquals("tenant1", c1.getCatalog());
+		provider.releaseConnection("tenant1", c1);
+		Connection c2 = provider.getConnection("tenant1");
+		assertSame(c1, c2);
+		assertEquals("tenant1", c2.getCatalog());
+		provider.releaseConnection("tenant1", c2);
+		assertEquals(2, provider.getStatistics().get("tenant1").getDedicatedBorrows());
+
+		// another hot tenant replaces the least recently used pool
+		for (int i = 0; i < 3; i++) {
+			provider.releaseConnection("tenant2", provider.getConnection("tenant2"));
+		}
+		assertFalse(provider.getDedicatedPools().containsKey("tenant1"));
+		assertTrue(provider.getDedicatedPools().containsKey("tenant2"));
+		assertTrue(c1.isClosed());
+		Connection c3 = provider.getConnection("tenant1");
+		assertNotSame(c1, c3);
+		provider.releaseConnection("tenant1", c3);
+	}
+
+	@Test
+	public void testDedicatedPoolValidatesIdleConnections() throws Exception {
+		ReflectionTestUtils.setField(provider, "dedicatedPools", "1");
+		ReflectionTestUtils.setField(provider, "hotBorrows", "1");
+		provider.afterPropertiesSet();
+
+		Connection c1 = provider.getConnection("tenant1");
+		provider.releaseConnection("tenant1", c1);
+		// connection dropped by the server while idle is replaced
+		dedicated.valid = false;
+		Connection c2 = provider.getConnection("tenant1");
+		assertNotSame(c1, c2);
+		assertTrue(c1.isClosed());
+		assertEquals(2, dedicated.opened.get());
+		dedicated.valid = true;
+		provider.releaseConnection("tenant1", c2);
+	}
+
+	@Test
+	public void testDedicatedPoolEvictsIdleConnections() throws Exception {
+		ReflectionTestUtils.setField(provider, "dedicatedPools", "1");
+		ReflectionTestUtils.setField(provider, "hotBorrows", "1");
+		ReflectionTestUtils.setField(provider, "dedicatedIdleTimeout", "-1");
+		provider.afterPropertiesSet();
+
+		Connection c1 = provider.getConnection("tenant1");
+		provider.releaseConnection("tenant1", c1);
+		assertTrue(c1.isClosed());
+		assertEquals(Integer.valueOf(0), provider.getDedicatedPools().get("tenant1"));
+	}
+
+	/**
+	 * Data source of fake connections that only track their catalog.
+	 * If pooled, closed connections are handed out again.
+	 */
+	private static class FakeDataSource implements DataSource {
+		private final AtomicInteger opened = new AtomicInteger();
+		private final AtomicInteger switches = new AtomicInteger();
+		private final Queue<Connection> pool = new ConcurrentLinkedQueue<Connection>();
+		private final boolean pooled;
+		private volatile boolean valid = true;
+
+		private FakeDataSource(boolean pooled) {
+			this.pooled = pooled;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			Connection pooledConnection = pool.poll();
+			if (pooledConnection != null)
+				return pooledConnection;
+			opened.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+						private String catalog = "master";
+						private boolean closed = false;
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							String name = method.getName();
+							if ("getCatalog".equals(name))
+								return catalog;
+							if ("setCatalog".equals(name)) {
+								switches.incrementAndGet();
+								catalog = (String) args[0];
+							} else if ("close".equals(name)) {
+								if (pooled)
+									pool.offer((Connection) proxy);
+								else
+									closed = true;
+							} else if ("isClosed".equals(name)) {
+								return closed;
+							} else if ("isValid".equals(name)) {
+								return !closed && valid;
+							} else if ("hashCode".equals(name)) {
+								return System.identityHashCode(proxy);
+							} else if ("equals".equals(name)) {
+								return proxy == args[0];
+							}
+							return null;
+						}
+					});
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+
+		@Override
+		public PrintWriter getLogWriter() {
+			return null;
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) {
+		}
+
+		@Override
+		public void setLoginTimeout(int seconds) {
+		}
+
+		@Override
+		public int getLoginTimeout() {
+			return 0;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			throw new SQLException();
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.opentides.persistence.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentides.exception.DataAccessException;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+public class SchemaClonerTest {
+
+	private DriverManagerDataSource dataSource;
+
+	private JdbcTemplate jdbc;
+
+	private SchemaCloner cloner;
+
+	@Before
+	public void init() {
+		dataSource = new DriverManagerDataSource(
+				"jdbc:hsqldb:mem:clonetest", "sa", "");
+		jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("CREATE SCHEMA TPL");
+		jdbc.execute("CREATE TABLE TPL.PARENT (ID BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) PRIMARY KEY, "
+				+ "NAME VARCHAR(50) NOT NULL, ACTIVE BOOLEAN DEFAULT TRUE, CONSTRAINT UK_NAME UNIQUE (NAME))");
+		jdbc.execute("CREATE TABLE TPL.CHILD (ID BIGINT PRIMARY KEY, PARENT_ID BIGINT, "
+				+ "AMOUNT DECIMAL(10,2), CREATED TIMESTAMP, "
+				+ "CONSTRAINT FK_PARENT FOREIGN KEY (PARENT_ID) REFERENCES TPL.PARENT (ID))");
+		jdbc.execute("CREATE INDEX IDX_CREATED ON TPL.CHILD (CREATED)");
+		for (int i = 1; i <= 20; i++) {
+			jdbc.update("INSERT INTO TPL.PARENT (NAME) VALUES (?)", "parent" + i);
+			jdbc.update("INSERT INTO TPL.CHILD (ID, PARENT_ID, AMOUNT) VALUES (?, ?, ?)", i, i, i * 1.5);
+		}
+		jdbc.execute("CREATE TABLE TPL.EMPTY (ID INTEGER)");
+		jdbc.execute("CREATE TABLE TPL.NOTE (ID BIGINT PRIMARY KEY, CHILD_ID BIGINT, "
+				+ "CONSTRAINT FK_CHILD FOREIGN KEY (CHILD_ID) REFERENCES TPL.CHILD (ID) ON DELETE CASCADE)");
+		jdbc.execute("CREATE TABLE TPL.AUDIT (NAME VARCHAR(50))");
+		jdbc.execute("CREATE VIEW TPL.BIG_CHILD AS SELECT ID, AMOUNT FROM TPL.CHILD WHERE AMOUNT > 15");
+		jdbc.execute("CREATE VIEW TPL.BIG_CHILD_COUNT AS SELECT COUNT(*) AS TOTAL FROM TPL.BIG_CHILD");
+		jdbc.execute("CREATE TRIGGER TPL.PARENT_AUDIT AFTER INSERT ON TPL.PARENT "
+				+ "REFERENCING NEW ROW AS NEWROW FOR EACH ROW INSERT INTO TPL.AUDIT (NAME) VALUES (NEWROW.NAME)");
+
+		cloner = new SchemaCloner();
+		cloner.setDataSource(dataSource);
+		cloner.setThreads(2);
+	}
+
+	@After
+	public void destroy() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	@Test
+	public void testCloneSchema() {
+		Map<String, Long> counts = cloner.cloneSchema("TPL", "TENANT1");
+		assertEquals(5, counts.size());
+		assertEquals(Long.valueOf(20), counts.get("PARENT"));
+		assertEquals(Long.valueOf(20), counts.get("CHILD"));
+		assertEquals(Long.valueOf(0), counts.get("EMPTY"));
+
+		assertEquals(30.0, jdbc.queryForObject(
+				"SELECT AMOUNT FROM TENANT1.CHILD WHERE ID = 20", Double.class), 0.001);
+		// default values and identity continue after the copied rows
+		jdbc.update("INSERT INTO TENANT1.PARENT (NAME) VALUES ('new')");
+		// triggers are copied but did not fire on the copied rows
+		assertEquals(Long.valueOf(0), counts.get("AUDIT"));
+		assertEquals("new", jdbc.queryForObject(
+				"SELECT NAME FROM TENANT1.AUDIT WHERE NAME = 'new'", String.class));
+		assertEquals(Long.valueOf(1), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM TENANT1.AUDIT", Long.class));
+		assertEquals(Long.valueOf(21), jdbc.queryForObject(
+				"SELECT ID FROM TENANT1.PARENT WHERE NAME = 'new'", Long.class));
+		assertEquals(Boolean.TRUE, jdbc.queryForObject(
+				"SELECT ACTIVE FROM TENANT1.PARENT WHERE NAME = 'new'", Boolean.class));
+		// constraints are copied
+		try {
+			jdbc.update("INSERT INTO TENANT1.PARENT (NAME) VALUES ('parent1')");
+			fail("Unique constraint not copied.");
+		} catch (org.springframework.dao.DataAccessException e) {
+		}
+		try {
+			jdbc.update("INSERT INTO TENANT1.CHILD (ID, PARENT_ID) VALUES (100, 999)");
+			fail("Foreign key not copied.");
+		} catch (org.springframework.dao.DataAccessException e) {
+		}
+		// foreign key rules are copied
+		jdbc.update("INSERT INTO TENANT1.NOTE (ID, CHILD_ID) VALUES (1, 20)");
+		jdbc.update("DELETE FROM TENANT1.CHILD WHERE ID = 20");
+		assertEquals(Long.valueOf(0), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM TENANT1.NOTE", Long.class));
+		// views are copied and use the tables of the target schema
+		assertEquals(Long.valueOf(9), jdbc.queryForObject(
+				"SELECT TOTAL FROM TENANT1.BIG_CHILD_COUNT", Long.class));
+		// source is untouched
+		assertEquals(Long.valueOf(20), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM TPL.PARENT", Long.class));
+	}
+
+	@Test
+	public void testCloneToExistingSchemaFails() {
+		jdbc.execute("CREATE SCHEMA TENANT2");
+		jdbc.execute("CREATE TABLE TENANT2.KEEP (ID INTEGER)");
+		try {
+			cloner.cloneSchema("TPL", "TENANT2");
+			fail("Expected DataAccessException.");
+		} catch (DataAccessException e) {
+		}
+		// existing schema is not dropped
+		assertEquals(Long.valueOf(0), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM TENANT2.KEEP", Long.class));
+	}
+
+	@Test
+	public void testFailedCloneDropsTarget() {
+		try {
+			cloner.cloneSchema("MISSING", "TENANT3");
+			fail("Expected DataAccessException.");
+		} catch (DataAccessException e) {
+		}
+		assertEquals(Long.valueOf(0), jdbc.queryForObject(
+				"SELECT COUNT(*) FROM INFORMATION_SCHEMA.SCHEMATA WHERE SCHEMA_NAME = 'TENANT3'", Long.class));
+	}
+
+	@Test
+	public void testExecuteScript() {
+		cloner.cloneSchema("TPL", "TENANT4");
+		cloner.executeScript("TENANT4", new ByteArrayResource(
+				"UPDATE PARENT SET NAME = 'renamed' WHERE ID = 1;".getBytes()));
+		assertTrue(jdbc.queryForObject(
+				"SELECT COUNT(*) FROM TENANT4.PARENT WHERE NAME = 'renamed'", Long.class) == 1);
+		assertEquals("parent1", jdbc.queryForObject(
+				"SELECT NAME FROM TPL.PARENT WHERE ID = 1", String.class));
+	}
+}
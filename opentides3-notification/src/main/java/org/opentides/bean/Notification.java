@@ -151,12 +151,44 @@ public class Notification extends BaseEntity {
     @Column(name="REMARKS", length=4000)
     private String remarks;
     
+    /**
+     * Identifier of the dispatcher run that claimed this notification.
+     */
+    @Column(name="CLAIM_ID", length=36)
+    private String claimId;
+
+    /**
+     * Date when this notification was claimed for sending.
+     */
+    @Column(name="CLAIM_DATE")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date claimDate;
+
+    /**
+     * Number of failed attempts to send this notification.
+     */
+    @Column(name="RETRY_COUNT")
+    private Integer retryCount;
+
+    /**
+     * Earliest date when this notification may be sent again after a failure.
+     */
+    @Column(name="NEXT_ATTEMPT")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttempt;
+
     @Transient
 	private transient Date startDate;
 	
     @Transient
 	private transient Date endDate;
 
+    @Transient
+    private Date startDateForSearch;
+
+    @Transient
+    private Date endDateForSearch;
+
     public Notification() {
 		super();
 	}
@@ -391,6 +423,62 @@ public class Notification extends BaseEntity {
 		this.remarks = remarks;
 	}
 
+	/**
+	 * @return the claimId
+	 */
+	public String getClaimId() {
+		return claimId;
+	}
+
+	/**
+	 * @param claimId the claimId to set
+	 */
+	public void setClaimId(String claimId) {
+		this.claimId = claimId;
+	}
+
+	/**
+	 * @return the claimDate
+	 */
+	public Date getClaimDate() {
+		return claimDate;
+	}
+
+	/**
+	 * @param claimDate the claimDate to set
+	 */
+	public void setClaimDate(Date claimDate) {
+		this.claimDate = claimDate;
+	}
+
+	/**
+	 * @return the retryCount
+	 */
+	public Integer getRetryCount() {
+		return retryCount;
+	}
+
+	/**
+	 * @param retryCount the retryCount to set
+	 */
+	public void setRetryCount(Integer retryCount) {
+		this.retryCount = retryCount;
+	}
+
+	/**
+	 * @return the nextAttempt
+	 */
+	public Date getNextAttempt() {
+		return nextAttempt;
+	}
+
+	/**
+	 * @param nextAttempt the nextAttempt to set
+	 */
+	public void setNextAttempt(Date nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
 	/**
 	 * @return the startDate
 	 */
@@ -419,5 +507,20 @@ public class Notification extends BaseEntity {
 		this.endDate = endDate;
 	}
 
+	public Date getStartDateForSearch() {
+		return startDateForSearch;
+	}
+
+	public void setStartDateForSearch(Date startDateForSearch) {
+		this.startDateForSearch = startDateForSearch;
+	}
+
+	public Date getEndDateForSearch() {
+		return endDateForSearch;
+	}
+
+	public void setEndDateForSearch(Date endDateForSearch) {
+		this.endDateForSearch = endDateForSearch;
+	}
 
 }
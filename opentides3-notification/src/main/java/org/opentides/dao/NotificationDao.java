@@ -19,6 +19,7 @@
 
 package org.opentides.dao;
 
+import java.util.Date;
 import java.util.List;
 
 import org.opentides.bean.Notification;
@@ -42,6 +43,41 @@ public interface NotificationDao extends BaseEntityDao<Notification, Long> {
 	 */
 	public List<Notification> findNewNotifications(int limit);
 	
+	/**
+	 * Atomically claims up to limit new notifications that are due for
+	 * sending and marks them IN_PROCESS under the given claimId. Only rows 
+	 * that are still NEW at the time of the update are claimed, so this is
+	 * safe to call from several nodes at the same time.
+	 * 
+	 * Runs in its own transaction so that the claim is committed before
+	 * the notifications are sent.
+	 * 
+	 * @param claimId unique identifier of this claim
+	 * @param limit maximum number of notifications to claim
+	 * @return the claimed notifications
+	 */
+	public List<Notification> claimNewNotifications(String claimId, int limit);
+	
+	/**
+	 * Returns claimed notifications back to NEW if they were claimed
+	 * before the given cutoff date and not yet completed (e.g. the node
+	 * processing them has died).
+	 * 
+	 * @param cutoff
+	 * @return number of released notifications
+	 */
+	public int releaseStaleClaims(Date cutoff);
+	
+	/**
+	 * Saves the status, remarks and retry information of the given 
+	 * notifications in a single transaction. Only notifications still 
+	 * held by the given claimId are updated.
+	 * 
+	 * @param claimId
+	 * @param notifications
+	 */
+	public void completeNotifications(String claimId, List<Notification> notifications);
+	
 	/**
 	 * Returns the total number of popup notification that is new and 
 	 * not yet seen by user.
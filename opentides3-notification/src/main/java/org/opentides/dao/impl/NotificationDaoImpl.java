@@ -19,6 +19,8 @@
 
 package org.opentides.dao.impl;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +33,7 @@ import org.opentides.dao.NotificationDao;
 import org.opentides.util.DateUtil;
 import org.opentides.util.StringUtil;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -62,19 +65,18 @@ implements NotificationDao {
 			if (!StringUtil.isEmpty(append.toString())){
 				append.append(" and ");
 			}
-			String startDate = DateUtil.dateToString(example.getStartDate(), "yyyy-MM-dd");
-			append.append(" date(obj.notifyDate) >= '");
-			append.append(startDate + "'");
+			example.setStartDateForSearch(DateUtil.removeTime(example.getStartDate()));
+			append.append(" obj.notifyDate >= :startDateForSearch ");
 		}
 		
 		if (example.getEndDate() != null){
 			if (!StringUtil.isEmpty(append.toString())){
 				append.append(" and ");
-			}			
-			String endDate = DateUtil.dateToString(
-								DateUtils.addDays(example.getEndDate(), 1), "yyyy-MM-dd");
-			append.append(" date(obj.notifyDate) <= '");
-			append.append(endDate + "'");
+			}
+			// half-open range up to the start of the next day
+			example.setEndDateForSearch(DateUtil.removeTime(
+								DateUtils.addDays(example.getEndDate(), 1)));
+			append.append(" obj.notifyDate < :endDateForSearch ");
 		}
 		
 		return append.toString();
@@ -88,6 +90,56 @@ implements NotificationDao {
         return result;
 	}
 
+	@Override
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	@SuppressWarnings("unchecked")
+	public List<Notification> claimNewNotifications(String claimId, int limit) {
+		Date now = new Date();
+		Query idQuery = getEntityManager().createQuery(
+				getJpqlQuery("jpql.notification.findNewNotificationIds"));
+		idQuery.setParameter("now", now);
+		idQuery.setMaxResults(limit);
+		List<Long> ids = idQuery.getResultList();
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("claimId", claimId);
+		params.put("now", now);
+		params.put("ids", ids);
+		if (executeByNamedQuery("jpql.notification.claimNotifications", params) == 0) {
+			// all taken by another node
+			return Collections.emptyList();
+		}
+		params.clear();
+		params.put("claimId", claimId);
+		return findByNamedQuery("jpql.notification.findClaimedNotifications", params);
+	}
+
+	@Override
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	public int releaseStaleClaims(Date cutoff) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("cutoff", cutoff);
+		return executeByNamedQuery("jpql.notification.releaseStaleClaims", params);
+	}
+
+	@Override
+	@Transactional(propagation=Propagation.REQUIRES_NEW)
+	public void completeNotifications(String claimId, List<Notification> notifications) {
+		Query query = getEntityManager().createQuery(
+				getJpqlQuery("jpql.notification.completeNotification"));
+		for (Notification n : notifications) {
+			query.setParameter("status", n.getStatus());
+			query.setParameter("remarks", n.getRemarks());
+			query.setParameter("retryCount", n.getRetryCount());
+			query.setParameter("nextAttempt", n.getNextAttempt());
+			query.setParameter("id", n.getId());
+			query.setParameter("claimId", claimId);
+			query.executeUpdate();
+		}
+	}
+
 	@Override
 	@Transactional(readOnly=true)
 	public long countNewPopup(long userId) {
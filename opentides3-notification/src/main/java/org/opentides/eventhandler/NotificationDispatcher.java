@@ -0,0 +1,260 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.eventhandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.opentides.bean.Notification;
+import org.opentides.bean.Notification.Medium;
+import org.opentides.bean.Notification.Status;
+import org.opentides.dao.NotificationDao;
+import org.opentides.util.MetricsUtil;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends pending notifications in parallel.
+ *
+ * Notifications are claimed in batches through
+ * {@link NotificationDao#claimNewNotifications(String, int)}, which only
+ * takes rows that are still NEW, so several nodes can run the dispatcher
+ * at the same time. Each batch is fanned out to a thread pool per medium
+ * and the resulting status of the whole batch is committed at once.
+ * Failed notifications are put back to NEW with an exponential backoff
+ * until notification.max-retries is reached.
+ *
+ */
+@Component(value="notificationDispatcher")
+public class NotificationDispatcher {
+
+	private static Logger _log = Logger.getLogger(NotificationDispatcher.class);
+
+	@Value("#{notificationSettings['notification.execute-limit']}")
+	private String limit;
+
+	@Value("#{notificationSettings['notification.batch-size']}")
+	private String batchSize;
+
+	@Value("#{notificationSettings['notification.max-retries']}")
+	private String maxRetries;
+
+	@Value("#{notificationSettings['notification.retry-backoff']}")
+	private String retryBackoff;
+
+	@Value("#{notificationSettings['notification.claim-timeout']}")
+	private String claimTimeout;
+
+	@Value("#{notificationSettings}")
+	private Properties settings;
+
+	@Autowired
+	private NotificationDao notificationDao;
+
+	@Autowired
+	private EmailHandler emailHandler;
+
+	private final Map<String, ExecutorService> workers = new HashMap<String, ExecutorService>();
+
+	@PostConstruct
+	public void init() {
+		for (Medium medium : new Medium[] { Medium.EMAIL, Medium.SMS }) {
+			String size = (settings == null) ? null : settings.getProperty("notification.pool." + medium);
+			int threads = StringUtil.convertToInt(size, 2);
+			workers.put(medium.toString(), Executors.newFixedThreadPool(threads,
+					new CustomizableThreadFactory("notification-" + medium.toString().toLowerCase() + "-")));
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		for (ExecutorService executor : workers.values()) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Claims and sends pending notifications, up to notification.execute-limit
+	 * per run.
+	 */
+	@Scheduled(fixedDelayString = "${notification.delay}")
+	public void dispatch() {
+		long startTime = System.nanoTime();
+		int max = StringUtil.convertToInt(limit, 20);
+		int batch = StringUtil.convertToInt(batchSize, 20);
+		long timeout = StringUtil.convertToLong(claimTimeout, 600000L);
+
+		int released = notificationDao.releaseStaleClaims(new Date(System.currentTimeMillis() - timeout));
+		if (released > 0) {
+			_log.warn("Released " + released + " notifications with expired claims.");
+		}
+
+		int dispatched = 0;
+		while (dispatched < max) {
+			String claimId = UUID.randomUUID().toString();
+			List<Notification> notifications = notificationDao
+					.claimNewNotifications(claimId, Math.min(batch, max - dispatched));
+			if (notifications == null || notifications.isEmpty())
+				break;
+			dispatched += notifications.size();
+			_log.info("Claimed " + notifications.size() + " notifications [" + claimId + "]");
+			List<Notification> results = sendAll(notifications);
+			notificationDao.completeNotifications(claimId, results);
+			if (MetricsUtil.isEnabled())
+				countResults(results);
+		}
+		MetricsUtil.time("notification.dispatch", startTime);
+	}
+
+	/**
+	 * Counts the sent, retried and failed notifications.
+	 */
+	private void countResults(List<Notification> results) {
+		for (Notification n : results) {
+			if (Status.PROCESSED.toString().equals(n.getStatus()))
+				MetricsUtil.counter("notification.sent." + n.getMedium()).increment();
+			else if (Status.NEW.toString().equals(n.getStatus()))
+				MetricsUtil.counter("notification.retried." + n.getMedium()).increment();
+			else
+				MetricsUtil.counter("notification.failed." + n.getMedium()).increment();
+		}
+	}
+
+	/**
+	 * Sends all notifications using the worker pool of their medium and
+	 * waits for all of them to finish.
+	 *
+	 * @param notifications
+	 * @return the notifications with their updated status
+	 */
+	protected List<Notification> sendAll(List<Notification> notifications) {
+		List<Future<Notification>> futures = new ArrayList<Future<Notification>>();
+		List<Notification> results = new ArrayList<Notification>();
+		for (final Notification n : notifications) {
+			ExecutorService executor = workers.get(n.getMedium());
+			if (executor == null) {
+				fail(n, "Unsupported notification medium [" + n.getMedium() + "]", false);
+				results.add(n);
+				continue;
+			}
+			futures.add(executor.submit(new Callable<Notification>() {
+				@Override
+				public Notification call() {
+					return send(n);
+				}
+			}));
+		}
+		for (Future<Notification> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				_log.error("Interrupted while waiting for notifications to be sent.", e);
+			} catch (ExecutionException e) {
+				_log.error("Error encountered while sending notification", e);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Sends a single notification and sets its resulting status.
+	 *
+	 * @param n
+	 * @return
+	 */
+	protected Notification send(Notification n) {
+		long startTime = System.nanoTime();
+		_log.info("Processing notification for user "
+				+ (n.getRecipientUser() == null ? null : n.getRecipientUser().getId())
+				+ " with medium " + n.getMedium());
+		try {
+			if (Medium.EMAIL.toString().equals(n.getMedium())) {
+				if (n.getSubject() == null)
+					n.setSubject("");
+				File[] attachments = null;
+				if (!StringUtil.isEmpty(n.getAttachment())) {
+					attachments = new File[] { new File(n.getAttachment()) };
+				}
+				emailHandler.sendEmail(
+						n.getRecipientReference().split(","),
+						new String[] { n.getEmailCC() },
+						new String[] {}, n.getEmailReplyTo(),
+						n.getSubject(), n.getMessage(), attachments);
+				n.setStatus(Status.PROCESSED.toString());
+				n.setRemarks("Email successfully sent to "
+						+ n.getRecipientReference() + ".\n");
+			} else {
+				// no SMS gateway is available yet
+				fail(n, "No handler available for medium [" + n.getMedium() + "]", false);
+			}
+		} catch (Exception e) {
+			_log.error("Error encountered while sending notification", e);
+			fail(n, e.getMessage(), true);
+		}
+		if (MetricsUtil.isEnabled())
+			MetricsUtil.time("notification.send." + n.getMedium(), startTime);
+		return n;
+	}
+
+	/**
+	 * Marks the notification as failed. If retry is allowed and the maximum
+	 * number of retries is not yet reached, the notification is scheduled
+	 * for another attempt instead.
+	 *
+	 * @param n
+	 * @param message
+	 * @param retry
+	 */
+	protected void fail(Notification n, String message, boolean retry) {
+		int attempts = (n.getRetryCount() == null ? 0 : n.getRetryCount()) + 1;
+		n.setRetryCount(attempts);
+		String remarks = StringUtil.isEmpty(n.getRemarks()) ? "" + message
+				: n.getRemarks() + "\n" + message;
+		if (remarks.length() > 3999)
+			remarks = remarks.substring(0, 3999);
+		n.setRemarks(remarks);
+		if (retry && attempts <= StringUtil.convertToInt(maxRetries, 3)) {
+			long backoff = StringUtil.convertToLong(retryBackoff, 60000L) << (attempts - 1);
+			n.setNextAttempt(new Date(System.currentTimeMillis() + backoff));
+			n.setStatus(Status.NEW.toString());
+		} else {
+			n.setStatus(Status.FAILED.toString());
+		}
+	}
+}
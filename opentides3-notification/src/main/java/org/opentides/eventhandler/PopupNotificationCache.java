@@ -0,0 +1,193 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.eventhandler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentides.bean.Notification;
+import org.opentides.bean.Notification.Medium;
+import org.opentides.bean.Notification.Status;
+import org.opentides.dao.NotificationDao;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-user cache of the unread popup count and the most recent popup
+ * notifications used to render the notification badge.
+ *
+ * Entries are loaded from the database on first access and kept up to
+ * date when notifications are created or cleared. Entries expire after
+ * notification.cache.ttl milliseconds so that changes made by other
+ * nodes are eventually picked up, and at most notification.cache.max-users
+ * entries are kept (least recently used are dropped).
+ *
+ */
+@Component(value="popupNotificationCache")
+public class PopupNotificationCache {
+
+	/** Number of recent popups kept, same as findMostRecentPopup. */
+	private static final int RECENT_SIZE = 10;
+
+	@Value("#{notificationSettings['notification.cache.ttl']}")
+	private String ttl;
+
+	@Value("#{notificationSettings['notification.cache.max-users']}")
+	private String maxUsers;
+
+	@Autowired
+	private NotificationDao notificationDao;
+
+	private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			return size() > StringUtil.convertToInt(maxUsers, 10000);
+		}
+	};
+
+	/**
+	 * Cached state of a single user.
+	 */
+	private static class Entry {
+		private final long loadedAt = System.currentTimeMillis();
+		private final LinkedList<Notification> recent = new LinkedList<Notification>();
+		private final Set<Long> counted = new HashSet<Long>();
+		private long unread;
+	}
+
+	/**
+	 * Returns the number of new popup notifications of the user.
+	 *
+	 * @param userId
+	 * @return
+	 */
+	public long countNewPopup(long userId) {
+		Entry entry = getEntry(userId);
+		synchronized (entry) {
+			return entry.unread;
+		}
+	}
+
+	/**
+	 * Returns the most recent popup notifications of the user.
+	 *
+	 * @param userId
+	 * @return
+	 */
+	public List<Notification> findMostRecentPopup(long userId) {
+		Entry entry = getEntry(userId);
+		synchronized (entry) {
+			return new ArrayList<Notification>(entry.recent);
+		}
+	}
+
+	/**
+	 * Adds a newly created popup notification to the cache of its
+	 * recipient. Calling this more than once for the same notification
+	 * has no further effect.
+	 *
+	 * @param n
+	 */
+	public void onCreate(Notification n) {
+		if (n.getRecipientUser() == null || n.getRecipientUser().getId() == null
+				|| !Medium.POPUP.toString().equals(n.getMedium()))
+			return;
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(n.getRecipientUser().getId());
+		}
+		if (entry == null)
+			return;
+		synchronized (entry) {
+			if (n.getId() != null && !entry.counted.add(n.getId()))
+				return;
+			entry.recent.addFirst(n);
+			if (entry.recent.size() > RECENT_SIZE)
+				entry.recent.removeLast();
+			if (Status.NEW.toString().equals(n.getStatus()))
+				entry.unread++;
+		}
+	}
+
+	/**
+	 * Marks all popup notifications of the user as read.
+	 *
+	 * @param userId
+	 */
+	public void onClear(long userId) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(userId);
+		}
+		if (entry != null) {
+			synchronized (entry) {
+				entry.unread = 0;
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached state of the user, forcing a reload on next access.
+	 *
+	 * @param userId
+	 */
+	public void evict(long userId) {
+		synchronized (entries) {
+			entries.remove(userId);
+		}
+	}
+
+	/**
+	 * Returns the cached entry of the user, loading it if absent or expired.
+	 */
+	private Entry getEntry(long userId) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(userId);
+		}
+		if (entry != null && System.currentTimeMillis() - entry.loadedAt
+				<= StringUtil.convertToLong(ttl, 60000L)) {
+			return entry;
+		}
+		Entry loaded = new Entry();
+		for (Notification n : notificationDao.findMostRecentPopup(userId)) {
+			loaded.recent.add(n);
+			if (n.getId() != null)
+				loaded.counted.add(n.getId());
+		}
+		loaded.unread = notificationDao.countNewPopup(userId);
+		synchronized (entries) {
+			Entry current = entries.get(userId);
+			if (current != null && current != entry) {
+				// loaded concurrently by another thread
+				return current;
+			}
+			entries.put(userId, loaded);
+		}
+		return loaded;
+	}
+}
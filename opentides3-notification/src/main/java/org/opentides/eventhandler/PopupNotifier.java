@@ -0,0 +1,294 @@
+/*
+   Licensed to the Apache Software Foundation (ASF) under one
+   or more contributor license agreements.  See the NOTICE file
+   distributed with this work for additional information
+   regarding copyright ownership.  The ASF licenses this file
+   to you under the Apache License, Version 2.0 (the
+   "License"); you may not use this file except in compliance
+   with the License.  You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing,
+   software distributed under the License is distributed on an
+   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+   KIND, either express or implied.  See the License for the
+   specific language governing permissions and limitations
+   under the License.
+ */
+package org.opentides.eventhandler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletContext;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.log4j.Logger;
+import org.atmosphere.cpr.Broadcaster;
+import org.atmosphere.cpr.BroadcasterFactory;
+import org.atmosphere.util.ServletContextFactory;
+import org.ocpsoft.prettytime.PrettyTime;
+import org.opentides.bean.JSONNotification;
+import org.opentides.bean.Notification;
+import org.opentides.util.StringUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Pushes popup notifications to the browser through Atmosphere.
+ *
+ * Pushes to the same user are coalesced within a short window
+ * (notification.popup.coalesce-window in milliseconds), so a burst of
+ * notifications results in a single message. New notifications are sent
+ * as a delta (mode "delta") containing only the new notifications and
+ * the unread counter kept by {@link PopupNotificationCache}. A full
+ * refresh (mode "alert") with the most recent popups is only sent when
+ * explicitly requested.
+ *
+ */
+@Component(value="popupNotifier")
+public class PopupNotifier {
+
+	private static Logger _log = Logger.getLogger(PopupNotifier.class);
+
+	public static final String MODE_ALERT = "alert";
+
+	public static final String MODE_DELTA = "delta";
+
+	@Value("#{notificationSettings['notification.popup.coalesce-window']}")
+	private String coalesceWindow;
+
+	@Autowired
+	private PopupNotificationCache popupNotificationCache;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private static final ThreadLocal<PrettyTime> prettyTime = new ThreadLocal<PrettyTime>() {
+		@Override
+		protected PrettyTime initialValue() {
+			return new PrettyTime();
+		}
+	};
+
+	private final ConcurrentMap<String, PendingPush> pending = new ConcurrentHashMap<String, PendingPush>();
+
+	private final AtomicLong notificationsReceived = new AtomicLong();
+
+	private final AtomicLong messagesCoalesced = new AtomicLong();
+
+	private final AtomicLong messagesSent = new AtomicLong();
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Notifications waiting to be pushed to a single user.
+	 */
+	private static class PendingPush {
+		private final List<Notification> notifications = new ArrayList<Notification>();
+		private boolean refresh;
+		private boolean flushed;
+		private int timezoneDiff;
+	}
+
+	@PostConstruct
+	public void init() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new CustomizableThreadFactory("notification-popup-"));
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (scheduler != null)
+			scheduler.shutdown();
+	}
+
+	/**
+	 * Queues the given popup notification to be pushed to its recipient.
+	 *
+	 * @param notification
+	 */
+	public void push(Notification notification) {
+		if (notification.getRecipientUser() == null)
+			return;
+		String userId = "" + notification.getRecipientUser().getId();
+		notificationsReceived.incrementAndGet();
+		popupNotificationCache.onCreate(notification);
+		while (true) {
+			PendingPush push = enqueue(userId, 0);
+			synchronized (push) {
+				if (!push.flushed) {
+					push.notifications.add(notification);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues a full refresh of the popup notifications of the given user.
+	 *
+	 * @param userId
+	 * @param timezoneDiff
+	 */
+	public void refresh(String userId, int timezoneDiff) {
+		notificationsReceived.incrementAndGet();
+		while (true) {
+			PendingPush push = enqueue(userId, timezoneDiff);
+			synchronized (push) {
+				if (!push.flushed) {
+					push.refresh = true;
+					push.timezoneDiff = timezoneDiff;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the message for the most recent popup notifications
+	 * of the given user.
+	 *
+	 * @param userId
+	 * @param timezoneDiff
+	 * @param mode
+	 * @return
+	 */
+	public Map<String, Object> buildNotification(Long userId,
+			int timezoneDiff, String mode) {
+		List<Notification> notifs = popupNotificationCache.findMostRecentPopup(userId);
+		long count = popupNotificationCache.countNewPopup(userId);
+		return buildMessage(notifs, count, timezoneDiff, mode);
+	}
+
+	/**
+	 * Registers the user in the pending map and schedules a flush if
+	 * none is scheduled yet.
+	 */
+	private PendingPush enqueue(final String userId, int timezoneDiff) {
+		PendingPush push = new PendingPush();
+		push.timezoneDiff = timezoneDiff;
+		PendingPush existing = pending.putIfAbsent(userId, push);
+		if (existing != null) {
+			messagesCoalesced.incrementAndGet();
+			return existing;
+		}
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush(userId);
+			}
+		}, StringUtil.convertToLong(coalesceWindow, 500L), TimeUnit.MILLISECONDS);
+		return push;
+	}
+
+	/**
+	 * Sends all pending notifications of the given user as one message.
+	 *
+	 * @param userId
+	 */
+	protected void flush(String userId) {
+		PendingPush push = pending.remove(userId);
+		if (push == null)
+			return;
+		try {
+			Long id = new Long(userId);
+			Map<String, Object> message;
+			synchronized (push) {
+				push.flushed = true;
+				if (push.refresh) {
+					message = buildNotification(id, push.timezoneDiff, MODE_ALERT);
+				} else {
+					message = buildMessage(push.notifications,
+							popupNotificationCache.countNewPopup(id),
+							push.timezoneDiff, MODE_DELTA);
+				}
+			}
+			Broadcaster b = lookupBroadcaster(userId);
+			if (b != null) {
+				b.broadcast(mapper.writeValueAsString(message));
+				messagesSent.incrementAndGet();
+			}
+		} catch (NumberFormatException e) {
+			_log.error("Invalid user id [" + userId + "] for popup notification.", e);
+		} catch (JsonProcessingException e) {
+			_log.error("Failed to convert to JSON.", e);
+		} catch (Exception e) {
+			_log.error("Failed to push popup notification to user " + userId, e);
+		}
+	}
+
+	private Map<String, Object> buildMessage(List<Notification> notifs,
+			long count, int timezoneDiff, String mode) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		result.put("notifyCount", count);
+		List<JSONNotification> notifications = new ArrayList<JSONNotification>();
+		PrettyTime pt = prettyTime.get();
+		for (Notification n : notifs) {
+			JSONNotification jn = new JSONNotification();
+			// shift the date instead of the reference to reuse PrettyTime
+			Date when = n.getNotifyDate() == null ? new Date() : n.getNotifyDate();
+			jn.setTimeWhen(pt.format(DateUtils.addHours(when, -timezoneDiff)));
+			if (n.getEntityClass() != null)
+				jn.setEntityClass(n.getEntityClass().getSimpleName());
+			jn.setEntityId(n.getEntityId());
+			jn.setMedium(n.getMedium());
+			jn.setMessage(n.getMessage());
+			notifications.add(jn);
+		}
+		result.put("notifications", notifications);
+		result.put("mode", mode);
+		return result;
+	}
+
+	/**
+	 * Returns the broadcaster registered for the user, if connected.
+	 */
+	protected Broadcaster lookupBroadcaster(String userId) {
+		ServletContext servletContext = ServletContextFactory.getDefault().getServletContext();
+		if (servletContext == null)
+			return null;
+		BroadcasterFactory broadcasterFactory = (BroadcasterFactory) servletContext
+				.getAttribute("org.atmosphere.cpr.BroadcasterFactory");
+		if (broadcasterFactory == null)
+			return null;
+		return broadcasterFactory.lookup(userId);
+	}
+
+	/**
+	 * @return number of push requests received
+	 */
+	public long getNotificationsReceived() {
+		return notificationsReceived.get();
+	}
+
+	/**
+	 * @return number of push requests merged into an already pending message
+	 */
+	public long getMessagesCoalesced() {
+		return messagesCoalesced.get();
+	}
+
+	/**
+	 * @return number of messages actually broadcasted
+	 */
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+}
@@ -70,6 +70,15 @@ public interface NotificationService extends BaseCrudService<Notification>{
 	 */
 	public void notify(String userId, int timezoneDiff);
 
+	/**
+	 * Invoke this method to push a newly created popup notification to 
+	 * its recipient via atmosphere. Only the new notification and the 
+	 * updated unread count are sent.
+	 * 
+	 * @param notification
+	 */
+	public void notify(Notification notification);
+
 	/**
 	 * Returns the total number of popup notification that is new and 
 	 * not yet seen by user.
@@ -17,41 +17,27 @@
 
 package org.opentides.service.impl;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import javax.servlet.ServletContext;
-import javax.transaction.Transactional;
-
-import org.apache.commons.lang.time.DateUtils;
 import org.apache.log4j.Logger;
 import org.apache.velocity.app.VelocityEngine;
-import org.atmosphere.cpr.Broadcaster;
-import org.atmosphere.cpr.BroadcasterFactory;
-import org.atmosphere.util.ServletContextFactory;
-import org.ocpsoft.prettytime.PrettyTime;
 import org.opentides.bean.BaseEntity;
 import org.opentides.bean.Event;
-import org.opentides.bean.JSONNotification;
 import org.opentides.bean.Notification;
-import org.opentides.bean.Notification.Status;
+import org.opentides.bean.Notification.Medium;
 import org.opentides.dao.NotificationDao;
-import org.opentides.eventhandler.EmailHandler;
+import org.opentides.eventhandler.NotificationDispatcher;
+import org.opentides.eventhandler.PopupNotificationCache;
+import org.opentides.eventhandler.PopupNotifier;
 import org.opentides.service.MailingService;
-import org.opentides.util.StringUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author allantan
@@ -68,9 +54,6 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 	@Value("#{notificationSettings['mail.default-template']}")
 	private String mailVmTemplate;
 
-	@Value("#{notificationSettings['notification.execute-limit']}")
-	private String limit;
-
 	@Autowired
 	protected MessageSource messageSource;
 
@@ -81,7 +64,13 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 	private NotificationDao notificationDao;
 
 	@Autowired
-	private EmailHandler emailHandler;
+	private NotificationDispatcher notificationDispatcher;
+
+	@Autowired
+	private PopupNotifier popupNotifier;
+
+	@Autowired
+	private PopupNotificationCache popupNotificationCache;
 
 	@Autowired
 	private MailingService mailingService;
@@ -93,99 +82,11 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 	// velocityEngine, "com/dns/registration-confirmation.vm", "UTF-8", model);
 	// }
 
-	@Scheduled(fixedDelayString = "${notification.delay}")
-	@Transactional
+	/**
+	 * Sends pending notifications through the {@link NotificationDispatcher}.
+	 */
 	public void executeNotification() {
-		int max = StringUtil.convertToInt(limit, 20);
-		for (int i = 0; i < max; i++) {
-			List<Notification> notifications = notificationDao
-					.findNewNotifications(1);
-			if (notifications == null || notifications.isEmpty())
-				break;
-			Notification n = notifications.get(0);
-
-			_log.info("Processing notification for user "
-					+ n.getRecipientUser().getId() + " with medium "
-					+ n.getMedium());
-
-			Status status = null;
-			boolean processed = false;
-			StringBuffer remarks = new StringBuffer();
-			try {
-				if ("EMAIL".equals(n.getMedium())) {
-					n.setStatus(Status.IN_PROCESS.toString());
-					notificationDao.saveEntityModel(n);
-					// send email
-					if (n.getSubject() == null)
-						n.setSubject("");
-					if (StringUtil.isEmpty(n.getAttachment())) {
-						emailHandler.sendEmail(
-								n.getRecipientReference().split(","),
-								new String[] { n.getEmailCC() },
-								new String[] {}, n.getEmailReplyTo(),
-								n.getSubject(), n.getMessage());
-					} else {
-						// send with attachment
-						File attachment = new File(n.getAttachment());
-						emailHandler.sendEmail(
-								n.getRecipientReference().split(","),
-								new String[] { n.getEmailCC() },
-								new String[] {}, n.getEmailReplyTo(),
-								n.getSubject(), n.getMessage(),
-								new File[] { attachment });
-					}
-
-					status = Status.PROCESSED;
-					processed = true;
-					remarks.append("Email successfully sent to "
-							+ n.getRecipientReference() + ".\n");
-				}
-				if ("SMS".equals(n.getMedium())) {
-					n.setStatus(Status.IN_PROCESS.toString());
-					notificationDao.saveEntityModel(n);
-					// send SMS
-					// processed = smsService.send(n.getRecipientReference(),
-					// n.getMessage());
-					// if(processed) {
-					// status = Status.PROCESSED;
-					// remarks.append("SMS sent to " + n.getRecipientReference()
-					// + "\n");
-					// } else {
-					// status = Status.FAILED;
-					// }
-				}
-
-				// Enable realtime notifs for popups
-				if ("POPUP".equals(n.getMedium())) {
-					_log.info("Processing POPUP notification ... Setting STATUS to IN_PROCESS");
-					n.setStatus(Status.IN_PROCESS.toString());
-					notificationDao.saveEntityModel(n);
-
-					long recipientUserId = n.getRecipientUser().getId();
-					notify("" + recipientUserId);
-
-					status = Status.PROCESSED;
-					processed = true;
-				}
-
-				if (processed) {
-					_log.info("Processing POPUP notification ... Setting STATUS to PROCESSED");
-					if (status != null)
-						n.setStatus(status.toString());
-					n.setRemarks(remarks.toString());
-					notificationDao.saveEntityModel(n);
-				}
-			} catch (Exception e) {
-				_log.error("Error encountered while sending notification", e);
-				remarks.append(e.getMessage());
-				if (remarks.length() > 3999)
-					n.setRemarks(remarks.substring(0, 3999));
-				else
-					n.setRemarks(remarks.toString() + "\n");
-				n.setStatus(Status.FAILED.toString());
-				notificationDao.saveEntityModel(n);
-			}
-		}
+		notificationDispatcher.dispatch();
 	}
 
 	public void notify(String userId) {
@@ -193,25 +94,13 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 	}
 
 	public void notify(String userId, int timezoneDiff) {
-		_log.info("Trying to notify user with userId " + userId
-				+ ". Retrieving Broadcaster...");
-		
-    	ServletContext servletContext = ServletContextFactory.getDefault().getServletContext();
-    	BroadcasterFactory broadcasterFactory = (BroadcasterFactory) servletContext.getAttribute("org.atmosphere.cpr.BroadcasterFactory");
-    	Broadcaster b = broadcasterFactory.lookup(userId);
-		if (b != null) {
-			String jsonString;
-			try {
-	    		ObjectMapper mapper = new ObjectMapper();
-				jsonString = mapper.writeValueAsString(buildNotification(
-				new Long(userId), timezoneDiff, "alert"));
-				b.broadcast(jsonString);
-			} catch (NumberFormatException e) {
-				_log.error("Failed to convert to JSON.", e);
-			} catch (JsonProcessingException e) {
-				_log.error("Failed to convert to JSON.", e);
-			}
-		}
+		_log.debug("Queueing popup refresh for user with userId " + userId);
+		popupNotifier.refresh(userId, timezoneDiff);
+	}
+
+	@Override
+	public void notify(Notification notification) {
+		popupNotifier.push(notification);
 	}
 
 	@Override
@@ -229,14 +118,44 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 		// save as new notification
 	}
 
+	/**
+	 * Keeps the popup cache of the recipient in sync with the saved
+	 * notification. New popup notifications are pushed to the recipient
+	 * as a delta once the transaction is committed.
+	 */
+	@Override
+	public void save(final Notification notification, boolean bypassSecurity) {
+		boolean isNew = notification.getIsNew();
+		super.save(notification, bypassSecurity);
+		if (notification.getRecipientUser() == null
+				|| notification.getRecipientUser().getId() == null)
+			return;
+		if (isNew && Medium.POPUP.toString().equals(notification.getMedium())) {
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						NotificationServiceImpl.this.notify(notification);
+					}
+				});
+			} else {
+				notify(notification);
+			}
+		} else if (!isNew) {
+			// status or content may have changed, reload on next access
+			popupNotificationCache.evict(notification.getRecipientUser().getId());
+		}
+	}
+
 	@Override
 	public long countNewPopup(long userId) {
-		return notificationDao.countNewPopup(userId);
+		return popupNotificationCache.countNewPopup(userId);
 	}
 
 	@Override
 	public void clearPopup(long userId) {
 		notificationDao.clearPopup(userId);
+		popupNotificationCache.onClear(userId);
 	}
 
 	@Override
@@ -252,34 +171,12 @@ public class NotificationServiceImpl extends BaseCrudServiceImpl<Notification>
 
 	private Map<String, Object> buildNotification(Long userId,
 			int timezoneDiff, String mode) {
-		// Let's manually build the json
-		List<Notification> notifs = null;
-		long count = 0;
-		notifs = this.findMostRecentPopup(userId);
-		count = this.countNewPopup(userId);
-		Map<String, Object> result = new HashMap<String, Object>();
-
-		result.put("notifyCount", count);
-		List<JSONNotification> notifications = new ArrayList<JSONNotification>();
-		Date adjusted = DateUtils.addHours(new Date(), timezoneDiff);
-		PrettyTime pt = new PrettyTime(adjusted);
-		for (Notification n : notifs) {
-			JSONNotification jn = new JSONNotification();
-			jn.setTimeWhen(pt.format(n.getNotifyDate()));
-			jn.setEntityClass(n.getEntityClass().getSimpleName());
-			jn.setEntityId(n.getEntityId());
-			jn.setMedium(n.getMedium());
-			jn.setMessage(n.getMessage());
-			notifications.add(jn);
-		}
-		result.put("notifications", notifications);
-		result.put("mode", mode);
-		return result;
+		return popupNotifier.buildNotification(userId, timezoneDiff, mode);
 	}
 
 	@Override
 	public List<Notification> findMostRecentPopup(long userId) {
-		return notificationDao.findMostRecentPopup(userId);
+		return popupNotificationCache.findMostRecentPopup(userId);
 	}
 
 }
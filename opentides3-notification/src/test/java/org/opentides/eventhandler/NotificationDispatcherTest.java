@@ -0,0 +1,107 @@
+package org.opentides.eventhandler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.opentides.bean.Notification;
+import org.opentides.dao.NotificationDao;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class NotificationDispatcherTest {
+
+	@InjectMocks
+	private final NotificationDispatcher dispatcher = new NotificationDispatcher();
+
+	@Mock
+	private NotificationDao notificationDao;
+
+	@Mock
+	private EmailHandler emailHandler;
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(dispatcher, "limit", "5");
+		ReflectionTestUtils.setField(dispatcher, "batchSize", "2");
+		ReflectionTestUtils.setField(dispatcher, "maxRetries", "2");
+		ReflectionTestUtils.setField(dispatcher, "retryBackoff", "1000");
+		dispatcher.init();
+	}
+
+	@After
+	public void destroy() {
+		dispatcher.destroy();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDispatchInBatches() {
+		Notification n1 = createEmail(1L);
+		Notification n2 = createEmail(2L);
+		Notification n3 = createEmail(3L);
+		Mockito.when(notificationDao.claimNewNotifications(Matchers.anyString(), Matchers.eq(2)))
+				.thenReturn(Arrays.asList(n1, n2), Arrays.asList(n3),
+						Collections.<Notification>emptyList());
+
+		dispatcher.dispatch();
+
+		Mockito.verify(notificationDao, Mockito.times(2)).completeNotifications(
+				Matchers.anyString(), Matchers.anyList());
+		Mockito.verify(emailHandler, Mockito.times(3)).sendEmail(
+				Matchers.any(String[].class), Matchers.any(String[].class),
+				Matchers.any(String[].class), Matchers.anyString(),
+				Matchers.anyString(), Matchers.anyString(), (File[]) Matchers.isNull());
+		Assert.assertEquals("PROCESSED", n1.getStatus());
+		Assert.assertEquals("PROCESSED", n2.getStatus());
+		Assert.assertEquals("PROCESSED", n3.getStatus());
+	}
+
+	@Test
+	public void testSendFailureIsRetriedWithBackoff() {
+		Notification n = createEmail(1L);
+		n.setRecipientReference(null);
+		List<Notification> results = dispatcher.sendAll(new ArrayList<Notification>(Arrays.asList(n)));
+
+		Assert.assertEquals(1, results.size());
+		Assert.assertEquals("NEW", n.getStatus());
+		Assert.assertEquals(Integer.valueOf(1), n.getRetryCount());
+		Assert.assertTrue(n.getNextAttempt().after(new Date()));
+
+		dispatcher.sendAll(Arrays.asList(n));
+		Assert.assertEquals("NEW", n.getStatus());
+		dispatcher.sendAll(Arrays.asList(n));
+		Assert.assertEquals("FAILED", n.getStatus());
+		Assert.assertEquals(Integer.valueOf(3), n.getRetryCount());
+	}
+
+	@Test
+	public void testUnsupportedMediumFails() {
+		Notification n = createEmail(1L);
+		n.setMedium("FAX");
+		dispatcher.sendAll(Arrays.asList(n));
+		Assert.assertEquals("FAILED", n.getStatus());
+	}
+
+	private Notification createEmail(Long id) {
+		Notification n = new Notification();
+		n.setId(id);
+		n.setMedium("EMAIL");
+		n.setStatus("IN_PROCESS");
+		n.setRecipientReference("test" + id + "@example.com");
+		n.setMessage("Message " + id);
+		return n;
+	}
+}
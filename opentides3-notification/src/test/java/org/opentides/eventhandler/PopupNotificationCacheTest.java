@@ -0,0 +1,87 @@
+package org.opentides.eventhandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.opentides.bean.Notification;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.dao.NotificationDao;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PopupNotificationCacheTest {
+
+	@InjectMocks
+	private final PopupNotificationCache cache = new PopupNotificationCache();
+
+	@Mock
+	private NotificationDao notificationDao;
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(cache, "ttl", "600000");
+		Mockito.when(notificationDao.countNewPopup(5L)).thenReturn(2L);
+		Mockito.when(notificationDao.findMostRecentPopup(5L)).thenReturn(
+				new ArrayList<Notification>(Arrays.asList(createPopup(1L, 5L), createPopup(2L, 5L))));
+	}
+
+	@Test
+	public void testCountIsLoadedOnceAndMaintained() {
+		Assert.assertEquals(2L, cache.countNewPopup(5L));
+		cache.onCreate(createPopup(3L, 5L));
+		// same notification again is ignored
+		cache.onCreate(createPopup(3L, 5L));
+		Assert.assertEquals(3L, cache.countNewPopup(5L));
+		Assert.assertEquals(3, cache.findMostRecentPopup(5L).size());
+		Assert.assertEquals(Long.valueOf(3L), cache.findMostRecentPopup(5L).get(0).getId());
+		Mockito.verify(notificationDao, Mockito.times(1)).countNewPopup(5L);
+	}
+
+	@Test
+	public void testRecentListIsBounded() {
+		cache.countNewPopup(5L);
+		for (long id = 10; id < 30; id++) {
+			cache.onCreate(createPopup(id, 5L));
+		}
+		Assert.assertEquals(10, cache.findMostRecentPopup(5L).size());
+		Assert.assertEquals(22L, cache.countNewPopup(5L));
+	}
+
+	@Test
+	public void testClearAndEvict() {
+		cache.countNewPopup(5L);
+		cache.onClear(5L);
+		Assert.assertEquals(0L, cache.countNewPopup(5L));
+		cache.evict(5L);
+		Assert.assertEquals(2L, cache.countNewPopup(5L));
+		Mockito.verify(notificationDao, Mockito.times(2)).countNewPopup(5L);
+	}
+
+	@Test
+	public void testExpiredEntryIsReloaded() {
+		ReflectionTestUtils.setField(cache, "ttl", "-1");
+		cache.countNewPopup(5L);
+		cache.countNewPopup(5L);
+		Mockito.verify(notificationDao, Mockito.times(2)).countNewPopup(5L);
+	}
+
+	private Notification createPopup(Long id, Long userId) {
+		BaseUser user = new BaseUser();
+		user.setId(userId);
+		Notification n = new Notification();
+		n.setId(id);
+		n.setRecipientUser(user);
+		n.setMedium("POPUP");
+		n.setStatus("NEW");
+		n.setNotifyDate(new Date());
+		return n;
+	}
+}
@@ -0,0 +1,96 @@
+package org.opentides.eventhandler;
+
+import java.util.Date;
+
+import org.atmosphere.cpr.Broadcaster;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.opentides.bean.Notification;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.dao.NotificationDao;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PopupNotifierTest {
+
+	@InjectMocks
+	private final PopupNotifier popupNotifier = new PopupNotifier() {
+		@Override
+		protected Broadcaster lookupBroadcaster(String userId) {
+			return broadcaster;
+		}
+	};
+
+	@Mock
+	private NotificationDao notificationDao;
+
+	@Mock
+	private Broadcaster broadcaster;
+
+	private final PopupNotificationCache popupNotificationCache = new PopupNotificationCache();
+
+	@Before
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(popupNotificationCache, "notificationDao", notificationDao);
+		ReflectionTestUtils.setField(popupNotifier, "popupNotificationCache", popupNotificationCache);
+		// flush is triggered manually by the test
+		ReflectionTestUtils.setField(popupNotifier, "coalesceWindow", "600000");
+		popupNotifier.init();
+	}
+
+	@After
+	public void destroy() {
+		popupNotifier.destroy();
+	}
+
+	@Test
+	public void testPushIsCoalescedIntoSingleDelta() {
+		Mockito.when(notificationDao.countNewPopup(7L)).thenReturn(3L);
+		for (int i = 0; i < 3; i++) {
+			popupNotifier.push(createPopup(7L, "Message " + i));
+		}
+		popupNotifier.flush("7");
+
+		ArgumentCaptor<Object> message = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(broadcaster, Mockito.times(1)).broadcast(message.capture());
+		String json = (String) message.getValue();
+		Assert.assertTrue(json.contains("\"mode\":\"delta\""));
+		Assert.assertTrue(json.contains("\"notifyCount\":3"));
+		Assert.assertTrue(json.contains("Message 2"));
+		Assert.assertEquals(3, popupNotifier.getNotificationsReceived());
+		Assert.assertEquals(2, popupNotifier.getMessagesCoalesced());
+		Assert.assertEquals(1, popupNotifier.getMessagesSent());
+
+		// counter is maintained without querying again
+		popupNotifier.push(createPopup(7L, "Message 3"));
+		popupNotifier.flush("7");
+		Mockito.verify(broadcaster, Mockito.times(2)).broadcast(message.capture());
+		Assert.assertTrue(((String) message.getValue()).contains("\"notifyCount\":4"));
+		Mockito.verify(notificationDao, Mockito.times(1)).countNewPopup(7L);
+	}
+
+	@Test
+	public void testFlushWithoutPendingDoesNothing() {
+		popupNotifier.flush("8");
+		Mockito.verifyZeroInteractions(broadcaster);
+	}
+
+	private Notification createPopup(Long userId, String message) {
+		BaseUser user = new BaseUser();
+		user.setId(userId);
+		Notification n = new Notification();
+		n.setRecipientUser(user);
+		n.setMedium("POPUP");
+		n.setStatus("NEW");
+		n.setMessage(message);
+		n.setNotifyDate(new Date());
+		return n;
+	}
+}
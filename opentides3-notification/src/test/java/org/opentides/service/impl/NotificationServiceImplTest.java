@@ -10,7 +10,15 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.opentides.bean.Event;
+import org.opentides.bean.Notification;
+import org.opentides.bean.user.BaseUser;
+import org.opentides.dao.NotificationDao;
+import org.opentides.eventhandler.PopupNotificationCache;
+import org.opentides.eventhandler.PopupNotifier;
 import org.springframework.context.MessageSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class NotificationServiceImplTest {
 	
@@ -20,9 +28,47 @@ public class NotificationServiceImplTest {
 	@Mock
 	private MessageSource messageSource;
 
+	@Mock
+	private NotificationDao notificationDao;
+
+	@Mock
+	private PopupNotifier popupNotifier;
+
+	@Mock
+	private PopupNotificationCache popupNotificationCache;
+
 	@Before
 	public void init() {
 		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(notificationService, "dao", notificationDao);
+	}
+
+	@Test
+	public void testSavePushesNewPopup() {
+		Notification popup = createNotification("POPUP");
+		notificationService.save(popup, true);
+		Mockito.verify(popupNotifier).push(popup);
+
+		Notification email = createNotification("EMAIL");
+		notificationService.save(email, true);
+		// only the popup is pushed
+		Mockito.verify(popupNotifier, Mockito.times(1)).push(Mockito.any(Notification.class));
+	}
+
+	@Test
+	public void testSavePushesPopupAfterCommit() {
+		Notification popup = createNotification("POPUP");
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			notificationService.save(popup, true);
+			Mockito.verify(popupNotifier, Mockito.never()).push(popup);
+			for (TransactionSynchronization sync : TransactionSynchronizationManager.getSynchronizations()) {
+				sync.afterCommit();
+			}
+			Mockito.verify(popupNotifier).push(popup);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
 	}
 
 	@Test
@@ -44,4 +90,14 @@ public class NotificationServiceImplTest {
 		Mockito.verify(messageSource).getMessage(messageCode, params,
 				Locale.getDefault());
 	}
+
+	private Notification createNotification(String medium) {
+		BaseUser user = new BaseUser();
+		user.setId(7L);
+		Notification n = new Notification();
+		n.setRecipientUser(user);
+		n.setMedium(medium);
+		n.setStatus("NEW");
+		return n;
+	}
 }